@@ -603,6 +603,10 @@ public class CompileServerManager implements ApplicationComponent{
     if (Registry.is("compiler.server.use.external.javac.process")) {
       cmdLine.addParameter("-D"+ GlobalOptions.USE_EXTERNAL_JAVAC_OPTION + "=true");
     }
+    final int parallelThreads = Registry.intValue("compiler.server.parallel.threads");
+    if (parallelThreads > 1) {
+      cmdLine.addParameter("-D"+ GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION + "=" + parallelThreads);
+    }
     cmdLine.addParameter("-D"+ GlobalOptions.HOSTNAME_OPTION + "=" + NetUtils.getLocalHostString());
     cmdLine.addParameter("-D"+ GlobalOptions.VM_EXE_PATH_OPTION + "=" + FileUtil.toSystemIndependentName(vmExecutablePath));
 
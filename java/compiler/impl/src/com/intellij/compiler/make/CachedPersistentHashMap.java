@@ -20,6 +20,7 @@ import com.intellij.util.containers.SLRUMap;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
@@ -65,6 +66,14 @@ public class CachedPersistentHashMap<Key, Value> extends PersistentHashMap<Key,
     super.doAppendData(key, appender);
   }
 
+  @Override
+  protected void doFlushBatch(@NotNull WriteBatch batch) throws IOException {
+    for (Key key : batch.getKeys()) {
+      myCache.remove(key);
+    }
+    super.doFlushBatch(batch);
+  }
+
   @Nullable
   protected Value doGet(Key key) throws IOException {
     Value value = myCache.get(key);
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.completion;
+
+import com.intellij.codeInsight.completion.impl.CamelHumpMatcher;
+import com.intellij.codeInsight.lookup.*;
+import com.intellij.codeInsight.lookup.impl.LookupImpl;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class LookupInterimListTest extends LightCodeInsightFixtureTestCase {
+  private int myMaxClassified;
+
+  public void testInterimListIsCappedAndFinalListIsComplete() {
+    myFixture.configureByText("a.txt", "<caret>");
+    final int limit = Registry.intValue("completion.interim.list.size");
+    final LookupImpl lookup = (LookupImpl)LookupManager.getInstance(getProject()).createLookup(myFixture.getEditor(),
+                                                                                               LookupElement.EMPTY_ARRAY, "",
+                                                                                               new CountingArranger());
+    try {
+      // the non-matching items come first in the arranger order and must not take the place of the matching ones
+      for (int i = 0; i < limit; i++) {
+        lookup.addItem(LookupElementBuilder.create(String.format("a%05d", i)), new CamelHumpMatcher("item"));
+      }
+      final int count = 2 * limit + 1;
+      for (int i = count - 1; i >= 0; i--) {
+        lookup.addItem(LookupElementBuilder.create(String.format("item%05d", i)), new CamelHumpMatcher("item"));
+      }
+
+      lookup.setCalculating(true);
+      myMaxClassified = 0;
+      lookup.refreshUi(false);
+      assertEquals(limit, getShownItems(lookup).size());
+      assertTrue(String.valueOf(myMaxClassified), myMaxClassified <= limit);
+      for (int i = 0; i < limit; i++) {
+        assertEquals(String.format("item%05d", i), getShownItems(lookup).get(i));
+      }
+
+      lookup.setCalculating(false);
+      lookup.refreshUi(false);
+      final List<String> shown = getShownItems(lookup);
+      assertEquals(count, shown.size());
+      for (int i = 0; i < count; i++) {
+        assertEquals(String.format("item%05d", i), shown.get(i));
+      }
+    }
+    finally {
+      lookup.hide();
+    }
+  }
+
+  private static List<String> getShownItems(LookupImpl lookup) {
+    final ListModel model = lookup.getList().getModel();
+    final List<String> result = new ArrayList<String>();
+    for (int i = 0; i < model.getSize(); i++) {
+      result.add(((LookupElement)model.getElementAt(i)).getLookupString());
+    }
+    return result;
+  }
+
+  private class CountingArranger extends LookupArranger {
+    @Override
+    public Classifier<LookupElement> createRelevanceClassifier() {
+      final Classifier<LookupElement> delegate = ClassifierFactory.listClassifier();
+      return new Classifier<LookupElement>() {
+        @Override
+        public void addElement(LookupElement element) {
+          delegate.addElement(element);
+        }
+
+        @Override
+        public Iterable<List<LookupElement>> classify(List<LookupElement> source) {
+          myMaxClassified = Math.max(myMaxClassified, source.size());
+          return delegate.classify(source);
+        }
+
+        @Override
+        public void describeItems(LinkedHashMap<LookupElement, StringBuilder> map) {
+          delegate.describeItems(map);
+        }
+      };
+    }
+
+    @NotNull
+    @Override
+    public Comparator<LookupElement> getItemComparator() {
+      return new Comparator<LookupElement>() {
+        @Override
+        public int compare(LookupElement o1, LookupElement o2) {
+          return o1.getLookupString().compareTo(o2.getLookupString());
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeInsight.daemon.impl.analysis.HighlightLevelUtil;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.testFramework.LightCodeInsightTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DividerTest extends LightCodeInsightTestCase {
+  public void testRangeDeepInsideLargeFile() throws Exception {
+    StringBuilder text = new StringBuilder("class A {\n");
+    for (int i = 0; i < 500; i++) {
+      text.append("  void m").append(i).append("() { int i = ").append(i).append("; }\n");
+    }
+    text.append("}");
+    configureFromFileText("A.java", text.toString());
+    PsiFile file = getFile();
+
+    List<PsiElement> all = new ArrayList<PsiElement>();
+    TextRange fileRange = file.getTextRange();
+    divide(file, fileRange.getStartOffset(), fileRange.getEndOffset(), fileRange, all, new ArrayList<PsiElement>());
+
+    PsiMethod[] methods = ((PsiJavaFile)file).getClasses()[0].getMethods();
+    for (int i = 400; i < methods.length; i += 10) {
+      PsiMethod method = methods[i];
+      // the method starts with an empty modifier list and an empty type parameter list, both at the start offset
+      assertEquals(0, method.getModifierList().getTextLength());
+      TextRange methodRange = method.getTextRange();
+      TextRange bodyRange = method.getBody().getTextRange();
+      for (int start = methodRange.getStartOffset() - 1; start <= bodyRange.getStartOffset(); start++) {
+        checkSameAsWholeFile(file, all, start, methodRange.getEndOffset(), bodyRange);
+        checkSameAsWholeFile(file, all, start, methodRange.getEndOffset(), methodRange);
+      }
+    }
+  }
+
+  private static void checkSameAsWholeFile(PsiFile file, List<PsiElement> all, int startOffset, int endOffset, TextRange range) {
+    List<PsiElement> expectedInside = new ArrayList<PsiElement>();
+    List<PsiElement> expectedOutside = new ArrayList<PsiElement>();
+    for (PsiElement element : all) {
+      TextRange elementRange = element.getTextRange();
+      if (startOffset <= elementRange.getStartOffset() && elementRange.getEndOffset() <= endOffset) {
+        (range.containsRange(elementRange.getStartOffset(), elementRange.getEndOffset()) ? expectedInside : expectedOutside).add(element);
+      }
+    }
+
+    List<PsiElement> inside = new ArrayList<PsiElement>();
+    List<PsiElement> outside = new ArrayList<PsiElement>();
+    divide(file, startOffset, endOffset, range, inside, outside);
+    assertEquals("inside, start " + startOffset, expectedInside, inside);
+    assertEquals("outside, start " + startOffset, expectedOutside, outside);
+  }
+
+  private static void divide(PsiFile file, int startOffset, int endOffset, TextRange range, List<PsiElement> inside, List<PsiElement> outside) {
+    Divider.divideInsideAndOutside(file, startOffset, endOffset, range, inside, outside, HighlightLevelUtil.AnalysisLevel.HIGHLIGHT, false);
+  }
+}
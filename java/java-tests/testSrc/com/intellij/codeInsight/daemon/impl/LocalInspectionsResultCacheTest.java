@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInsight.daemon.LightDaemonAnalyzerTestCase;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiLiteralExpression;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LocalInspectionsResultCacheTest extends LightDaemonAnalyzerTestCase {
+  private static String ourMessage;
+
+  @Override
+  protected LocalInspectionTool[] configureLocalInspectionTools() {
+    return new LocalInspectionTool[]{new LocalInspectionTool() {
+      @Nls
+      @NotNull
+      @Override
+      public String getGroupDisplayName() {
+        return "MyGroup";
+      }
+
+      @Nls
+      @NotNull
+      @Override
+      public String getDisplayName() {
+        return "MyLiterals";
+      }
+
+      @NonNls
+      @NotNull
+      @Override
+      public String getShortName() {
+        return getDisplayName();
+      }
+
+      @NotNull
+      @Override
+      public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+        return new JavaElementVisitor() {
+          @Override
+          public void visitLiteralExpression(PsiLiteralExpression expression) {
+            holder.registerProblem(expression, ourMessage);
+          }
+        };
+      }
+    }};
+  }
+
+  public void testCachedResultsShownAndReplaced() throws Exception {
+    configureFromFileText("A.java", "class A { String s = \"a\"; }");
+    LocalInspectionsResultCache cache = LocalInspectionsResultCache.getInstance(getProject());
+
+    ourMessage = "first";
+    assertEquals(Collections.singletonList("first"), getDescriptions(doHighlighting()));
+    cache.flush();
+    assertEquals(Collections.singletonList("first"), cache.getCachedDescriptions(getFile()));
+
+    // the editor is opened anew while the inspection finds something else now
+    Document document = getEditor().getDocument();
+    int length = document.getTextLength();
+    UpdateHighlightersUtil.setHighlightersToEditor(getProject(), document, 0, length, Collections.<HighlightInfo>emptyList(), null,
+                                                   Pass.LOCAL_INSPECTIONS);
+    ourMessage = "second";
+    LocalInspectionsPass pass = new LocalInspectionsPass(getFile(), document, 0, length, new TextRange(0, length), true);
+    pass.showCachedResults(pass.getInspectionTools(InspectionProjectProfileManager.getInstance(getProject()).getProfileWrapper()));
+    UIUtil.dispatchAllInvocationEvents();
+    assertEquals(Collections.singletonList("first"), getDescriptions(DaemonCodeAnalyzerImpl.getHighlights(document, null, getProject())));
+
+    assertEquals(Collections.singletonList("second"), getDescriptions(doHighlighting()));
+    assertEquals(Collections.singletonList("second"), getDescriptions(DaemonCodeAnalyzerImpl.getHighlights(document, null, getProject())));
+    cache.flush();
+    assertEquals(Collections.singletonList("second"), cache.getCachedDescriptions(getFile()));
+  }
+
+  public void testChangedContentIsNotShown() throws Exception {
+    configureFromFileText("A.java", "class A { String s = \"a\"; }");
+    ourMessage = "first";
+    doHighlighting();
+    LocalInspectionsResultCache.getInstance(getProject()).flush();
+
+    type(' ');
+    Document document = getEditor().getDocument();
+    int length = document.getTextLength();
+    LocalInspectionsPass pass = new LocalInspectionsPass(getFile(), document, 0, length, new TextRange(0, length), true);
+    assertNull(LocalInspectionsResultCache.getInstance(getProject()).getCachedInfos(
+      getFile(), document, pass.getInspectionTools(InspectionProjectProfileManager.getInstance(getProject()).getProfileWrapper()),
+      InspectionProjectProfileManager.getInstance(getProject()).getInspectionProfile(), SeverityRegistrar.getInstance(getProject())));
+  }
+
+  private static List<String> getDescriptions(List<HighlightInfo> infos) {
+    List<String> result = new ArrayList<String>();
+    for (HighlightInfo info : infos) {
+      if (info.getSeverity().compareTo(HighlightSeverity.INFORMATION) > 0 && info.description != null) {
+        result.add(info.description);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find;
+
+import com.intellij.concurrency.JobSchedulerImpl;
+import com.intellij.find.impl.FindInProjectUtil;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.usageView.UsageInfo;
+import com.intellij.util.Processor;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FindInProjectUtilTest extends LightCodeInsightFixtureTestCase {
+  private static final int FILES_COUNT = 200;
+
+  private final List<PsiFile> myFiles = new ArrayList<PsiFile>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    for (int i = 0; i < FILES_COUNT; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j <= i % 5; j++) {
+        text.append("some text ").append(i).append(" needle ").append(j).append("\n");
+      }
+      myFiles.add(myFixture.addFileToProject("dir" + i % 10 + "/file" + i + ".txt", text.toString()));
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myFiles.clear();
+    super.tearDown();
+  }
+
+  public void testSameUsagesAsSequentialSearch() {
+    FindModel model = createFindModel();
+
+    Set<String> expected = new HashSet<String>();
+    FindManager findManager = FindManager.getInstance(getProject());
+    for (PsiFile file : myFiles) {
+      CharSequence text = file.getViewProvider().getContents();
+      int offset = 0;
+      while (true) {
+        FindResult result = findManager.findString(text, offset, model, file.getVirtualFile());
+        if (!result.isStringFound()) break;
+        expected.add(file.getVirtualFile().getPath() + ":" + result.getStartOffset());
+        offset = result.getEndOffset();
+      }
+    }
+    assertEquals(3 * FILES_COUNT, expected.size());
+
+    List<String> actual = new ArrayList<String>();
+    for (UsageInfo usage : FindInProjectUtil.findUsages(model, null, getProject())) {
+      actual.add(usage.getVirtualFile().getPath() + ":" + usage.getSegment().getStartOffset());
+    }
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected, new HashSet<String>(actual));
+  }
+
+  public void testCancellationStopsWorkers() throws Exception {
+    final ProgressIndicatorBase progress = new ProgressIndicatorBase();
+    final AtomicInteger afterCancel = new AtomicInteger();
+    final FindModel model = createFindModel();
+    try {
+      ProgressManager.getInstance().runProcess(new Runnable() {
+        @Override
+        public void run() {
+          FindInProjectUtil.findUsages(model, null, getProject(), new Processor<UsageInfo>() {
+            @Override
+            public boolean process(UsageInfo info) {
+              if (progress.isCanceled()) {
+                afterCancel.incrementAndGet();
+              }
+              else {
+                progress.cancel();
+              }
+              return true;
+            }
+          });
+        }
+      }, progress);
+    }
+    catch (ProcessCanceledException ignored) {
+    }
+
+    // every worker may only finish the usage it has already found
+    int found = afterCancel.get();
+    assertTrue(String.valueOf(found), found <= JobSchedulerImpl.CORES_COUNT);
+    Thread.sleep(100);
+    assertEquals(found, afterCancel.get());
+  }
+
+  private static FindModel createFindModel() {
+    FindModel model = new FindModel();
+    model.setStringToFind("needle");
+    model.setMultipleFiles(true);
+    model.setProjectScope(true);
+    return model;
+  }
+}
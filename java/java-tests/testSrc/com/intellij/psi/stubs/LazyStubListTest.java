@@ -0,0 +1,150 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.impl.source.JavaLightStubBuilder;
+import com.intellij.testFramework.LightIdeaTestCase;
+import gnu.trove.TIntArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LazyStubListTest extends LightIdeaTestCase {
+  private static final String SOURCE;
+  static {
+    // wide: a lot of classes in a file and members in a class, deep: nested classes
+    StringBuilder text = new StringBuilder("package p;\nimport java.util.*;\n");
+    for (int c = 0; c < 30; c++) {
+      text.append("class C").append(c).append(" {\n");
+      for (int m = 0; m < 30; m++) {
+        text.append("  int f").append(m).append(";\n");
+        text.append("  void m").append(m).append("(int p, String q) { }\n");
+      }
+      for (int depth = 0; depth < 5; depth++) {
+        text.append("  class Inner").append(depth).append(" { void m(List<String> l) { }\n");
+      }
+      for (int depth = 0; depth < 5; depth++) {
+        text.append("}");
+      }
+      text.append("\n}\n");
+    }
+    SOURCE = text.toString();
+  }
+
+  public void testRoundTrip() throws IOException {
+    final StubElement root = buildStubs();
+    final SerializedStubTree stored = readBack(serialize(root));
+
+    final StubTree tree = stored.getStubTree();
+    assertTrue(tree.getPlainList() instanceof LazyStubList);
+    assertEquals(DebugUtil.stubTreeToString(root), DebugUtil.stubTreeToString(tree.getRoot()));
+  }
+
+  public void testSameStubsAsEagerTree() throws IOException {
+    final SerializedStubTree stored = readBack(serialize(buildStubs()));
+    final List<StubElement<?>> eager = new StubTree((PsiFileStub)stored.getStub()).getPlainList();
+    final List<StubElement<?>> lazy = stored.getStubTree().getPlainList();
+    assertEquals(eager.size(), lazy.size());
+
+    final List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < eager.size(); i++) {
+      order.add(i);
+    }
+    Collections.shuffle(order, new Random(239));
+    for (int i : order) {
+      final StubElement<?> expected = eager.get(i);
+      final StubElement<?> actual = lazy.get(i);
+      assertEquals(expected.toString(), actual.toString());
+      assertEquals(i, ((StubBase)actual).id);
+      final StubElement parent = actual.getParentStub();
+      assertEquals(expected.getParentStub() == null ? -1 : ((StubBase)expected.getParentStub()).id,
+                   parent == null ? -1 : ((StubBase)parent).id);
+      if (parent != null) {
+        assertSame(parent, lazy.get(((StubBase)parent).id));
+      }
+    }
+  }
+
+  public void testConcurrentChildrenLoading() throws Exception {
+    final StubElement root = buildStubs();
+    final String expected = DebugUtil.stubTreeToString(root);
+    final SerializedStubTree stored = readBack(serialize(root));
+
+    for (int attempt = 0; attempt < 10; attempt++) {
+      final StubTree tree = stored.getStubTree();
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final String[] results = new String[8];
+      final Thread[] threads = new Thread[results.length];
+      for (int i = 0; i < threads.length; i++) {
+        final int index = i;
+        threads[i] = new Thread("Stub loader " + i) {
+          @Override
+          public void run() {
+            try {
+              results[index] = DebugUtil.stubTreeToString(tree.getRoot());
+            }
+            catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new RuntimeException(failure.get());
+      }
+      for (String result : results) {
+        assertEquals(expected, result);
+      }
+    }
+  }
+
+  private static StubElement buildStubs() {
+    final PsiFile file = createLightFile("test.java", SOURCE);
+    return new JavaLightStubBuilder().buildStubTree(file);
+  }
+
+  private static SerializedStubTree serialize(StubElement root) {
+    final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    final TIntArrayList offsets = new TIntArrayList();
+    final TIntArrayList subtreeSizes = new TIntArrayList();
+    SerializationManager.getInstance().serialize(root, bytes, offsets, subtreeSizes);
+    return new SerializedStubTree(bytes.getInternalBuffer(), bytes.size(), offsets, subtreeSizes);
+  }
+
+  private static SerializedStubTree readBack(SerializedStubTree tree) throws IOException {
+    final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    tree.write(out);
+    out.close();
+    return new SerializedStubTree(new DataInputStream(new ByteArrayInputStream(bytes.getInternalBuffer(), 0, bytes.size())));
+  }
+}
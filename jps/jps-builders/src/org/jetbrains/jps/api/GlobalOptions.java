@@ -11,4 +11,5 @@ public interface GlobalOptions {
   String HOSTNAME_OPTION = "localhost.name";
   String VM_EXE_PATH_OPTION = "vm.executable.path";
   String PING_INTERVAL_MS_OPTION = "server.ping.interval";
+  String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
 }
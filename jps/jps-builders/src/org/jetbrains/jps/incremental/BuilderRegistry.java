@@ -1,5 +1,6 @@
 package org.jetbrains.jps.incremental;
 
+import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.jps.idea.OwnServiceLoader;
 
 import java.util.*;
@@ -65,6 +66,16 @@ public class BuilderRegistry {
     return Collections.unmodifiableList(myModuleLevelBuilders.get(category)); // todo
   }
 
+  @TestOnly
+  public void addModuleLevelBuilder(ModuleLevelBuilder builder) {
+    myModuleLevelBuilders.get(builder.getCategory()).add(builder);
+  }
+
+  @TestOnly
+  public void removeModuleLevelBuilder(ModuleLevelBuilder builder) {
+    myModuleLevelBuilders.get(builder.getCategory()).remove(builder);
+  }
+
   public List<ProjectLevelBuilder> getProjectLevelBuilders() {
     return myProjectLevelBuilders;
   }
@@ -1,5 +1,6 @@
 package org.jetbrains.jps.incremental;
 
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.UserDataHolderBase;
 import org.jetbrains.annotations.NotNull;
@@ -24,6 +25,8 @@ import java.util.*;
  */
 public class CompileContext extends UserDataHolderBase implements MessageHandler{
   private static final String CANCELED_MESSAGE = "The build has been canceled";
+  @Nullable
+  private final CompileContext myParent;
   private final CompileScope myScope;
   private final boolean myIsMake;
   private final boolean myIsProjectRebuild;
@@ -35,7 +38,7 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   private final BuildDataManager myDataManager;
   private final ModuleRootsIndex myRootsIndex;
 
-  private final Set<Pair<Module, DirtyMarkScope>> myNonIncrementalModules = new HashSet<Pair<Module, DirtyMarkScope>>();
+  private final Set<Pair<Module, DirtyMarkScope>> myNonIncrementalModules;
 
   private final ProjectPaths myProjectPaths;
   private volatile boolean myErrorsFound = false;
@@ -44,7 +47,7 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   private final BuildLoggingManager myLoggingManager;
   private final Map<String, String> myBuilderParams;
   private final CanceledStatus myCancelStatus;
-  private float myDone = -1.0f;
+  private volatile float myDone = -1.0f;
 
   public CompileContext(CompileScope scope,
                         boolean isMake,
@@ -58,6 +61,8 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
                         final ModuleRootsIndex rootsIndex,
                         BuildLoggingManager loggingManager, Map<String, String> builderParams,
                         CanceledStatus cancelStatus) throws ProjectBuildException {
+    myParent = null;
+    myNonIncrementalModules = Collections.synchronizedSet(new HashSet<Pair<Module, DirtyMarkScope>>());
     myTsStorage = tsStorage;
     myLoggingManager = loggingManager;
     myBuilderParams = Collections.unmodifiableMap(builderParams);
@@ -76,6 +81,49 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
     myRootsIndex = rootsIndex;
   }
 
+  /**
+   * Creates a context for a chunk built in parallel with other chunks. User data put into it is visible to the chunk only,
+   * except for {@link GlobalContextKey}s; messages, progress and the rest of the build state are shared with the parent.
+   */
+  CompileContext(@NotNull CompileContext parent) {
+    myParent = parent;
+    myNonIncrementalModules = parent.myNonIncrementalModules;
+    myTsStorage = parent.myTsStorage;
+    myLoggingManager = parent.myLoggingManager;
+    myBuilderParams = parent.myBuilderParams;
+    myCancelStatus = parent.myCancelStatus;
+    myCompilationStartStamp = parent.myCompilationStartStamp;
+    myScope = parent.myScope;
+    myIsProjectRebuild = parent.myIsProjectRebuild;
+    myIsMake = parent.myIsMake;
+    myProductionChunks = parent.myProductionChunks;
+    myTestChunks = parent.myTestChunks;
+    myFsState = parent.myFsState;
+    myDelegateMessageHandler = parent.myDelegateMessageHandler;
+    myDataManager = parent.myDataManager;
+    myProjectPaths = parent.myProjectPaths;
+    myRootsIndex = parent.myRootsIndex;
+    myCompilingTests = parent.myCompilingTests;
+  }
+
+  @Override
+  public <T> T getUserData(@NotNull Key<T> key) {
+    if (myParent != null && key instanceof GlobalContextKey) {
+      return myParent.getUserData(key);
+    }
+    return super.getUserData(key);
+  }
+
+  @Override
+  public <T> void putUserData(@NotNull Key<T> key, @Nullable T value) {
+    if (myParent != null && key instanceof GlobalContextKey) {
+      myParent.putUserData(key, value);
+    }
+    else {
+      super.putUserData(key, value);
+    }
+  }
+
   public Project getProject() {
     return myScope.getProject();
   }
@@ -123,7 +171,7 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   }
 
   public void markDirty(final ModuleChunk chunk) throws IOException {
-    myFsState.clearContextRoundData();
+    myFsState.clearContextRoundData(chunk);
     final Set<Module> modules = chunk.getModules();
     for (Module module : modules) {
       markDirtyFiles(module, myTsStorage, true, isCompilingTests()? DirtyMarkScope.TESTS : DirtyMarkScope.PRODUCTION, null);
@@ -208,7 +256,7 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   }
 
   void beforeCompileRound(@NotNull ModuleChunk chunk) {
-    myFsState.beforeNextRoundStart();
+    myFsState.beforeNextRoundStart(chunk);
   }
 
   public void onChunkBuildStart(ModuleChunk chunk) {
@@ -218,10 +266,10 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   void onChunkBuildComplete(@NotNull ModuleChunk chunk) throws IOException {
     myDataManager.closeSourceToOutputStorages(chunk, isCompilingTests());
     myDataManager.flush(true);
-    myFsState.clearContextRoundData();
-    myFsState.clearContextChunk();
+    myFsState.clearContextRoundData(chunk);
+    myFsState.clearContextChunk(chunk);
 
-    if (!myErrorsFound && !myCancelStatus.isCanceled()) {
+    if (!isErrorsFound() && !myCancelStatus.isCanceled()) {
       final boolean compilingTests = isCompilingTests();
       final DirtyMarkScope dirtyScope = compilingTests ? DirtyMarkScope.TESTS : DirtyMarkScope.PRODUCTION;
       boolean marked = false;
@@ -259,6 +307,10 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   }
 
   public void processMessage(BuildMessage msg) {
+    if (myParent != null) {
+      myParent.processMessage(msg);
+      return;
+    }
     if (msg.getKind() == BuildMessage.Kind.ERROR) {
       myErrorsFound = true;
     }
@@ -268,6 +320,10 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
     myDelegateMessageHandler.processMessage(msg);
   }
 
+  private boolean isErrorsFound() {
+    return myParent != null? myParent.isErrorsFound() : myErrorsFound;
+  }
+
   public void processFilesToRecompile(ModuleChunk chunk, FileProcessor processor) throws IOException {
     for (Module module : chunk.getModules()) {
       myFsState.processFilesToRecompile(this, module, processor);
@@ -331,6 +387,10 @@ public class CompileContext extends UserDataHolderBase implements MessageHandler
   }
 
   public void setDone(float done) {
+    if (myParent != null) {
+      myParent.setDone(done);
+      return;
+    }
     myDone = done;
     //processMessage(new ProgressMessage("", done));
   }
@@ -21,9 +21,8 @@ public class FSState {
   private final Set<Module> myInitialTestsScanPerformed = Collections.synchronizedSet(new HashSet<Module>());
   private final Set<Module> myInitialProductionScanPerformed = Collections.synchronizedSet(new HashSet<Module>());
 
-  private final Set<Module> myContextModules = new HashSet<Module>();
-  private volatile FilesDelta myCurrentRoundDelta;
-  private volatile FilesDelta myLastRoundDelta;
+  // chunks may be built in parallel, so round data is kept for every chunk in progress
+  private final Map<Module, RoundData> myContextRoundData = Collections.synchronizedMap(new HashMap<Module, RoundData>());
 
   // when true, will always determine dirty files by scanning FS and comparing timestamps
   // alternatively, when false, after first scan will rely on extarnal notifications about changes
@@ -34,7 +33,11 @@ public class FSState {
   }
 
   public void onRebuild() {
-    clearContextRoundData();
+    synchronized (myContextRoundData) {
+      for (RoundData data : myContextRoundData.values()) {
+        data.clear();
+      }
+    }
     myInitialProductionScanPerformed.clear();
     myInitialTestsScanPerformed.clear();
     myDeltas.clear();
@@ -49,21 +52,31 @@ public class FSState {
   }
 
   public void setContextChunk(ModuleChunk chunk) {
-    myContextModules.addAll(chunk.getModules());
+    final RoundData data = new RoundData();
+    for (Module module : chunk.getModules()) {
+      myContextRoundData.put(module, data);
+    }
   }
 
-  public void beforeNextRoundStart() {
-    myLastRoundDelta = myCurrentRoundDelta;
-    myCurrentRoundDelta = new FilesDelta();
+  public void beforeNextRoundStart(ModuleChunk chunk) {
+    final RoundData data = getRoundData(chunk);
+    if (data != null) {
+      data.myLastRoundDelta = data.myCurrentRoundDelta;
+      data.myCurrentRoundDelta = new FilesDelta();
+    }
   }
 
-  public void clearContextRoundData() {
-    myCurrentRoundDelta = null;
-    myLastRoundDelta = null;
+  public void clearContextRoundData(ModuleChunk chunk) {
+    final RoundData data = getRoundData(chunk);
+    if (data != null) {
+      data.clear();
+    }
   }
 
-  public void clearContextChunk() {
-    myContextModules.clear();
+  public void clearContextChunk(ModuleChunk chunk) {
+    for (Module module : chunk.getModules()) {
+      myContextRoundData.remove(module);
+    }
   }
 
   public void clearRecompile(RootDescriptor rd) {
@@ -71,11 +84,9 @@ public class FSState {
   }
 
   public void markDirty(final File file, final RootDescriptor rd, final @Nullable TimestampStorage tsStorage) throws IOException {
-    final FilesDelta roundDelta = myCurrentRoundDelta;
+    final FilesDelta roundDelta = getCurrentRoundDelta(rd.module);
     if (roundDelta != null) {
-      if (myContextModules.contains(rd.module)) {
-        roundDelta.markRecompile(rd.root, rd.isTestRoot, file);
-      }
+      roundDelta.markRecompile(rd.root, rd.isTestRoot, file);
     }
     final FilesDelta mainDelta = getDelta(rd.module);
     final boolean marked = mainDelta.markRecompile(rd.root, rd.isTestRoot, file);
@@ -91,11 +102,9 @@ public class FSState {
       if (tsStorage != null) {
         tsStorage.markDirty(file);
       }
-      final FilesDelta roundDelta = myCurrentRoundDelta;
+      final FilesDelta roundDelta = getCurrentRoundDelta(rd.module);
       if (roundDelta != null) {
-        if (myContextModules.contains(rd.module)) {
-          roundDelta.markRecompile(rd.root, rd.isTestRoot, file);
-        }
+        roundDelta.markRecompile(rd.root, rd.isTestRoot, file);
       }
     }
   }
@@ -136,7 +145,8 @@ public class FSState {
   }
 
   public boolean processFilesToRecompile(CompileContext context, final Module module, final FileProcessor processor) throws IOException {
-    final FilesDelta lastRoundDelta = myLastRoundDelta;
+    final RoundData roundData = myContextRoundData.get(module);
+    final FilesDelta lastRoundDelta = roundData != null? roundData.myLastRoundDelta : null;
     final FilesDelta delta = lastRoundDelta != null? lastRoundDelta : getDelta(module);
     final Map<File, Set<File>> data = delta.getSourcesToRecompile(context.isCompilingTests());
     final CompilerExcludes excludes = module.getProject().getCompilerConfiguration().getExcludes();
@@ -194,6 +204,28 @@ public class FSState {
     }
   }
 
+  @Nullable
+  private RoundData getRoundData(ModuleChunk chunk) {
+    final Iterator<Module> modules = chunk.getModules().iterator();
+    return modules.hasNext()? myContextRoundData.get(modules.next()) : null;
+  }
+
+  @Nullable
+  private FilesDelta getCurrentRoundDelta(Module module) {
+    final RoundData data = myContextRoundData.get(module);
+    return data != null? data.myCurrentRoundDelta : null;
+  }
+
+  private static final class RoundData {
+    private volatile FilesDelta myCurrentRoundDelta;
+    private volatile FilesDelta myLastRoundDelta;
+
+    void clear() {
+      myCurrentRoundDelta = null;
+      myLastRoundDelta = null;
+    }
+  }
+
   /** @noinspection SynchronizationOnLocalVariableOrMethodParameter*/
   private static final class FilesDelta {
     private final Set<String> myDeletedProduction = Collections.synchronizedSet(new HashSet<String>());
@@ -0,0 +1,19 @@
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A key for data shared by the whole build. When chunks are built in parallel each of them gets its own {@link CompileContext}
+ * and values stored with plain keys are visible to the chunk only; values stored with this key always go to the build's context.
+ */
+public class GlobalContextKey<T> extends Key<T> {
+  public GlobalContextKey(@NotNull @NonNls String name) {
+    super(name);
+  }
+
+  public static <T> GlobalContextKey<T> create(@NotNull @NonNls String name) {
+    return new GlobalContextKey<T>(name);
+  }
+}
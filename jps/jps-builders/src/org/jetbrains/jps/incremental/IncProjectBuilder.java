@@ -9,6 +9,7 @@ import com.intellij.util.io.MappingFailedException;
 import com.intellij.util.io.PersistentEnumerator;
 import org.jetbrains.jps.*;
 import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.api.RequestFuture;
 import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
 import org.jetbrains.jps.incremental.java.JavaBuilder;
@@ -26,7 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 /**
  * @author Eugene Zhuravlev
@@ -41,6 +42,8 @@ public class IncProjectBuilder {
   private final BuilderRegistry myBuilderRegistry;
   private final Map<String, String> myBuilderParams;
   private final CanceledStatus myCancelStatus;
+  // 1 means chunks are built one by one in the topological order
+  private final int myMaxBuilderThreads = Math.max(1, Integer.parseInt(System.getProperty(GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION, "1")));
   private ProjectChunks myProductionChunks;
   private ProjectChunks myTestChunks;
   private final List<MessageHandler> myMessageHandlers = new ArrayList<MessageHandler>();
@@ -169,7 +172,7 @@ public class IncProjectBuilder {
     }
   }
 
-  private float updateFractionBuilderFinished(final float delta) {
+  private synchronized float updateFractionBuilderFinished(final float delta) {
     myModulesProcessed += delta;
     return myModulesProcessed / myTotalModulesWork;
   }
@@ -287,6 +290,10 @@ public class IncProjectBuilder {
   }
 
   private void buildChunks(CompileContext context, ProjectChunks chunks) throws ProjectBuildException {
+    if (myMaxBuilderThreads > 1) {
+      buildChunksInParallel(context, chunks);
+      return;
+    }
     final CompileScope scope = context.getScope();
     for (ModuleChunk chunk : chunks.getChunkList()) {
       if (scope.isAffected(chunk)) {
@@ -299,6 +306,168 @@ public class IncProjectBuilder {
     }
   }
 
+  /**
+   * Builds a chunk as soon as all chunks it depends on are built. Every chunk gets its own context, so chunk-local
+   * builder data doesn't mix; dependency data and other storages are shared and synchronized.
+   */
+  private void buildChunksInParallel(final CompileContext context, ProjectChunks chunks) throws ProjectBuildException {
+    final CompileScope scope = context.getScope();
+    final List<ChunkBuildTask> tasks = createChunkBuildTasks(context, chunks);
+    final Deque<ChunkBuildTask> ready = new ArrayDeque<ChunkBuildTask>();
+    for (ChunkBuildTask task : tasks) {
+      if (task.myPendingDependencies == 0) {
+        ready.add(task);
+      }
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(myMaxBuilderThreads);
+    final CompletionService<ChunkBuildTask> completionService = new ExecutorCompletionService<ChunkBuildTask>(executor);
+    final long started = System.currentTimeMillis();
+    ProjectBuildException failure = null;
+    int running = 0;
+    try {
+      while (true) {
+        while (failure == null && !ready.isEmpty()) {
+          final ChunkBuildTask task = ready.poll();
+          if (scope.isAffected(task.myChunk)) {
+            completionService.submit(task);
+            running++;
+          }
+          else {
+            context.setDone(updateFractionBuilderFinished(task.myChunk.getModules().size()));
+            task.releaseDependents(ready);
+          }
+        }
+        if (running == 0) {
+          break;
+        }
+        final Future<ChunkBuildTask> future = completionService.take();
+        running--;
+        try {
+          future.get().releaseDependents(ready);
+        }
+        catch (ExecutionException e) {
+          // let the chunks already started finish, but don't start new ones
+          if (failure == null) {
+            final Throwable cause = e.getCause();
+            failure = cause instanceof ProjectBuildException ? (ProjectBuildException)cause : new ProjectBuildException(cause);
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      throw new ProjectBuildException(e);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    reportParallelBuildStatistics(context, tasks, System.currentTimeMillis() - started);
+  }
+
+  private List<ChunkBuildTask> createChunkBuildTasks(CompileContext context, ProjectChunks chunks) {
+    final ClasspathKind classpathKind = ClasspathKind.compile(context.isCompilingTests());
+    final Map<ModuleChunk, ChunkBuildTask> chunkToTask = new HashMap<ModuleChunk, ChunkBuildTask>();
+    final List<ChunkBuildTask> tasks = new ArrayList<ChunkBuildTask>();
+    // chunks are in topological order, so tasks of dependencies are always created first
+    for (ModuleChunk chunk : chunks.getChunkList()) {
+      final ChunkBuildTask task = new ChunkBuildTask(context, chunk);
+      for (Module module : chunk.getModules()) {
+        for (ClasspathItem dependency : module.getClasspath(classpathKind)) {
+          if (dependency instanceof Module) {
+            final ChunkBuildTask dependencyTask = chunkToTask.get(chunks.findChunk((Module)dependency));
+            if (dependencyTask != null && dependencyTask != task && task.myDependencies.add(dependencyTask)) {
+              dependencyTask.myDependents.add(task);
+              task.myPendingDependencies++;
+            }
+          }
+        }
+      }
+      chunkToTask.put(chunk, task);
+      tasks.add(task);
+    }
+    return tasks;
+  }
+
+  private void reportParallelBuildStatistics(CompileContext context, List<ChunkBuildTask> tasks, long wallTime) {
+    // the critical path is the longest chain of dependent chunks by build time: it limits the build time whatever the number of threads
+    final Map<ChunkBuildTask, Long> pathTime = new HashMap<ChunkBuildTask, Long>();
+    final Map<ChunkBuildTask, ChunkBuildTask> pathPrevious = new HashMap<ChunkBuildTask, ChunkBuildTask>();
+    ChunkBuildTask pathEnd = null;
+    long totalTime = 0L;
+    for (ChunkBuildTask task : tasks) {
+      long time = 0L;
+      for (ChunkBuildTask dependency : task.myDependencies) {
+        final long dependencyTime = pathTime.get(dependency);
+        if (dependencyTime > time) {
+          time = dependencyTime;
+          pathPrevious.put(task, dependency);
+        }
+      }
+      time += task.getBuildTime();
+      pathTime.put(task, time);
+      totalTime += task.getBuildTime();
+      if (pathEnd == null || time > pathTime.get(pathEnd)) {
+        pathEnd = task;
+      }
+    }
+    if (pathEnd == null || totalTime == 0L) {
+      return;
+    }
+    final LinkedList<String> path = new LinkedList<String>();
+    for (ChunkBuildTask task = pathEnd; task != null; task = pathPrevious.get(task)) {
+      if (task.getBuildTime() > 0L) {
+        path.addFirst(task.myChunk.getName() + " (" + task.getBuildTime() + " ms)");
+      }
+    }
+    final String message = (context.isCompilingTests() ? "Tests" : "Production") + " chunks built in " + wallTime + " ms with " +
+                           myMaxBuilderThreads + " threads; parallelism " + String.format("%.2f", (double)totalTime / Math.max(1L, wallTime)) +
+                           "; critical path " + pathTime.get(pathEnd) + " ms: " + StringUtil.join(path, " -> ");
+    LOG.info(message);
+    context.processMessage(new CompilerMessage(COMPILE_SERVER_NAME, BuildMessage.Kind.INFO, message));
+  }
+
+  private final class ChunkBuildTask implements Callable<ChunkBuildTask> {
+    private final CompileContext myContext;
+    private final ModuleChunk myChunk;
+    private final Set<ChunkBuildTask> myDependencies = new LinkedHashSet<ChunkBuildTask>();
+    private final List<ChunkBuildTask> myDependents = new ArrayList<ChunkBuildTask>();
+    private int myPendingDependencies;  // accessed from the scheduling thread only
+    private volatile long myStarted;
+    private volatile long myFinished;
+
+    private ChunkBuildTask(CompileContext context, ModuleChunk chunk) {
+      myContext = context;
+      myChunk = chunk;
+    }
+
+    @Override
+    public ChunkBuildTask call() throws Exception {
+      myStarted = System.currentTimeMillis();
+      try {
+        buildChunk(new CompileContext(myContext), myChunk);
+      }
+      finally {
+        myFinished = System.currentTimeMillis();
+      }
+      return this;
+    }
+
+    private long getBuildTime() {
+      return myFinished - myStarted;
+    }
+
+    private void releaseDependents(Deque<ChunkBuildTask> ready) {
+      for (ChunkBuildTask dependent : myDependents) {
+        if (--dependent.myPendingDependencies == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+  }
+
   private void buildChunk(CompileContext context, ModuleChunk chunk) throws ProjectBuildException {
     try {
       context.ensureFSStateInitialized(chunk);
@@ -445,9 +614,9 @@ public class IncProjectBuilder {
           if (buildResult == ModuleLevelBuilder.ExitCode.ADDITIONAL_PASS_REQUIRED) {
             if (!nextPassRequired) {
               // recalculate basis
-              myModulesProcessed -= (buildersPassed * modulesInChunk) / stageCount;
+              final float processedBefore = (buildersPassed * modulesInChunk) / stageCount;
               stageCount += myTotalModuleLevelBuilderCount;
-              myModulesProcessed += (buildersPassed * modulesInChunk) / stageCount;
+              updateFractionBuilderFinished((buildersPassed * modulesInChunk) / stageCount - processedBefore);
             }
             nextPassRequired = true;
           }
@@ -459,7 +628,7 @@ public class IncProjectBuilder {
                 // forcibly mark all files in the chunk dirty
                 context.markDirty(chunk);
                 // reverting to the beginning
-                myModulesProcessed -= (buildersPassed * modulesInChunk) / stageCount;
+                updateFractionBuilderFinished(-(buildersPassed * modulesInChunk) / stageCount);
                 stageCount = myTotalModuleLevelBuilderCount;
                 buildersPassed = 0;
                 nextPassRequired = true;
@@ -20,7 +20,7 @@ import java.util.regex.Pattern;
  *         Date: 10/6/11
  */
 public class ResourcePatterns {
-  public static final Key<ResourcePatterns> KEY = Key.create("_resource_patterns_");
+  public static final Key<ResourcePatterns> KEY = GlobalContextKey.create("_resource_patterns_");
 
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.ResourcePatterns");
 
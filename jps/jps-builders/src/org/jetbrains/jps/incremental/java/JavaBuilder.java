@@ -423,7 +423,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
 
 
-  private static JavacServerClient ensureJavacServerLaunched(CompileContext context) throws Exception {
+  private static synchronized JavacServerClient ensureJavacServerLaunched(CompileContext context) throws Exception {
     final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
     if (descriptor != null) {
       return descriptor.client;
@@ -526,8 +526,8 @@ public class JavaBuilder extends ModuleLevelBuilder {
     return new CompiledClassesLoader(outputSink, urls.toArray(new URL[urls.size()]));
   }
 
-  private static final Key<List<String>> JAVAC_OPTIONS = Key.create("_javac_options_");
-  private static final Key<List<String>> JAVAC_VM_OPTIONS = Key.create("_javac_vm_options_");
+  private static final Key<List<String>> JAVAC_OPTIONS = GlobalContextKey.create("_javac_options_");
+  private static final Key<List<String>> JAVAC_VM_OPTIONS = GlobalContextKey.create("_javac_vm_options_");
 
   private static List<String> getCompilationVMOptions(CompileContext context) {
     List<String> cached = JAVAC_VM_OPTIONS.get(context);
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.ether.dependencyView;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class BufferedMultiMapletTest extends TestCase {
+  private static final TransientMultiMaplet.CollectionConstructor<String> SET_CONSTRUCTOR =
+    new TransientMultiMaplet.CollectionConstructor<String>() {
+      public Collection<String> create() {
+        return new HashSet<String>();
+      }
+    };
+
+  private TransientMultiMaplet<String, String> myStorage;
+  private BufferedMultiMaplet<String, String> myMaplet;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStorage = new TransientMultiMaplet<String, String>(SET_CONSTRUCTOR);
+    myMaplet = new BufferedMultiMaplet<String, String>(myStorage, SET_CONSTRUCTOR);
+  }
+
+  public void testPendingChangesAreVisibleBeforeMerge() {
+    myStorage.put("a", set("1", "2"));
+
+    myMaplet.put("a", "3");
+    myMaplet.removeFrom("a", "1");
+    myMaplet.put("b", set("4"));
+    myMaplet.removeFrom("b", "4");
+
+    assertEquals(set("2", "3"), myMaplet.get("a"));
+    assertNull(myMaplet.get("b"));
+    assertFalse(myMaplet.containsKey("b"));
+    // nothing is written until merge
+    assertEquals(set("1", "2"), myStorage.get("a"));
+    assertFalse(myStorage.containsKey("b"));
+  }
+
+  public void testMerge() {
+    myStorage.put("a", set("1", "2"));
+    myStorage.put("c", set("5"));
+
+    myMaplet.removeFrom("a", "1");
+    myMaplet.put("a", "1");
+    myMaplet.put("b", "4");
+    myMaplet.remove("c");
+    myMaplet.put("c", "6");
+    myMaplet.flush(false);
+
+    assertEquals(set("1", "2"), myStorage.get("a"));
+    assertEquals(set("4"), myStorage.get("b"));
+    assertEquals(set("6"), myStorage.get("c"));
+    assertEquals(set("a", "b", "c"), new HashSet<String>(myMaplet.keyCollection()));
+  }
+
+  public void testReplaceAll() {
+    myStorage.put("a", set("1", "2"));
+    myMaplet.removeFrom("a", "1");
+
+    final TransientMultiMaplet<String, String> replacement = new TransientMultiMaplet<String, String>(SET_CONSTRUCTOR);
+    replacement.put("a", set("7"));
+    myMaplet.replaceAll(replacement);
+    assertEquals(set("7"), myMaplet.get("a"));
+
+    myMaplet.flush(false);
+    assertEquals(set("7"), myStorage.get("a"));
+  }
+
+  public void testConcurrentUpdates() throws Exception {
+    final int threadsCount = 4;
+    final int keysCount = 3000;
+    final Thread[] threads = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; i++) {
+      final String value = String.valueOf(i);
+      threads[i] = new Thread("Maplet update " + i) {
+        @Override
+        public void run() {
+          for (int k = 0; k < keysCount; k++) {
+            myMaplet.put("key" + k, value);
+            myMaplet.put("key" + k, "tmp" + value);
+            myMaplet.removeFrom("key" + k, "tmp" + value);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    myMaplet.flush(false);
+
+    for (int k = 0; k < keysCount; k++) {
+      assertEquals(set("0", "1", "2", "3"), myStorage.get("key" + k));
+    }
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import groovy.lang.Closure;
+import org.jetbrains.jps.*;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.artifacts.Artifact;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.incremental.storage.BuildDataManager;
+import org.jetbrains.jps.incremental.storage.ProjectTimestamps;
+import org.jetbrains.jps.server.ClasspathBootstrap;
+import org.jetbrains.jps.server.ProjectDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a project of independent and dependent modules with several builder threads, see {@link IncProjectBuilder}.
+ * Module "b" depends on "a", "d" depends on "b" and "c".
+ */
+public class ParallelChunksBuildTest extends UsefulTestCase {
+  private Project myProject;
+  private File myProjectDir;
+  private ProjectDescriptor myDescriptor;
+  private String myThreadsOption;
+  private Sdk myJdk;
+  private RecordingBuilder myBuilder;
+  private final List<String> myEvents = Collections.synchronizedList(new ArrayList<String>());
+  private final List<BuildMessage> myMessages = Collections.synchronizedList(new ArrayList<BuildMessage>());
+  private volatile boolean myCanceled;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myThreadsOption = System.getProperty(GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION);
+    System.setProperty(GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION, "2");
+    myProject = new Project();
+    myProject.setProjectName(getTestName(true));
+    Paths.getInstance().setSystemRoot(FileUtil.createTempDirectory("compile-server", null));
+    myProjectDir = FileUtil.createTempDirectory("prj", null);
+
+    Module a = addModule("a");
+    Module b = addModule("b");
+    Module c = addModule("c");
+    Module d = addModule("d");
+    b.addDependency(a, PredefinedDependencyScopes.getCOMPILE(), false);
+    d.addDependency(b, PredefinedDependencyScopes.getCOMPILE(), false);
+    d.addDependency(c, PredefinedDependencyScopes.getCOMPILE(), false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      if (myBuilder != null) {
+        BuilderRegistry.getInstance().removeModuleLevelBuilder(myBuilder);
+      }
+      if (myDescriptor != null) {
+        myDescriptor.release();
+      }
+      if (myThreadsOption != null) {
+        System.setProperty(GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION, myThreadsOption);
+      }
+      else {
+        System.clearProperty(GlobalOptions.COMPILE_PARALLEL_MAX_THREADS_OPTION);
+      }
+      FileUtil.delete(myProjectDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIndependentChunksAreBuiltConcurrently() {
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    build(new RecordingBuilder() {
+      @Override
+      protected void process(String module, CompileContext context) throws ProjectBuildException {
+        if (module.equals("a") || module.equals("c")) {
+          bothStarted.countDown();
+          try {
+            // with one thread the first of them would wait here for the other one in vain
+            if (!bothStarted.await(10, TimeUnit.SECONDS)) {
+              myEvents.add("timeout:" + module);
+            }
+          }
+          catch (InterruptedException e) {
+            throw new ProjectBuildException(e);
+          }
+        }
+      }
+    });
+
+    assertErrors();
+    assertFalse(myEvents.toString(), myEvents.contains("timeout:a") || myEvents.contains("timeout:c"));
+    assertBuilt("a", "b", "c", "d");
+    assertTrue(myMessages.toString(), hasMessage(BuildMessage.Kind.INFO, "chunks built in"));
+  }
+
+  public void testDependenciesAreBuiltFirst() {
+    build(new RecordingBuilder());
+
+    assertErrors();
+    assertBuilt("a", "b", "c", "d");
+    assertBuiltBefore("a", "b");
+    assertBuiltBefore("b", "d");
+    assertBuiltBefore("c", "d");
+  }
+
+  public void testMessagesAreForwardedFromChunkContexts() {
+    build(new RecordingBuilder() {
+      @Override
+      protected void process(String module, CompileContext context) {
+        context.processMessage(new CompilerMessage("test", BuildMessage.Kind.INFO, "built " + module));
+      }
+    });
+
+    assertErrors();
+    for (String module : new String[]{"a", "b", "c", "d"}) {
+      assertTrue(module, hasMessage(BuildMessage.Kind.INFO, "built " + module));
+    }
+  }
+
+  public void testErrorStopsDependentChunks() {
+    build(new RecordingBuilder() {
+      @Override
+      protected ExitCode buildModule(String module, CompileContext context, ModuleChunk chunk) throws ProjectBuildException {
+        if (module.equals("b")) {
+          context.processMessage(new CompilerMessage("test", BuildMessage.Kind.ERROR, "b failed"));
+          return ExitCode.ABORT;
+        }
+        return super.buildModule(module, context, chunk);
+      }
+    });
+
+    assertErrors("b failed");
+    assertTrue(myMessages.toString(), hasMessage(BuildMessage.Kind.PROGRESS, "requested build stop"));
+    assertTrue(myEvents.toString(), myEvents.contains("finished:a"));
+    assertFalse(myEvents.toString(), myEvents.contains("started:d"));
+  }
+
+  public void testCancelStopsDependentChunks() {
+    build(new RecordingBuilder() {
+      @Override
+      protected void process(String module, CompileContext context) {
+        if (module.equals("a")) {
+          myCanceled = true;
+        }
+      }
+    });
+
+    assertErrors();
+    assertTrue(myMessages.toString(), hasMessage(BuildMessage.Kind.PROGRESS, "canceled"));
+    assertFalse(myEvents.toString(), myEvents.contains("started:b"));
+    assertFalse(myEvents.toString(), myEvents.contains("started:d"));
+  }
+
+  private Module addModule(String name) throws IOException {
+    if (myJdk == null) {
+      myJdk = myProject.createSdk("JavaSDK", "jdk", System.getProperty("java.home"), null);
+      final List<String> paths = new LinkedList<String>();
+      paths.add(FileUtil.toSystemIndependentName(ClasspathBootstrap.getResourcePath(Object.class).getCanonicalPath()));
+      myJdk.setClasspath(paths);
+    }
+    final File srcDir = new File(myProjectDir, name + "/src");
+    FileUtil.writeToFile(new File(srcDir, name.toUpperCase(Locale.US) + ".java"), "class " + name.toUpperCase(Locale.US) + " {}");
+    final String srcPath = FileUtil.toSystemIndependentName(srcDir.getAbsolutePath());
+    final Module module = myProject.createModule(name, Closure.IDENTITY);
+    module.forceInit();
+    module.setSdk(myJdk);
+    module.addDependency(myJdk, PredefinedDependencyScopes.getCOMPILE(), false);
+    module.getContentRoots().add(srcPath);
+    module.getSourceRoots().add(srcPath);
+    module.setOutputPath(FileUtil.toSystemIndependentName(new File(myProjectDir, "out/production/" + name).getAbsolutePath()));
+    return module;
+  }
+
+  private void build(RecordingBuilder builder) {
+    myBuilder = builder;
+    BuilderRegistry.getInstance().addModuleLevelBuilder(builder);
+
+    final File dataStorageRoot = Paths.getDataStorageRoot(myProject);
+    try {
+      myDescriptor = new ProjectDescriptor(myProject, new FSState(true), new ProjectTimestamps(dataStorageRoot),
+                                           new BuildDataManager(dataStorageRoot, true), BuildLoggingManager.DEFAULT);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    myDescriptor.incUsageCounter();
+
+    final IncProjectBuilder projectBuilder = new IncProjectBuilder(myDescriptor, BuilderRegistry.getInstance(),
+                                                                   Collections.<String, String>emptyMap(), new CanceledStatus() {
+      @Override
+      public boolean isCanceled() {
+        return myCanceled;
+      }
+    });
+    projectBuilder.addMessageHandler(new MessageHandler() {
+      @Override
+      public void processMessage(BuildMessage msg) {
+        myMessages.add(msg);
+      }
+    });
+    projectBuilder.build(new AllProjectScope(myProject, Collections.<Artifact>emptySet(), true), false, true);
+  }
+
+  private void assertErrors(String... expected) {
+    final List<String> errors = new ArrayList<String>();
+    for (BuildMessage message : myMessages) {
+      if (message.getKind() == BuildMessage.Kind.ERROR) {
+        errors.add(message.getMessageText());
+      }
+    }
+    assertSameElements(errors, expected);
+  }
+
+  private boolean hasMessage(BuildMessage.Kind kind, String text) {
+    synchronized (myMessages) {
+      for (BuildMessage message : myMessages) {
+        if (message.getKind() == kind && message.getMessageText().contains(text)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void assertBuilt(String... modules) {
+    for (String module : modules) {
+      assertTrue(myEvents.toString(), myEvents.contains("finished:" + module));
+    }
+  }
+
+  private void assertBuiltBefore(String dependency, String dependent) {
+    final int finished = myEvents.indexOf("finished:" + dependency);
+    final int started = myEvents.indexOf("started:" + dependent);
+    assertTrue(myEvents.toString(), finished >= 0 && started > finished);
+  }
+
+  /**
+   * Records the start and the end of every production chunk, every chunk here is a single module
+   */
+  private class RecordingBuilder extends ModuleLevelBuilder {
+    private RecordingBuilder() {
+      super(BuilderCategory.SOURCE_PROCESSOR);
+    }
+
+    @Override
+    public String getName() {
+      return "Recording builder";
+    }
+
+    @Override
+    public String getDescription() {
+      return getName();
+    }
+
+    @Override
+    public final ExitCode build(CompileContext context, ModuleChunk chunk) throws ProjectBuildException {
+      if (context.isCompilingTests()) {
+        return ExitCode.OK;
+      }
+      return buildModule(chunk.getModules().iterator().next().getName(), context, chunk);
+    }
+
+    protected ExitCode buildModule(String module, CompileContext context, ModuleChunk chunk) throws ProjectBuildException {
+      myEvents.add("started:" + module);
+      try {
+        process(module, context);
+      }
+      finally {
+        myEvents.add("finished:" + module);
+      }
+      return ExitCode.OK;
+    }
+
+    protected void process(String module, CompileContext context) throws ProjectBuildException {
+    }
+  }
+}
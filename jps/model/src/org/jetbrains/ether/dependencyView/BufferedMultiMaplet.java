@@ -0,0 +1,213 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.ether.dependencyView;
+
+import java.util.*;
+
+/**
+ * Keeps changes of a persistent multimaplet in memory and merges them into the storage lazily: on flush, on close,
+ * or when too many keys are pending. Reads see the stored values merged with the pending changes.
+ * Values added to a key are appended to the stored ones, so a key is rewritten only if some of its values were removed,
+ * and only once per merge however many times it was changed.
+ * Keys are split into shards by hash and every shard has its own lock, so the maplet can be used from several threads
+ * provided the underlying one may be accessed concurrently for different keys, as {@link PersistentMultiMaplet} may.
+ */
+class BufferedMultiMaplet<K, V> implements MultiMaplet<K, V> {
+  private static final int SHARDS_COUNT = 16;
+  private static final int MAX_PENDING_KEYS_PER_SHARD = 1024;
+
+  private final MultiMaplet<K, V> myStorage;
+  private final TransientMultiMaplet.CollectionConstructor<V> myCollectionFactory;
+  private final List<Map<K, PendingValues<V>>> myShards = new ArrayList<Map<K, PendingValues<V>>>(SHARDS_COUNT);
+
+  public BufferedMultiMaplet(final MultiMaplet<K, V> storage, final TransientMultiMaplet.CollectionConstructor<V> collectionFactory) {
+    myStorage = storage;
+    myCollectionFactory = collectionFactory;
+    for (int i = 0; i < SHARDS_COUNT; i++) {
+      myShards.add(new HashMap<K, PendingValues<V>>());
+    }
+  }
+
+  private Map<K, PendingValues<V>> getShard(final K key) {
+    return myShards.get((key.hashCode() & Integer.MAX_VALUE) % SHARDS_COUNT);
+  }
+
+  private PendingValues<V> getPendingValues(final Map<K, PendingValues<V>> shard, final K key) {
+    PendingValues<V> pending = shard.get(key);
+    if (pending == null) {
+      if (shard.size() >= MAX_PENDING_KEYS_PER_SHARD) {
+        mergeShard(shard);
+      }
+      pending = new PendingValues<V>(myCollectionFactory);
+      shard.put(key, pending);
+    }
+    return pending;
+  }
+
+  @Override
+  public boolean containsKey(final K key) {
+    final Map<K, PendingValues<V>> shard = getShard(key);
+    synchronized (shard) {
+      return shard.containsKey(key) ? get(key) != null : myStorage.containsKey(key);
+    }
+  }
+
+  @Override
+  public Collection<V> get(final K key) {
+    final Map<K, PendingValues<V>> shard = getShard(key);
+    synchronized (shard) {
+      final PendingValues<V> pending = shard.get(key);
+      if (pending == null) {
+        return myStorage.get(key);
+      }
+      final Collection<V> result = myCollectionFactory.create();
+      if (!pending.myReplaced) {
+        final Collection<V> stored = myStorage.get(key);
+        if (stored != null) {
+          result.addAll(stored);
+          result.removeAll(pending.myRemoved);
+        }
+      }
+      result.addAll(pending.myAdded);
+      return result.isEmpty() ? null : result;
+    }
+  }
+
+  @Override
+  public void put(final K key, final V value) {
+    put(key, Collections.singleton(value));
+  }
+
+  @Override
+  public void put(final K key, final Collection<V> value) {
+    final Map<K, PendingValues<V>> shard = getShard(key);
+    synchronized (shard) {
+      getPendingValues(shard, key).myAdded.addAll(value);
+    }
+  }
+
+  @Override
+  public void putAll(final MultiMaplet<K, V> m) {
+    for (Map.Entry<K, Collection<V>> entry : m.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void replaceAll(final MultiMaplet<K, V> m) {
+    for (Map.Entry<K, Collection<V>> entry : m.entrySet()) {
+      final K key = entry.getKey();
+      final Map<K, PendingValues<V>> shard = getShard(key);
+      synchronized (shard) {
+        getPendingValues(shard, key).replace(entry.getValue());
+      }
+    }
+  }
+
+  @Override
+  public void remove(final K key) {
+    final Map<K, PendingValues<V>> shard = getShard(key);
+    synchronized (shard) {
+      getPendingValues(shard, key).replace(Collections.<V>emptySet());
+    }
+  }
+
+  @Override
+  public void removeFrom(final K key, final V value) {
+    removeAll(key, Collections.singleton(value));
+  }
+
+  @Override
+  public void removeAll(final K key, final Collection<V> values) {
+    final Map<K, PendingValues<V>> shard = getShard(key);
+    synchronized (shard) {
+      final PendingValues<V> pending = getPendingValues(shard, key);
+      pending.myAdded.removeAll(values);
+      if (!pending.myReplaced) {
+        pending.myRemoved.addAll(values);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    mergeAll();
+    myStorage.close();
+  }
+
+  @Override
+  public Collection<K> keyCollection() {
+    mergeAll();
+    return myStorage.keyCollection();
+  }
+
+  @Override
+  public Collection<Map.Entry<K, Collection<V>>> entrySet() {
+    mergeAll();
+    return myStorage.entrySet();
+  }
+
+  @Override
+  public void flush(final boolean memoryCachesOnly) {
+    mergeAll();
+    myStorage.flush(memoryCachesOnly);
+  }
+
+  private void mergeAll() {
+    for (Map<K, PendingValues<V>> shard : myShards) {
+      synchronized (shard) {
+        mergeShard(shard);
+      }
+    }
+  }
+
+  private void mergeShard(final Map<K, PendingValues<V>> shard) {
+    for (Map.Entry<K, PendingValues<V>> entry : shard.entrySet()) {
+      final K key = entry.getKey();
+      final PendingValues<V> pending = entry.getValue();
+      if (pending.myReplaced || !pending.myRemoved.isEmpty()) {
+        final Collection<V> values = get(key);
+        myStorage.remove(key);
+        if (values != null) {
+          myStorage.put(key, values);
+        }
+      }
+      else if (!pending.myAdded.isEmpty()) {
+        myStorage.put(key, pending.myAdded);
+      }
+    }
+    shard.clear();
+  }
+
+  private static class PendingValues<V> {
+    private final Collection<V> myAdded;
+    private final Collection<V> myRemoved;
+    // when set, the stored values are dropped and myRemoved is not used
+    private boolean myReplaced;
+
+    private PendingValues(final TransientMultiMaplet.CollectionConstructor<V> collectionFactory) {
+      myAdded = collectionFactory.create();
+      myRemoved = collectionFactory.create();
+    }
+
+    private void replace(final Collection<V> values) {
+      myReplaced = true;
+      myRemoved.clear();
+      myAdded.clear();
+      myAdded.addAll(values);
+    }
+  }
+}
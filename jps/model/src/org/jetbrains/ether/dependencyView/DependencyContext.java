@@ -21,10 +21,11 @@ class DependencyContext {
   private final static String stringTableName = "strings.tab";
   private final PersistentStringEnumerator myEnumerator;
 
+  // shared by the deltas of chunks built in parallel
   private final Map<TypeRepr.AbstractType, TypeRepr.AbstractType> myTypeMap = new HashMap<TypeRepr.AbstractType, TypeRepr.AbstractType>();
   private final Map<UsageRepr.Usage, UsageRepr.Usage> myUsageMap = new HashMap<UsageRepr.Usage, UsageRepr.Usage>();
 
-   UsageRepr.Usage getUsage(final UsageRepr.Usage u) {
+   synchronized UsageRepr.Usage getUsage(final UsageRepr.Usage u) {
      final UsageRepr.Usage r = myUsageMap.get(u);
 
      if (r == null) {
@@ -35,7 +36,7 @@ class DependencyContext {
      return r;
    }
 
-  TypeRepr.AbstractType getType(final TypeRepr.AbstractType t) {
+  synchronized TypeRepr.AbstractType getType(final TypeRepr.AbstractType t) {
     final TypeRepr.AbstractType r = myTypeMap.get(t);
 
     if (r != null) {
@@ -47,7 +48,7 @@ class DependencyContext {
     return t;
   }
 
-  void clearMemoryCaches() {
+  synchronized void clearMemoryCaches() {
     myTypeMap.clear();
     myUsageMap.clear();
   }
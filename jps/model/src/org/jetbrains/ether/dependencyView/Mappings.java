@@ -3,6 +3,7 @@ package org.jetbrains.ether.dependencyView;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataExternalizer;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
@@ -30,6 +31,9 @@ public class Mappings {
   private final static String SOURCE_TO_USAGES = "sourceToUsages.tab";
   private final static String CLASS_TO_SOURCE = "classToSource.tab";
 
+  // when set, changes of the persistent multimaplets are kept in memory and merged into the tables lazily
+  private final static boolean USE_BUFFERED_STORAGE = Boolean.parseBoolean(System.getProperty("jps.mappings.buffered.storage", "true"));
+
   private final boolean myIsDelta;
   private final boolean myDeltaIsTransient;
   private boolean myIsDifferentiated = false;
@@ -65,6 +69,7 @@ public class Mappings {
 
   private final File myRootDir;
   private DependencyContext myContext;
+  private int myDeltaCount; // guarded by myLock, deltas of concurrently built chunks must not share the directory
   private org.jetbrains.ether.dependencyView.Logger<DependencyContext.S> myDebugS;
 
   private static void debug(final String s) {
@@ -121,13 +126,14 @@ public class Mappings {
     };
 
   private Mappings(final Mappings base) throws IOException {
-    myLock = base.myLock;
+    // a delta is filled by its chunk only, so deltas of chunks built in parallel don't need to wait for each other
+    myLock = new Object();
     myIsDelta = true;
     myPostPasses = new LinkedList<PostPass>();
     myChangedClasses = new HashSet<DependencyContext.S>();
     myChangedFiles = new HashSet<DependencyContext.S>();
     myDeltaIsTransient = base.myDeltaIsTransient;
-    myRootDir = new File(FileUtil.toSystemIndependentName(base.myRootDir.getAbsolutePath()) + File.separatorChar + "delta");
+    myRootDir = new File(FileUtil.toSystemIndependentName(base.myRootDir.getAbsolutePath()) + File.separatorChar + "delta" + base.myDeltaCount++);
     myContext = base.myContext;
     myDebugS = base.myDebugS;
     myRootDir.mkdirs();
@@ -160,31 +166,12 @@ public class Mappings {
       myClassToSourceFile = new TransientMaplet<DependencyContext.S, DependencyContext.S>();
     }
     else {
-      myClassToSubclasses =
-        new PersistentMultiMaplet<DependencyContext.S, DependencyContext.S>(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES),
-                                                                            DependencyContext.descriptorS, DependencyContext.descriptorS,
-                                                                            ourStringSetConstructor);
-
-      myClassToClassDependency =
-        new PersistentMultiMaplet<DependencyContext.S, DependencyContext.S>(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS),
-                                                                            DependencyContext.descriptorS, DependencyContext.descriptorS,
-                                                                            ourStringSetConstructor);
-
-      mySourceFileToClasses =
-        new PersistentMultiMaplet<DependencyContext.S, ClassRepr>(DependencyContext.getTableFile(myRootDir, SOURCE_TO_CLASS),
-                                                                  DependencyContext.descriptorS, ClassRepr.externalizer(myContext),
-                                                                  ourClassSetConstructor);
-
-      mySourceFileToAnnotationUsages =
-        new PersistentMultiMaplet<DependencyContext.S, UsageRepr.Usage>(DependencyContext.getTableFile(myRootDir, SOURCE_TO_ANNOTATIONS),
-                                                                        DependencyContext.descriptorS, UsageRepr.externalizer(myContext),
-                                                                        ourUsageSetConstructor);
-
+      myClassToSubclasses = createMultiMaplet(CLASS_TO_SUBCLASSES, DependencyContext.descriptorS, ourStringSetConstructor);
+      myClassToClassDependency = createMultiMaplet(CLASS_TO_CLASS, DependencyContext.descriptorS, ourStringSetConstructor);
+      mySourceFileToClasses = createMultiMaplet(SOURCE_TO_CLASS, ClassRepr.externalizer(myContext), ourClassSetConstructor);
+      mySourceFileToAnnotationUsages = createMultiMaplet(SOURCE_TO_ANNOTATIONS, UsageRepr.externalizer(myContext), ourUsageSetConstructor);
       mySourceFileToUsages =
-        new PersistentMultiMaplet<DependencyContext.S, UsageRepr.Cluster>(DependencyContext.getTableFile(myRootDir, SOURCE_TO_USAGES),
-                                                                          DependencyContext.descriptorS,
-                                                                          UsageRepr.Cluster.clusterExternalizer(myContext),
-                                                                          ourUsageClusterSetConstructor);
+        createMultiMaplet(SOURCE_TO_USAGES, UsageRepr.Cluster.clusterExternalizer(myContext), ourUsageClusterSetConstructor);
 
       myClassToSourceFile =
         new PersistentMaplet<DependencyContext.S, DependencyContext.S>(DependencyContext.getTableFile(myRootDir, CLASS_TO_SOURCE),
@@ -192,6 +179,16 @@ public class Mappings {
     }
   }
 
+  private <V> MultiMaplet<DependencyContext.S, V> createMultiMaplet(final String tableName,
+                                                                    final DataExternalizer<V> valueExternalizer,
+                                                                    final TransientMultiMaplet.CollectionConstructor<V> collectionFactory)
+    throws IOException {
+    final MultiMaplet<DependencyContext.S, V> storage =
+      new PersistentMultiMaplet<DependencyContext.S, V>(DependencyContext.getTableFile(myRootDir, tableName), DependencyContext.descriptorS,
+                                                        valueExternalizer, collectionFactory);
+    return USE_BUFFERED_STORAGE ? new BufferedMultiMaplet<DependencyContext.S, V>(storage, collectionFactory) : storage;
+  }
+
   public Mappings createDelta() {
     synchronized (myLock) {
       try {
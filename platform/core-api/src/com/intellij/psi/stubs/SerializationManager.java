@@ -20,7 +20,11 @@
 package com.intellij.psi.stubs;
 
 import com.intellij.openapi.application.ApplicationManager;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
@@ -34,8 +38,23 @@ public abstract class SerializationManager {
 
   public abstract void serialize(StubElement rootStub, OutputStream stream);
 
+  /**
+   * Serializes the tree in the same format as {@link #serialize(StubElement, OutputStream)} and fills the offset table:
+   * for every stub in depth-first order, the offset of its record in the stream and the number of stubs in its subtree.
+   */
+  public abstract void serialize(StubElement rootStub, OutputStream stream, @NotNull TIntArrayList stubOffsets, @NotNull TIntArrayList subtreeSizes);
+
   public abstract StubElement deserialize(InputStream stream);
 
+  @NotNull
+  public abstract StubInputStream createStubInputStream(@NotNull InputStream stream);
+
+  /**
+   * Reads the record of a single stub without its children. The stream should be positioned at the record's offset,
+   * the number of the stub's children follows the record.
+   */
+  public abstract StubElement deserializeStub(@NotNull StubInputStream stream, @Nullable StubElement parentStub) throws IOException;
+
   public abstract StubSerializer getSerializer(StubElement rootStub);
 
   public abstract boolean isNameStorageCorrupted();
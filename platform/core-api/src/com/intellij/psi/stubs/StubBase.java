@@ -37,6 +37,7 @@ public abstract class StubBase<T extends PsiElement> extends UserDataHolderBase
   private final List<StubElement> myChildren = new SmartList<StubElement>();
   private final IStubElementType myElementType;
   private volatile T myPsi;
+  private volatile ChildrenLoader myChildrenLoader;
   public int id;
 
   protected StubBase(final StubElement parent, final IStubElementType elementType) {
@@ -54,9 +55,30 @@ public abstract class StubBase<T extends PsiElement> extends UserDataHolderBase
 
   @Override
   public List<StubElement> getChildrenStubs() {
+    if (myChildrenLoader != null && !Thread.holdsLock(myChildren)) {
+      synchronized (myChildren) {
+        final ChildrenLoader loader = myChildrenLoader;
+        if (loader != null) {
+          loader.loadChildren(this);
+          myChildrenLoader = null;
+        }
+      }
+    }
     return myChildren;
   }
 
+  /**
+   * Makes the children of this stub be created on the first access through the given loader,
+   * which should construct them with this stub as the parent.
+   */
+  public void setChildrenLoader(@Nullable ChildrenLoader loader) {
+    myChildrenLoader = loader;
+  }
+
+  public interface ChildrenLoader {
+    void loadChildren(StubBase<?> stub);
+  }
+
   @Override
   @Nullable
   public <P extends PsiElement> StubElement<P> findChildStubByType(final IStubElementType<?, P> elementType) {
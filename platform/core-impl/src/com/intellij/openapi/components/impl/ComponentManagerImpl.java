@@ -68,6 +68,7 @@ public abstract class ComponentManagerImpl extends UserDataHolderBase implements
   private final ComponentManager myParentComponentManager;
   private Boolean myHeadless;
   protected ComponentsRegistry myComponentsRegistry = new ComponentsRegistry();
+  private final ComponentsTimeline myTimeline = ComponentsTimeline.ENABLED ? new ComponentsTimeline() : null;
   private final Condition myDisposedCondition = new Condition() {
     @Override
     public boolean value(final Object o) {
@@ -119,6 +120,9 @@ public abstract class ComponentManagerImpl extends UserDataHolderBase implements
     }
     finally {
       myComponentsCreated = true;
+      if (myTimeline != null) {
+        myTimeline.write(toString());
+      }
     }
   }
 
@@ -625,6 +629,7 @@ public abstract class ComponentManagerImpl extends UserDataHolderBase implements
             @Override
             public Object getComponentInstance(PicoContainer picoContainer) throws PicoInitializationException, PicoIntrospectionException {
               Object componentInstance = null;
+              long timelineStart = myInitialized || myTimeline == null ? 0 : myTimeline.started();
               try {
                 long startTime = myInitialized ? 0 : System.nanoTime();
                 componentInstance = super.getComponentInstance(picoContainer);
@@ -661,6 +666,12 @@ public abstract class ComponentManagerImpl extends UserDataHolderBase implements
               catch (Throwable t) {
                 handleInitComponentError(t, componentInstance == null, componentKey.toString());
               }
+              finally {
+                if (timelineStart != 0) {
+                  myTimeline.finished(timelineStart, componentInstance == null ? componentKey.toString() : componentInstance.getClass().getName(),
+                                      myConfig.pluginDescriptor == null ? null : myConfig.pluginDescriptor.getPluginId().getIdString());
+                }
+              }
               return componentInstance;
             }
           };
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.components.impl;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wall time of creating and initializing every component of a {@link ComponentManagerImpl}.
+ * <p/>
+ * Components are often created while another one is being created (constructor injection, <code>getComponent()</code> calls
+ * from <code>initComponent()</code>), so besides the total time the time without such nested components is recorded.
+ * <p/>
+ * With <code>-Didea.components.timeline=true</code> the records are written to <code>components-timeline.txt</code>
+ * in the log directory: the file is recreated by the first component manager of the session and every manager
+ * appends a section of tab-separated lines (start offset, own time, total time in milliseconds, thread, plugin, component).
+ */
+class ComponentsTimeline {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.components.impl.ComponentsTimeline");
+
+  static final boolean ENABLED = "true".equals(System.getProperty("idea.components.timeline"));
+  @NonNls private static final String FILE_NAME = "components-timeline.txt";
+  private static boolean ourFileCreated;
+
+  private final ThreadLocal<List<long[]>> myNestedTimes = new ThreadLocal<List<long[]>>() {
+    @Override
+    protected List<long[]> initialValue() {
+      return new ArrayList<long[]>();
+    }
+  };
+  private final List<Record> myRecords = new ArrayList<Record>();
+  private final long myStart = System.nanoTime();
+
+  /**
+   * Must be paired with {@link #finished}, in the same thread.
+   * @return the start time to be passed to {@link #finished}
+   */
+  long started() {
+    myNestedTimes.get().add(new long[1]);
+    return System.nanoTime();
+  }
+
+  void finished(long startTime, @NotNull String componentName, @Nullable String pluginId) {
+    long total = System.nanoTime() - startTime;
+    List<long[]> nestedTimes = myNestedTimes.get();
+    long nested = nestedTimes.remove(nestedTimes.size() - 1)[0];
+    if (!nestedTimes.isEmpty()) {
+      nestedTimes.get(nestedTimes.size() - 1)[0] += total;
+    }
+    Record record = new Record(componentName, pluginId, Thread.currentThread().getName(), startTime - myStart, total - nested, total);
+    synchronized (myRecords) {
+      myRecords.add(record);
+    }
+  }
+
+  void write(@NotNull String title) {
+    File file = new File(PathManager.getLogPath(), FILE_NAME);
+    try {
+      synchronized (ComponentsTimeline.class) {
+        if (!FileUtil.ensureCanCreateFile(file)) return;
+        write(file, title, ourFileCreated);
+        ourFileCreated = true;
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Can't write " + file, e);
+    }
+  }
+
+  void write(@NotNull File file, @NotNull String title, boolean append) throws IOException {
+    PrintStream out = new PrintStream(new FileOutputStream(file, append));
+    try {
+      out.println("# " + title);
+      synchronized (myRecords) {
+        for (Record record : myRecords) {
+          out.println(record.myStartOffset / 1000000 + "\t" +
+                      record.myOwnTime / 1000000 + "\t" +
+                      record.myTotalTime / 1000000 + "\t" +
+                      record.myThread + "\t" +
+                      (record.myPluginId == null ? "" : record.myPluginId) + "\t" +
+                      record.myComponentName);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static class Record {
+    private final String myComponentName;
+    private final String myPluginId;
+    private final String myThread;
+    private final long myStartOffset;
+    private final long myOwnTime;
+    private final long myTotalTime;
+
+    private Record(String componentName, String pluginId, String thread, long startOffset, long ownTime, long totalTime) {
+      myComponentName = componentName;
+      myPluginId = pluginId;
+      myThread = thread;
+      myStartOffset = startOffset;
+      myOwnTime = ownTime;
+      myTotalTime = totalTime;
+    }
+  }
+}
@@ -62,6 +62,12 @@ abstract class CharArray implements CharSequenceBackedByArray {
   private int myCount = 0;
 
   private CharSequence          myOriginalSequence;
+  /**
+   * Text of the array when it uses rope storage, see {@link #CharArray(int, boolean)}. The array works in one of the modes only,
+   * so if this field is not null, {@link #myOriginalSequence} and deferred changes are not used and {@link #myArray} just caches
+   * the {@link #getChars() flattened} text.
+   */
+  private ImmutableText         myRope;
   private char[]                myArray;
   private SoftReference<String> myStringRef; // buffers String value - for not to generate it every time
   private int                   myBufferSize;
@@ -90,7 +96,19 @@ abstract class CharArray implements CharSequenceBackedByArray {
 
   // max chars to hold, bufferSize == 0 means unbounded
   CharArray(int bufferSize) {
-    this(bufferSize, new TextChangesStorage(), null, -1, -1);
+    this(bufferSize, false);
+  }
+
+  /**
+   * @param useRope  whether the text should be kept in an {@link ImmutableText} instead of a flat array. Modifications don't copy
+   *                 the whole text then, and {@link #getCharArray()} returns an immutable snapshot
+   */
+  CharArray(int bufferSize, boolean useRope) {
+    this(bufferSize, new TextChangesStorage(), null, -1, -1, DEBUG_DEFERRED_PROCESSING && !useRope);
+    if (useRope) {
+      myRope = ImmutableText.EMPTY;
+      myOriginalSequence = null;
+    }
   }
 
   private CharArray(final int bufferSize, @NotNull TextChangesStorage deferredChangesStorage, @Nullable char[] data, int start, int end) {
@@ -151,6 +169,15 @@ abstract class CharArray implements CharSequenceBackedByArray {
   protected abstract void afterChangedUpdate(@NotNull DocumentEvent event, long newModificationStamp);
 
   public void setText(@Nullable final DocumentImpl subj, final CharSequence chars) {
+    if (myRope != null) {
+      myRope = ImmutableText.valueOf(chars);
+      myArray = null;
+      myStringRef = null;
+      if (subj != null) {
+        trimToSize(subj);
+      }
+      return;
+    }
     myOriginalSequence = chars;
     myArray = null;
     myCount = chars.length();
@@ -192,6 +219,10 @@ abstract class CharArray implements CharSequenceBackedByArray {
   }
 
   private void doReplace(int startOffset, int endOffset, CharSequence newString) {
+    if (myRope != null) {
+      updateRope(myRope.replace(startOffset, endOffset, newString));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -227,6 +258,10 @@ abstract class CharArray implements CharSequenceBackedByArray {
     if (startIndex == endIndex) {
       return;
     }
+    if (myRope != null) {
+      updateRope(myRope.delete(startIndex, endIndex));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -253,6 +288,10 @@ abstract class CharArray implements CharSequenceBackedByArray {
   }
 
   private void doInsert(final CharSequence s, final int startIndex) {
+    if (myRope != null) {
+      updateRope(myRope.insert(startIndex, s));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -310,6 +349,12 @@ abstract class CharArray implements CharSequenceBackedByArray {
     }
   }
   
+  private void updateRope(@NotNull ImmutableText text) {
+    myRope = text;
+    myArray = null;
+    myStringRef = null;
+  }
+
   private void prepareForModification() {
     if (myOriginalSequence != null) {
       myArray = new char[myOriginalSequence.length()];
@@ -320,14 +365,29 @@ abstract class CharArray implements CharSequenceBackedByArray {
   }
 
   public CharSequence getCharArray() {
+    if (myRope != null) return myRope;
     if (myOriginalSequence != null) return myOriginalSequence;
     return this;
   }
 
+  /**
+   * @return  text of the array which is not affected by its subsequent modifications. Taken in constant time
+   *          if the array uses rope storage, otherwise the text is copied
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    if (myRope != null) return myRope;
+    if (myOriginalSequence instanceof String) return myOriginalSequence;
+    return toString();
+  }
+
   public String toString() {
     String str = myStringRef != null ? myStringRef.get() : null;
     if (str == null) {
-      if (myOriginalSequence != null) {
+      if (myRope != null) {
+        str = myRope.toString();
+      }
+      else if (myOriginalSequence != null) {
         str = myOriginalSequence.toString();
       }
       else if (!hasDeferredChanges()) {
@@ -347,6 +407,7 @@ abstract class CharArray implements CharSequenceBackedByArray {
 
   @Override
   public final int length() {
+    if (myRope != null) return myRope.length();
     final int result = myCount + myDeferredShift;
     if (myDebugDeferredProcessing && isDeferredChangeMode()) {
       int expected = myDebugArray.length();
@@ -363,6 +424,7 @@ abstract class CharArray implements CharSequenceBackedByArray {
       throw new IndexOutOfBoundsException("Wrong offset: " + i + "; count:" + length());
     }
     i += myStart;
+    if (myRope != null) return myRope.charAt(i);
     if (myOriginalSequence != null) return myOriginalSequence.charAt(i);
     final char result;
     if (hasDeferredChanges()) {
@@ -392,6 +454,7 @@ abstract class CharArray implements CharSequenceBackedByArray {
 
   @Override
   public CharSequence subSequence(final int start, final int end) {
+    if (myRope != null) return myRope.subSequence(start, end);
     if (start == 0 && end == length()) return this;
     if (myOriginalSequence != null) {
       return myOriginalSequence.subSequence(start, end);
@@ -434,6 +497,13 @@ abstract class CharArray implements CharSequenceBackedByArray {
   
   @Override
   public char[] getChars() {
+    if (myRope != null) {
+      if (myArray == null) {
+        myArray = new char[myRope.length()];
+        myRope.getChars(0, myArray.length, myArray, 0);
+      }
+      return myArray;
+    }
     if (myOriginalSequence != null) {
       if (myArray == null) {
         myArray = CharArrayUtil.fromSequence(myOriginalSequence);
@@ -454,6 +524,10 @@ abstract class CharArray implements CharSequenceBackedByArray {
 
   @Override
   public void getChars(final char[] dst, final int dstOffset) {
+    if (myRope != null) {
+      myRope.getChars(0, myRope.length(), dst, dstOffset);
+      return;
+    }
     flushDeferredChanged(myDeferredChangesStorage.get());
     if (myOriginalSequence != null) {
       CharArrayUtil.getChars(myOriginalSequence,dst, dstOffset);
@@ -477,6 +551,7 @@ abstract class CharArray implements CharSequenceBackedByArray {
 
   public CharSequence substring(final int start, final int end) {
     if (start == end) return "";
+    if (myRope != null) return myRope.subSequence(start, end);
     final CharSequence result;
     if (myOriginalSequence == null) {
       TextChangesStorage storage = myDeferredChangesStorage.get();
@@ -520,7 +595,8 @@ abstract class CharArray implements CharSequenceBackedByArray {
     if (myBufferSize != 0 && length() > myBufferSize) {
       flushDeferredChanged(myDeferredChangesStorage.get());
       // make a copy
-      remove(subj, 0, myCount - myBufferSize, getCharArray().subSequence(0, myCount - myBufferSize).toString());
+      int toRemove = length() - myBufferSize;
+      remove(subj, 0, toRemove, getCharArray().subSequence(0, toRemove).toString());
     }
   }
 
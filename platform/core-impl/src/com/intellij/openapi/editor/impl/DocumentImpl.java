@@ -52,6 +52,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.impl.DocumentImpl");
+  /**
+   * Keep document text in {@link ImmutableText} ropes: modifications of large documents don't copy the whole text and
+   * {@link #getImmutableCharSequence()} is free, while {@link #getRawChars()} has to flatten the text after every change.
+   */
+  @SuppressWarnings("UseOfArchaicSystemPropertyAccessors")
+  private static final boolean USE_ROPE_STORAGE = Boolean.getBoolean("idea.document.rope.storage");
 
   private final CopyOnWriteArrayList<DocumentListener> myDocumentListeners = ContainerUtil.createEmptyCOWList();
   private final RangeMarkerTree<RangeMarkerEx> myRangeMarkers = new RangeMarkerTree<RangeMarkerEx>(this);
@@ -59,7 +65,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private ReadonlyFragmentModificationHandler myReadonlyFragmentModificationHandler;
 
   private final LineSet myLineSet = new LineSet();
-  private final CharArray myText = new MyCharArray();
+  private final CharArray myText;
 
   private boolean myIsReadOnly = false;
   private boolean isStripTrailingSpacesEnabled = true;
@@ -82,18 +88,23 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   }
 
   public DocumentImpl(CharSequence chars) {
-    this();
+    this(chars, false, USE_ROPE_STORAGE);
+  }
+
+  DocumentImpl(CharSequence chars, boolean forUseInNonAWTThread, boolean useRopeStorage) {
+    this(forUseInNonAWTThread, useRopeStorage);
     assertValidSeparators(chars);
     myText.setText(this, chars);
     DocumentEvent event = new DocumentEventImpl(this, 0, null, null, -1, true);
     myLineSet.documentCreated(event);
   }
 
-  private DocumentImpl() {
-    this(false);
+  public DocumentImpl(boolean forUseInNonAWTThread) {
+    this(forUseInNonAWTThread, USE_ROPE_STORAGE);
   }
 
-  public DocumentImpl(boolean forUseInNonAWTThread) {
+  private DocumentImpl(boolean forUseInNonAWTThread, boolean useRopeStorage) {
+    myText = new MyCharArray(useRopeStorage);
     setCyclicBufferSize(0);
     setModificationStamp(LocalTimeCounter.currentTime());
     myAssertWriteAccess = !forUseInNonAWTThread;
@@ -627,6 +638,16 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     return myText.getCharArray();
   }
 
+  /**
+   * @return document text which is not affected by subsequent document modifications, so it may be processed in background.
+   *         Taken in constant time when {@link #USE_ROPE_STORAGE rope storage} is used, otherwise the text is copied
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    assertReadAccessToDocumentsAllowed();
+    return myText.getImmutableCharSequence();
+  }
+
 
   @Override
   public void addDocumentListener(@NotNull DocumentListener listener) {
@@ -822,8 +843,8 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   }
   
   private static class MyCharArray extends CharArray {
-    public MyCharArray() {
-      super(0);
+    public MyCharArray(boolean useRope) {
+      super(0, useRope);
     }
 
     @Override
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable text stored as a balanced binary tree (rope) of character blocks.
+ * <p/>
+ * Insertion and removal build a new text sharing all untouched blocks with the original one and take <code>O(log n)</code> time,
+ * so any text value can be kept as a snapshot for free. Random access is <code>O(log n)</code> as well; sequential access is
+ * cheaper since the last accessed block is cached.
+ */
+public final class ImmutableText implements CharSequence {
+  /**
+   * Maximum number of characters in a leaf block.
+   */
+  private static final int BLOCK_SIZE = 1 << 9;
+
+  public static final ImmutableText EMPTY = new ImmutableText(new LeafNode(ArrayUtil.EMPTY_CHAR_ARRAY));
+
+  private final Node myNode;
+  private volatile LeafRef myLastLeaf; // the block accessed by the last charAt() call
+
+  private ImmutableText(@NotNull Node node) {
+    myNode = node;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) {
+      return (ImmutableText)text;
+    }
+    if (text.length() == 0) {
+      return EMPTY;
+    }
+    return new ImmutableText(nodeOf(text, 0, text.length()));
+  }
+
+  @NotNull
+  private static Node nodeOf(@NotNull CharSequence text, int start, int end) {
+    int length = end - start;
+    if (length <= BLOCK_SIZE) {
+      char[] chars = new char[length];
+      if (text instanceof String) {
+        ((String)text).getChars(start, end, chars, 0);
+      }
+      else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = text.charAt(start + i);
+        }
+      }
+      return new LeafNode(chars);
+    }
+    // split at a block boundary to keep the leaves full
+    int half = ((length + BLOCK_SIZE) >> 1) & -BLOCK_SIZE;
+    return new CompositeNode(nodeOf(text, start, start + half), nodeOf(text, start + half, end));
+  }
+
+  @NotNull
+  public ImmutableText concat(@NotNull ImmutableText text) {
+    if (text.length() == 0) return this;
+    if (length() == 0) return text;
+    return new ImmutableText(concatNodes(myNode, text.myNode));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    if (text.length() == 0) return this;
+    return subtext(0, index).concat(valueOf(text)).concat(subtext(index, length()));
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    if (start == end) return this;
+    if (start > end) {
+      throw new IndexOutOfBoundsException("Wrong range: " + start + ".." + end);
+    }
+    return subtext(0, start).concat(subtext(end, length()));
+  }
+
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    return delete(start, end).insert(start, text);
+  }
+
+  @NotNull
+  private ImmutableText subtext(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: " + start + ".." + end + "; length: " + length());
+    }
+    if (start == 0 && end == length()) return this;
+    if (start == end) return EMPTY;
+    return new ImmutableText(myNode.subNode(start, end));
+  }
+
+  @Override
+  public int length() {
+    return myNode.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    LeafRef leaf = myLastLeaf;
+    if (leaf == null || index < leaf.offset || index >= leaf.offset + leaf.node.myChars.length) {
+      if (index < 0 || index >= length()) {
+        throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + length());
+      }
+      myLastLeaf = leaf = findLeaf(index);
+    }
+    return leaf.node.myChars[index - leaf.offset];
+  }
+
+  @NotNull
+  private LeafRef findLeaf(int index) {
+    Node node = myNode;
+    int offset = 0;
+    while (node instanceof CompositeNode) {
+      CompositeNode composite = (CompositeNode)node;
+      int headLength = composite.myHead.length();
+      if (index - offset < headLength) {
+        node = composite.myHead;
+      }
+      else {
+        offset += headLength;
+        node = composite.myTail;
+      }
+    }
+    return new LeafRef((LeafNode)node, offset);
+  }
+
+  @NotNull
+  @Override
+  public ImmutableText subSequence(int start, int end) {
+    return subtext(start, end);
+  }
+
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: " + start + ".." + end + "; length: " + length());
+    }
+    myNode.getChars(start, end, dest, destPos);
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    char[] chars = new char[length()];
+    myNode.getChars(0, chars.length, chars, 0);
+    return new String(chars);
+  }
+
+  /**
+   * @return depth of the underlying tree, for testing purposes
+   */
+  int getDepth() {
+    return myNode.depth();
+  }
+
+  @NotNull
+  private static Node concatNodes(@NotNull Node head, @NotNull Node tail) {
+    int headLength = head.length();
+    int tailLength = tail.length();
+    if (headLength == 0) return tail;
+    if (tailLength == 0) return head;
+
+    if (headLength + tailLength <= BLOCK_SIZE) {
+      char[] chars = new char[headLength + tailLength];
+      head.getChars(0, headLength, chars, 0);
+      tail.getChars(0, tailLength, chars, headLength);
+      return new LeafNode(chars);
+    }
+    if (headLength << 1 < tailLength && tail instanceof CompositeNode) {
+      // the head is small, push it down the left side of the tail
+      CompositeNode composite = (CompositeNode)tail;
+      if (composite.myHead.length() > composite.myTail.length()) {
+        composite = composite.rotateRight();
+      }
+      return new CompositeNode(concatNodes(head, composite.myHead), composite.myTail);
+    }
+    if (tailLength << 1 < headLength && head instanceof CompositeNode) {
+      // the tail is small, push it down the right side of the head
+      CompositeNode composite = (CompositeNode)head;
+      if (composite.myTail.length() > composite.myHead.length()) {
+        composite = composite.rotateLeft();
+      }
+      return new CompositeNode(composite.myHead, concatNodes(composite.myTail, tail));
+    }
+    return new CompositeNode(head, tail);
+  }
+
+  private static abstract class Node {
+    abstract int length();
+
+    abstract int depth();
+
+    abstract void getChars(int start, int end, @NotNull char[] dest, int destPos);
+
+    @NotNull
+    abstract Node subNode(int start, int end);
+  }
+
+  private static final class LeafNode extends Node {
+    private final char[] myChars;
+
+    private LeafNode(@NotNull char[] chars) {
+      myChars = chars;
+    }
+
+    @Override
+    int length() {
+      return myChars.length;
+    }
+
+    @Override
+    int depth() {
+      return 0;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      System.arraycopy(myChars, start, dest, destPos, end - start);
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myChars.length) return this;
+      char[] chars = new char[end - start];
+      System.arraycopy(myChars, start, chars, 0, chars.length);
+      return new LeafNode(chars);
+    }
+  }
+
+  private static final class CompositeNode extends Node {
+    private final Node myHead;
+    private final Node myTail;
+    private final int myLength;
+    private final int myDepth;
+
+    private CompositeNode(@NotNull Node head, @NotNull Node tail) {
+      myHead = head;
+      myTail = tail;
+      myLength = head.length() + tail.length();
+      myDepth = Math.max(head.depth(), tail.depth()) + 1;
+    }
+
+    @Override
+    int length() {
+      return myLength;
+    }
+
+    @Override
+    int depth() {
+      return myDepth;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      int headLength = myHead.length();
+      if (start < headLength) {
+        int headEnd = Math.min(end, headLength);
+        myHead.getChars(start, headEnd, dest, destPos);
+        destPos += headEnd - start;
+      }
+      if (end > headLength) {
+        myTail.getChars(Math.max(0, start - headLength), end - headLength, dest, destPos);
+      }
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      int headLength = myHead.length();
+      if (end <= headLength) return myHead.subNode(start, end);
+      if (start >= headLength) return myTail.subNode(start - headLength, end - headLength);
+      return concatNodes(myHead.subNode(start, headLength), myTail.subNode(0, end - headLength));
+    }
+
+    @NotNull
+    private CompositeNode rotateRight() {
+      if (!(myHead instanceof CompositeNode)) return this;
+      CompositeNode head = (CompositeNode)myHead;
+      return new CompositeNode(head.myHead, new CompositeNode(head.myTail, myTail));
+    }
+
+    @NotNull
+    private CompositeNode rotateLeft() {
+      if (!(myTail instanceof CompositeNode)) return this;
+      CompositeNode tail = (CompositeNode)myTail;
+      return new CompositeNode(new CompositeNode(myHead, tail.myHead), tail.myTail);
+    }
+  }
+
+  private static final class LeafRef {
+    private final LeafNode node;
+    private final int offset;
+
+    private LeafRef(@NotNull LeafNode node, int offset) {
+      this.node = node;
+      this.offset = offset;
+    }
+  }
+}
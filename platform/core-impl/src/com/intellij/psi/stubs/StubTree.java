@@ -30,13 +30,22 @@ import java.util.Map;
 
 public class StubTree {
   private final PsiFileStub myRoot;
-  private final List<StubElement<?>> myPlainList = new ArrayList<StubElement<?>>();
+  private final List<StubElement<?>> myPlainList;
 
   public StubTree(@NotNull final PsiFileStub root) {
     myRoot = root;
+    myPlainList = new ArrayList<StubElement<?>>();
     enumerateStubs(root, myPlainList);
   }
 
+  /**
+   * @param plainList stubs of the tree in depth-first order with their ids already set; may create them on demand
+   */
+  public StubTree(@NotNull final PsiFileStub root, @NotNull final List<StubElement<?>> plainList) {
+    myRoot = root;
+    myPlainList = plainList;
+  }
+
   private static void enumerateStubs(final StubElement<?> root, final List<StubElement<?>> result) {
     ((StubBase)root).id = result.size();
     result.add(root);
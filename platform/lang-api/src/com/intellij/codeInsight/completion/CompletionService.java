@@ -79,13 +79,22 @@ public abstract class CompletionService {
       if (dumb && !DumbService.isDumbAware(contributor)) continue;
 
       final CompletionResultSet result = createResultSet(parameters, consumer, contributor);
-      contributor.fillCompletionVariants(parameters, result);
+      fillCompletionVariants(contributor, parameters, result);
       if (result.isStopped()) {
         return;
       }
     }
   }
 
+  /**
+   * Runs a single contributor, may be overridden to measure it.
+   */
+  protected void fillCompletionVariants(@NotNull CompletionContributor contributor,
+                                        @NotNull CompletionParameters parameters,
+                                        @NotNull CompletionResultSet result) {
+    contributor.fillCompletionVariants(parameters, result);
+  }
+
   /**
    * Create a {@link com.intellij.codeInsight.completion.CompletionResultSet} that will filter variants based on default camel-hump
    * {@link com.intellij.codeInsight.completion.PrefixMatcher} and give the filtered variants to consumer.  
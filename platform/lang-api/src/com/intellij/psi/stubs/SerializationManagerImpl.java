@@ -26,9 +26,11 @@ import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.IStubFileElementType;
 import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.PersistentStringEnumerator;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -169,10 +171,30 @@ public class SerializationManagerImpl extends SerializationManager implements Ap
   public void serialize(StubElement rootStub, OutputStream stream) {
     if (!mySerializersLoaded) initSerializers();
     StubOutputStream stubOutputStream = new StubOutputStream(stream, myNameStorage);
-    doSerialize(rootStub, stubOutputStream);
+    doSerialize(rootStub, stubOutputStream, null, null);
   }
 
-  private void doSerialize(final StubElement rootStub, final StubOutputStream stream) {
+  @Override
+  public void serialize(StubElement rootStub, OutputStream stream, @NotNull TIntArrayList stubOffsets, @NotNull TIntArrayList subtreeSizes) {
+    if (!mySerializersLoaded) initSerializers();
+    StubOutputStream stubOutputStream = new StubOutputStream(stream, myNameStorage);
+    doSerialize(rootStub, stubOutputStream, stubOffsets, subtreeSizes);
+  }
+
+  /**
+   * @return the number of stubs in the subtree
+   */
+  private int doSerialize(final StubElement rootStub,
+                          final StubOutputStream stream,
+                          @Nullable final TIntArrayList stubOffsets,
+                          @Nullable final TIntArrayList subtreeSizes) {
+    int index = -1;
+    if (stubOffsets != null && subtreeSizes != null) {
+      index = stubOffsets.size();
+      stubOffsets.add(stream.size());
+      subtreeSizes.add(1);
+    }
+    int count = 1;
     try {
       final StubSerializer serializer = getSerializer(rootStub);
 
@@ -183,13 +205,17 @@ public class SerializationManagerImpl extends SerializationManager implements Ap
       final int childrenSize = children.size();
       DataInputOutputUtil.writeINT(stream, childrenSize);
       for (int i = 0; i < childrenSize; ++i) {
-        doSerialize(children.get(i), stream);
+        count += doSerialize(children.get(i), stream, stubOffsets, subtreeSizes);
       }
     }
     catch (IOException e) {
       LOG.info(e);
       myNameStorageCrashed.set(true);
     }
+    if (index >= 0) {
+      subtreeSizes.set(index, count);
+    }
+    return count;
   }
 
   public StubSerializer getSerializer(final StubElement rootStub) {
@@ -214,13 +240,25 @@ public class SerializationManagerImpl extends SerializationManager implements Ap
     }
   }
 
-  private StubElement deserialize(StubInputStream stream, StubElement parentStub) throws IOException {
+  @NotNull
+  @Override
+  public StubInputStream createStubInputStream(@NotNull InputStream stream) {
+    if (!mySerializersLoaded) initSerializers();
+    return new StubInputStream(stream, myNameStorage);
+  }
+
+  @Override
+  public StubElement deserializeStub(@NotNull StubInputStream stream, @Nullable StubElement parentStub) throws IOException {
     final int id = DataInputOutputUtil.readINT(stream);
     final StubSerializer serializer = getClassById(id);
-    
+
     assert serializer != null : "No serializer registered for stub: ID=" + id + "; parent stub class=" + (parentStub != null? parentStub.getClass().getName() : "null");
-    
-    StubElement stub = serializer.deserialize(stream, parentStub);
+
+    return serializer.deserialize(stream, parentStub);
+  }
+
+  private StubElement deserialize(StubInputStream stream, StubElement parentStub) throws IOException {
+    StubElement stub = deserializeStub(stream, parentStub);
     int childCount = DataInputOutputUtil.readINT(stream);
     for (int i = 0; i < childCount; i++) {
       deserialize(stream, stub);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.completion;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time spent in each {@link CompletionContributor} during one completion process and the number of items it has added.
+ * <p/>
+ * A contributor may run the remaining contributors from its own {@link CompletionContributor#fillCompletionVariants}, so besides
+ * the total time the time without such nested contributors is recorded.
+ */
+public class CompletionContributorTimings {
+  private final Map<CompletionContributor, Stats> myStats = new LinkedHashMap<CompletionContributor, Stats>();
+  private final List<long[]> myNestedTimes = new ArrayList<long[]>(); // one per running contributor
+  private final long myStart = System.nanoTime();
+
+  public void run(@NotNull CompletionContributor contributor, @NotNull Runnable fill) {
+    long[] nested = new long[1];
+    synchronized (this) {
+      myNestedTimes.add(nested);
+    }
+    long start = System.nanoTime();
+    try {
+      fill.run();
+    }
+    finally {
+      long total = System.nanoTime() - start;
+      synchronized (this) {
+        myNestedTimes.remove(myNestedTimes.size() - 1);
+        if (!myNestedTimes.isEmpty()) {
+          myNestedTimes.get(myNestedTimes.size() - 1)[0] += total;
+        }
+        Stats stats = getStats(contributor);
+        stats.totalTime += total;
+        stats.ownTime += total - nested[0];
+      }
+    }
+  }
+
+  public synchronized void itemAdded(@NotNull CompletionContributor contributor) {
+    Stats stats = getStats(contributor);
+    if (stats.items++ == 0) {
+      stats.firstItemTime = System.nanoTime() - myStart;
+    }
+  }
+
+  @NotNull
+  private Stats getStats(@NotNull CompletionContributor contributor) {
+    Stats stats = myStats.get(contributor);
+    if (stats == null) {
+      stats = new Stats();
+      myStats.put(contributor, stats);
+    }
+    return stats;
+  }
+
+  public synchronized long getOwnTimeMillis(@NotNull CompletionContributor contributor) {
+    Stats stats = myStats.get(contributor);
+    return stats == null ? 0 : stats.ownTime / 1000000;
+  }
+
+  public synchronized int getItemCount(@NotNull CompletionContributor contributor) {
+    Stats stats = myStats.get(contributor);
+    return stats == null ? 0 : stats.items;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<CompletionContributor, Stats> entry : myStats.entrySet()) {
+      Stats stats = entry.getValue();
+      builder.append(entry.getKey().getClass().getName())
+        .append(": own ").append(stats.ownTime / 1000000).append(" ms")
+        .append(", total ").append(stats.totalTime / 1000000).append(" ms")
+        .append(", ").append(stats.items).append(" items");
+      if (stats.items > 0) {
+        builder.append(", first after ").append(stats.firstItemTime / 1000000).append(" ms");
+      }
+      builder.append("\n");
+    }
+    return builder.toString();
+  }
+
+  private static class Stats {
+    long ownTime;
+    long totalTime;
+    long firstItemTime;
+    int items;
+  }
+}
@@ -119,6 +119,7 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
   private volatile int myCount;
   private final ConcurrentHashMap<LookupElement, CompletionSorterImpl> myItemSorters = new ConcurrentHashMap<LookupElement, CompletionSorterImpl>(TObjectHashingStrategy.IDENTITY);
   private final PropertyChangeListener myLookupManagerListener;
+  private final CompletionContributorTimings myContributorTimings = new CompletionContributorTimings();
 
   public CompletionProgressIndicator(final Editor editor, CompletionParameters parameters, CodeCompletionHandlerBase handler, Semaphore freezeSemaphore,
                                      final OffsetMap offsetMap, boolean hasModifiers) {
@@ -212,6 +213,11 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
     }
   }
 
+  @NotNull
+  public CompletionContributorTimings getContributorTimings() {
+    return myContributorTimings;
+  }
+
   @NotNull
   CompletionSorterImpl getSorter(LookupElement element) {
     return myItemSorters.get(element);
@@ -472,6 +478,10 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
     myQueue.cancelAllUpdates();
     myFreezeSemaphore.up();
 
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Completion finished with " + myCount + " items:\n" + myContributorTimings);
+    }
+
     ApplicationManager.getApplication().invokeLater(new Runnable() {
       public void run() {
         final CompletionPhase phase = CompletionServiceImpl.getCompletionPhase();
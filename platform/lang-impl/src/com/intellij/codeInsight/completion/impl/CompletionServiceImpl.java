@@ -95,6 +95,23 @@ public class CompletionServiceImpl extends CompletionService{
     return new CompletionResultSetImpl(consumer, textBeforePosition, matcher, contributor,parameters, sorter, process, null);
   }
 
+  @Override
+  protected void fillCompletionVariants(@NotNull final CompletionContributor contributor,
+                                        @NotNull final CompletionParameters parameters,
+                                        @NotNull final CompletionResultSet result) {
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    if (!(indicator instanceof CompletionProgressIndicator)) {
+      super.fillCompletionVariants(contributor, parameters, result);
+      return;
+    }
+    ((CompletionProgressIndicator)indicator).getContributorTimings().run(contributor, new Runnable() {
+      @Override
+      public void run() {
+        CompletionServiceImpl.super.fillCompletionVariants(contributor, parameters, result);
+      }
+    });
+  }
+
   @Override
   public CompletionProgressIndicator getCurrentCompletion() {
     if (isPhase(CompletionPhase.BgCalculation.class, CompletionPhase.ItemsCalculated.class, CompletionPhase.CommittingDocuments.class,
@@ -129,6 +146,7 @@ public class CompletionServiceImpl extends CompletionService{
     public void addElement(@NotNull final LookupElement element) {
       CompletionResult matched = CompletionResult.wrap(element, getPrefixMatcher(), mySorter);
       if (matched != null) {
+        myProcess.getContributorTimings().itemAdded(myContributor);
         passResult(matched);
       }
     }
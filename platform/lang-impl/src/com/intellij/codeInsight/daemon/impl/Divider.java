@@ -116,6 +116,16 @@ public class Divider {
       else {
         // composite element
         if (offset > endOffset) break;
+        if (offset < startOffset) {
+          int childLength = child.getTextLength();
+          if (offset + childLength < startOffset) {
+            // the whole subtree lies before the range, none of its elements can get into the result,
+            // so don't walk it: for a change inside a method body of a huge class this keeps the cost proportional to the dirty range
+            offset += childLength;
+            child = child.getNextSibling();
+            continue;
+          }
+        }
         children.push(child.getNextSibling());
         starts.push(offset);
         elements.push(element);
@@ -87,6 +87,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   private final SeverityRegistrar mySeverityRegistrar;
   private final InspectionProfileWrapper myProfileWrapper;
   private boolean myFailFastOnAcquireReadAction;
+  private volatile boolean myApplied;
 
   public LocalInspectionsPass(@NotNull PsiFile file,
                               @Nullable Document document,
@@ -131,13 +132,45 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
       if (!HighlightLevelUtil.shouldInspect(myFile)) return;
       final InspectionManagerEx iManager = (InspectionManagerEx)InspectionManager.getInstance(myProject);
       final InspectionProfileWrapper profile = myProfileWrapper;
-      inspect(getInspectionTools(profile), iManager, true, true, DumbService.isDumb(myProject), progress);
+      List<LocalInspectionToolWrapper> tools = getInspectionTools(profile);
+      boolean wholeFile = myDocument != null && myStartOffset == 0 && myEndOffset == myDocument.getTextLength();
+      if (wholeFile) {
+        showCachedResults(tools);
+      }
+      inspect(tools, iManager, true, true, DumbService.isDumb(myProject), progress);
+      if (wholeFile) {
+        LocalInspectionsResultCache.getInstance(myProject).cacheInfos(myFile, myDocument, tools, profile.getInspectionProfile(), myInfos);
+      }
     }
     finally {
       disposeDescriptors();
     }
   }
 
+  // show the results of the last inspection of the unchanged file until they are re-verified
+  void showCachedResults(@NotNull List<LocalInspectionToolWrapper> tools) {
+    final List<HighlightInfo> cached = LocalInspectionsResultCache.getInstance(myProject)
+      .getCachedInfos(myFile, myDocument, tools, myProfileWrapper.getInspectionProfile(), mySeverityRegistrar);
+    if (cached == null || cached.isEmpty()) return;
+    final long modificationStamp = myDocument.getModificationStamp();
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        if (myProject.isDisposed() || myApplied || myDocument.getModificationStamp() != modificationStamp) return;
+        int textLength = myDocument.getTextLength();
+        boolean hasOwnHighlights = !DaemonCodeAnalyzerImpl.processHighlights(myDocument, myProject, null, 0, textLength, new Processor<HighlightInfo>() {
+          @Override
+          public boolean process(HighlightInfo info) {
+            return info.group != getId();
+          }
+        });
+        // the real results (or some of them, added incrementally) are already there
+        if (hasOwnHighlights) return;
+        UpdateHighlightersUtil.setHighlightersToEditor(myProject, myDocument, 0, textLength, cached, getColorsScheme(), getId());
+      }
+    });
+  }
+
   private void disposeDescriptors() {
     result.clear();
   }
@@ -553,6 +586,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
   @Override
   protected void applyInformationWithProgress() {
+    myApplied = true;
     UpdateHighlightersUtil.setHighlightersToEditor(myProject, myDocument, myStartOffset, myEndOffset, myInfos, getColorsScheme(), getId());
   }
 
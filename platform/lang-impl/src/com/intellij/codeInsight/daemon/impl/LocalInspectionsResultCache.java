@@ -0,0 +1,491 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.InspectionProfile;
+import com.intellij.codeInspection.ex.LocalInspectionToolWrapper;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.Alarm;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent cache of the on-the-fly local inspection results, used to show the problems of an unchanged file
+ * as soon as it is opened while {@link LocalInspectionsPass} re-verifies them in background.
+ * <p/>
+ * The results of a file are reused only if the file content, the set of enabled inspections with their levels and the project roots
+ * are the same as when the results were stored. Changes in other files are not tracked, so the cached results are never trusted
+ * by themselves: they are always replaced by the results of the next inspection pass.
+ * Only the presentation of the problems is stored, quick fixes become available after the re-verification.
+ * <p/>
+ * The results are written in background, and only when they differ from the stored ones. The entries of deleted files and the least
+ * recently stored entries above {@link #MAX_CACHED_FILES} are removed once per session, after the cache is opened.
+ */
+public class LocalInspectionsResultCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInsight.daemon.impl.LocalInspectionsResultCache");
+  private static final int VERSION = 2;
+  private static final int MAX_CACHED_INFOS = 1000;
+  private static final int MAX_CACHED_FILES = 5000;
+  private static final int WRITE_DELAY = 3000;
+  private static final int DIGEST_LENGTH = 20; // SHA-1
+
+  private final Project myProject;
+  private final File myFile;
+  private PersistentHashMap<Integer, CachedResults> myResults;
+
+  private final Alarm myWriteAlarm = new Alarm(Alarm.ThreadToUse.SHARED_THREAD, this);
+  // guarded by this
+  private final TIntObjectHashMap<CachedResults> myPendingResults = new TIntObjectHashMap<CachedResults>();
+  // SHA-1 digests of the results stored or read for the files, to skip writing the same results again; guarded by this
+  private final TIntObjectHashMap<byte[]> myKnownResults = new TIntObjectHashMap<byte[]>();
+
+  private long myRootsModificationCount = -1;
+  private int myRootsHash;
+
+  public static LocalInspectionsResultCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, LocalInspectionsResultCache.class);
+  }
+
+  public LocalInspectionsResultCache(@NotNull Project project) {
+    myProject = project;
+    myFile = new File(PathManager.getSystemPath() + File.separator + "inspections" + File.separator + project.getName() + "." +
+                      project.getLocationHash() + File.separator + "results." + VERSION);
+    Disposer.register(project, this);
+  }
+
+  /**
+   * @return the problems found in the file the last time it was inspected with the same content, profile and project roots,
+   *         or null if there are none
+   */
+  @Nullable
+  public List<HighlightInfo> getCachedInfos(@NotNull PsiFile file,
+                                            @NotNull Document document,
+                                            @NotNull List<LocalInspectionToolWrapper> tools,
+                                            @NotNull InspectionProfile profile,
+                                            @NotNull SeverityRegistrar severityRegistrar) {
+    int fileId = getFileId(file);
+    if (fileId == 0) return null;
+    CachedResults results;
+    try {
+      results = getResults(fileId);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+    if (results == null ||
+        !Arrays.equals(results.contentDigest, getContentDigest(document)) ||
+        results.profileHash != getProfileHash(file, tools, profile) ||
+        results.dependencyStamp != getDependencyStamp()) {
+      return null;
+    }
+
+    int textLength = document.getTextLength();
+    List<HighlightInfo> infos = new ArrayList<HighlightInfo>(results.infos.size());
+    for (CachedInfo cached : results.infos) {
+      if (cached.endOffset > textLength) return null;
+      HighlightSeverity severity = severityRegistrar.getSeverity(cached.severity);
+      if (severity == null) continue;
+      TextAttributesKey key = cached.attributesKey == null ? null : TextAttributesKey.find(cached.attributesKey);
+      HighlightInfoType type = new HighlightInfoType.HighlightInfoTypeImpl(severity, key);
+      infos.add(new HighlightInfo(severityRegistrar.getTextAttributesBySeverity(severity), type, cached.startOffset, cached.endOffset,
+                                  cached.description, cached.toolTip, severity, cached.afterEndOfLine, null, false));
+    }
+    return infos;
+  }
+
+  public void cacheInfos(@NotNull PsiFile file,
+                         @NotNull Document document,
+                         @NotNull List<LocalInspectionToolWrapper> tools,
+                         @NotNull InspectionProfile profile,
+                         @NotNull Collection<HighlightInfo> infos) {
+    int fileId = getFileId(file);
+    if (fileId == 0) return;
+    List<CachedInfo> cachedInfos = new ArrayList<CachedInfo>(infos.size());
+    if (infos.size() <= MAX_CACHED_INFOS) {
+      for (HighlightInfo info : infos) {
+        // file level problems need a component in the editor header which can't be restored without the inspection
+        if (info.isFileLevelAnnotation) continue;
+        TextAttributesKey key = info.type.getAttributesKey();
+        cachedInfos.add(new CachedInfo(info.startOffset, info.endOffset, info.getSeverity().myName, key == null ? null : key.getExternalName(),
+                                       info.description, info.toolTip, info.isAfterEndOfLine));
+      }
+    }
+    // too many problems are not worth storing, the empty list replaces the previous results
+    CachedResults results = new CachedResults(getContentDigest(document), getProfileHash(file, tools, profile), getDependencyStamp(),
+                                              System.currentTimeMillis(), cachedInfos);
+    byte[] resultsDigest = results.getDigest();
+    synchronized (this) {
+      if (Arrays.equals(myKnownResults.get(fileId), resultsDigest)) return;
+      myKnownResults.put(fileId, resultsDigest);
+      myPendingResults.put(fileId, results);
+    }
+    myWriteAlarm.cancelAllRequests();
+    myWriteAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, WRITE_DELAY);
+  }
+
+  // under the same lock as dispose(), so the map is not read while it is closed
+  @Nullable
+  private synchronized CachedResults getResults(int fileId) throws IOException {
+    CachedResults pending = myPendingResults.get(fileId);
+    if (pending != null) return pending;
+    PersistentHashMap<Integer, CachedResults> map = getMap();
+    if (map == null) return null;
+    CachedResults results = map.get(fileId);
+    if (results != null && !myKnownResults.containsKey(fileId)) {
+      myKnownResults.put(fileId, results.getDigest());
+    }
+    return results;
+  }
+
+  /**
+   * Writes the results of the inspection passes finished since the last call.
+   */
+  public synchronized void flush() {
+    if (myPendingResults.isEmpty()) return;
+    try {
+      final PersistentHashMap<Integer, CachedResults> map = getMap();
+      if (map == null) return;
+      myPendingResults.forEachEntry(new TIntObjectProcedure<CachedResults>() {
+        @Override
+        public boolean execute(int fileId, CachedResults results) {
+          try {
+            if (results.infos.isEmpty()) {
+              map.remove(fileId);
+            }
+            else {
+              map.put(fileId, results);
+            }
+          }
+          catch (IOException e) {
+            LOG.info(e);
+          }
+          return true;
+        }
+      });
+      map.force();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    finally {
+      myPendingResults.clear();
+    }
+  }
+
+  /**
+   * Removes the entries of deleted files, and the entries stored the longest time ago while there are more than {@link #MAX_CACHED_FILES}.
+   */
+  private void evictStaleResults() {
+    List<Integer> fileIds;
+    PersistentHashMap<Integer, CachedResults> map;
+    try {
+      synchronized (this) {
+        map = getMap();
+        if (map == null) return;
+        fileIds = new ArrayList<Integer>(map.getAllKeysWithExistingMapping());
+      }
+      final Map<Integer, Long> timestamps = new HashMap<Integer, Long>();
+      List<Integer> stale = new ArrayList<Integer>();
+      for (Integer fileId : fileIds) {
+        VirtualFile file = ManagingFS.getInstance().findFileById(fileId);
+        CachedResults results = map.get(fileId);
+        if (file == null || !file.isValid() || results == null) {
+          stale.add(fileId);
+        }
+        else {
+          timestamps.put(fileId, results.timestamp);
+        }
+      }
+      if (timestamps.size() > MAX_CACHED_FILES) {
+        List<Integer> byAge = new ArrayList<Integer>(timestamps.keySet());
+        Collections.sort(byAge, new Comparator<Integer>() {
+          @Override
+          public int compare(Integer id1, Integer id2) {
+            long t1 = timestamps.get(id1);
+            long t2 = timestamps.get(id2);
+            return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+          }
+        });
+        stale.addAll(byAge.subList(0, byAge.size() - MAX_CACHED_FILES));
+      }
+      synchronized (this) {
+        if (myResults != map) return;
+        for (Integer fileId : stale) {
+          if (!myPendingResults.containsKey(fileId)) {
+            map.remove(fileId);
+            myKnownResults.remove(fileId);
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  private static int getFileId(@NotNull PsiFile file) {
+    VirtualFile virtualFile = file.getVirtualFile();
+    return virtualFile instanceof VirtualFileWithId ? ((VirtualFileWithId)virtualFile).getId() : 0;
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @NotNull
+  private static byte[] getContentDigest(@NotNull Document document) {
+    MessageDigest digest = createDigest();
+    CharSequence text = document.getCharsSequence();
+    byte[] buffer = new byte[8192];
+    int length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      buffer[length++] = (byte)(c >> 8);
+      buffer[length++] = (byte)c;
+      if (length == buffer.length) {
+        digest.update(buffer, 0, length);
+        length = 0;
+      }
+    }
+    digest.update(buffer, 0, length);
+    return digest.digest();
+  }
+
+  private static int getProfileHash(@NotNull PsiFile file, @NotNull List<LocalInspectionToolWrapper> tools, @NotNull InspectionProfile profile) {
+    int hash = profile.getName().hashCode();
+    for (LocalInspectionToolWrapper tool : tools) {
+      HighlightDisplayKey key = HighlightDisplayKey.find(tool.getShortName());
+      hash = 31 * hash + tool.getShortName().hashCode();
+      if (key != null) {
+        hash = 31 * hash + profile.getErrorLevel(key, file).getSeverity().myName.hashCode();
+      }
+    }
+    return hash;
+  }
+
+  private synchronized int getDependencyStamp() {
+    ProjectRootManager rootManager = ProjectRootManager.getInstance(myProject);
+    long modificationCount = rootManager.getModificationCount();
+    if (modificationCount != myRootsModificationCount) {
+      int hash = 0;
+      for (String url : rootManager.orderEntries().classes().getUrls()) {
+        hash = 31 * hash + url.hashCode();
+      }
+      for (VirtualFile root : rootManager.getContentSourceRoots()) {
+        hash = 31 * hash + root.getUrl().hashCode();
+      }
+      myRootsHash = hash;
+      myRootsModificationCount = modificationCount;
+    }
+    return myRootsHash;
+  }
+
+  @Nullable
+  private synchronized PersistentHashMap<Integer, CachedResults> getMap() throws IOException {
+    if (myResults == null && !myProject.isDisposed()) {
+      try {
+        myResults = new PersistentHashMap<Integer, CachedResults>(myFile, EnumeratorIntegerDescriptor.INSTANCE, new CachedResultsExternalizer());
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        PersistentHashMap.deleteFilesStartingWith(myFile);
+        myResults = new PersistentHashMap<Integer, CachedResults>(myFile, EnumeratorIntegerDescriptor.INSTANCE, new CachedResultsExternalizer());
+      }
+      ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          evictStaleResults();
+        }
+      });
+    }
+    return myResults;
+  }
+
+  @TestOnly
+  @Nullable
+  List<String> getCachedDescriptions(@NotNull PsiFile file) throws IOException {
+    CachedResults results = getResults(getFileId(file));
+    if (results == null) return null;
+    List<String> descriptions = new ArrayList<String>();
+    for (CachedInfo info : results.infos) {
+      descriptions.add(info.description);
+    }
+    return descriptions;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    flush();
+    if (myResults != null) {
+      try {
+        myResults.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myResults = null;
+    }
+  }
+
+  private static class CachedResults {
+    private final byte[] contentDigest;
+    private final int profileHash;
+    private final int dependencyStamp;
+    private final long timestamp;
+    private final List<CachedInfo> infos;
+
+    private CachedResults(@NotNull byte[] contentDigest, int profileHash, int dependencyStamp, long timestamp, @NotNull List<CachedInfo> infos) {
+      this.contentDigest = contentDigest;
+      this.profileHash = profileHash;
+      this.dependencyStamp = dependencyStamp;
+      this.timestamp = timestamp;
+      this.infos = infos;
+    }
+
+    /**
+     * @return the SHA-1 digest of the serialized results without the timestamp, which is not a part of the results
+     */
+    @NotNull
+    private byte[] getDigest() {
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        out.write(contentDigest);
+        out.writeInt(profileHash);
+        out.writeInt(dependencyStamp);
+        CachedResultsExternalizer.saveInfos(out, infos);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      MessageDigest digest = createDigest();
+      digest.update(bytes.getInternalBuffer(), 0, bytes.size());
+      return digest.digest();
+    }
+  }
+
+  private static class CachedInfo {
+    private final int startOffset;
+    private final int endOffset;
+    private final String severity;
+    private final String attributesKey;
+    private final String description;
+    private final String toolTip;
+    private final boolean afterEndOfLine;
+
+    private CachedInfo(int startOffset,
+                       int endOffset,
+                       @NotNull String severity,
+                       @Nullable String attributesKey,
+                       @Nullable String description,
+                       @Nullable String toolTip,
+                       boolean afterEndOfLine) {
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+      this.severity = severity;
+      this.attributesKey = attributesKey;
+      this.description = description;
+      this.toolTip = toolTip;
+      this.afterEndOfLine = afterEndOfLine;
+    }
+  }
+
+  private static class CachedResultsExternalizer implements DataExternalizer<CachedResults> {
+    @Override
+    public void save(DataOutput out, CachedResults value) throws IOException {
+      out.write(value.contentDigest);
+      out.writeInt(value.profileHash);
+      out.writeInt(value.dependencyStamp);
+      out.writeLong(value.timestamp);
+      saveInfos(out, value.infos);
+    }
+
+    private static void saveInfos(DataOutput out, List<CachedInfo> infos) throws IOException {
+      out.writeInt(infos.size());
+      for (CachedInfo info : infos) {
+        out.writeInt(info.startOffset);
+        out.writeInt(info.endOffset);
+        IOUtil.writeString(info.severity, out);
+        IOUtil.writeString(info.attributesKey, out);
+        IOUtil.writeString(info.description, out);
+        IOUtil.writeString(info.toolTip, out);
+        out.writeBoolean(info.afterEndOfLine);
+      }
+    }
+
+    @Override
+    public CachedResults read(DataInput in) throws IOException {
+      byte[] contentDigest = new byte[DIGEST_LENGTH];
+      in.readFully(contentDigest);
+      int profileHash = in.readInt();
+      int dependencyStamp = in.readInt();
+      long timestamp = in.readLong();
+      int size = in.readInt();
+      List<CachedInfo> infos = new ArrayList<CachedInfo>(size);
+      while (size-- > 0) {
+        int startOffset = in.readInt();
+        int endOffset = in.readInt();
+        String severity = IOUtil.readString(in);
+        String attributesKey = IOUtil.readString(in);
+        String description = IOUtil.readString(in);
+        String toolTip = IOUtil.readString(in);
+        boolean afterEndOfLine = in.readBoolean();
+        infos.add(new CachedInfo(startOffset, endOffset, severity, attributesKey, description, toolTip, afterEndOfLine));
+      }
+      return new CachedResults(contentDigest, profileHash, dependencyStamp, timestamp, infos);
+    }
+  }
+}
@@ -16,8 +16,10 @@
 
 package com.intellij.codeInsight.lookup;
 
+import com.intellij.openapi.util.Condition;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 
@@ -39,6 +41,22 @@ public abstract class LookupArranger {
 
   public abstract Classifier<LookupElement> createRelevanceClassifier();
 
+  /**
+   * While the variants are still being calculated, only the items returned from here are classified by relevance and shown.
+   * @param sorted all the items in the {@link #getItemComparator()} order
+   * @return at most <code>limit</code> first of the items accepted by <code>condition</code>
+   */
+  public List<LookupElement> getInterimItems(Iterable<LookupElement> sorted, Condition<LookupElement> condition, int limit) {
+    final List<LookupElement> result = new ArrayList<LookupElement>();
+    for (LookupElement element : sorted) {
+      if (result.size() >= limit) break;
+      if (condition.value(element)) {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+
   @Nullable
   public Comparator<LookupElement> getItemComparator() {
     return null; //don't sort
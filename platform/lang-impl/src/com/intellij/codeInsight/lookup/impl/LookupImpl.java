@@ -45,6 +45,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.popup.JBPopup;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.wm.IdeFocusManager;
 import com.intellij.psi.PsiDocumentManager;
@@ -435,13 +436,24 @@ public class LookupImpl extends LightweightHint implements LookupEx, Disposable
     }
     checkValid();
 
-    final Trinity<List<LookupElement>, Iterable<List<LookupElement>>, Boolean> snapshot = myPresentableModel.getModelSnapshot();
+    // while the variants are still coming, only the best ones are classified and shown, the rest is added when the calculation is over
+    final int interimLimit = Registry.intValue("completion.interim.list.size");
+    final Trinity<List<LookupElement>, Iterable<List<LookupElement>>, Boolean> snapshot = myCalculating
+      ? myPresentableModel.getModelSnapshot(new Condition<LookupElement>() {
+        @Override
+        public boolean value(LookupElement element) {
+          return prefixMatches(element);
+        }
+      }, interimLimit)
+      : myPresentableModel.getModelSnapshot();
 
-    final LinkedHashSet<LookupElement> items = matchingItems(snapshot.first);
+    // the interim items have been matched already
+    final LinkedHashSet<LookupElement> items = myCalculating ? new LinkedHashSet<LookupElement>(snapshot.first) : matchingItems(snapshot.first);
 
     checkMinPrefixLengthChanges(items);
 
-    boolean hasPreselected = !mySelectionTouched && items.contains(myPresentableModel.preselectedItem);
+    boolean hasPreselected = !mySelectionTouched && (items.contains(myPresentableModel.preselectedItem) ||
+                                                     myCalculating && isInterimMatching(myPresentableModel.preselectedItem));
     LookupElement oldSelected = mySelectionTouched ? (LookupElement)myList.getSelectedValue() : null;
     String oldInvariant = mySelectionInvariant;
 
@@ -449,7 +461,17 @@ public class LookupImpl extends LightweightHint implements LookupEx, Disposable
     model.addAll(getPrefixItems(items, true));
     model.addAll(getPrefixItems(items, false));
 
-    myFrozenItems.retainAll(items);
+    if (myCalculating) {
+      // the items shown before stay in place even if better ones have come meanwhile
+      for (Iterator<LookupElement> iterator = myFrozenItems.iterator(); iterator.hasNext(); ) {
+        if (!isInterimMatching(iterator.next())) {
+          iterator.remove();
+        }
+      }
+    }
+    else {
+      myFrozenItems.retainAll(items);
+    }
     model.addAll(myFrozenItems);
 
     if (!isAlphaSorted()) {
@@ -464,18 +486,14 @@ public class LookupImpl extends LightweightHint implements LookupEx, Disposable
       myFrozenItems.addAll(model);
     }
 
+    final int limit = myCalculating ? Math.max(model.size(), interimLimit) : Integer.MAX_VALUE;
     if (isAlphaSorted()) {
-      final ArrayList<LookupElement> elements = new ArrayList<LookupElement>(items);
-      Collections.sort(elements, new Comparator<LookupElement>() {
-        @Override
-        public int compare(LookupElement o1, LookupElement o2) {
-          return o1.getLookupString().compareToIgnoreCase(o2.getLookupString());
-        }
-      });
-      model.addAll(elements);
+      model.addAll(sortAlphabetically(items, limit));
     } else  {
+      groups:
       for (List<LookupElement> group : snapshot.second) {
         for (LookupElement element : group) {
+          if (model.size() >= limit) break groups;
           if (prefixMatches(element)) {
             model.add(element);
           }
@@ -511,6 +529,36 @@ public class LookupImpl extends LightweightHint implements LookupEx, Disposable
     return snapshot.third;
   }
 
+  private static final Comparator<LookupElement> ALPHABETICAL = new Comparator<LookupElement>() {
+    @Override
+    public int compare(LookupElement o1, LookupElement o2) {
+      return o1.getLookupString().compareToIgnoreCase(o2.getLookupString());
+    }
+  };
+
+  /**
+   * @return at most <code>limit</code> first items in the alphabetical order
+   */
+  private static List<LookupElement> sortAlphabetically(Collection<LookupElement> items, int limit) {
+    if (items.size() <= limit) {
+      final ArrayList<LookupElement> elements = new ArrayList<LookupElement>(items);
+      Collections.sort(elements, ALPHABETICAL);
+      return elements;
+    }
+
+    // the head of the queue is the last of the items selected so far
+    PriorityQueue<LookupElement> best = new PriorityQueue<LookupElement>(limit + 1, Collections.reverseOrder(ALPHABETICAL));
+    for (LookupElement item : items) {
+      best.offer(item);
+      if (best.size() > limit) {
+        best.poll();
+      }
+    }
+    final ArrayList<LookupElement> elements = new ArrayList<LookupElement>(best);
+    Collections.sort(elements, ALPHABETICAL);
+    return elements;
+  }
+
   private static boolean shouldSkip(LookupElement element) {
     return element instanceof LiveTemplateLookupElement && ((LiveTemplateLookupElement)element).sudden;
   }
@@ -519,6 +567,13 @@ public class LookupImpl extends LightweightHint implements LookupEx, Disposable
     return myList.getFirstVisibleIndex() <= myList.getSelectedIndex() && myList.getSelectedIndex() <= myList.getLastVisibleIndex();
   }
 
+  /**
+   * Whether an item which may be out of the interim list is still in the lookup and matches its prefix
+   */
+  private boolean isInterimMatching(@Nullable LookupElement item) {
+    return item != null && myMatchers.containsKey(item) && prefixMatches(item);
+  }
+
   private LinkedHashSet<LookupElement> matchingItems(final List<LookupElement> elements) {
     final LinkedHashSet<LookupElement> items = new LinkedHashSet<LookupElement>();
     for (LookupElement element : elements) {
@@ -20,6 +20,7 @@ import com.intellij.codeInsight.lookup.Classifier;
 import com.intellij.codeInsight.lookup.LookupArranger;
 import com.intellij.codeInsight.lookup.LookupElement;
 import com.intellij.codeInsight.lookup.LookupElementPresentation;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Trinity;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.SortedList;
@@ -101,6 +102,20 @@ public class LookupModel {
     }
   }
 
+  /**
+   * Same as {@link #getModelSnapshot()}, but only the first <code>limit</code> items accepted by <code>condition</code>
+   * are taken and classified by relevance, see {@link LookupArranger#getInterimItems}. The rest of the items isn't even copied.
+   */
+  public Trinity<List<LookupElement>, Iterable<List<LookupElement>>, Boolean> getModelSnapshot(Condition<LookupElement> condition, int limit) {
+    synchronized (lock) {
+      final List<LookupElement> interim = myArranger.getInterimItems(mySortedItems.iterateSorted(), condition, limit);
+      final Iterable<List<LookupElement>> groups = myRelevanceClassifier.classify(interim);
+      boolean changed = lastAccess != stamp;
+      lastAccess = stamp;
+      return Trinity.create(interim, groups, changed);
+    }
+  }
+
   @Nullable
   Map<LookupElement, PrefixMatcher> retainMatchingItems(final String newPrefix, final LookupImpl lookup) {
     synchronized (lock) {
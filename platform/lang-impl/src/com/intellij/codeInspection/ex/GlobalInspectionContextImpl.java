@@ -25,6 +25,7 @@ import com.intellij.codeInspection.lang.GlobalInspectionContextExtension;
 import com.intellij.codeInspection.lang.InspectionExtensionsFactory;
 import com.intellij.codeInspection.reference.*;
 import com.intellij.codeInspection.ui.InspectionResultsView;
+import com.intellij.concurrency.Job;
 import com.intellij.concurrency.JobUtil;
 import com.intellij.lang.injection.InjectedLanguageManager;
 import com.intellij.openapi.actionSystem.ToggleAction;
@@ -558,7 +559,7 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
           }
           pass.doInspectInBatch((InspectionManagerEx)manager, lTools);
 
-          JobUtil.invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
+          JobUtil.invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, Job.BACKGROUND_PRIORITY, false, new Processor<Tools>() {
               @Override
               public boolean process(Tools tools) {
                 GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
@@ -16,8 +16,10 @@
 
 package com.intellij.find.impl;
 
+import com.intellij.concurrency.JobUtil;
 import com.intellij.find.*;
 import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQueryPlanner;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.LangDataKeys;
@@ -47,7 +49,6 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -75,6 +76,9 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 public class FindInProjectUtil {
@@ -199,59 +203,75 @@ public class FindInProjectUtil {
     return Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
   }
 
+  /**
+   * Searches the files concurrently, usages are passed to the consumer as soon as they are found, so the consumer must not rely
+   * on any particular order of the files. The number of files loaded at the same time is bounded by the number of worker threads.
+   */
   public static void findUsages(final FindModel findModel,
                                 final PsiDirectory psiDirectory,
                                 final Project project,
                                 final Processor<UsageInfo> consumer) {
     final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
 
-    final Collection<PsiFile> psiFiles = getFilesToSearchIn(findModel, project, psiDirectory);
+    final List<PsiFile> psiFiles = new ArrayList<PsiFile>(getFilesToSearchIn(findModel, project, psiDirectory));
     try {
-      final Set<PsiFile> largeFiles = new THashSet<PsiFile>();
+      final Set<PsiFile> largeFiles = Collections.synchronizedSet(new THashSet<PsiFile>());
 
-      int i = 0;
-      long totalFilesSize = 0;
-      int count = 0;
-      final boolean[] warningShown = {false};
+      final AtomicInteger processedFiles = new AtomicInteger();
+      final AtomicLong totalFilesSize = new AtomicLong();
+      final AtomicInteger count = new AtomicInteger();
+      final AtomicBoolean warningShown = new AtomicBoolean();
 
       final UsageViewManager usageViewManager = UsageViewManager.getInstance(project);
-      for (final PsiFile psiFile : psiFiles) {
-        usageViewManager.checkSearchCanceled();
-        final VirtualFile virtualFile = psiFile.getVirtualFile();
-        final int index = i++;
-        if (virtualFile == null) continue;
+      final Processor<UsageInfo> synchronizedConsumer = new Processor<UsageInfo>() {
+        @Override
+        public boolean process(UsageInfo info) {
+          synchronized (this) {
+            return consumer.process(info);
+          }
+        }
+      };
+      boolean completed = JobUtil.invokeConcurrentlyUnderProgress(psiFiles, progress, false, new Processor<PsiFile>() {
+        @Override
+        public boolean process(PsiFile psiFile) {
+          usageViewManager.checkSearchCanceled();
+          final VirtualFile virtualFile = psiFile.getVirtualFile();
+          final int index = processedFiles.getAndIncrement();
+          if (virtualFile == null) return true;
 
-        long fileLength = getFileLength(virtualFile);
-        if (fileLength == -1) continue; // Binary or invalid
+          long fileLength = getFileLength(virtualFile);
+          if (fileLength == -1) return true; // Binary or invalid
 
-        if (ProjectUtil.isProjectOrWorkspaceFile(virtualFile) && !Registry.is("find.search.in.project.files")) continue;
+          if (ProjectUtil.isProjectOrWorkspaceFile(virtualFile) && !Registry.is("find.search.in.project.files")) return true;
 
-        if (fileLength > SINGLE_FILE_SIZE_LIMIT) {
-          largeFiles.add(psiFile);
-          continue;
-        }
+          if (fileLength > SINGLE_FILE_SIZE_LIMIT) {
+            largeFiles.add(psiFile);
+            return true;
+          }
 
-        if (progress != null) {
-          progress.setFraction((double)index / psiFiles.size());
-          String text = FindBundle.message("find.searching.for.string.in.file.progress",
-                                           findModel.getStringToFind(), virtualFile.getPresentableUrl());
-          progress.setText(text);
-          progress.setText2(FindBundle.message("find.searching.for.string.in.file.occurrences.progress", count));
-        }
+          if (progress != null) {
+            progress.setFraction((double)index / psiFiles.size());
+            String text = FindBundle.message("find.searching.for.string.in.file.progress",
+                                             findModel.getStringToFind(), virtualFile.getPresentableUrl());
+            progress.setText(text);
+            progress.setText2(FindBundle.message("find.searching.for.string.in.file.occurrences.progress", count.get()));
+          }
 
-        int countInFile = processUsagesInFile(psiFile, findModel, consumer);
+          int countInFile = processUsagesInFile(psiFile, findModel, synchronizedConsumer);
 
-        count += countInFile;
-        if (countInFile > 0) {
-          totalFilesSize += fileLength;
-          if (totalFilesSize > FILES_SIZE_LIMIT && !warningShown[0]) {
-            warningShown[0] = true;
-            String message = FindBundle.message("find.excessive.total.size.prompt", presentableSize(totalFilesSize),
-                                                ApplicationNamesInfo.getInstance().getProductName());
-            UsageLimitUtil.showAndCancelIfAborted(project, message);
+          count.addAndGet(countInFile);
+          if (countInFile > 0) {
+            long size = totalFilesSize.addAndGet(fileLength);
+            if (size > FILES_SIZE_LIMIT && warningShown.compareAndSet(false, true)) {
+              String message = FindBundle.message("find.excessive.total.size.prompt", presentableSize(size),
+                                                  ApplicationNamesInfo.getInstance().getProductName());
+              UsageLimitUtil.showAndCancelIfAborted(project, message);
+            }
           }
+          return true;
         }
-      }
+      });
+      if (!completed) throw new ProcessCanceledException();
 
       if (!largeFiles.isEmpty()) {
         @Language("HTML")
@@ -482,27 +502,31 @@ public class FindInProjectUtil {
     boolean fast = false;
 
     if (TrigramIndex.ENABLED) {
-      TIntHashSet trigrams = TrigramBuilder.buildTrigram(findModel.getStringToFind());
-      TIntIterator it = trigrams.iterator();
-      while (it.hasNext()) {
-        keys.add(it.next());
-      }
+      TIntHashSet trigrams = TrigramQueryPlanner.getRequiredTrigrams(findModel);
+      if (trigrams != null) {
+        TIntIterator it = trigrams.iterator();
+        while (it.hasNext()) {
+          keys.add(it.next());
+        }
 
-      if (!keys.isEmpty()) {
         fast = true;
         List<VirtualFile> hits = new ArrayList<VirtualFile>();
         FileBasedIndex.getInstance()
           .getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
 
         for (VirtualFile hit : hits) {
-          resultFiles.add(pm.findFile(hit));
+          ContainerUtil.addIfNotNull(resultFiles, pm.findFile(hit));
         }
 
         filterMaskedFiles(resultFiles, fileMaskRegExp);
-        if (resultFiles.isEmpty()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+        // the words of a regular expression are not the words of the text it matches
+        if (resultFiles.isEmpty() || findModel.isRegularExpressions()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
       }
     }
 
+    if (findModel.isRegularExpressions()) {
+      return new Pair<Boolean, Collection<PsiFile>>(false, Collections.<PsiFile>emptyList());
+    }
 
     // $ is used to separate words when indexing plain-text files but not when indexing
     // Java identifiers, so we can't consistently break a string containing $ characters into words
@@ -572,7 +596,8 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    // regular expressions are narrowed by the trigram index only
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.find.FindModel;
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Turns a search query into the set of trigrams every file containing a match must have, so that only the files having
+ * all of them in {@link TrigramIndex} need to be scanned.
+ * <p/>
+ * Literal text gives all its trigrams. For a regular expression only the literal runs which must be present in every match are used:
+ * characters under optional quantifiers, inside groups and character classes are skipped, and an alternation at the top level
+ * makes the whole expression unusable for narrowing.
+ */
+public class TrigramQueryPlanner {
+  private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z]*x");
+
+  private TrigramQueryPlanner() {
+  }
+
+  /**
+   * @return trigrams to be found in every file with a match, or null if the query can't be narrowed with trigrams
+   */
+  @Nullable
+  public static TIntHashSet getRequiredTrigrams(@NotNull FindModel findModel) {
+    String stringToFind = findModel.getStringToFind();
+    if (!findModel.isRegularExpressions()) {
+      return getRequiredTrigrams(stringToFind);
+    }
+    List<String> literals = getRequiredLiterals(stringToFind);
+    if (literals == null) return null;
+    TIntHashSet result = new TIntHashSet();
+    for (String literal : literals) {
+      result.addAll(TrigramBuilder.buildTrigram(literal).toArray());
+    }
+    return result.isEmpty() ? null : result;
+  }
+
+  @Nullable
+  public static TIntHashSet getRequiredTrigrams(@NotNull CharSequence text) {
+    TIntHashSet trigrams = TrigramBuilder.buildTrigram(text);
+    return trigrams.isEmpty() ? null : trigrams;
+  }
+
+  /**
+   * @return literal strings every match of the regular expression contains, or null if nothing can be said about the matches
+   */
+  @Nullable
+  static List<String> getRequiredLiterals(@NotNull String regexp) {
+    if (COMMENTS_FLAG.matcher(regexp).find()) {
+      // whitespace in the pattern doesn't stand for itself
+      return null;
+    }
+    List<String> result = new ArrayList<String>();
+    StringBuilder run = new StringBuilder();
+    int length = regexp.length();
+    int i = 0;
+    while (i < length) {
+      char c = regexp.charAt(i);
+      switch (c) {
+        case '|':
+          return null;
+
+        case '(':
+          flush(run, result);
+          i = skipGroup(regexp, i);
+          if (i < 0) return null;
+          i = skipQuantifier(regexp, i);
+          continue;
+
+        case '[':
+          flush(run, result);
+          i = skipCharacterClass(regexp, i);
+          if (i < 0) return null;
+          i = skipQuantifier(regexp, i);
+          continue;
+
+        case '.':
+        case '^':
+        case '$':
+          flush(run, result);
+          i = skipQuantifier(regexp, i + 1);
+          continue;
+
+        case '?':
+        case '*':
+        case '+':
+        case '{':
+        case ')':
+        case ']':
+          // dangling quantifier or bracket, don't try to guess what it means
+          return null;
+
+        case '\\':
+          if (i + 1 >= length) return null;
+          char escaped = regexp.charAt(i + 1);
+          if (escaped == 'Q') {
+            int end = regexp.indexOf("\\E", i + 2);
+            String quoted = end < 0 ? regexp.substring(i + 2) : regexp.substring(i + 2, end);
+            run.append(quoted);
+            i = end < 0 ? length : end + 2;
+            if (i < length && isQuantifier(regexp.charAt(i))) {
+              // the quantifier applies to the last quoted character only
+              run.setLength(run.length() - (quoted.length() == 0 ? 0 : 1));
+              flush(run, result);
+              i = skipQuantifier(regexp, i);
+            }
+            continue;
+          }
+          Character literal = getEscapedLiteral(escaped);
+          if (literal == null) {
+            // a character class, back reference or assertion
+            flush(run, result);
+            i = skipEscape(regexp, i);
+            i = skipQuantifier(regexp, i);
+            continue;
+          }
+          i = appendLiteral(regexp, i + 2, literal.charValue(), run, result);
+          continue;
+
+        default:
+          i = appendLiteral(regexp, i + 1, c, run, result);
+      }
+    }
+    flush(run, result);
+    return result;
+  }
+
+  /**
+   * Appends the literal character which ends before <code>next</code> to the run, taking the quantifier after it into account.
+   * @return the index to continue from
+   */
+  private static int appendLiteral(@NotNull String regexp, int next, char c, @NotNull StringBuilder run, @NotNull List<String> result) {
+    if (next < regexp.length() && isQuantifier(regexp.charAt(next))) {
+      if (isAtLeastOnce(regexp, next)) {
+        // the character is there but the text after it isn't adjacent to the text before
+        run.append(c);
+      }
+      flush(run, result);
+      return skipQuantifier(regexp, next);
+    }
+    run.append(c);
+    return next;
+  }
+
+  private static void flush(@NotNull StringBuilder run, @NotNull List<String> result) {
+    if (run.length() >= 3) {
+      result.add(run.toString());
+    }
+    run.setLength(0);
+  }
+
+  private static boolean isQuantifier(char c) {
+    return c == '?' || c == '*' || c == '+' || c == '{';
+  }
+
+  private static boolean isAtLeastOnce(@NotNull String regexp, int i) {
+    char c = regexp.charAt(i);
+    if (c == '+') return true;
+    if (c != '{') return false;
+    int j = i + 1;
+    while (j < regexp.length() && regexp.charAt(j) == '0') j++;
+    return j < regexp.length() && Character.isDigit(regexp.charAt(j));
+  }
+
+  private static int skipQuantifier(@NotNull String regexp, int i) {
+    if (i >= regexp.length()) return i;
+    char c = regexp.charAt(i);
+    if (c == '{') {
+      int end = regexp.indexOf('}', i);
+      i = end < 0 ? regexp.length() : end + 1;
+    }
+    else if (c == '?' || c == '*' || c == '+') {
+      i++;
+    }
+    else {
+      return i;
+    }
+    // reluctant and possessive quantifiers
+    if (i < regexp.length() && (regexp.charAt(i) == '?' || regexp.charAt(i) == '+')) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @return the index after the closing parenthesis or -1 if there is none
+   */
+  private static int skipGroup(@NotNull String regexp, int i) {
+    int depth = 0;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipCharacterClass(regexp, i);
+        if (i < 0) return -1;
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      }
+      else if (c == ')' && --depth == 0) {
+        return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index after the closing bracket or -1 if there is none
+   */
+  private static int skipCharacterClass(@NotNull String regexp, int i) {
+    int depth = 1;
+    i++;
+    // a closing bracket right after the opening one (or its negation) is a literal
+    if (i < regexp.length() && regexp.charAt(i) == '^') i++;
+    if (i < regexp.length() && regexp.charAt(i) == ']') i++;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+      }
+      else if (c == ']' && --depth == 0) {
+        return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  private static int skipEscape(@NotNull String regexp, int i) {
+    char c = regexp.charAt(i + 1);
+    i += 2;
+    int length = regexp.length();
+    if (i < length && regexp.charAt(i) == '{' && (c == 'p' || c == 'P' || c == 'x')) {
+      int end = regexp.indexOf('}', i);
+      return end < 0 ? length : end + 1;
+    }
+    if (c == 'k' && i < length && regexp.charAt(i) == '<') {
+      int end = regexp.indexOf('>', i);
+      return end < 0 ? length : end + 1;
+    }
+    if (c == 'c') {
+      return Math.min(i + 1, length);
+    }
+    if (c == 'x') return Math.min(i + 2, length);
+    if (c == 'u') return Math.min(i + 4, length);
+    if (c == '0') {
+      int end = Math.min(i + 3, length);
+      while (i < end && Character.digit(regexp.charAt(i), 8) >= 0) i++;
+      return i;
+    }
+    if (Character.isDigit(c)) {
+      // a back reference may take several digits, skipping all of them is never wrong
+      while (i < length && Character.isDigit(regexp.charAt(i))) i++;
+    }
+    return i;
+  }
+
+  @Nullable
+  private static Character getEscapedLiteral(char c) {
+    switch (c) {
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      default:
+        return Character.isLetterOrDigit(c) ? null : c;
+    }
+  }
+}
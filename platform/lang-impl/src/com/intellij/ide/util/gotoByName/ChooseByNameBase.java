@@ -123,6 +123,7 @@ public abstract class ChooseByNameBase {
   private ActionCallback myPostponedOkAction;
 
   private final String[][] myNames = new String[2][];
+  private final ChooseByNameIndex[] myNameIndices = new ChooseByNameIndex[2];
   private CalcElementsThread myCalcElementsThread;
   private static int VISIBLE_LIST_SIZE_LIMIT = 10;
   private static final int MAXIMUM_LIST_SIZE_LIMIT = 30;
@@ -727,7 +728,13 @@ public abstract class ChooseByNameBase {
         ownerWindow.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
       }
     }
-    myNames[index] = myModel.getNames(checkboxState);
+    if (myModel instanceof ContributorsBasedGotoByModel) {
+      myNameIndices[index] = ((ContributorsBasedGotoByModel)myModel).getNameIndex(checkboxState);
+      myNames[index] = myNameIndices[index].getNames();
+    }
+    else {
+      myNames[index] = myModel.getNames(checkboxState);
+    }
 
     if (window != null) {
       window.setCursor(Cursor.getDefaultCursor());
@@ -741,6 +748,17 @@ public abstract class ChooseByNameBase {
     return checkboxState ? myNames[1] : myNames[0];
   }
 
+  @NotNull
+  public synchronized ChooseByNameIndex getNameIndex(boolean checkboxState) {
+    int index = checkboxState ? 1 : 0;
+    if (myNameIndices[index] == null) {
+      String[] names = myNames[index];
+      if (names == null) return ChooseByNameIndex.EMPTY;
+      myNameIndices[index] = new ChooseByNameIndex(names);
+    }
+    return myNameIndices[index];
+  }
+
   protected abstract boolean isCheckboxVisible();
 
   protected abstract boolean isShowListForEmptyPattern();
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.ide.util.gotoByName;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.Processor;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Names of a {@link ChooseByNameModel} arranged for quick lookup of the candidates for a
+ * {@link com.intellij.psi.codeStyle.NameUtil.MinusculeMatcher} pattern.
+ * <p/>
+ * The matcher anchors the first pattern letter at the first letter of the name (leading separators, digits and dots may be skipped)
+ * and every letter or digit of the pattern has to occur in the name in the same order, so the names are grouped by their first letter
+ * and every name has a bit set of the letters and digits it contains. For a pattern only the group of its first letter is visited and
+ * the names which lack some of the pattern characters are skipped without running the matcher.
+ * <p/>
+ * The names are kept in the given order. Instances are immutable.
+ */
+public class ChooseByNameIndex {
+  public static final ChooseByNameIndex EMPTY = new ChooseByNameIndex(ArrayUtil.EMPTY_STRING_ARRAY);
+
+  private static final long OTHER_CHAR_BIT = 1L << 62;
+
+  private final String[] myNames;
+  private final long[] mySignatures;
+  private final TIntObjectHashMap<int[]> myNamesByFirstLetter = new TIntObjectHashMap<int[]>();
+
+  public ChooseByNameIndex(@NotNull String[] names) {
+    List<String> list = new ArrayList<String>(names.length);
+    for (String name : names) {
+      if (name != null) list.add(name);
+    }
+    myNames = ArrayUtil.toStringArray(list);
+
+    mySignatures = new long[myNames.length];
+    TIntObjectHashMap<TIntArrayList> groups = new TIntObjectHashMap<TIntArrayList>();
+    for (int i = 0; i < myNames.length; i++) {
+      String name = myNames[i];
+      mySignatures[i] = getSignature(name);
+      char letter = getFirstLetter(name);
+      TIntArrayList group = groups.get(letter);
+      if (group == null) {
+        group = new TIntArrayList();
+        groups.put(letter, group);
+      }
+      group.add(i);
+    }
+    for (int letter : groups.keys()) {
+      myNamesByFirstLetter.put(letter, groups.get(letter).toNativeArray());
+    }
+  }
+
+  /**
+   * @return all names except nulls
+   */
+  @NotNull
+  public String[] getNames() {
+    return myNames;
+  }
+
+  /**
+   * Passes the names which may match the pattern to the processor, in the order of {@link #getNames()}.
+   * Names which surely don't match are skipped, the rest should be checked with the matcher.
+   *
+   * @return false if the processor has stopped the processing
+   */
+  public boolean processCandidates(@NotNull String pattern, @NotNull Processor<String> processor) {
+    long patternSignature = getSignature(pattern);
+    if (!pattern.isEmpty() && Character.isLetter(pattern.charAt(0))) {
+      int[] group = myNamesByFirstLetter.get(StringUtil.toLowerCase(pattern.charAt(0)));
+      if (group == null) return true;
+      for (int i : group) {
+        if ((mySignatures[i] & patternSignature) == patternSignature && !processor.process(myNames[i])) return false;
+      }
+      return true;
+    }
+
+    for (int i = 0; i < myNames.length; i++) {
+      if ((mySignatures[i] & patternSignature) == patternSignature && !processor.process(myNames[i])) return false;
+    }
+    return true;
+  }
+
+  private static char getFirstLetter(@NotNull String name) {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isWhitespace(c) || c == '_' || c == '-' || c == '.' || Character.isDigit(c)) continue;
+      return StringUtil.toLowerCase(c);
+    }
+    return 0;
+  }
+
+  private static long getSignature(@NotNull String text) {
+    long signature = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = StringUtil.toLowerCase(text.charAt(i));
+      if (c >= 'a' && c <= 'z') {
+        signature |= 1L << (c - 'a');
+      }
+      else if (c >= '0' && c <= '9') {
+        signature |= 1L << (26 + c - '0');
+      }
+      else if (Character.isLetterOrDigit(c)) {
+        signature |= OTHER_CHAR_BIT;
+      }
+    }
+    return signature;
+  }
+}
@@ -25,13 +25,22 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.UserDataHolderEx;
+import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ConcurrentHashSet;
 import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contributor-based goto model
@@ -39,6 +48,8 @@ import java.util.*;
 public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel {
   private static final Logger LOG = Logger.getInstance("#com.intellij.ide.util.gotoByName.ContributorsBasedGotoByModel");
 
+  private static final Key<Map<Object, Pair<Long, SoftReference<ChooseByNameIndex>>>> NAME_INDICES = Key.create("CONTRIBUTORS_BASED_GOTO_NAME_INDICES");
+
   protected final Project myProject;
   private final ChooseByNameContributor[] myContributors;
 
@@ -52,6 +63,44 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel
   }
 
   public String[] getNames(final boolean checkBoxState) {
+    return getNameIndex(checkBoxState).getNames();
+  }
+
+  /**
+   * Names of all contributors prepared for matching. The index is shared by all models with the same contributors
+   * and is rebuilt only after PSI, project roots or files have changed; the VFS counter covers files created
+   * outside of the IDE (VCS updates, generated sources) that have no PSI yet. Indices are softly referenced, so
+   * they are dropped under memory pressure.
+   */
+  @NotNull
+  public ChooseByNameIndex getNameIndex(final boolean checkBoxState) {
+    if (DumbService.getInstance(myProject).isDumb()) {
+      // some contributors are skipped in dumb mode
+      return new ChooseByNameIndex(collectNames(checkBoxState));
+    }
+
+    final long stamp = PsiModificationTracker.SERVICE.getInstance(myProject).getModificationCount() +
+                       ProjectRootManager.getInstance(myProject).getModificationCount() +
+                       ManagingFS.getInstance().getCheapFileSystemModificationCount();
+    Map<Object, Pair<Long, SoftReference<ChooseByNameIndex>>> cache = myProject.getUserData(NAME_INDICES);
+    if (cache == null) {
+      cache = ((UserDataHolderEx)myProject).putUserDataIfAbsent(NAME_INDICES, new ConcurrentHashMap<Object, Pair<Long, SoftReference<ChooseByNameIndex>>>());
+    }
+    final Object key = Pair.create(Arrays.asList(myContributors), checkBoxState);
+    Pair<Long, SoftReference<ChooseByNameIndex>> cached = cache.get(key);
+    if (cached != null && cached.first.longValue() == stamp) {
+      ChooseByNameIndex index = cached.second.get();
+      if (index != null) {
+        return index;
+      }
+    }
+
+    ChooseByNameIndex index = new ChooseByNameIndex(collectNames(checkBoxState));
+    cache.put(key, Pair.create(stamp, new SoftReference<ChooseByNameIndex>(index)));
+    return index;
+  }
+
+  private String[] collectNames(final boolean checkBoxState) {
     final Set<String> names = new ConcurrentHashSet<String>();
 
     JobUtil.invokeConcurrentlyUnderProgress(filterDumb(myContributors), ProgressManager.getInstance().getProgressIndicator(), false, new Processor<ChooseByNameContributor>() {
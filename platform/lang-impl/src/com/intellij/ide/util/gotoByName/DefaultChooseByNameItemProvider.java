@@ -61,7 +61,7 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     if (empty && !base.canShowListForEmptyPattern()) return;
 
     List<String> namesList = new ArrayList<String>();
-    getNamesByPattern(base, base.getNames(everywhere), cancelled, namesList, namePattern);
+    getNamesByPattern(base, base.getNameIndex(everywhere), cancelled, namesList, namePattern);
     if (cancelled.compute()) {
       throw new ProcessCanceledException();
     }
@@ -190,6 +190,47 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     return res;
   }
 
+  private static void getNamesByPattern(final ChooseByNameBase base,
+                                        ChooseByNameIndex index,
+                                        final Computable<Boolean> cancelled,
+                                        final List<String> list,
+                                        String pattern)
+    throws ProcessCanceledException {
+    if (base.getModel() instanceof CustomMatcherModel) {
+      // the index knows nothing about the custom matching rules
+      getNamesByPattern(base, index.getNames(), cancelled, list, pattern);
+      return;
+    }
+    if (!base.canShowListForEmptyPattern()) {
+      LOG.assertTrue(pattern.length() > 0);
+    }
+
+    if (pattern.startsWith("@")) {
+      pattern = pattern.substring(1);
+    }
+
+    final String finalPattern = pattern;
+    final NameUtil.Matcher matcher = buildPatternMatcher(pattern);
+
+    try {
+      index.processCandidates(pattern, new Processor<String>() {
+        @Override
+        public boolean process(String name) {
+          if (cancelled != null && cancelled.compute()) {
+            return false;
+          }
+          if (matches(base, finalPattern, matcher, name)) {
+            list.add(name);
+          }
+          return true;
+        }
+      });
+    }
+    catch (Exception e) {
+      // Do nothing. No matches appears valid result for "bad" pattern
+    }
+  }
+
   private static void getNamesByPattern(ChooseByNameBase base,
                                  String[] names,
                                  Computable<Boolean> cancelled,
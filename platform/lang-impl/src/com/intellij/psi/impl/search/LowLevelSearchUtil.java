@@ -29,6 +29,7 @@ import com.intellij.psi.impl.source.tree.TreeElement;
 import com.intellij.psi.impl.source.tree.injected.InjectedLanguageUtil;
 import com.intellij.psi.search.TextOccurenceProcessor;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.text.MultiStringSearcher;
 import com.intellij.util.text.StringSearcher;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -169,6 +170,47 @@ public class LowLevelSearchUtil {
     return true;
   }
 
+  /**
+   * Same as {@link #processElementsContainingWordInElement} for several words at once: the scope text is scanned only once
+   * and every occurrence of the searcher's pattern is passed to the processor with the same index.
+   * Searchers with no processor (<code>null</code> in the array) are ignored.
+   */
+  //@RequiresReadAction
+  public static boolean processElementsContainingWordsInElement(@NotNull final TextOccurenceProcessor[] processors,
+                                                                @NotNull final PsiElement scope,
+                                                                @NotNull final MultiStringSearcher searcher,
+                                                                final boolean processInjectedPsi,
+                                                                final ProgressIndicator progress) {
+    LOG.assertTrue(processors.length == searcher.getSearcherCount());
+    if (progress != null) progress.checkCanceled();
+
+    PsiFile file = scope.getContainingFile();
+    final CharSequence buffer = file.getViewProvider().getContents();
+
+    TextRange range = scope.getTextRange();
+    if (range == null) {
+      throw new AssertionError("Element " + scope + " of class " + scope.getClass() + " has null range");
+    }
+
+    final int scopeStart = range.getStartOffset();
+    final int endOffset = range.getEndOffset();
+    if (endOffset > buffer.length()) {
+      LOG.error("Range for element: '"+scope+"' = "+range+" is out of file '" + file + "' range: " + file.getTextLength());
+    }
+
+    return searcher.processOccurrences(buffer, scopeStart, endOffset, new MultiStringSearcher.OccurrenceProcessor() {
+      @Override
+      public boolean process(int searcherIndex, int offset) {
+        TextOccurenceProcessor processor = processors[searcherIndex];
+        if (processor == null) return true;
+        if (progress != null) progress.checkCanceled();
+        StringSearcher wordSearcher = searcher.getSearcher(searcherIndex);
+        if (!isWordOccurrence(buffer, offset, scopeStart, endOffset, wordSearcher)) return true;
+        return processTreeUp(processor, scope, wordSearcher, offset - scopeStart, processInjectedPsi, progress);
+      }
+    });
+  }
+
   public static int searchWord(@NotNull CharSequence text, int startOffset, int endOffset, @NotNull StringSearcher searcher, @Nullable ProgressIndicator progress) {
     LOG.assertTrue(endOffset <= text.length());
     for (int index = startOffset; index < endOffset; index++) {
@@ -176,28 +218,34 @@ public class LowLevelSearchUtil {
       //noinspection AssignmentToForLoopParameter
       index = searcher.scan(text, index, endOffset);
       if (index < 0) return -1;
-      if (!searcher.isJavaIdentifier()) {
+      if (isWordOccurrence(text, index, startOffset, endOffset, searcher)) {
         return index;
       }
+    }
+    return -1;
+  }
 
-      if (index > startOffset) {
-        char c = text.charAt(index - 1);
-        if (Character.isJavaIdentifierPart(c) && c != '$') {
-          if (index < 2 || text.charAt(index - 2) != '\\') { //escape sequence
-            continue;
-          }
+  private static boolean isWordOccurrence(@NotNull CharSequence text, int index, int startOffset, int endOffset, @NotNull StringSearcher searcher) {
+    if (!searcher.isJavaIdentifier()) {
+      return true;
+    }
+
+    if (index > startOffset) {
+      char c = text.charAt(index - 1);
+      if (Character.isJavaIdentifierPart(c) && c != '$') {
+        if (index < 2 || text.charAt(index - 2) != '\\') { //escape sequence
+          return false;
         }
       }
+    }
 
-      String pattern = searcher.getPattern();
-      if (index + pattern.length() < endOffset) {
-        char c = text.charAt(index + pattern.length());
-        if (Character.isJavaIdentifierPart(c) && c != '$') {
-          continue;
-        }
+    String pattern = searcher.getPattern();
+    if (index + pattern.length() < endOffset) {
+      char c = text.charAt(index + pattern.length());
+      if (Character.isJavaIdentifierPart(c) && c != '$') {
+        return false;
       }
-      return index;
     }
-    return -1;
+    return true;
   }
 }
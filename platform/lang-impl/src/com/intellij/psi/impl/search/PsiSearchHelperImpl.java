@@ -18,6 +18,8 @@ package com.intellij.psi.impl.search;
 
 import com.intellij.codeInsight.CommentUtil;
 import com.intellij.concurrency.JobUtil;
+import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQueryPlanner;
 import com.intellij.ide.todo.TodoIndexPatternProvider;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ReadAction;
@@ -47,7 +49,11 @@ import com.intellij.util.containers.CollectionFactory;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.text.MultiStringSearcher;
 import com.intellij.util.text.StringSearcher;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -377,8 +383,14 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       }
     }, collectProcessor, getWordEntries(text, caseSensitively));
 
+    Collection<VirtualFile> files = collectProcessor.getResults();
+    if (entries.size() > 1 || !entries.get(0).equals(new IdIndexEntry(text, caseSensitively))) {
+      // the words may be anywhere in the file, while the text needs them adjacent
+      files = retainFilesWithTrigrams(scope, text, files);
+    }
+
     final FileIndexFacade index = FileIndexFacade.getInstance(myManager.getProject());
-    return ContainerUtil.process(collectProcessor.getResults(), new ReadActionProcessor<VirtualFile>() {
+    return ContainerUtil.process(files, new ReadActionProcessor<VirtualFile>() {
       @Override
       public boolean processInReadAction(VirtualFile virtualFile) {
         return !IndexCacheManagerImpl.shouldBeFound(scope, virtualFile, index) || processor.process(virtualFile);
@@ -608,11 +620,19 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       }
 
       final Map<RequestWithProcessor, StringSearcher> searchers = new HashMap<RequestWithProcessor, StringSearcher>();
+      final TObjectIntHashMap<RequestWithProcessor> searcherIndices = new TObjectIntHashMap<RequestWithProcessor>();
+      final List<StringSearcher> searcherList = new ArrayList<StringSearcher>();
       final Set<String> allWords = new TreeSet<String>();
       for (RequestWithProcessor singleRequest : candidateFiles.values()) {
-        searchers.put(singleRequest, new StringSearcher(singleRequest.request.word, singleRequest.request.caseSensitive, true));
+        if (searchers.containsKey(singleRequest)) continue;
+        StringSearcher searcher = new StringSearcher(singleRequest.request.word, singleRequest.request.caseSensitive, true);
+        searchers.put(singleRequest, searcher);
+        searcherIndices.put(singleRequest, searcherList.size());
+        searcherList.add(searcher);
         allWords.add(singleRequest.request.word);
       }
+      // files containing several of the words are scanned once for all of them
+      final MultiStringSearcher multiSearcher = searcherList.size() > 1 ? new MultiStringSearcher(searcherList) : null;
 
       if (progress != null) {
         final StringBuilder result = new StringBuilder();
@@ -633,7 +653,15 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
                                    @Override
                                    public boolean process(PsiElement psiRoot) {
                                      final VirtualFile vfile = psiRoot.getContainingFile().getVirtualFile();
-                                     for (final RequestWithProcessor singleRequest : candidateFiles.get(vfile)) {
+                                     Collection<RequestWithProcessor> requests = candidateFiles.get(vfile);
+                                     if (multiSearcher != null && requests.size() > 1) {
+                                       TextOccurenceProcessor[] processors = new TextOccurenceProcessor[multiSearcher.getSearcherCount()];
+                                       for (RequestWithProcessor singleRequest : requests) {
+                                         processors[searcherIndices.get(singleRequest)] = adaptProcessor(singleRequest.request, singleRequest.refProcessor);
+                                       }
+                                       return LowLevelSearchUtil.processElementsContainingWordsInElement(processors, psiRoot, multiSearcher, true, progress);
+                                     }
+                                     for (final RequestWithProcessor singleRequest : requests) {
                                        StringSearcher searcher = searchers.get(singleRequest);
                                        TextOccurenceProcessor adapted = adaptProcessor(singleRequest.request, singleRequest.refProcessor);
                                        if (!LowLevelSearchUtil.processElementsContainingWordInElement(adapted, psiRoot, searcher, true, progress)) {
@@ -856,6 +884,35 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     });
   }
 
+  @NotNull
+  private static Collection<VirtualFile> retainFilesWithTrigrams(@NotNull final GlobalSearchScope scope,
+                                                                 @NotNull String text,
+                                                                 @NotNull Collection<VirtualFile> files) {
+    if (!TrigramIndex.ENABLED || files.isEmpty()) return files;
+    final TIntHashSet trigrams = TrigramQueryPlanner.getRequiredTrigrams(text);
+    if (trigrams == null) return files;
+
+    final Set<Integer> keys = new THashSet<Integer>(trigrams.size());
+    for (int trigram : trigrams.toArray()) {
+      keys.add(trigram);
+    }
+    final Set<VirtualFile> withTrigrams = new THashSet<VirtualFile>();
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        FileBasedIndex.getInstance()
+          .getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(withTrigrams), scope);
+      }
+    });
+    List<VirtualFile> result = new ArrayList<VirtualFile>(Math.min(files.size(), withTrigrams.size()));
+    for (VirtualFile file : files) {
+      if (withTrigrams.contains(file)) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
   private static ArrayList<IdIndexEntry> getWordEntries(String name, boolean caseSensitively) {
     List<String> words = StringUtil.getWordsInStringLongestFirst(name);
     final ArrayList<IdIndexEntry> keys = new ArrayList<IdIndexEntry>();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Plain list of a serialized stub tree which deserializes stubs on demand. Only the root is read eagerly,
+ * children of a stub are read on the first call to its {@link StubBase#getChildrenStubs()}, and {@link #get(int)}
+ * reads just the children of the stubs on the path from the nearest loaded ancestor to the requested one.
+ * Stubs are located using the offset table written by {@link SerializationManager#serialize(StubElement, java.io.OutputStream, gnu.trove.TIntArrayList, gnu.trove.TIntArrayList)}.
+ */
+class LazyStubList extends AbstractList<StubElement<?>> implements StubBase.ChildrenLoader {
+  private final byte[] myBytes;
+  private final int[] myOffsets;
+  private final int[] mySubtreeSizes;
+  private final int[] myParents;
+  private final AtomicReferenceArray<StubElement<?>> myStubs;
+
+  LazyStubList(@NotNull byte[] bytes, @NotNull int[] offsets, @NotNull int[] subtreeSizes) {
+    myBytes = bytes;
+    myOffsets = offsets;
+    mySubtreeSizes = subtreeSizes;
+    myParents = new int[offsets.length];
+    myParents[0] = -1;
+    for (int index = 0; index < offsets.length; index++) {
+      final int end = index + subtreeSizes[index];
+      for (int child = index + 1; child < end; child += subtreeSizes[child]) {
+        myParents[child] = index;
+      }
+    }
+    myStubs = new AtomicReferenceArray<StubElement<?>>(offsets.length);
+    readStub(0, null);
+  }
+
+  @NotNull
+  public PsiFileStub getRoot() {
+    return (PsiFileStub)myStubs.get(0);
+  }
+
+  @Override
+  public StubElement<?> get(int index) {
+    StubElement<?> stub = myStubs.get(index);
+    if (stub != null) return stub;
+
+    if (index < 0 || index >= myOffsets.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + myOffsets.length);
+    }
+    final TIntArrayList path = new TIntArrayList();
+    int current = index;
+    while (myStubs.get(current) == null) {
+      path.add(current);
+      current = myParents[current];
+    }
+    // loading the children of a stub on the path makes the next one available
+    for (int i = path.size() - 1; i >= 0; i--) {
+      myStubs.get(current).getChildrenStubs();
+      current = path.get(i);
+    }
+    return myStubs.get(index);
+  }
+
+  @Override
+  public int size() {
+    return myOffsets.length;
+  }
+
+  @Override
+  public void loadChildren(StubBase<?> stub) {
+    final int index = stub.id;
+    final int end = index + mySubtreeSizes[index];
+    for (int child = index + 1; child < end; child += mySubtreeSizes[child]) {
+      readStub(child, stub);
+    }
+  }
+
+  private void readStub(int index, StubElement parent) {
+    final UnsyncByteArrayInputStream bytes = new UnsyncByteArrayInputStream(myBytes);
+    bytes.skip(myOffsets[index]);
+    final SerializationManager manager = SerializationManager.getInstance();
+    final StubElement<?> stub;
+    try {
+      stub = manager.deserializeStub(manager.createStubInputStream(bytes), parent);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    final StubBase<?> stubBase = (StubBase<?>)stub;
+    stubBase.id = index;
+    if (mySubtreeSizes[index] > 1) {
+      stubBase.setChildrenLoader(this);
+    }
+    myStubs.set(index, stub);
+  }
+}
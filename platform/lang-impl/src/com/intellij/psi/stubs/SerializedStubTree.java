@@ -19,7 +19,10 @@
  */
 package com.intellij.psi.stubs;
 
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.TIntArrayList;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -28,27 +31,74 @@ import java.io.IOException;
 public class SerializedStubTree {
   private final byte[] myBytes;
   private final int myLength;
+  // offsets of stub records in depth-first order and the numbers of stubs in their subtrees, empty when unknown
+  private final int[] myStubOffsets;
+  private final int[] mySubtreeSizes;
 
   public SerializedStubTree(final byte[] bytes, int length) {
+    this(bytes, length, ArrayUtil.EMPTY_INT_ARRAY, ArrayUtil.EMPTY_INT_ARRAY);
+  }
+
+  public SerializedStubTree(final byte[] bytes, int length, TIntArrayList stubOffsets, TIntArrayList subtreeSizes) {
+    this(bytes, length, stubOffsets.toNativeArray(), subtreeSizes.toNativeArray());
+  }
+
+  private SerializedStubTree(final byte[] bytes, int length, int[] stubOffsets, int[] subtreeSizes) {
     myBytes = bytes;
     myLength = length;
+    myStubOffsets = stubOffsets;
+    mySubtreeSizes = subtreeSizes;
   }
-  
+
   public SerializedStubTree(DataInput in) throws IOException {
     myLength = in.readInt();
     myBytes = new byte[myLength];
     in.readFully(myBytes);
+
+    final int stubCount = DataInputOutputUtil.readINT(in);
+    myStubOffsets = new int[stubCount];
+    mySubtreeSizes = new int[stubCount];
+    int offset = 0;
+    for (int i = 0; i < stubCount; i++) {
+      offset += DataInputOutputUtil.readINT(in);
+      myStubOffsets[i] = offset;
+    }
+    for (int i = 0; i < stubCount; i++) {
+      mySubtreeSizes[i] = DataInputOutputUtil.readINT(in);
+    }
   }
 
   public void write(DataOutput out) throws IOException{
     out.writeInt(myLength);
     out.write(myBytes, 0, myLength);
+
+    DataInputOutputUtil.writeINT(out, myStubOffsets.length);
+    int prevOffset = 0;
+    for (int offset : myStubOffsets) {
+      DataInputOutputUtil.writeINT(out, offset - prevOffset);
+      prevOffset = offset;
+    }
+    for (int size : mySubtreeSizes) {
+      DataInputOutputUtil.writeINT(out, size);
+    }
   }
 
   public StubElement getStub() {
     return SerializationManager.getInstance().deserialize(new UnsyncByteArrayInputStream(myBytes));
   }
 
+  /**
+   * Returns the tree whose stubs are deserialized on demand, see {@link LazyStubList}.
+   * Falls back to reading the whole tree when the serialized form has no offset table.
+   */
+  public StubTree getStubTree() {
+    if (myStubOffsets.length == 0) {
+      return new StubTree((PsiFileStub)getStub());
+    }
+    final LazyStubList plainList = new LazyStubList(myBytes, myStubOffsets, mySubtreeSizes);
+    return new StubTree(plainList.getRoot(), plainList);
+  }
+
   public boolean equals(final Object that) {
     if (this == that) {
       return true;
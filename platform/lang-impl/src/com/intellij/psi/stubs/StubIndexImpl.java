@@ -108,7 +108,7 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
   
   private <K> boolean registerIndexer(@NotNull StubIndexExtension<K, ?> extension, final boolean forceClean) throws IOException {
     final StubIndexKey<K, ?> indexKey = extension.getKey();
-    final int version = extension.getVersion();
+    final int version = ShardedIndexStorage.getStorageVersion(extension.getVersion());
     myIndexIdToVersionMap.put(indexKey, version);
     final File versionFile = IndexInfrastructure.getVersionFile(indexKey);
     final boolean versionFileExisted = versionFile.exists();
@@ -127,7 +127,7 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
 
     for (int attempt = 0; attempt < 2; attempt++) {
       try {
-        final MapIndexStorage<K, TIntArrayList> storage = new MapIndexStorage<K, TIntArrayList>(IndexInfrastructure.getStorageFile(indexKey), extension.getKeyDescriptor(), new StubIdExternalizer(), 2 * 1024);
+        final IndexStorage<K, TIntArrayList> storage = ShardedIndexStorage.create(IndexInfrastructure.getStorageFile(indexKey), extension.getKeyDescriptor(), new StubIdExternalizer(), 2 * 1024);
         final MemoryIndexStorage<K, TIntArrayList> memStorage = new MemoryIndexStorage<K, TIntArrayList>(storage);
         myIndices.put(indexKey, new MyIndex<K>(memStorage));
         break;
@@ -77,8 +77,7 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
       final int size = datas.size();
 
       if (size == 1) {
-        StubElement stub = datas.get(0).getStub();
-        return new StubTree((PsiFileStub)stub);
+        return datas.get(0).getStubTree();
       }
       else if (size != 0) {
         LOG.error("Twin stubs: " + vFile.getPresentableUrl() + " has " + size + " stub versions. Should only have one. id=" + id);
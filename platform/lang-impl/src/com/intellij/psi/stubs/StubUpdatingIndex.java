@@ -48,7 +48,7 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
 
   public static final ID<Integer, SerializedStubTree> INDEX_ID = ID.create("Stubs");
 
-  private static final int VERSION = 20;
+  private static final int VERSION = 21;
 
   private static final DataExternalizer<SerializedStubTree> KEY_EXTERNALIZER = new DataExternalizer<SerializedStubTree>() {
     @Override
@@ -118,10 +118,12 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
             if (rootStub == null) return;
 
             final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
-            SerializationManager.getInstance().serialize(rootStub, bytes);
+            final TIntArrayList stubOffsets = new TIntArrayList();
+            final TIntArrayList subtreeSizes = new TIntArrayList();
+            SerializationManager.getInstance().serialize(rootStub, bytes, stubOffsets, subtreeSizes);
 
             final int key = Math.abs(FileBasedIndex.getFileId(inputData.getFile()));
-            result.put(key, new SerializedStubTree(bytes.getInternalBuffer(), bytes.size()));
+            result.put(key, new SerializedStubTree(bytes.getInternalBuffer(), bytes.size(), stubOffsets, subtreeSizes));
           }
         });
 
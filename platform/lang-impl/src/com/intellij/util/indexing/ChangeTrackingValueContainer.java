@@ -122,6 +122,13 @@ class ChangeTrackingValueContainer<Value> extends UpdatableValueContainer<Value>
     myMerged = null;
   }
 
+  /**
+   * @return a copy of the current data which is not affected by the subsequent updates of this container
+   */
+  ValueContainerImpl<Value> copyMergedData() {
+    return getMergedData().clone();
+  }
+
   // need 'synchronized' to ensure atomic initialization of merged data
   // because several threads that acquired read lock may simultaneously execute the method
   private ValueContainerImpl<Value> getMergedData() {
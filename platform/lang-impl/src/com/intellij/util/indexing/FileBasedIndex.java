@@ -372,7 +372,7 @@ public class FileBasedIndex implements ApplicationComponent {
    */
   private <K, V> boolean registerIndexer(@NotNull final FileBasedIndexExtension<K, V> extension, final boolean isCurrentVersionCorrupted) throws IOException {
     final ID<K, V> name = extension.getName();
-    final int version = extension.getVersion();
+    final int version = ShardedIndexStorage.getStorageVersion(extension.getVersion());
     final File versionFile = IndexInfrastructure.getVersionFile(name);
     final boolean versionFileExisted = versionFile.exists();
     boolean versionChanged = false;
@@ -387,7 +387,7 @@ public class FileBasedIndex implements ApplicationComponent {
 
     for (int attempt = 0; attempt < 2; attempt++) {
       try {
-        final MapIndexStorage<K, V> storage = new MapIndexStorage<K, V>(IndexInfrastructure.getStorageFile(name), extension.getKeyDescriptor(), extension.getValueExternalizer(), extension.getCacheSize());
+        final IndexStorage<K, V> storage = ShardedIndexStorage.create(IndexInfrastructure.getStorageFile(name), extension.getKeyDescriptor(), extension.getValueExternalizer(), extension.getCacheSize());
         final MemoryIndexStorage<K, V> memStorage = new MemoryIndexStorage<K, V>(storage);
         final UpdatableIndex<K, V, FileContent> index = createIndex(name, extension, memStorage);
         final InputFilter inputFilter = extension.getInputFilter();
@@ -1111,34 +1111,57 @@ public class FileBasedIndex implements ApplicationComponent {
 
       try {
         index.getReadLock().lock();
-        final List<TIntHashSet> locals = new ArrayList<TIntHashSet>();
+        final List<ValueContainer<V>> containers = new ArrayList<ValueContainer<V>>(dataKeys.size());
         for (K dataKey : dataKeys) {
-          TIntHashSet local = new TIntHashSet();
-          locals.add(local);
-          final ValueContainer<V> container = index.getData(dataKey);
-
-          for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext();) {
-            final V value = valueIt.next();
-            for (final ValueContainer.IntIterator inputIdsIterator = container.getInputIdsIterator(value); inputIdsIterator.hasNext();) {
-              final int id = inputIdsIterator.next();
-              local.add(id);
-            }
-          }
+          containers.add(index.getData(dataKey));
         }
 
-        if (locals.isEmpty()) {
+        if (containers.isEmpty()) {
           return true;
         }
 
-        Collections.sort(locals, new Comparator<TIntHashSet>() {
-          @Override
-          public int compare(TIntHashSet o1, TIntHashSet o2) {
-            return o1.size() - o2.size();
+        // only the ids of the smallest container are collected, the others are probed by their association predicates
+        int smallest = 0;
+        int smallestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < containers.size(); i++) {
+          final int size = countInputIds(containers.get(i));
+          if (size < smallestSize) {
+            smallest = i;
+            smallestSize = size;
           }
-        });
+        }
+        final TIntHashSet intersection = new TIntHashSet(smallestSize);
+        final ValueContainer<V> smallestContainer = containers.get(smallest);
+        for (final Iterator<V> valueIt = smallestContainer.getValueIterator(); valueIt.hasNext();) {
+          for (final ValueContainer.IntIterator inputIdsIterator = smallestContainer.getInputIdsIterator(valueIt.next()); inputIdsIterator.hasNext();) {
+            intersection.add(inputIdsIterator.next());
+          }
+        }
+
+        for (int i = 0; i < containers.size() && !intersection.isEmpty(); i++) {
+          if (i == smallest) continue;
+          final ValueContainer<V> container = containers.get(i);
+          final List<ValueContainer.IntPredicate> predicates = new ArrayList<ValueContainer.IntPredicate>(container.size());
+          for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext();) {
+            predicates.add(container.getValueAssociationPredicate(valueIt.next()));
+          }
+          for (TIntIterator it = intersection.iterator(); it.hasNext();) {
+            final int id = it.next();
+            boolean found = false;
+            for (ValueContainer.IntPredicate predicate : predicates) {
+              if (predicate.contains(id)) {
+                found = true;
+                break;
+              }
+            }
+            if (!found) {
+              it.remove();
+            }
+          }
+        }
 
         final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
-        TIntIterator ids = join(locals).iterator();
+        TIntIterator ids = intersection.iterator();
         ProjectIndexableFilesFilter projectIndexableFilesFilter = projectIndexableFiles(project);
         while (ids.hasNext()) {
           int id = ids.next();
@@ -1171,23 +1194,12 @@ public class FileBasedIndex implements ApplicationComponent {
     return true;
   }
 
-  @NotNull
-  private static TIntHashSet join(@NotNull List<TIntHashSet> locals) {
-    TIntHashSet result = locals.get(0);
-    if (locals.size() > 1) {
-      TIntIterator it = result.iterator();
-
-      while (it.hasNext()) {
-        int id = it.next();
-        for (int i = 1; i < locals.size(); i++) {
-          if (!locals.get(i).contains(id)) {
-            it.remove();
-            break;
-          }
-        }
-      }
+  private static <V> int countInputIds(@NotNull ValueContainer<V> container) {
+    int count = 0;
+    for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext();) {
+      count += container.getInputIdsIterator(valueIt.next()).size();
     }
-    return result;
+    return count;
   }
 
   public <K> void scheduleRebuild(@NotNull final ID<K, ?> indexId, @NotNull final Throwable e) {
@@ -1479,6 +1491,27 @@ public class FileBasedIndex implements ApplicationComponent {
     return holder;
   }
 
+  /**
+   * Per-index mapping and storage update counters, accumulated since the last {@link #resetIndexingStatistics()}.
+   */
+  @NotNull
+  public List<ThroughputCounter> getIndexingStatistics() {
+    final List<ThroughputCounter> result = new ArrayList<ThroughputCounter>();
+    for (ID<?, ?> indexId : myIndices.keySet()) {
+      final MapReduceIndex index = (MapReduceIndex)getIndex(indexId);
+      assert index != null;
+      result.add(index.getMappingCounter());
+      result.add(index.getStorageCounter());
+    }
+    return result;
+  }
+
+  public void resetIndexingStatistics() {
+    for (ThroughputCounter counter : getIndexingStatistics()) {
+      counter.reset();
+    }
+  }
+
   private void cleanupMemoryStorage() {
     myLastIndexedDocStamps.clear();
     for (ID<?, ?> indexId : myIndices.keySet()) {
@@ -21,6 +21,7 @@ import com.intellij.openapi.util.Factory;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.ThroughputCounter;
 import com.intellij.util.io.PersistentHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -30,6 +31,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -44,6 +46,10 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
   @Nullable private PersistentHashMap<Integer, Collection<Key>> myInputsIndex;
 
   private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+  // serialize updates of the same input when the storage is updated under the read lock, see isStorageUpdatedConcurrently()
+  private final Lock[] myInputLocks = new Lock[16];
+  private final ThroughputCounter myMappingCounter;
+  private final ThroughputCounter myStorageCounter;
   
   private Factory<PersistentHashMap<Integer, Collection<Key>>> myInputsIndexFactory;
 
@@ -52,6 +58,11 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     myIndexId = indexId;
     myIndexer = indexer;
     myStorage = storage;
+    myMappingCounter = new ThroughputCounter(indexId + " mapping");
+    myStorageCounter = new ThroughputCounter(indexId + " storage update");
+    for (int i = 0; i < myInputLocks.length; i++) {
+      myInputLocks[i] = new ReentrantLock();
+    }
   }
 
   @NotNull
@@ -59,6 +70,22 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     return myStorage;
   }
 
+  /**
+   * @return time spent in {@link DataIndexer#map} for the inputs passed to {@link #update}
+   */
+  @NotNull
+  public ThroughputCounter getMappingCounter() {
+    return myMappingCounter;
+  }
+
+  /**
+   * @return time spent writing the mapped data to the storage and the inputs index, including waiting for the write lock
+   */
+  @NotNull
+  public ThroughputCounter getStorageCounter() {
+    return myStorageCounter;
+  }
+
   @Override
   public void clear() throws StorageException {
     try {
@@ -209,7 +236,10 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
   public final void update(final int inputId, @Nullable Input content) throws StorageException {
     assert myInputsIndex != null;
 
+    final long mappingStarted = System.nanoTime();
     final Map<Key, Value> data = content != null ? myIndexer.map(content) : Collections.<Key, Value>emptyMap();
+    final long storageStarted = System.nanoTime();
+    myMappingCounter.record(0, storageStarted - mappingStarted);
 
     updateWithMap(inputId, data, new Callable<Collection<Key>>() {
       @Override
@@ -218,10 +248,33 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
         return oldKeys == null? Collections.<Key>emptyList() : oldKeys;
       }
     });
+    myStorageCounter.record(0, System.nanoTime() - storageStarted);
+  }
+
+  /**
+   * A {@link ShardedIndexStorage} locks its shards itself, so it is updated under the read lock, which only excludes
+   * {@link #clear()} and {@link #dispose()}, and the updates of different inputs go in parallel. In this case the changes
+   * of the keys of an input become visible to readers one by one rather than all at once.
+   * Memory storage buffering changes for unsaved documents is not thread-safe and is always updated under the write lock.
+   */
+  private boolean isStorageUpdatedConcurrently() {
+    IndexStorage<Key, Value> storage = myStorage;
+    if (storage instanceof MemoryIndexStorage) {
+      final MemoryIndexStorage<Key, Value> memoryStorage = (MemoryIndexStorage<Key, Value>)storage;
+      if (memoryStorage.isBufferingEnabled()) {
+        return false;
+      }
+      storage = memoryStorage.getBackendStorage();
+    }
+    return storage instanceof ShardedIndexStorage;
   }
 
   protected void updateWithMap(final int inputId, @NotNull Map<Key, Value> newData, @NotNull Callable<Collection<Key>> oldKeysGetter) throws StorageException {
-    getWriteLock().lock();
+    final boolean concurrent = isStorageUpdatedConcurrently();
+    final Lock lock = concurrent ? getReadLock() : getWriteLock();
+    final Lock inputLock = concurrent ? myInputLocks[(inputId & Integer.MAX_VALUE) % myInputLocks.length] : null;
+    lock.lock();
+    if (inputLock != null) inputLock.lock();
     try {
       try {
         for (Key key : oldKeysGetter.call()) {
@@ -251,7 +304,8 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
       }
     }
     finally {
-      getWriteLock().unlock();
+      if (inputLock != null) inputLock.unlock();
+      lock.unlock();
     }
   }
 
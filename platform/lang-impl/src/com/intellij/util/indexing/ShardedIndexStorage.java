@@ -0,0 +1,235 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Splits keys between several independent {@link MapIndexStorage}s by key hash. Every shard has its own read-write lock,
+ * cache and persistent map, so updates and reads of keys from different shards don't wait for each other, and
+ * {@link MapReduceIndex} doesn't take its index-wide write lock to update a sharded storage.
+ * <p/>
+ * Since the containers of a shard are modified while other threads read the same shard, {@link #read(Object)} returns
+ * a copy of the data.
+ * <p/>
+ * The number of shards is set with the "idea.index.storage.shards" system property, 4 by default; 1 means no sharding.
+ */
+public final class ShardedIndexStorage<Key, Value> implements IndexStorage<Key, Value> {
+  private static final int SHARDS_COUNT = Math.max(1, SystemInfo.getIntProperty("idea.index.storage.shards", 4));
+
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final List<MapIndexStorage<Key, Value>> myShards;
+  private final ReentrantReadWriteLock[] myLocks;
+
+  public ShardedIndexStorage(@NotNull File storageFile,
+                             @NotNull KeyDescriptor<Key> keyDescriptor,
+                             @NotNull DataExternalizer<Value> valueExternalizer,
+                             int cacheSize,
+                             int shardsCount) throws IOException {
+    myKeyDescriptor = keyDescriptor;
+    myShards = new ArrayList<MapIndexStorage<Key, Value>>(shardsCount);
+    myLocks = new ReentrantReadWriteLock[shardsCount];
+    final int shardCacheSize = Math.max(cacheSize / shardsCount, 16);
+    for (int i = 0; i < shardsCount; i++) {
+      final File shardFile = new File(storageFile.getPath() + "_shard" + i);
+      myShards.add(new MapIndexStorage<Key, Value>(shardFile, keyDescriptor, valueExternalizer, shardCacheSize));
+      myLocks[i] = new ReentrantReadWriteLock();
+    }
+  }
+
+  @NotNull
+  public static <Key, Value> IndexStorage<Key, Value> create(@NotNull File storageFile,
+                                                             @NotNull KeyDescriptor<Key> keyDescriptor,
+                                                             @NotNull DataExternalizer<Value> valueExternalizer,
+                                                             int cacheSize) throws IOException {
+    if (SHARDS_COUNT == 1) {
+      return new MapIndexStorage<Key, Value>(storageFile, keyDescriptor, valueExternalizer, cacheSize);
+    }
+    return new ShardedIndexStorage<Key, Value>(storageFile, keyDescriptor, valueExternalizer, cacheSize, SHARDS_COUNT);
+  }
+
+  /**
+   * The files layout depends on the number of shards, so the version written for an index must change with it
+   * to have the index rebuilt.
+   */
+  public static int getStorageVersion(int indexVersion) {
+    return SHARDS_COUNT == 1 ? indexVersion : indexVersion * 31 + SHARDS_COUNT;
+  }
+
+  private int getShardIndex(Key key) {
+    int hash = myKeyDescriptor.getHashCode(key);
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return (hash & Integer.MAX_VALUE) % myShards.size();
+  }
+
+  @Override
+  public void addValue(Key key, int inputId, Value value) throws StorageException {
+    final int index = getShardIndex(key);
+    final Lock lock = myLocks[index].writeLock();
+    lock.lock();
+    try {
+      myShards.get(index).addValue(key, inputId, value);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void removeValue(Key key, int inputId, Value value) throws StorageException {
+    final int index = getShardIndex(key);
+    final Lock lock = myLocks[index].writeLock();
+    lock.lock();
+    try {
+      myShards.get(index).removeValue(key, inputId, value);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void removeAllValues(Key key, int inputId) throws StorageException {
+    final int index = getShardIndex(key);
+    final Lock lock = myLocks[index].writeLock();
+    lock.lock();
+    try {
+      myShards.get(index).removeAllValues(key, inputId);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @NotNull
+  @Override
+  public ValueContainer<Value> read(Key key) throws StorageException {
+    final int index = getShardIndex(key);
+    final Lock lock = myLocks[index].readLock();
+    lock.lock();
+    try {
+      return myShards.get(index).read(key).copyMergedData();
+    }
+    catch (RuntimeException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new StorageException(cause);
+      }
+      if (cause instanceof StorageException) {
+        throw (StorageException)cause;
+      }
+      throw e;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() throws StorageException {
+    StorageException exception = null;
+    for (int i = 0; i < myShards.size(); i++) {
+      final Lock lock = myLocks[i].writeLock();
+      lock.lock();
+      try {
+        myShards.get(i).clear();
+      }
+      catch (StorageException e) {
+        exception = e;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public boolean processKeys(Processor<Key> processor) throws StorageException {
+    for (int i = 0; i < myShards.size(); i++) {
+      // write lock: the shard writes its cached containers to disk before processing the keys
+      final Lock lock = myLocks[i].writeLock();
+      lock.lock();
+      try {
+        if (!myShards.get(i).processKeys(processor)) {
+          return false;
+        }
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Collection<Key> getKeys() throws StorageException {
+    List<Key> keys = new ArrayList<Key>();
+    processKeys(new CommonProcessors.CollectProcessor<Key>(keys));
+    return keys;
+  }
+
+  @Override
+  public void close() throws StorageException {
+    StorageException exception = null;
+    for (int i = 0; i < myShards.size(); i++) {
+      final Lock lock = myLocks[i].writeLock();
+      lock.lock();
+      try {
+        myShards.get(i).close();
+      }
+      catch (StorageException e) {
+        exception = e;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    for (int i = 0; i < myShards.size(); i++) {
+      final Lock lock = myLocks[i].writeLock();
+      lock.lock();
+      try {
+        myShards.get(i).flush();
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -52,6 +52,10 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
         idSet.add(((Integer)input).intValue());
         myInputIdMapping.put(value, idSet);
       }
+      else if (input instanceof IdArray) {
+        idSet = ((IdArray)input).toSet();
+        myInputIdMapping.put(value, idSet);
+      }
       else {
         idSet = (TIntHashSet)input;
       }
@@ -59,6 +63,24 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     }
   }
 
+  /**
+   * Adds input ids sorted in ascending order. If the value has no ids yet, they are kept in a compact sorted array
+   * that is replaced with a hash set only when the value's ids are modified.
+   */
+  void addValues(Value value, int[] sortedIds) {
+    if (sortedIds.length == 0) {
+      return;
+    }
+    value = maskNull(value);
+    if (!myInputIdMapping.containsKey(value)) {
+      myInputIdMapping.put(value, sortedIds.length == 1 ? (Object)sortedIds[0] : new IdArray(sortedIds));
+      return;
+    }
+    for (int inputId : sortedIds) {
+      addValue(inputId, value);
+    }
+  }
+
   @Override
   public int size() {
     return myInputIdMapping.size();
@@ -85,10 +107,17 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   @Override
   public boolean removeValue(int inputId, Value value) {
     value = maskNull(value);
-    final Object input = myInputIdMapping.get(value);
+    Object input = myInputIdMapping.get(value);
     if (input == null) {
       return false;
     }
+    if (input instanceof IdArray) {
+      if (!((IdArray)input).contains(inputId)) {
+        return false;
+      }
+      input = ((IdArray)input).toSet();
+      myInputIdMapping.put(value, input);
+    }
     if (input instanceof TIntHashSet) {
       final TIntHashSet idSet = (TIntHashSet)input;
       final boolean reallyRemoved = idSet.remove(inputId);
@@ -163,11 +192,15 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     if (input instanceof Integer ){
       return inputId == ((Integer)input).intValue();
     }
+    if (input instanceof IdArray) {
+      return ((IdArray)input).contains(inputId);
+    }
     return false;
   }
 
   @Override
   public IntPredicate getValueAssociationPredicate(Value value) {
+    value = maskNull(value);
     final Object input = myInputIdMapping.get(value);
     if (input == null) return EMPTY_PREDICATE;
     if (input instanceof Integer) {
@@ -179,6 +212,15 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
         }
       };
     }
+    if (input instanceof IdArray) {
+      return new IntPredicate() {
+        final IdArray myArray = (IdArray)input;
+        @Override
+        boolean contains(int id) {
+          return myArray.contains(id);
+        }
+      };
+    }
     return new IntPredicate() {
       final TIntHashSet mySet = (TIntHashSet)input;
       @Override
@@ -199,6 +241,9 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     else if (input instanceof Integer ){
       it = new SingleValueIterator(((Integer)input).intValue());
     }
+    else if (input instanceof IdArray) {
+      it = new IdArrayIterator((IdArray)input);
+    }
     else {
       it = EMPTY_ITERATOR;
     }
@@ -288,6 +333,30 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     }
   }
 
+  private static class IdArrayIterator implements IntIterator {
+    private final int[] myIds;
+    private int myIndex;
+
+    private IdArrayIterator(IdArray array) {
+      myIds = array.myIds;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myIndex < myIds.length;
+    }
+
+    @Override
+    public int next() {
+      return myIds[myIndex++];
+    }
+
+    @Override
+    public int size() {
+      return myIds.length;
+    }
+  }
+
   private THashMap<Value, Object> mapCopy(final THashMap<Value, Object> map) {
     if (map == null) {
       return null;
@@ -299,6 +368,7 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
         if (val instanceof TIntHashSet) {
           cloned.put(key, ((TIntHashSet)val).clone());
         }
+        // IdArray is never modified, so it's shared between the copies
         return true;
       }
     });
@@ -313,6 +383,27 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     }
   };
 
+  /**
+   * Sorted input ids as read from disk. The array is never modified: the first change of the value's ids replaces it with an {@link IdSet}.
+   */
+  private static final class IdArray {
+    private final int[] myIds;
+
+    private IdArray(int[] sortedIds) {
+      myIds = sortedIds;
+    }
+
+    private boolean contains(int id) {
+      return Arrays.binarySearch(myIds, id) >= 0;
+    }
+
+    private TIntHashSet toSet() {
+      final IdSet set = new IdSet(myIds.length + 1, 0.98f);
+      set.addAll(myIds);
+      return set;
+    }
+  }
+
   private static class IdSet extends TIntHashSet {
 
     private IdSet(final int initialCapacity, final float loadFactor) {
@@ -7,6 +7,7 @@ import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -94,7 +95,10 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
         myExternalizer.save(out, value);
 
         final ValueContainer.IntIterator ids = container.getInputIdsIterator(value);
-        if (ids != null) {
+        if (ids != null && !asRemovedData && ids.size() > 1) {
+          saveSortedDeltas(out, ids);
+        }
+        else if (ids != null) {
           DataInputOutputUtil.writeSINT(out, ids.size());
           while (ids.hasNext()) {
             final int id = ids.next();
@@ -107,6 +111,36 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
       }
     }
 
+    /**
+     * Added ids are written sorted, as a negated count followed by the differences between neighbours,
+     * so that they take less space and can be read into a sorted array without hashing.
+     */
+    private static void saveSortedDeltas(final DataOutput out, @NotNull ValueContainer.IntIterator ids) throws IOException {
+      final int[] sorted = new int[ids.size()];
+      int count = 0;
+      while (ids.hasNext()) {
+        sorted[count++] = ids.next();
+      }
+      Arrays.sort(sorted, 0, count);
+      DataInputOutputUtil.writeSINT(out, -count);
+      int prev = 0;
+      for (int i = 0; i < count; i++) {
+        DataInputOutputUtil.writeINT(out, sorted[i] - prev);
+        prev = sorted[i];
+      }
+    }
+
+    @NotNull
+    private static int[] readSortedDeltas(final DataInput in, int count) throws IOException {
+      final int[] ids = new int[count];
+      int prev = 0;
+      for (int i = 0; i < count; i++) {
+        prev += DataInputOutputUtil.readINT(in);
+        ids[i] = prev;
+      }
+      return ids;
+    }
+
     @NotNull
     @Override
     public ValueContainerImpl<T> read(final DataInput in) throws IOException {
@@ -123,6 +157,10 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
           for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
             final T value = myExternalizer.read(in);
             final int idCount = DataInputOutputUtil.readSINT(in);
+            if (idCount < 0) {
+              valueContainer.addValues(value, readSortedDeltas(in, -idCount));
+              continue;
+            }
             for (int i = 0; i < idCount; i++) {
               final int id = DataInputOutputUtil.readSINT(in);
               if (id < 0) {
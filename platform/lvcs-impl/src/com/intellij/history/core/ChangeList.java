@@ -142,9 +142,8 @@ public class ChangeList {
               }
             }
             else {
-              synchronized (ChangeList.this) {
-                currentBlock = myStorage.readPrevious(currentBlock.id, recursionGuard);
-              }
+              // the storage takes care of its own consistency
+              currentBlock = myStorage.readPrevious(currentBlock.id, recursionGuard);
             }
             if (currentBlock == null) return null;
             return currentBlock.changeSet;
@@ -169,7 +168,7 @@ public class ChangeList {
     v.finished();
   }
 
-  public synchronized void purgeObsolete(long period) {
+  public void purgeObsolete(long period) {
     myStorage.purge(period, myIntervalBetweenActivities, new Consumer<ChangeSet>() {
       public void consume(ChangeSet changeSet) {
         for (Content each : changeSet.getContentsToPurge()) {
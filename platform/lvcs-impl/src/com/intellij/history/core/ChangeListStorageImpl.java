@@ -86,7 +86,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     myStorage = result;
   }
 
-  private static long getVFSTimestamp() {
+  static long getVFSTimestamp() {
     return ((PersistentFS)ManagingFS.getInstance()).getCreationTimestamp();
   }
 
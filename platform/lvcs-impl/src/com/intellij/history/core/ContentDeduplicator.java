@@ -0,0 +1,321 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Makes the contents kept by local history shared when their bytes are the same (e.g. after switching branches back and forth),
+ * instead of storing a copy of the content every time.
+ * <p/>
+ * The digests of the stored contents are mapped to their ids. A content found by the digest is acquired only if it's still
+ * referenced, and it's used only if its bytes still have the same digest: a content released by local history may be overwritten
+ * by the VFS, so the mapping is just a hint. Every {@link StoredContent} still holds its own reference, so releasing works as before.
+ * The contents are released through {@link #release(int)}, which drops the digest of a content nobody references anymore,
+ * so the mapping doesn't grow with the contents purged by local history.
+ * <p/>
+ * Every content recorded costs a SHA-1 of its bytes, and the content of a changed file is read back from the VFS to compute it,
+ * so deduplication is off by default ("localHistory.deduplicateContents" registry key); the time spent is logged on close.
+ * <p/>
+ * The contents are compressed by the VFS content storage already.
+ */
+public class ContentDeduplicator {
+  private final PersistentHashMap<String, Integer> myContentIds;
+  private final PersistentHashMap<Integer, String> myDigests; // guarded by myContentIds
+
+  private final Object myStatisticsLock = new Object();
+  private int myStoredCount;
+  private int myDeduplicatedCount;
+  private int myPrunedCount;
+  private long mySavedBytes;
+  private int myDigestCount;
+  private long myDigestTime;
+  private int myReadCount;
+  private long myReadTime;
+  private long myMaxReadTime;
+
+  public ContentDeduplicator(@NotNull File indexFile) throws IOException {
+    File dir = indexFile.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+    File digestsFile = new File(indexFile.getPath() + ".ids");
+    if (indexFile.exists() && !digestsFile.exists()) {
+      LocalHistoryLog.LOG.info("content index has no digests by content, rebuilding...");
+      PersistentHashMap.deleteFilesStartingWith(indexFile);
+    }
+
+    PersistentHashMap<String, Integer> contentIds = null;
+    PersistentHashMap<Integer, String> digests;
+    try {
+      contentIds = createContentIds(indexFile);
+      digests = createDigests(digestsFile);
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info("content index is broken, rebuilding...", e);
+      if (contentIds != null) contentIds.close();
+      PersistentHashMap.deleteFilesStartingWith(indexFile);
+      contentIds = createContentIds(indexFile);
+      digests = createDigests(digestsFile);
+    }
+    myContentIds = contentIds;
+    myDigests = digests;
+  }
+
+  private static PersistentHashMap<String, Integer> createContentIds(@NotNull File indexFile) throws IOException {
+    return new PersistentHashMap<String, Integer>(indexFile, new EnumeratorStringDescriptor(), EnumeratorIntegerDescriptor.INSTANCE);
+  }
+
+  private static PersistentHashMap<Integer, String> createDigests(@NotNull File digestsFile) throws IOException {
+    return new PersistentHashMap<Integer, String>(digestsFile, EnumeratorIntegerDescriptor.INSTANCE, new EnumeratorStringDescriptor());
+  }
+
+  /**
+   * @return id of a content with the bytes, acquired for the caller
+   */
+  public int store(@NotNull byte[] bytes) {
+    String digest = getDigest(bytes);
+    synchronized (myContentIds) {
+      int existing = acquireExisting(digest);
+      if (existing != 0) {
+        deduplicated(bytes.length);
+        return existing;
+      }
+
+      int contentId = getFS().storeUnlinkedContent(bytes);
+      remember(digest, contentId);
+      return contentId;
+    }
+  }
+
+  /**
+   * @return id of a content with the current content of the file acquired for the caller, or 0 if the VFS has no content of the file
+   */
+  public int acquire(@NotNull VirtualFile file) {
+    int contentId = getFS().acquireContent(file);
+    if (contentId == 0) return 0;
+
+    // the content is acquired, so the VFS will write the next version of the file elsewhere and the bytes can't change
+    byte[] bytes;
+    try {
+      bytes = getFS().contentsToByteArray(contentId);
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info("cannot read content of " + file, e);
+      return contentId;
+    }
+
+    String digest = getDigest(bytes);
+    synchronized (myContentIds) {
+      int existing = acquireExisting(digest);
+      if (existing != 0) {
+        getFS().releaseContent(contentId);
+        if (existing != contentId) deduplicated(bytes.length);
+        return existing;
+      }
+
+      remember(digest, contentId);
+      return contentId;
+    }
+  }
+
+  private int acquireExisting(@NotNull String digest) {
+    Integer contentId;
+    try {
+      contentId = myContentIds.get(digest);
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info(e);
+      return 0;
+    }
+    if (contentId == null) return 0;
+    if (!getFS().acquireContentIfReferenced(contentId)) {
+      forget(digest, contentId);
+      return 0;
+    }
+
+    boolean same;
+    try {
+      same = digest.equals(getDigest(getFS().contentsToByteArray(contentId)));
+    }
+    catch (IOException e) {
+      same = false;
+    }
+    if (!same) {
+      getFS().releaseContent(contentId);
+      forget(digest, contentId);
+      return 0;
+    }
+    return contentId;
+  }
+
+  private void forget(@NotNull String digest, int contentId) {
+    try {
+      myContentIds.remove(digest);
+      if (digest.equals(myDigests.get(contentId))) {
+        myDigests.remove(contentId);
+      }
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info(e);
+    }
+  }
+
+  /**
+   * Releases a reference acquired by {@link #store} or {@link #acquire} and drops the digest of the content if nobody references it
+   * anymore. Only the released content is checked, by a read-only look at its reference count.
+   */
+  public void release(int contentId) {
+    getFS().releaseContent(contentId);
+    synchronized (myContentIds) {
+      if (getFS().isContentReferenced(contentId)) return;
+      try {
+        String digest = myDigests.get(contentId);
+        if (digest == null) return;
+        myDigests.remove(contentId);
+        Integer mapped = myContentIds.get(digest);
+        if (mapped != null && mapped.intValue() == contentId) {
+          myContentIds.remove(digest);
+        }
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.info(e);
+        return;
+      }
+    }
+    synchronized (myStatisticsLock) {
+      myPrunedCount++;
+    }
+  }
+
+  @TestOnly
+  public boolean hasDigest(int contentId) throws IOException {
+    synchronized (myContentIds) {
+      return myDigests.get(contentId) != null;
+    }
+  }
+
+  private void deduplicated(int length) {
+    synchronized (myStatisticsLock) {
+      myDeduplicatedCount++;
+      mySavedBytes += length;
+    }
+  }
+
+  private void remember(@NotNull String digest, int contentId) {
+    try {
+      myContentIds.put(digest, contentId);
+      myDigests.put(contentId, digest);
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info(e);
+    }
+    synchronized (myStatisticsLock) {
+      myStoredCount++;
+    }
+  }
+
+  /**
+   * Called by {@link StoredContent} every time the bytes of a content are read, e.g. to show a revision diff.
+   */
+  public void contentRead(long nanos) {
+    synchronized (myStatisticsLock) {
+      myReadCount++;
+      myReadTime += nanos;
+      myMaxReadTime = Math.max(myMaxReadTime, nanos);
+    }
+  }
+
+  @TestOnly
+  public int getDeduplicatedCount() {
+    synchronized (myStatisticsLock) {
+      return myDeduplicatedCount;
+    }
+  }
+
+  @NotNull
+  public String getStatistics() {
+    synchronized (myStatisticsLock) {
+      return "contents stored: " + myStoredCount +
+             ", deduplicated: " + myDeduplicatedCount + " (" + mySavedBytes / 1024 + " KB saved)" +
+             ", digests dropped: " + myPrunedCount +
+             ", digests: " + myDigestCount +
+             (myDigestCount == 0 ? "" : " (average " + myDigestTime / myDigestCount / 1000 + " us)") +
+             ", read: " + myReadCount +
+             (myReadCount == 0 ? "" : " (average " + myReadTime / myReadCount / 1000 + " us, max " + myMaxReadTime / 1000 + " us)");
+    }
+  }
+
+  public void close() {
+    LocalHistoryLog.LOG.info("Local history " + getStatistics());
+    synchronized (myContentIds) {
+      try {
+        try {
+          myContentIds.close();
+        }
+        finally {
+          myDigests.close();
+        }
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.info(e);
+      }
+    }
+  }
+
+  @NotNull
+  private String getDigest(@NotNull byte[] bytes) {
+    long start = System.nanoTime();
+    String result = computeDigest(bytes);
+    synchronized (myStatisticsLock) {
+      myDigestCount++;
+      myDigestTime += System.nanoTime() - start;
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String computeDigest(@NotNull byte[] bytes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    StringBuilder result = new StringBuilder();
+    for (byte b : digest.digest(bytes)) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    // the length makes a collision even less probable
+    return result.append(':').append(bytes.length).toString();
+  }
+
+  private static PersistentFS getFS() {
+    return (PersistentFS)PersistentFS.getInstance();
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.util.Clock;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Consumer;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.*;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change sets are appended to the files of a directory (segments). Only the last segment is written to. Once it gets large or old
+ * enough a new one is started and the previous one is never modified again.
+ * <p/>
+ * The positions and timestamps of the records are kept in memory and published after the record is written, so readers don't take
+ * the storage lock and never wait for purging. Reads of the segment being written to do wait on its file while a record is being
+ * written there. Purging drops whole segments whose records are all obsolete, so a record lives somewhat longer than the purge
+ * period: up to the age of its segment.
+ * <p/>
+ * Record ids grow through all the segments and never change. Every segment starts with a header (version, VFS timestamp, id of its
+ * first record), every record is its length, time of writing, the last id given by {@link #nextId()} and the change set itself.
+ */
+public class SegmentedChangeListStorage implements ChangeListStorage {
+  private static final int VERSION = 1;
+  @SuppressWarnings("SpellCheckingInspection") private static final String SEGMENT_EXTENSION = ".segment";
+  private static final int SEGMENT_HEADER_SIZE = 4 + 8 + 4;
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 8;
+  private static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+  private static final long DEFAULT_SEGMENT_PERIOD = 24 * 60 * 60 * 1000; // one day
+
+  private final File myStorageDir;
+  private final long myFSTimestamp;
+  private final long mySegmentSize;
+  private final long mySegmentPeriod;
+
+  private final Object myWriteLock = new Object();
+  private final Object myPurgeLock = new Object();
+  private volatile Segment[] mySegments = new Segment[0]; // replaced, never modified
+  private final AtomicLong myLastId = new AtomicLong();
+  private volatile boolean isCompletelyBroken = false;
+
+  public SegmentedChangeListStorage(@NotNull File storageDir) throws IOException {
+    this(storageDir, ChangeListStorageImpl.getVFSTimestamp(), DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_PERIOD);
+  }
+
+  @TestOnly
+  SegmentedChangeListStorage(@NotNull File storageDir, long fsTimestamp, long segmentSize, long segmentPeriod) throws IOException {
+    myStorageDir = storageDir;
+    myFSTimestamp = fsTimestamp;
+    mySegmentSize = segmentSize;
+    mySegmentPeriod = segmentPeriod;
+    synchronized (myWriteLock) {
+      initStorage();
+    }
+  }
+
+  private void initStorage() throws IOException {
+    if (!myStorageDir.isDirectory() && !myStorageDir.mkdirs()) {
+      throw new IOException("cannot create storage dir: " + myStorageDir);
+    }
+
+    List<Segment> segments = new ArrayList<Segment>();
+    try {
+      for (File file : listSegmentFiles()) {
+        Segment segment = Segment.open(file, myFSTimestamp);
+        if (segment == null) {
+          LocalHistoryLog.LOG.info(MessageFormat.format("local history segment {0} is outdated, rebuilding...", file.getName()));
+          closeAll(segments);
+          segments.clear();
+          clearStorageDir();
+          break;
+        }
+        if (!segments.isEmpty() && segment.myFirstRecord != segments.get(segments.size() - 1).getEndRecord()) {
+          throw new IOException("segments don't follow each other: " + file.getName());
+        }
+        segments.add(segment);
+      }
+    }
+    catch (IOException e) {
+      closeAll(segments);
+      throw e;
+    }
+
+    long lastId = 0;
+    for (Segment segment : segments) {
+      lastId = Math.max(lastId, segment.myLastId);
+    }
+    myLastId.set(lastId);
+    mySegments = segments.toArray(new Segment[segments.size()]);
+  }
+
+  @NotNull
+  private List<File> listSegmentFiles() {
+    List<File> result = new ArrayList<File>();
+    File[] files = myStorageDir.listFiles();
+    if (files == null) return result;
+    for (File file : files) {
+      if (getSegmentNumber(file) >= 0) result.add(file);
+    }
+    Collections.sort(result, new Comparator<File>() {
+      public int compare(File f1, File f2) {
+        return getSegmentNumber(f1) - getSegmentNumber(f2);
+      }
+    });
+    return result;
+  }
+
+  private static int getSegmentNumber(@NotNull File file) {
+    String name = file.getName();
+    if (!name.endsWith(SEGMENT_EXTENSION)) return -1;
+    try {
+      return Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void clearStorageDir() throws IOException {
+    if (!FileUtil.delete(myStorageDir) || !myStorageDir.mkdirs()) {
+      throw new IOException("cannot clear storage dir: " + myStorageDir);
+    }
+  }
+
+  private static void closeAll(@NotNull List<Segment> segments) {
+    for (Segment segment : segments) {
+      segment.close();
+    }
+  }
+
+  private void handleError(@NotNull Throwable e) {
+    LocalHistoryLog.LOG.error("Local history is broken (segmented storage, version:" + VERSION + ")", e);
+
+    synchronized (myWriteLock) {
+      closeAll(Arrays.asList(mySegments));
+      mySegments = new Segment[0];
+      try {
+        clearStorageDir();
+        initStorage();
+      }
+      catch (Throwable ex) {
+        LocalHistoryLog.LOG.error("cannot recreate storage", ex);
+        isCompletelyBroken = true;
+      }
+    }
+
+    ChangeListStorageImpl.notifyUser("Local History storage file has become corrupted and was rebuilt.");
+  }
+
+  public void close() {
+    synchronized (myWriteLock) {
+      closeAll(Arrays.asList(mySegments));
+    }
+  }
+
+  public long nextId() {
+    return myLastId.incrementAndGet();
+  }
+
+  @Nullable
+  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+    if (isCompletelyBroken) return null;
+
+    Segment[] segments = mySegments;
+    if (segments.length == 0) return null;
+
+    int record = id == -1 ? segments[segments.length - 1].getEndRecord() - 1 : id - 1;
+    Segment segment = findSegment(segments, record);
+    if (segment == null) return null;
+
+    try {
+      return new ChangeSetHolder(record, segment.read(record));
+    }
+    catch (IOException e) {
+      if (isPurged(segment)) {
+        // the segment has been dropped while being read, the history ends here now
+        return null;
+      }
+      handleError(e);
+      return null;
+    }
+  }
+
+  private boolean isPurged(@NotNull Segment segment) {
+    return !Arrays.asList(mySegments).contains(segment);
+  }
+
+  @Nullable
+  private static Segment findSegment(@NotNull Segment[] segments, int record) {
+    int low = 0;
+    int high = segments.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      Segment segment = segments[middle];
+      if (record < segment.myFirstRecord) {
+        high = middle - 1;
+      }
+      else if (record >= segment.getEndRecord()) {
+        low = middle + 1;
+      }
+      else {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+  public void writeNextSet(ChangeSet changeSet) {
+    if (isCompletelyBroken) return;
+
+    try {
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      changeSet.write(out);
+      out.close();
+
+      synchronized (myWriteLock) {
+        getActiveSegment().append(bytes.getInternalBuffer(), bytes.size(), Clock.getTime(), myLastId.get());
+      }
+    }
+    catch (IOException e) {
+      handleError(e);
+    }
+  }
+
+  @NotNull
+  private Segment getActiveSegment() throws IOException {
+    Segment[] segments = mySegments;
+    Segment last = segments.length == 0 ? null : segments[segments.length - 1];
+    if (last != null && !last.isFull(mySegmentSize, mySegmentPeriod)) return last;
+
+    int number = last == null ? 0 : getSegmentNumber(last.myFile) + 1;
+    int firstRecord = last == null ? 1 : last.getEndRecord();
+    Segment segment = Segment.create(new File(myStorageDir, number + SEGMENT_EXTENSION), myFSTimestamp, firstRecord);
+
+    Segment[] newSegments = new Segment[segments.length + 1];
+    System.arraycopy(segments, 0, newSegments, 0, segments.length);
+    newSegments[segments.length] = segment;
+    mySegments = newSegments;
+    return segment;
+  }
+
+  /**
+   * Drops the segments all records of which are obsolete, except the one being written to. Neither writing nor reading waits
+   * for the processing of the dropped change sets.
+   * <p/>
+   * The segments are processed from the oldest one and are dropped only after all their change sets have been read and processed,
+   * so a segment which can't be read is kept, along with the newer ones, and its change sets are processed by a later purge.
+   */
+  public void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
+    if (isCompletelyBroken) return;
+
+    synchronized (myPurgeLock) {
+      Segment[] segments = mySegments;
+      int firstObsoleteRecord = findFirstObsoleteRecord(segments, period, intervalBetweenActivities);
+      int count = 0;
+      while (count < segments.length - 1 && segments[count].getEndRecord() - 1 <= firstObsoleteRecord) {
+        count++;
+      }
+
+      int consumed = 0;
+      try {
+        for (; consumed < count; consumed++) {
+          Segment segment = segments[consumed];
+          // read the whole segment first, so that its change sets are processed either all or none
+          List<ChangeSet> changeSets = new ArrayList<ChangeSet>(segment.getEndRecord() - segment.myFirstRecord);
+          for (int record = segment.getEndRecord() - 1; record >= segment.myFirstRecord; record--) {
+            changeSets.add(segment.read(record));
+          }
+          for (ChangeSet changeSet : changeSets) {
+            processor.consume(changeSet);
+          }
+        }
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn("cannot read purged local history segment, it will be purged later", e);
+      }
+      if (consumed == 0) return;
+
+      synchronized (myWriteLock) {
+        Segment[] current = mySegments;
+        // the storage could have been rebuilt meanwhile
+        if (current.length < consumed || current[consumed - 1] != segments[consumed - 1]) return;
+        Segment[] newSegments = new Segment[current.length - consumed];
+        System.arraycopy(current, consumed, newSegments, 0, newSegments.length);
+        mySegments = newSegments;
+      }
+      for (int i = 0; i < consumed; i++) {
+        segments[i].close();
+        FileUtil.delete(segments[i].myFile);
+      }
+    }
+  }
+
+  /**
+   * @return the latest obsolete record or 0 if there are none, see {@link ChangeListStorageImpl}
+   */
+  private static int findFirstObsoleteRecord(@NotNull Segment[] segments, long period, int intervalBetweenActivities) {
+    long prevTimestamp = 0;
+    long length = 0;
+    for (int i = segments.length - 1; i >= 0; i--) {
+      Segment segment = segments[i];
+      for (int record = segment.getEndRecord() - 1; record >= segment.myFirstRecord; record--) {
+        long t = segment.getTimestamp(record);
+        if (prevTimestamp == 0) prevTimestamp = t;
+
+        long delta = prevTimestamp - t;
+        prevTimestamp = t;
+
+        // we sum only intervals between changes during one 'day' (intervalBetweenActivities) and add '1' between two 'days'
+        length += delta < intervalBetweenActivities ? delta : 1;
+
+        if (length >= period) return record;
+      }
+    }
+    return 0;
+  }
+
+  @TestOnly
+  int getSegmentCount() {
+    return mySegments.length;
+  }
+
+  private static class Segment {
+    private final File myFile;
+    private final int myFirstRecord;
+    // guarded by itself; not a FileChannel, which gets closed for everyone when a reading thread is interrupted
+    private final RandomAccessFile myRandomAccessFile;
+
+    // written under the storage write lock, published by myCount
+    private long[] myOffsets;
+    private long[] myTimestamps;
+    private long myLength;
+    private long myLastId;
+    private volatile int myCount;
+
+    private Segment(@NotNull File file, int firstRecord, @NotNull RandomAccessFile randomAccessFile) {
+      myFile = file;
+      myFirstRecord = firstRecord;
+      myRandomAccessFile = randomAccessFile;
+      myOffsets = new long[16];
+      myTimestamps = new long[16];
+    }
+
+    @NotNull
+    static Segment create(@NotNull File file, long fsTimestamp, int firstRecord) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      randomAccessFile.setLength(0);
+      randomAccessFile.writeInt(VERSION);
+      randomAccessFile.writeLong(fsTimestamp);
+      randomAccessFile.writeInt(firstRecord);
+      Segment segment = new Segment(file, firstRecord, randomAccessFile);
+      segment.myLength = SEGMENT_HEADER_SIZE;
+      return segment;
+    }
+
+    /**
+     * Reads the record positions, a record written partially is cut off.
+     * @return null if the segment has been written by another version or for another VFS
+     */
+    @Nullable
+    static Segment open(@NotNull File file, long fsTimestamp) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      boolean success = false;
+      try {
+        long fileLength = randomAccessFile.length();
+        if (fileLength < SEGMENT_HEADER_SIZE) return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() != VERSION || in.readLong() != fsTimestamp) return null;
+          Segment segment = new Segment(file, in.readInt(), randomAccessFile);
+
+          long offset = SEGMENT_HEADER_SIZE;
+          while (offset + RECORD_HEADER_SIZE <= fileLength) {
+            int size = in.readInt();
+            long timestamp = in.readLong();
+            long lastId = in.readLong();
+            if (size < 0 || offset + RECORD_HEADER_SIZE + size > fileLength) break;
+            segment.addRecord(offset, timestamp, lastId);
+            offset += RECORD_HEADER_SIZE + size;
+            if (in.skipBytes(size) != size) break;
+          }
+          if (offset < fileLength) {
+            LocalHistoryLog.LOG.info("local history segment " + file.getName() + " has been cut off at " + offset);
+            randomAccessFile.setLength(offset);
+          }
+          segment.myLength = offset;
+          success = true;
+          return segment;
+        }
+        finally {
+          in.close();
+        }
+      }
+      finally {
+        if (!success) randomAccessFile.close();
+      }
+    }
+
+    int getEndRecord() {
+      return myFirstRecord + myCount;
+    }
+
+    long getTimestamp(int record) {
+      int count = myCount;
+      return myTimestamps[checkRecord(record, count)];
+    }
+
+    boolean isFull(long segmentSize, long segmentPeriod) {
+      return myLength >= segmentSize || myCount > 0 && Clock.getTime() - myTimestamps[0] >= segmentPeriod;
+    }
+
+    void append(@NotNull byte[] bytes, int size, long timestamp, long lastId) throws IOException {
+      BufferExposingByteArrayOutputStream record = new BufferExposingByteArrayOutputStream(RECORD_HEADER_SIZE + size);
+      DataOutputStream out = new DataOutputStream(record);
+      out.writeInt(size);
+      out.writeLong(timestamp);
+      out.writeLong(lastId);
+      out.write(bytes, 0, size);
+      out.close();
+
+      long offset = myLength;
+      synchronized (myRandomAccessFile) {
+        myRandomAccessFile.seek(offset);
+        myRandomAccessFile.write(record.getInternalBuffer(), 0, record.size());
+      }
+      myLength = offset + record.size();
+      addRecord(offset, timestamp, lastId);
+    }
+
+    private void addRecord(long offset, long timestamp, long lastId) {
+      int count = myCount;
+      if (count == myOffsets.length) {
+        myOffsets = Arrays.copyOf(myOffsets, count * 2);
+        myTimestamps = Arrays.copyOf(myTimestamps, count * 2);
+      }
+      myOffsets[count] = offset;
+      myTimestamps[count] = timestamp;
+      myLastId = Math.max(myLastId, lastId);
+      myCount = count + 1;
+    }
+
+    @NotNull
+    ChangeSet read(int record) throws IOException {
+      int count = myCount;
+      long offset = myOffsets[checkRecord(record, count)];
+
+      byte[] data;
+      synchronized (myRandomAccessFile) {
+        myRandomAccessFile.seek(offset);
+        data = new byte[myRandomAccessFile.readInt()];
+        myRandomAccessFile.seek(offset + RECORD_HEADER_SIZE);
+        myRandomAccessFile.readFully(data);
+      }
+      return new ChangeSet(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private int checkRecord(int record, int count) {
+      int index = record - myFirstRecord;
+      if (index < 0 || index >= count) {
+        throw new IllegalArgumentException("record " + record + " is not in " + myFile.getName());
+      }
+      return index;
+    }
+
+    void close() {
+      try {
+        synchronized (myRandomAccessFile) {
+          myRandomAccessFile.close();
+        }
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn("cannot close " + myFile, e);
+      }
+    }
+  }
+}
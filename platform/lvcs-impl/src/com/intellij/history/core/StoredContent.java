@@ -19,6 +19,7 @@ package com.intellij.history.core;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.DataInput;
@@ -28,14 +29,22 @@ import java.io.IOException;
 public class StoredContent extends Content {
   private static final int UNAVAILABLE = 0;
 
+  private static volatile ContentDeduplicator ourDeduplicator;
+
   private int myContentId;
 
+  public static void setDeduplicator(@Nullable ContentDeduplicator deduplicator) {
+    ourDeduplicator = deduplicator;
+  }
+
   public static StoredContent acquireContent(byte[] bytes) {
-    return new StoredContent(getFS().storeUnlinkedContent(bytes));
+    ContentDeduplicator deduplicator = ourDeduplicator;
+    return new StoredContent(deduplicator != null ? deduplicator.store(bytes) : getFS().storeUnlinkedContent(bytes));
   }
 
   public static StoredContent acquireContent(VirtualFile f) {
-    return new StoredContent(getFS().acquireContent(f));
+    ContentDeduplicator deduplicator = ourDeduplicator;
+    return new StoredContent(deduplicator != null ? deduplicator.acquire(f) : getFS().acquireContent(f));
   }
 
   public static StoredContent transientContent(VirtualFile f) {
@@ -72,7 +81,11 @@ public class StoredContent extends Content {
     //if (!isAvailable()) throw new RuntimeException("content is not available");
     try {
       if (myContentId == UNAVAILABLE) return ArrayUtil.EMPTY_BYTE_ARRAY;
-      return getFS().contentsToByteArray(myContentId);
+      ContentDeduplicator deduplicator = ourDeduplicator;
+      long start = System.nanoTime();
+      byte[] bytes = getFS().contentsToByteArray(myContentId);
+      if (deduplicator != null) deduplicator.contentRead(System.nanoTime() - start);
+      return bytes;
     }
     catch (IOException e) {
       throw new RuntimeException("cannot get stored content", e);
@@ -96,7 +109,13 @@ public class StoredContent extends Content {
   @Override
   public void release() {
     if (myContentId == UNAVAILABLE) return;
-    getFS().releaseContent(myContentId);
+    ContentDeduplicator deduplicator = ourDeduplicator;
+    if (deduplicator != null) {
+      deduplicator.release(myContentId);
+    }
+    else {
+      getFS().releaseContent(myContentId);
+    }
     myContentId = UNAVAILABLE;
   }
 
@@ -37,17 +37,22 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LocalHistoryImpl extends LocalHistory implements ApplicationComponent {
   private ChangeList myChangeList;
   private LocalHistoryFacade myVcs;
   private IdeaGateway myGateway;
+  private ContentDeduplicator myContentDeduplicator;
 
   private LocalHistoryEventDispatcher myEventDispatcher;
 
   private final AtomicBoolean isInitialized = new AtomicBoolean();
   private Runnable myShutdownTask;
+  private Future<?> myStartupPurge;
 
   public static LocalHistoryImpl getInstanceImpl() {
     return (LocalHistoryImpl)getInstance();
@@ -70,7 +75,12 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
   protected void initHistory() {
     ChangeListStorage storage;
     try {
-      storage = new ChangeListStorageImpl(getStorageDir());
+      if (Registry.is("localHistory.segmentedStorage")) {
+        storage = new SegmentedChangeListStorage(new File(getStorageDir(), "segments"));
+      }
+      else {
+        storage = new ChangeListStorageImpl(getStorageDir());
+      }
     }
     catch (Throwable e) {
       LocalHistoryLog.LOG.warn("cannot create storage, in-memory  implementation will be used", e);
@@ -79,6 +89,16 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
     myChangeList = new ChangeList(storage);
     myVcs = new LocalHistoryFacade(myChangeList);
 
+    if (Registry.is("localHistory.deduplicateContents")) {
+      try {
+        myContentDeduplicator = new ContentDeduplicator(new File(getSystemPath(), "LocalHistoryContents" + File.separator + "digests"));
+        StoredContent.setDeduplicator(myContentDeduplicator);
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn("cannot open content digests, contents won't be deduplicated", e);
+      }
+    }
+
     myGateway = new IdeaGateway();
 
     myEventDispatcher = new LocalHistoryEventDispatcher(myVcs, myGateway);
@@ -95,6 +115,21 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
         validateStorage();
       }
     });
+
+    if (storage instanceof SegmentedChangeListStorage) {
+      // purging doesn't block recording, so there is no need to leave it all for the shutdown
+      final ChangeList changeList = myChangeList;
+      myStartupPurge = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          changeList.purgeObsolete(getPurgePeriod());
+        }
+      });
+    }
+  }
+
+  private static int getPurgePeriod() {
+    return Registry.intValue("localHistory.daysToKeep") * 1000 * 60 * 60 * 24;
   }
 
   private void validateStorage() {
@@ -122,13 +157,14 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
   public void disposeComponent() {
     if (!isInitialized.getAndSet(false)) return;
 
-    int period = Registry.intValue("localHistory.daysToKeep") * 1000 * 60 * 60 * 24;
+    int period = getPurgePeriod();
 
     VirtualFileManager fm = VirtualFileManager.getInstance();
     fm.removeVirtualFileListener(myEventDispatcher);
     fm.removeVirtualFileManagerListener(myEventDispatcher);
     CommandProcessor.getInstance().removeCommandListener(myEventDispatcher);
 
+    waitForStartupPurge();
 
     validateStorage();
     LocalHistoryLog.LOG.info("Purging local history...");
@@ -136,11 +172,40 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
     validateStorage();
 
     myChangeList.close();
+    if (myContentDeduplicator != null) {
+      StoredContent.setDeduplicator(null);
+      myContentDeduplicator.close();
+      myContentDeduplicator = null;
+    }
     LocalHistoryLog.LOG.info("Local history storage successfully closed.");
 
     ShutDownTracker.getInstance().unregisterShutdownTask(myShutdownTask);
   }
 
+  /**
+   * The storage and the content deduplicator must not be closed while the startup purge is releasing contents.
+   */
+  private void waitForStartupPurge() {
+    Future<?> purge = myStartupPurge;
+    if (purge == null) return;
+    myStartupPurge = null;
+    boolean interrupted = false;
+    while (true) {
+      try {
+        purge.get();
+        break;
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
+      catch (ExecutionException e) {
+        LocalHistoryLog.LOG.warn("local history purge failed", e.getCause());
+        break;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
   @TestOnly
   public void cleanupForNextTest() {
     disposeComponent();
@@ -25,6 +25,8 @@ import java.util.concurrent.Callable;
 public interface Job<T> {
   // the lower the priority the more important the task is
   int DEFAULT_PRIORITY = 100;
+  // for batch processing like offline inspections, so that it doesn't delay the daemon and other interactive jobs
+  int BACKGROUND_PRIORITY = 200;
 
   String getTitle();
 
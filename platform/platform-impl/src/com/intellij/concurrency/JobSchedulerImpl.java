@@ -26,6 +26,7 @@ import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @NonNls
 public class JobSchedulerImpl extends JobScheduler implements Disposable {
@@ -46,6 +47,11 @@ public class JobSchedulerImpl extends JobScheduler implements Disposable {
   private static final PriorityBlockingQueue<Runnable> ourQueue = new PriorityBlockingQueue<Runnable>();
   private static final MyExecutor ourExecutor = new MyExecutor();
 
+  private static final AtomicLong ourStolenTasks = new AtomicLong();
+  private static final AtomicLong ourStartedTasks = new AtomicLong();
+  private static final AtomicLong ourTotalLatency = new AtomicLong();
+  private static final AtomicLong ourMaxLatency = new AtomicLong();
+
   static int currentTaskIndex() {
     return ourQueue.size();
   }
@@ -55,7 +61,53 @@ public class JobSchedulerImpl extends JobScheduler implements Disposable {
   }
 
   static Runnable stealTask() {
-    return ourQueue.poll();
+    Runnable task = ourQueue.poll();
+    if (task != null) {
+      taskStolen();
+    }
+    return task;
+  }
+
+  static void taskStolen() {
+    ourStolenTasks.incrementAndGet();
+  }
+
+  static void taskStarted(long latencyNanos) {
+    ourStartedTasks.incrementAndGet();
+    ourTotalLatency.addAndGet(latencyNanos);
+    while (true) {
+      long max = ourMaxLatency.get();
+      if (latencyNanos <= max || ourMaxLatency.compareAndSet(max, latencyNanos)) break;
+    }
+  }
+
+  public static int getQueueDepth() {
+    return ourQueue.size();
+  }
+
+  /**
+   * @return number of tasks run by a thread other than the one they were given to: either executed by a thread waiting for its job
+   *         or taken over from another task of {@link JobUtil#invokeConcurrentlyUnderProgress}
+   */
+  public static long getStealCount() {
+    return ourStolenTasks.get();
+  }
+
+  /**
+   * @return average time in milliseconds tasks spent in the queue before they were started
+   */
+  public static double getAverageTaskLatency() {
+    long started = ourStartedTasks.get();
+    return started == 0 ? 0 : ourTotalLatency.get() / 1000000.0 / started;
+  }
+
+  public static long getMaxTaskLatency() {
+    return TimeUnit.NANOSECONDS.toMillis(ourMaxLatency.get());
+  }
+
+  public static String getStatistics() {
+    return "queue depth: " + getQueueDepth() + ", tasks started: " + ourStartedTasks.get() + ", stolen: " + getStealCount() +
+           ", latency avg: " + String.format("%.2f", getAverageTaskLatency()) + "ms, max: " + getMaxTaskLatency() + "ms";
   }
 
   static void submitTask(PrioritizedFutureTask future, boolean callerHasReadAccess, boolean reportExceptions) {
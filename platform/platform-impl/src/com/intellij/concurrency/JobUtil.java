@@ -25,6 +25,7 @@ import com.intellij.openapi.progress.util.ProgressWrapper;
 import com.intellij.util.Consumer;
 import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -36,15 +37,105 @@ import java.util.concurrent.Future;
 
 public class JobUtil {
   private static final Logger LOG = Logger.getInstance("#com.intellij.concurrency.JobUtil");
+  /**
+   * When set, each task gets a range of things and, having processed it, takes over half of the largest range still left in other tasks,
+   * so a few slow things don't leave the rest of the workers idle. Otherwise things are split into fixed chunks up front.
+   */
+  private static final boolean WORK_STEALING = !"false".equals(System.getProperty("idea.job.work.stealing"));
 
   private JobUtil() {
   }
 
   private static <T> boolean invokeConcurrentlyForAll(@NotNull final List<T> things,
+                                                      int priority,
                                                       boolean failFastOnAcquireReadAction,
+                                                      @Nullable ProgressIndicator progress,
                                                       @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
-    final Job<String> job = new JobImpl<String>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction);
+    final Job<String> job = new JobImpl<String>(priority, failFastOnAcquireReadAction);
+
+    if (WORK_STEALING) {
+      addWorkStealingTasks(job, things, progress, thingProcessor);
+    }
+    else {
+      addChunkTasks(job, things, thingProcessor);
+    }
+    try {
+      job.scheduleAndWaitForResults();
+    }
+    catch (RuntimeException e) {
+      job.cancel();
+      throw e;
+    }
+    catch (Throwable throwable) {
+      job.cancel();
+      LOG.error(throwable);
+    }
+    return !job.isCanceled();
+  }
+
+  private static <T> void addWorkStealingTasks(@NotNull final Job<String> job,
+                                               @NotNull final List<T> things,
+                                               @Nullable final ProgressIndicator progress,
+                                               @NotNull final Processor<T> thingProcessor) {
+    final int tasksCount = Math.min(things.size(), JobSchedulerImpl.CORES_COUNT);
+    final IndexRange[] ranges = new IndexRange[tasksCount];
+    for (int i = 0; i < tasksCount; i++) {
+      ranges[i] = new IndexRange(things.size() * i / tasksCount, things.size() * (i + 1) / tasksCount);
+    }
+    for (final IndexRange range : ranges) {
+      job.addTask(new Runnable() {
+        public void run() {
+          try {
+            int index;
+            while ((index = nextIndex(range, ranges)) >= 0) {
+              if (job.isCanceled() || progress != null && progress.isCanceled()) {
+                job.cancel();
+                break;
+              }
+              if (!thingProcessor.process(things.get(index))) {
+                job.cancel();
+                break;
+              }
+            }
+          }
+          catch (ProcessCanceledException e) {
+            job.cancel();
+            throw e;
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * @return next index to process from the task's own range, which is refilled from the largest of the other ranges when exhausted,
+   *         or -1 if there is nothing left
+   */
+  private static int nextIndex(@NotNull IndexRange own, @NotNull IndexRange[] all) {
+    while (true) {
+      int index = own.next();
+      if (index >= 0) return index;
 
+      IndexRange victim = null;
+      int victimSize = 1;
+      for (IndexRange range : all) {
+        int size = range.size();
+        if (range != own && size > victimSize) {
+          victim = range;
+          victimSize = size;
+        }
+      }
+      if (victim == null) {
+        // at most one thing left per range, taking it over would not let anything run sooner
+        return -1;
+      }
+      if (victim.splitTo(own)) {
+        JobSchedulerImpl.taskStolen();
+      }
+    }
+  }
+
+  private static <T> void addChunkTasks(@NotNull final Job<String> job, @NotNull final List<T> things, @NotNull final Processor<T> thingProcessor) {
     final int chunkSize = Math.max(1, things.size() / JobSchedulerImpl.CORES_COUNT / 20);
     for (int i = 0; i < things.size(); i += chunkSize) {
       // this job chunk is i..i+chunkSize-1
@@ -67,18 +158,6 @@ public class JobUtil {
         }
       });
     }
-    try {
-      job.scheduleAndWaitForResults();
-    }
-    catch (RuntimeException e) {
-      job.cancel();
-      throw e;
-    }
-    catch (Throwable throwable) {
-      job.cancel();
-      LOG.error(throwable);
-    }
-    return !job.isCanceled();
   }
 
   /**
@@ -99,6 +178,18 @@ public class JobUtil {
                                                             ProgressIndicator progress,
                                                             boolean failFastOnAcquireReadAction,
                                                             @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
+    return invokeConcurrentlyUnderProgress(things, progress, Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction, thingProcessor);
+  }
+
+  /**
+   * Same as {@link #invokeConcurrentlyUnderProgress(List, ProgressIndicator, boolean, Processor)}, with tasks queued with the given
+   * priority, e.g. {@link Job#BACKGROUND_PRIORITY} for batch processing which should give way to the daemon.
+   */
+  public static <T> boolean invokeConcurrentlyUnderProgress(@NotNull List<T> things,
+                                                            ProgressIndicator progress,
+                                                            int priority,
+                                                            boolean failFastOnAcquireReadAction,
+                                                            @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
     if (things.isEmpty()) {
       return true;
     }
@@ -109,7 +200,7 @@ public class JobUtil {
 
     // can be already wrapped
     final ProgressWrapper wrapper = progress instanceof ProgressWrapper ? (ProgressWrapper)progress : ProgressWrapper.wrap(progress);
-    return invokeConcurrentlyForAll(things, failFastOnAcquireReadAction, new Processor<T>() {
+    return invokeConcurrentlyForAll(things, priority, failFastOnAcquireReadAction, wrapper, new Processor<T>() {
       public boolean process(final T t) {
         final boolean[] result = new boolean[1];
         ((ProgressManagerImpl)ProgressManager.getInstance()).executeProcessUnderProgress(new Runnable() {
@@ -143,4 +234,44 @@ public class JobUtil {
     job.schedule();
     return job;
   }
+
+  /**
+   * Range of indices [start, end) left to process by a task.
+   */
+  private static class IndexRange {
+    private int myStart;
+    private int myEnd;
+
+    private IndexRange(int start, int end) {
+      myStart = start;
+      myEnd = end;
+    }
+
+    private synchronized int next() {
+      return myStart < myEnd ? myStart++ : -1;
+    }
+
+    private synchronized int size() {
+      return myEnd - myStart;
+    }
+
+    /**
+     * Moves the upper half of this range to the given (exhausted) one.
+     */
+    private boolean splitTo(@NotNull IndexRange target) {
+      int start;
+      int end;
+      synchronized (this) {
+        if (myEnd - myStart < 2) return false;
+        start = (myStart + myEnd + 1) >>> 1;
+        end = myEnd;
+        myEnd = start;
+      }
+      synchronized (target) {
+        target.myStart = start;
+        target.myEnd = end;
+      }
+      return true;
+    }
+  }
 }
@@ -37,6 +37,7 @@ class PrioritizedFutureTask<T> extends FutureTask<T> implements Comparable<Prior
   private final boolean myFailFastOnAcquireReadAction;
   private volatile boolean myParentThreadHasReadAccess;
   private volatile boolean myReportExceptions;
+  private volatile long mySubmitTime;
 
   PrioritizedFutureTask(final Callable<T> callable,
                         JobImpl<T> job,
@@ -55,10 +56,14 @@ class PrioritizedFutureTask<T> extends FutureTask<T> implements Comparable<Prior
   public void beforeRun(boolean parentThreadHasReadAccess, boolean reportExceptions) {
     myParentThreadHasReadAccess = parentThreadHasReadAccess;
     myReportExceptions = reportExceptions;
+    mySubmitTime = System.nanoTime();
   }
 
   @Override
   public void run() {
+    if (mySubmitTime != 0) {
+      JobSchedulerImpl.taskStarted(System.nanoTime() - mySubmitTime);
+    }
     Runnable runnable = new Runnable() {
       public void run() {
         try {
@@ -61,7 +61,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.EventDispatcher;
 import com.intellij.util.ReflectionCache;
 import com.intellij.util.Restarter;
-import com.intellij.util.concurrency.ReentrantWriterPreferenceReadWriteLock;
+import com.intellij.util.concurrency.ReaderBiasedReadWriteLock;
 import com.intellij.util.containers.Stack;
 import com.intellij.util.io.storage.HeavyProcessLatch;
 import com.intellij.util.ui.UIUtil;
@@ -98,7 +98,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
   private final boolean myIsInternal;
   private final String myName;
 
-  private final ReentrantWriterPreferenceReadWriteLock myActionsLock = new ReentrantWriterPreferenceReadWriteLock();
+  private final ReaderBiasedReadWriteLock myActionsLock = new ReaderBiasedReadWriteLock();
   private final Stack<Class> myWriteActionsStack = new Stack<Class>(); // accessed from EDT only, no need to sync
 
   private volatile Runnable myExceptionalThreadWithReadAccessRunnable;
@@ -1032,7 +1032,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
   public boolean tryRunReadAction(@NotNull Runnable action) {
     /** if we are inside read action, do not try to acquire read lock again since it will deadlock if there is a pending writeAction
-     * see {@link com.intellij.util.concurrency.ReentrantWriterPreferenceReadWriteLock#allowReader()} */
+     * see {@link com.intellij.util.concurrency.ReaderBiasedReadWriteLock} */
     boolean mustAcquire = !isReadAccessAllowed();
 
     if (mustAcquire) {
@@ -1096,7 +1096,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
   private AccessToken acquireReadActionLockImpl(boolean explicit) {
     /** if we are inside read action, do not try to acquire read lock again since it will deadlock if there is a pending writeAction
-     * see {@link com.intellij.util.concurrency.ReentrantWriterPreferenceReadWriteLock#allowReader()} */
+     * see {@link com.intellij.util.concurrency.ReaderBiasedReadWriteLock} */
     if (isReadAccessAllowed()) return AccessToken.EMPTY_ACCESS_TOKEN;
 
     return new ReadAccessToken(explicit);
@@ -30,6 +30,7 @@ import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Consumer;
+import com.intellij.util.ThroughputCounter;
 import gnu.trove.THashSet;
 
 import java.util.Collection;
@@ -42,6 +43,7 @@ class CacheUpdateRunner {
   private final Project myProject;
   private final Collection<CacheUpdater> myUpdaters;
   private CacheUpdateSession mySession;
+  private final ThroughputCounter myProcessingCounter = new ThroughputCounter("Content processing");
 
   CacheUpdateRunner(Project project, Collection<CacheUpdater> updaters) {
     myProject = project;
@@ -69,7 +71,11 @@ class CacheUpdateRunner {
       final FileContentQueue queue = new FileContentQueue();
       Collection<VirtualFile> files = mySession.getFilesToUpdate();
       final double total = files.size();
-      queue.queue(files, indicator);
+      int loaderThreadsCount = Registry.intValue("caches.contentLoaderThreadsCount");
+      if (loaderThreadsCount <= 0) {
+        loaderThreadsCount = Math.min(PROC_COUNT, 2);
+      }
+      queue.queue(files, indicator, loaderThreadsCount);
 
       Consumer<VirtualFile> progressUpdater = new Consumer<VirtualFile>() {
         // need set here to handle queue.pushbacks after checkCancelled() in order
@@ -103,6 +109,7 @@ class CacheUpdateRunner {
         indicator.cancel();
         indicator.checkCanceled();
       }
+      LOG.info(queue.getLoadingCounter() + "; " + myProcessingCounter);
     }
     catch (ProcessCanceledException e) {
       mySession.canceled();
@@ -225,7 +232,9 @@ class CacheUpdateRunner {
 
               final VirtualFile file = fileContent.getVirtualFile();
               myProgressUpdater.consume(file);
+              final long started = System.nanoTime();
               mySession.processFile(fileContent);
+              myProcessingCounter.record(fileContent.getLength(), System.nanoTime() - started);
             }
           };
           if (myProcessInReadAction) {
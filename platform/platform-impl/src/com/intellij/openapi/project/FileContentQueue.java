@@ -23,6 +23,7 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ThroughputCounter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -31,7 +32,10 @@ import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author peter
@@ -50,39 +54,68 @@ public class FileContentQueue {
   private final ArrayBlockingQueue<FileContent> myQueue = new ArrayBlockingQueue<FileContent>(256);
   private final Queue<FileContent> myPushbackBuffer = new ArrayDeque<FileContent>();
   private volatile boolean myContentLoadingThreadTerminated = false;
+  private final ThroughputCounter myLoadingCounter = new ThroughputCounter("Content loading");
 
   public void queue(final Collection<VirtualFile> files, @Nullable final ProgressIndicator indicator) {
+    queue(files, indicator, 1);
+  }
+
+  /**
+   * Loads the content of the given files using {@code loaderThreadsCount} pooled threads.
+   * The end-of-queue marker is put by the last loader to finish, and only if loading was not canceled.
+   */
+  public void queue(final Collection<VirtualFile> files, @Nullable final ProgressIndicator indicator, int loaderThreadsCount) {
+    final Queue<VirtualFile> filesToLoad = new ConcurrentLinkedQueue<VirtualFile>(files);
+    final int loadersCount = Math.max(1, Math.min(loaderThreadsCount, files.size()));
+    final AtomicInteger runningLoaders = new AtomicInteger(loadersCount);
+    final AtomicBoolean canceled = new AtomicBoolean(false);
+
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
         try {
-          for (VirtualFile file : files) {
+          VirtualFile file;
+          while ((file = filesToLoad.poll()) != null) {
             if (indicator != null) {
               indicator.checkCanceled();
             }
             addLast(file);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
+          canceled.set(true);
         }
         catch (InterruptedException e) {
+          canceled.set(true);
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          if (runningLoaders.decrementAndGet() == 0) {
+            // put end-of-queue marker only if not canceled
+            try {
+              if (!canceled.get()) {
+                myQueue.put(new FileContent(null));
+              }
+            }
+            catch (InterruptedException e) {
+              LOG.error(e);
+            }
+            finally {
+              myContentLoadingThreadTerminated = true;
+            }
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadersCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
+  }
+
+  @NotNull
+  public ThroughputCounter getLoadingCounter() {
+    return myLoadingCounter;
   }
 
   private void addLast(VirtualFile file) throws InterruptedException {
@@ -117,7 +150,9 @@ public class FileContentQueue {
         counterUpdated = true;
       }
 
+      final long started = System.nanoTime();
       content.getBytes(); // Reads the content bytes and caches them.
+      myLoadingCounter.record(contentLength, System.nanoTime() - started);
 
       return true;
     }
@@ -48,6 +48,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.*;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @SuppressWarnings({"PointlessArithmeticExpression", "HardCodedStringLiteral"})
 public class FSRecords implements Forceable {
@@ -88,7 +90,17 @@ public class FSRecords implements Forceable {
   private static final int CORRUPTED_MAGIC = 0xabcf7f7f;
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
-  private static final Object lock = new Object();
+
+  /**
+   * Readers of records, names and attributes share the read lock, all modifications take the write lock.
+   * With -Didea.vfs.exclusive.lock=true every accessor is serialized as before.
+   */
+  private static final boolean ourConcurrentReads = !Boolean.getBoolean("idea.vfs.exclusive.lock");
+  private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private static final Lock r = ourConcurrentReads ? lock.readLock() : lock.writeLock();
+  private static final Lock w = lock.writeLock();
+  // the page cache of the records file isn't thread-safe, so concurrent readers take turns for the duration of a single field read
+  private static final Object ourRecordsReadLock = new Object();
 
   private static volatile int ourLocalModificationCount = 0;
   private static volatile boolean ourIsDisposed;
@@ -116,7 +128,8 @@ public class FSRecords implements Forceable {
     private static boolean myCorrupted = false;
 
     public static void connect() {
-      synchronized (lock) {
+      w.lock();
+      try {
         if (!ourInitialized) {
           init();
           scanFreeRecords();
@@ -124,6 +137,9 @@ public class FSRecords implements Forceable {
           ourInitialized = true;
         }
       }
+      finally {
+        w.unlock();
+      }
     }
 
     private static void scanFreeRecords() {
@@ -336,7 +352,8 @@ public class FSRecords implements Forceable {
     }
 
     public static void force() {
-      synchronized (lock) {
+      w.lock();
+      try {
         if (myRecords != null) {
           markClean();
         }
@@ -347,12 +364,16 @@ public class FSRecords implements Forceable {
           myRecords.force();
         }
       }
+      finally {
+        w.unlock();
+      }
     }
 
     public static void flushSome() {
       if (!isDirty() || HeavyProcessLatch.INSTANCE.isRunning()) return;
 
-      synchronized (lock) {
+      w.lock();
+      try {
         if (myFlushingFuture == null) {
           return; // avoid NPE when close has already taken place
         }
@@ -365,6 +386,9 @@ public class FSRecords implements Forceable {
           myRecords.force();
         }
       }
+      finally {
+        w.unlock();
+      }
     }
 
     public static boolean isDirty() {
@@ -440,14 +464,16 @@ public class FSRecords implements Forceable {
     }
 
     private static int getAttributeId(String attId) throws IOException {
-      if (myAttributeIds.containsKey(attId)) {
-        return myAttributeIds.get(attId);
-      }
+      synchronized (myAttributeIds) {
+        if (myAttributeIds.containsKey(attId)) {
+          return myAttributeIds.get(attId);
+        }
 
-      int id = myNames.enumerate(attId);
-      myAttributeIds.put(attId, id);
+        int id = myNames.enumerate(attId);
+        myAttributeIds.put(attId, id);
 
-      return id;
+        return id;
+      }
     }
 
     private static RuntimeException handleError(final Throwable e) {
@@ -456,7 +482,10 @@ public class FSRecords implements Forceable {
         if (!myCorrupted) {
           createBrokenMarkerFile(e);
           myCorrupted = true;
-          force();
+          // a reader can't upgrade to the write lock; the marker file alone is enough to rebuild on next start
+          if (lock.getReadHoldCount() == 0 || lock.isWriteLockedByCurrentThread()) {
+            force();
+          }
         }
       }
 
@@ -476,8 +505,14 @@ public class FSRecords implements Forceable {
   }
 
   public static long getCreationTimestamp() {
-    synchronized (lock) {
-      return DbConnection.getTimestamp();
+    r.lock();
+    try {
+      synchronized (ourRecordsReadLock) {
+        return DbConnection.getTimestamp();
+      }
+    }
+    finally {
+      r.unlock();
     }
   }
 
@@ -498,7 +533,8 @@ public class FSRecords implements Forceable {
   }
 
   public static int createRecord() {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         DbConnection.markDirty();
 
@@ -520,10 +556,14 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static void deleteRecordRecursively(int id) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         incModCount(id);
         doDeleteRecursively(id);
@@ -532,6 +572,9 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   private static void doDeleteRecursively(final int id) {
@@ -543,7 +586,8 @@ public class FSRecords implements Forceable {
   }
 
   private static void deleteRecord(final int id) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         DbConnection.markDirty();
         deleteContentAndAttributes(id);
@@ -555,6 +599,9 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   private static void deleteContentAndAttributes(int id) throws IOException {
@@ -582,7 +629,8 @@ public class FSRecords implements Forceable {
   }
 
   public static int[] listRoots() throws IOException {
-    synchronized (lock) {
+    w.lock();
+    try {
       DbConnection.markDirty();
       final DataInputStream input = readAttribute(1, CHILDREN_ATT);
       if (input == null) return ArrayUtil.EMPTY_INT_ARRAY;
@@ -602,6 +650,9 @@ public class FSRecords implements Forceable {
 
       return result;
     }
+    finally {
+      w.unlock();
+    }
   }
 
   @Override
@@ -615,7 +666,8 @@ public class FSRecords implements Forceable {
   }
 
   public static int findRootRecord(String rootUrl) throws IOException {
-    synchronized (lock) {
+    w.lock();
+    try {
       DbConnection.markDirty();
       final int root = getNames().enumerate(rootUrl);
 
@@ -662,10 +714,14 @@ public class FSRecords implements Forceable {
 
       return id;
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static void deleteRootRecord(int id) throws IOException {
-    synchronized (lock) {
+    w.lock();
+    try {
       DbConnection.markDirty();
       final DataInputStream input = readAttribute(1, CHILDREN_ATT);
       assert input != null;
@@ -704,10 +760,14 @@ public class FSRecords implements Forceable {
         output.close();
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static int[] list(int id) {
-    synchronized (lock) {
+    r.lock();
+    try {
       try {
         final DataInputStream input = readAttribute(id, CHILDREN_ATT);
         if (input == null) return ArrayUtil.EMPTY_INT_ARRAY;
@@ -724,9 +784,13 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      r.unlock();
+    }
   }
   public static Pair<String[],int[]> listAll(int parentId) {
-    synchronized (lock) {
+    r.lock();
+    try {
       try {
         final DataInputStream input = readAttribute(parentId, CHILDREN_ATT);
         if (input == null) return Pair.create(ArrayUtil.EMPTY_STRING_ARRAY, ArrayUtil.EMPTY_INT_ARRAY);
@@ -746,13 +810,20 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      r.unlock();
+    }
   }
 
   public static boolean wereChildrenAccessed(int id) {
     try {
-      synchronized (lock) {
+      r.lock();
+      try {
         return findAttributePage(id, CHILDREN_ATT, false) != 0;
       }
+      finally {
+        r.unlock();
+      }
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -760,7 +831,8 @@ public class FSRecords implements Forceable {
   }
 
   public static void updateList(int id, int[] children) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         DbConnection.markDirty();
         final DataOutputStream record = writeAttribute(id, CHILDREN_ATT, false);
@@ -779,6 +851,9 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   private static void incModCount(int id) {
@@ -799,13 +874,20 @@ public class FSRecords implements Forceable {
   }
 
   public static int getModCount() {
-    synchronized (lock) {
-      return getRecords().getInt(HEADER_GLOBAL_MOD_COUNT_OFFSET);
+    r.lock();
+    try {
+      synchronized (ourRecordsReadLock) {
+        return getRecords().getInt(HEADER_GLOBAL_MOD_COUNT_OFFSET);
+      }
+    }
+    finally {
+      r.unlock();
     }
   }
 
   public static int getParent(int id) {
-    synchronized (lock) {
+    r.lock();
+    try {
       try {
         final int parentId = getRecordInt(id, PARENT_OFFSET);
         if (parentId == id) {
@@ -819,6 +901,9 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      r.unlock();
+    }
   }
 
   public static void setParent(int id, int parent) {
@@ -827,7 +912,8 @@ public class FSRecords implements Forceable {
       return;
     }
 
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         incModCount(id);
         putRecordInt(id, PARENT_OFFSET, parent);
@@ -836,10 +922,14 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static String getName(int id) {
-    synchronized (lock) {
+    r.lock();
+    try {
       try {
         final int nameId = getRecordInt(id, NAME_OFFSET);
         return nameId != 0 ? getNames().valueOf(nameId) : "";
@@ -848,10 +938,14 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      r.unlock();
+    }
   }
 
   public static void setName(int id, String name) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         incModCount(id);
         putRecordInt(id, NAME_OFFSET, getNames().enumerate(name));
@@ -860,16 +954,24 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static int getFlags(int id) {
-    synchronized (lock) {
+    r.lock();
+    try {
       return getRecordInt(id, FLAGS_OFFSET);
     }
+    finally {
+      r.unlock();
+    }
   }
 
   public static void setFlags(int id, int flags, final boolean markAsChange) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         if (markAsChange) {
           incModCount(id);
@@ -880,16 +982,24 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static long getLength(int id) {
-    synchronized (lock) {
-      return getRecords().getLong(getOffset(id, LENGTH_OFFSET));
+    r.lock();
+    try {
+      return getRecordLong(id, LENGTH_OFFSET);
+    }
+    finally {
+      r.unlock();
     }
   }
 
   public static void setLength(int id, long len) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         incModCount(id);
         getRecords().putLong(getOffset(id, LENGTH_OFFSET), len);
@@ -898,16 +1008,24 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static long getTimestamp(int id) {
-    synchronized (lock) {
-      return getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET));
+    r.lock();
+    try {
+      return getRecordLong(id, TIMESTAMP_OFFSET);
+    }
+    finally {
+      r.unlock();
     }
   }
 
   public static void setTimestamp(int id, long value) {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         incModCount(id);
         getRecords().putLong(getOffset(id, TIMESTAMP_OFFSET), value);
@@ -916,12 +1034,19 @@ public class FSRecords implements Forceable {
         throw DbConnection.handleError(e);
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static int getModCount(int id) {
-    synchronized (lock) {
+    r.lock();
+    try {
       return getRecordInt(id, MOD_COUNT_OFFSET);
     }
+    finally {
+      r.unlock();
+    }
   }
 
   private static void setModCount(int id, int value) {
@@ -945,7 +1070,15 @@ public class FSRecords implements Forceable {
   }
 
   private static int getRecordInt(int id, int offset) {
-    return getRecords().getInt(getOffset(id, offset));
+    synchronized (ourRecordsReadLock) {
+      return getRecords().getInt(getOffset(id, offset));
+    }
+  }
+
+  private static long getRecordLong(int id, int offset) {
+    synchronized (ourRecordsReadLock) {
+      return getRecords().getLong(getOffset(id, offset));
+    }
   }
 
   private static void putRecordInt(int id, int offset, int value) {
@@ -960,10 +1093,14 @@ public class FSRecords implements Forceable {
   public static DataInputStream readContent(int fileId) {
     try {
       int page;
-      synchronized (lock) {
+      r.lock();
+      try {
         page = findContentPage(fileId, false);
         if (page == 0) return null;
       }
+      finally {
+        r.unlock();
+      }
       return getContentStorage().readStream(page);
     }
     catch (Throwable e) {
@@ -986,10 +1123,14 @@ public class FSRecords implements Forceable {
     try {
       synchronized (attId) {
         int page;
-        synchronized (lock) {
+        r.lock();
+        try {
           page = findAttributePage(fileId, attId, false);
           if (page == 0) return null;
         }
+        finally {
+          r.unlock();
+        }
         return getAttributesStorage().readStream(page);
       }
     }
@@ -1061,11 +1202,45 @@ public class FSRecords implements Forceable {
 
   public static int acquireFileContent(int fileId) {
     try {
-      synchronized (lock) {
+      w.lock();
+      try {
         int record = getContentRecordId(fileId);
         if (record > 0) getContentStorage().acquireRecord(record);
         return record;
       }
+      finally {
+        w.unlock();
+      }
+    }
+    catch (Throwable e) {
+      throw DbConnection.handleError(e);
+    }
+  }
+
+  public static boolean acquireContentIfReferenced(int contentId) {
+    try {
+      w.lock();
+      try {
+        return getContentStorage().acquireRecordIfReferenced(contentId);
+      }
+      finally {
+        w.unlock();
+      }
+    }
+    catch (Throwable e) {
+      throw DbConnection.handleError(e);
+    }
+  }
+
+  public static boolean isContentReferenced(int contentId) {
+    try {
+      r.lock();
+      try {
+        return getContentStorage().isReferenced(contentId);
+      }
+      finally {
+        r.unlock();
+      }
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1083,9 +1258,13 @@ public class FSRecords implements Forceable {
 
   public static int getContentId(int fileId) {
     try {
-      synchronized (lock) {
+      r.lock();
+      try {
         return getContentRecordId(fileId);
       }
+      finally {
+        r.unlock();
+      }
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1190,10 +1369,14 @@ public class FSRecords implements Forceable {
 
     public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
       final int page;
-      synchronized (lock) {
+      w.lock();
+      try {
         incModCount(fileId);
         page = findOrCreatePage();
       }
+      finally {
+        w.unlock();
+      }
 
       getStorage().writeBytes(page, bytes, myFixedSize);
     }
@@ -1204,7 +1387,8 @@ public class FSRecords implements Forceable {
   }
 
   public static void dispose() {
-    synchronized (lock) {
+    w.lock();
+    try {
       try {
         DbConnection.force();
         DbConnection.closeFiles();
@@ -1216,6 +1400,9 @@ public class FSRecords implements Forceable {
         ourIsDisposed = true;
       }
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static void invalidateCaches() {
@@ -1225,7 +1412,8 @@ public class FSRecords implements Forceable {
   public static void checkSanity() {
     long t = System.currentTimeMillis();
 
-    synchronized (lock) {
+    r.lock();
+    try {
       final int fileLength = (int)getRecords().length();
       assert fileLength % RECORD_SIZE == 0;
       int recordCount = fileLength / RECORD_SIZE;
@@ -1244,6 +1432,9 @@ public class FSRecords implements Forceable {
         }
       }
     }
+    finally {
+      r.unlock();
+    }
 
     t = System.currentTimeMillis() - t;
     LOG.info("Sanity check took " + t + " ms");
@@ -660,6 +660,20 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
     return FSRecords.acquireFileContent(getFileId(file));
   }
 
+  /**
+   * @return false if the content has been released by all its holders and may not be used anymore
+   */
+  public boolean acquireContentIfReferenced(int contentId) {
+    return FSRecords.acquireContentIfReferenced(contentId);
+  }
+
+  /**
+   * Unlike {@link #acquireContentIfReferenced(int)} doesn't acquire the content, so the answer may be outdated by the time it's used
+   */
+  public boolean isContentReferenced(int contentId) {
+    return FSRecords.isContentReferenced(contentId);
+  }
+
   public void releaseContent(int contentId) {
     FSRecords.releaseContent(contentId);
   }
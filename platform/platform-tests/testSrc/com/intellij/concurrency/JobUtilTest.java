@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.concurrency;
+
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.Processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class JobUtilTest extends LightPlatformTestCase {
+  public void testUnevenThingsAreProcessedOnce() {
+    final int count = 1000;
+    List<Integer> things = new ArrayList<Integer>();
+    for (int i = 0; i < count; i++) {
+      things.add(i);
+    }
+    final AtomicIntegerArray processed = new AtomicIntegerArray(count);
+    long stolenBefore = JobSchedulerImpl.getStealCount();
+    boolean result = JobUtil.invokeConcurrentlyUnderProgress(things, null, false, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer thing) {
+        if (thing == 0) {
+          // one slow thing at the start of the first range, the rest of it should be taken over by other tasks
+          sleep(500);
+        }
+        processed.incrementAndGet(thing);
+        return true;
+      }
+    });
+    assertTrue(result);
+    for (int i = 0; i < count; i++) {
+      assertEquals("Thing " + i, 1, processed.get(i));
+    }
+    if (JobSchedulerImpl.CORES_COUNT > 1) {
+      // with a single task there is no other range to take things from
+      assertTrue(JobSchedulerImpl.getStatistics(), JobSchedulerImpl.getStealCount() > stolenBefore);
+    }
+  }
+
+  public void testCanceledByProgress() {
+    List<Integer> things = new ArrayList<Integer>();
+    for (int i = 0; i < 10000; i++) {
+      things.add(i);
+    }
+    final ProgressIndicatorBase progress = new ProgressIndicatorBase();
+    progress.start();
+    final AtomicInteger processed = new AtomicInteger();
+    boolean result = JobUtil.invokeConcurrentlyUnderProgress(things, progress, false, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer thing) {
+        if (processed.incrementAndGet() == 100) {
+          progress.cancel();
+        }
+        return true;
+      }
+    });
+    assertFalse(result);
+    assertTrue(String.valueOf(processed.get()), processed.get() < 10000);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
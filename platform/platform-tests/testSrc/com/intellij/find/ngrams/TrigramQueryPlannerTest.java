@@ -0,0 +1,57 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TrigramQueryPlannerTest extends TestCase {
+  public void testLiteral() {
+    assertLiterals("foo.bar", "foo", "bar");
+    assertLiterals("foo\\.bar", "foo.bar");
+    assertLiterals("\\Qa.b(c\\E", "a.b(c");
+  }
+
+  public void testQuantifiers() {
+    assertLiterals("abcd?efg", "abc", "efg");
+    assertLiterals("abcd+efg", "abcd", "efg");
+    assertLiterals("abcd*?efg", "abc", "efg");
+    assertLiterals("abcd{2}efg", "abcd", "efg");
+    assertLiterals("abcd{0,2}efg", "abc", "efg");
+  }
+
+  public void testClassesAndGroups() {
+    assertLiterals("get[A-Z]\\w+Value", "get", "Value");
+    assertLiterals("new (Foo|Bar)Builder", "new ", "Builder");
+    assertLiterals("(?i)select\\s+from", "select", "from");
+    assertLiterals("\\x41bcd\\u0041xyz\\1abc", "bcd", "xyz", "abc");
+  }
+
+  public void testNotNarrowed() {
+    assertNull(TrigramQueryPlanner.getRequiredLiterals("foo|bar"));
+    assertNull(TrigramQueryPlanner.getRequiredLiterals("(?x) f o o"));
+    assertNull(TrigramQueryPlanner.getRequiredLiterals("foo)"));
+    assertEquals(Collections.<String>emptyList(), TrigramQueryPlanner.getRequiredLiterals("ab.*cd"));
+  }
+
+  private static void assertLiterals(String regexp, String... expected) {
+    List<String> literals = TrigramQueryPlanner.getRequiredLiterals(regexp);
+    assertEquals(Arrays.asList(expected), literals);
+  }
+}
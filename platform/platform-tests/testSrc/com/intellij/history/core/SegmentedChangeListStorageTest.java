@@ -0,0 +1,198 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.openapi.util.Clock;
+import com.intellij.util.Consumer;
+import gnu.trove.TIntHashSet;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SegmentedChangeListStorageTest extends TempDirTestCase {
+  private static final long HOUR = 60 * 60 * 1000;
+
+  private SegmentedChangeListStorage myStorage;
+
+  @After
+  public void closeStorage() {
+    if (myStorage != null) myStorage.close();
+    Clock.reset();
+  }
+
+  @Test
+  public void testReadingBack() throws IOException {
+    myStorage = createStorage(1024 * 1024);
+    write("one", "two", "three");
+
+    assertEquals(list("three", "two", "one"), readAll());
+  }
+
+  @Test
+  public void testReopening() throws IOException {
+    myStorage = createStorage(100);
+    write("one", "two", "three");
+    myStorage.close();
+
+    myStorage = createStorage(100);
+    assertEquals(list("three", "two", "one"), readAll());
+    assertEquals(4, myStorage.nextId());
+  }
+
+  @Test
+  public void testCuttingOffPartialRecord() throws IOException {
+    myStorage = createStorage(1024 * 1024);
+    write("one", "two");
+    myStorage.close();
+
+    File segment = new File(myTempDir, "0.segment");
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.setLength(file.length() - 1);
+    }
+    finally {
+      file.close();
+    }
+
+    myStorage = createStorage(1024 * 1024);
+    assertEquals(list("one"), readAll());
+    write("three");
+    assertEquals(list("three", "one"), readAll());
+  }
+
+  @Test
+  public void testPurgingWholeSegments() throws IOException {
+    myStorage = createStorage(1);
+    Clock.setTime(HOUR);
+    write("one");
+    Clock.setTime(2 * HOUR);
+    write("two");
+    Clock.setTime(3 * HOUR);
+    write("three");
+    Clock.setTime(4 * HOUR);
+    write("four");
+    assertEquals(4, myStorage.getSegmentCount());
+
+    final List<String> purged = new ArrayList<String>();
+    myStorage.purge(HOUR + 1, Integer.MAX_VALUE, new Consumer<ChangeSet>() {
+      public void consume(ChangeSet changeSet) {
+        purged.add(changeSet.getName());
+      }
+    });
+
+    assertEquals(list("one", "two"), purged);
+    assertEquals(list("four", "three"), readAll());
+    assertEquals(2, myStorage.getSegmentCount());
+
+    write("five");
+    assertEquals(list("five", "four", "three"), readAll());
+  }
+
+  @Test
+  public void testKeepingSegmentsWhichCannotBeRead() throws IOException {
+    myStorage = createStorage(1);
+    for (int i = 1; i <= 4; i++) {
+      Clock.setTime(i * HOUR);
+      write(String.valueOf(i));
+    }
+
+    RandomAccessFile file = new RandomAccessFile(new File(myTempDir, "1.segment"), "rw");
+    try {
+      file.setLength(file.length() - 1);
+    }
+    finally {
+      file.close();
+    }
+
+    final List<String> purged = new ArrayList<String>();
+    myStorage.purge(HOUR + 1, Integer.MAX_VALUE, new Consumer<ChangeSet>() {
+      public void consume(ChangeSet changeSet) {
+        purged.add(changeSet.getName());
+      }
+    });
+
+    assertEquals(list("1"), purged);
+    assertEquals(3, myStorage.getSegmentCount());
+    assertFalse(new File(myTempDir, "0.segment").exists());
+    assertTrue(new File(myTempDir, "1.segment").exists());
+    assertTrue(new File(myTempDir, "2.segment").exists());
+  }
+
+  @Test
+  public void testNotPurgingSegmentBeingWritten() throws IOException {
+    myStorage = createStorage(1024 * 1024);
+    write("one", "two");
+
+    myStorage.purge(0, Integer.MAX_VALUE, new Consumer<ChangeSet>() {
+      public void consume(ChangeSet changeSet) {
+        fail();
+      }
+    });
+
+    assertEquals(list("two", "one"), readAll());
+  }
+
+  @Test
+  public void testInterruptedReader() throws Exception {
+    myStorage = createStorage(1024 * 1024);
+    write("one", "two");
+
+    final List<String> read = new ArrayList<String>();
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        interrupt();
+        read.addAll(readAll());
+      }
+    };
+    reader.start();
+    reader.join();
+    assertEquals(list("two", "one"), read);
+
+    write("three");
+    assertEquals(list("three", "two", "one"), readAll());
+    assertTrue(new File(myTempDir, "0.segment").exists());
+  }
+
+  private SegmentedChangeListStorage createStorage(long segmentSize) throws IOException {
+    return new SegmentedChangeListStorage(myTempDir, 0, segmentSize, Long.MAX_VALUE);
+  }
+
+  private void write(String... names) {
+    for (String name : names) {
+      ChangeSet changeSet = new ChangeSet(myStorage.nextId(), Clock.getTime());
+      changeSet.setName(name);
+      myStorage.writeNextSet(changeSet);
+    }
+  }
+
+  private List<String> readAll() {
+    List<String> result = new ArrayList<String>();
+    TIntHashSet recursionGuard = new TIntHashSet();
+    ChangeSetHolder holder = myStorage.readPrevious(-1, recursionGuard);
+    while (holder != null) {
+      result.add(holder.changeSet.getName());
+      holder = myStorage.readPrevious(holder.id, recursionGuard);
+    }
+    return result;
+  }
+}
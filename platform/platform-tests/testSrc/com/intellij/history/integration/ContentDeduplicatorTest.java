@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.history.core.ContentDeduplicator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ContentDeduplicatorTest extends IntegrationTestCase {
+  private ContentDeduplicator myDeduplicator;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myDeduplicator = new ContentDeduplicator(new File(createTempDirectory(), "digests"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myDeduplicator.close();
+    super.tearDown();
+  }
+
+  public void testSameBytesShareContent() throws IOException {
+    int first = myDeduplicator.store("content".getBytes());
+    int second = myDeduplicator.store("content".getBytes());
+    int other = myDeduplicator.store("other content".getBytes());
+
+    assertEquals(first, second);
+    assertTrue(first != other);
+    assertEquals(1, myDeduplicator.getDeduplicatedCount());
+    assertContent("content", first);
+
+    // every holder keeps its own reference
+    getFS().releaseContent(first);
+    assertContent("content", second);
+    getFS().releaseContent(second);
+    assertFalse(getFS().acquireContentIfReferenced(first));
+    getFS().releaseContent(other);
+  }
+
+  public void testFileContentSharedWithStoredBytes() throws IOException {
+    VirtualFile f = createFile("f.txt", "content");
+    f.contentsToByteArray();
+
+    int stored = myDeduplicator.store("content".getBytes());
+    int acquired = myDeduplicator.acquire(f);
+
+    assertEquals(stored, acquired);
+    assertEquals(1, myDeduplicator.getDeduplicatedCount());
+    getFS().releaseContent(stored);
+    getFS().releaseContent(acquired);
+  }
+
+  public void testReleasedContentIsNotResurrected() throws IOException {
+    int released = myDeduplicator.store("content".getBytes());
+    getFS().releaseContent(released);
+    assertFalse(getFS().acquireContentIfReferenced(released));
+
+    int stored = myDeduplicator.store("content".getBytes());
+    assertEquals(0, myDeduplicator.getDeduplicatedCount());
+    assertContent("content", stored);
+
+    // the only reference is the one just acquired
+    getFS().releaseContent(stored);
+    assertFalse(getFS().acquireContentIfReferenced(stored));
+  }
+
+  public void testReusedContentWithOtherBytesIsNotShared() throws IOException {
+    int released = myDeduplicator.store("content".getBytes());
+    getFS().releaseContent(released);
+
+    // the freed record is taken for other bytes while its digest is still remembered
+    int reused = getFS().storeUnlinkedContent("other content".getBytes());
+    assertEquals(released, reused);
+
+    int stored = myDeduplicator.store("content".getBytes());
+    assertTrue(stored != reused);
+    assertEquals(0, myDeduplicator.getDeduplicatedCount());
+    assertContent("content", stored);
+    assertContent("other content", reused);
+
+    getFS().releaseContent(stored);
+    getFS().releaseContent(reused);
+  }
+
+  public void testDigestDroppedWithLastReference() throws IOException {
+    int kept = myDeduplicator.store("kept".getBytes());
+    int first = myDeduplicator.store("released".getBytes());
+    int second = myDeduplicator.store("released".getBytes());
+    assertEquals(first, second);
+
+    myDeduplicator.release(first);
+    assertTrue(myDeduplicator.hasDigest(second));
+    myDeduplicator.release(second);
+    assertFalse(myDeduplicator.hasDigest(second));
+    assertFalse(getFS().acquireContentIfReferenced(second));
+
+    int stored = myDeduplicator.store("kept".getBytes());
+    assertEquals(kept, stored);
+    assertTrue(myDeduplicator.hasDigest(kept));
+    myDeduplicator.release(kept);
+    myDeduplicator.release(stored);
+    assertFalse(myDeduplicator.hasDigest(kept));
+  }
+
+  private static void assertContent(String expected, int contentId) throws IOException {
+    assertEquals(expected, new String(getFS().contentsToByteArray(contentId)));
+  }
+
+  private static PersistentFS getFS() {
+    return (PersistentFS)PersistentFS.getInstance();
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.ide.util.gotoByName;
+
+import com.intellij.psi.codeStyle.NameUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.text.Matcher;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChooseByNameIndexTest extends TestCase {
+  private static final String[] NAMES = {
+    "FooBar", "fooBar", "FooBarGoo", "BarFoo", "_foo_bar", "__Foo", "2Foo", "Foo2Bar", "foo.bar.Goo", ".foo", "XMLHttpRequest",
+    "ABC", "a_b_c", "Fo", "F", "", "$Foo", "ГотоКласс", "goto_class", "GOTO", "Goo Bar", "StringUtil", "SU", "sun"
+  };
+
+  private static final String[] PATTERNS = {
+    "", "f", "F", "fb", "FB", "FoBa", "fo*bar", "*bar", "*foo*", "foo ", "2", "2f", "xhr", "XMLHR", "abc", "a_b", "Гото", "гк",
+    "goto", "GOTO", "g b", "SU", "su", "sutil", ".bar", "foo.", "fo:", " "
+  };
+
+  public void testCandidatesIncludeAllMatches() {
+    ChooseByNameIndex index = new ChooseByNameIndex(NAMES);
+    for (String pattern : PATTERNS) {
+      for (NameUtil.MatchingCaseSensitivity options : NameUtil.MatchingCaseSensitivity.values()) {
+        Matcher matcher = new NameUtil.MinusculeMatcher(pattern, options);
+        List<String> expected = new ArrayList<String>();
+        for (String name : NAMES) {
+          if (matcher.matches(name)) expected.add(name);
+        }
+        assertEquals(pattern + " " + options, expected, getMatches(index, pattern, matcher));
+      }
+    }
+  }
+
+  public void testCandidatesAreNarrowed() {
+    ChooseByNameIndex index = new ChooseByNameIndex(NAMES);
+    final List<String> candidates = new ArrayList<String>();
+    index.processCandidates("sutil", new Processor<String>() {
+      @Override
+      public boolean process(String name) {
+        candidates.add(name);
+        return true;
+      }
+    });
+    assertEquals(1, candidates.size());
+    assertEquals("StringUtil", candidates.get(0));
+  }
+
+  private static List<String> getMatches(ChooseByNameIndex index, String pattern, final Matcher matcher) {
+    final List<String> result = new ArrayList<String>();
+    index.processCandidates(pattern, new Processor<String>() {
+      @Override
+      public boolean process(String name) {
+        if (matcher.matches(name)) result.add(name);
+        return true;
+      }
+    });
+    return result;
+  }
+}
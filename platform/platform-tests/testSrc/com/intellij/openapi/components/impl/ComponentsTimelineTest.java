@@ -0,0 +1,83 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.components.impl;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ComponentsTimelineTest extends TestCase {
+  public void testWriteAndParse() throws Exception {
+    ComponentsTimeline timeline = new ComponentsTimeline();
+    long outer = timeline.started();
+    Thread.sleep(20);
+    long nested = timeline.started();
+    Thread.sleep(30);
+    timeline.finished(nested, "com.example.Nested", null);
+    timeline.finished(outer, "com.example.Outer", "com.example.plugin");
+
+    File file = FileUtil.createTempFile("components-timeline", ".txt");
+    try {
+      timeline.write(file, "first", false);
+      timeline.write(file, "second", true);
+
+      List<String> lines = readLines(file);
+      assertEquals(6, lines.size());
+      assertEquals("# first", lines.get(0));
+      assertEquals("# second", lines.get(3));
+      assertEquals(lines.subList(1, 3), lines.subList(4, 6));
+
+      // records are added when components are finished, so the nested one comes first
+      String[] nestedRecord = lines.get(1).split("\t", -1);
+      String[] outerRecord = lines.get(2).split("\t", -1);
+      assertEquals(6, nestedRecord.length);
+      assertEquals(6, outerRecord.length);
+      assertEquals("", nestedRecord[4]);
+      assertEquals("com.example.Nested", nestedRecord[5]);
+      assertEquals("com.example.plugin", outerRecord[4]);
+      assertEquals("com.example.Outer", outerRecord[5]);
+      assertEquals(Thread.currentThread().getName(), outerRecord[3]);
+
+      long nestedStart = Long.parseLong(nestedRecord[0]);
+      long nestedOwn = Long.parseLong(nestedRecord[1]);
+      long nestedTotal = Long.parseLong(nestedRecord[2]);
+      long outerStart = Long.parseLong(outerRecord[0]);
+      long outerOwn = Long.parseLong(outerRecord[1]);
+      long outerTotal = Long.parseLong(outerRecord[2]);
+      assertTrue(outerStart + " " + nestedStart, outerStart + 20 <= nestedStart);
+      assertEquals(nestedTotal, nestedOwn);
+      assertTrue(String.valueOf(nestedTotal), nestedTotal >= 30);
+      assertTrue(outerTotal + " " + nestedTotal, outerTotal >= nestedTotal + 20);
+      // the nested time is not counted as the outer component's own time
+      assertTrue(outerOwn + " " + outerTotal, outerOwn >= 20 && outerOwn <= outerTotal - nestedTotal + 1);
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    for (String line : FileUtil.loadFile(file).split("\n")) {
+      lines.add(line.trim());
+    }
+    return lines;
+  }
+}
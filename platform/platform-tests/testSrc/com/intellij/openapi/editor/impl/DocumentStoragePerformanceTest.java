@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Compares flat array and rope document storages on large documents.
+ * The document size may be changed with <code>-Ddocument.storage.benchmark.mb=100</code>.
+ */
+public class DocumentStoragePerformanceTest extends LightPlatformTestCase {
+  private static final int DOCUMENT_SIZE = Integer.getInteger("document.storage.benchmark.mb", 10) << 20;
+  private static final String LINE = "insert into t values (1, 'some text', 42);\n";
+
+  private String myText;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myText = StringUtil.repeat(LINE, DOCUMENT_SIZE / LINE.length());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myText = null;
+    super.tearDown();
+  }
+
+  public void testTyping() {
+    long arrayTime = typeInTheMiddle(false);
+    final long[] ropeTime = new long[1];
+    PlatformTestUtil.startPerformanceTest("Typing in a large document with rope storage", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        ropeTime[0] = typeInTheMiddle(true);
+      }
+    }).cpuBound().assertTiming();
+    System.out.println("Typing 2000 chars into " + myText.length() + " chars: array " + arrayTime + "ms, rope " + ropeTime[0] + "ms");
+  }
+
+  public void testBulkReplace() {
+    long arrayTime = replaceInBulk(false);
+    final long[] ropeTime = new long[1];
+    PlatformTestUtil.startPerformanceTest("Bulk replace in a large document with rope storage", 5000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        ropeTime[0] = replaceInBulk(true);
+      }
+    }).cpuBound().assertTiming();
+    System.out.println("Bulk replace in " + myText.length() + " chars: array " + arrayTime + "ms, rope " + ropeTime[0] + "ms");
+  }
+
+  private long typeInTheMiddle(boolean useRope) {
+    DocumentImpl document = new DocumentImpl(myText, true, useRope);
+    long start = System.currentTimeMillis();
+    int offset = document.getTextLength() / 2;
+    for (int i = 0; i < 2000; i++) {
+      document.insertString(offset + i, "x");
+      // background highlighting takes a snapshot after every change
+      document.getImmutableCharSequence();
+    }
+    long time = System.currentTimeMillis() - start;
+    assertEquals(myText.length() + 2000, document.getTextLength());
+    return time;
+  }
+
+  private long replaceInBulk(boolean useRope) {
+    DocumentImpl document = new DocumentImpl(myText, true, useRope);
+    long start = System.currentTimeMillis();
+    document.setInBulkUpdate(true);
+    try {
+      int lines = document.getLineCount() - 1;
+      int step = Math.max(1, lines / 10000);
+      for (int line = lines - 1; line >= 0; line -= step) {
+        int offset = document.getLineStartOffset(line);
+        document.replaceString(offset, offset + "insert".length(), "INSERT");
+      }
+    }
+    finally {
+      document.setInBulkUpdate(false);
+    }
+    document.getImmutableCharSequence();
+    return System.currentTimeMillis() - start;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder(StringUtil.repeat("0123456789abcdef\n", 1000));
+    ImmutableText text = ImmutableText.valueOf(expected);
+    for (int i = 0; i < 5000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + random.nextInt(300));
+      String inserted = StringUtil.repeat("x", random.nextInt(700));
+      switch (random.nextInt(3)) {
+        case 0:
+          text = text.insert(start, inserted);
+          expected.insert(start, inserted);
+          break;
+        case 1:
+          text = text.delete(start, end);
+          expected.delete(start, end);
+          break;
+        default:
+          text = text.replace(start, end, inserted);
+          expected.replace(start, end, inserted);
+      }
+      assertEquals(expected.length(), text.length());
+    }
+    assertEquals(expected.toString(), text.toString());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.charAt(i), text.charAt(i));
+    }
+    assertEquals(expected.substring(100, 2000), text.subSequence(100, 2000).toString());
+  }
+
+  public void testSnapshotsAreNotAffectedByEdits() {
+    ImmutableText original = ImmutableText.valueOf(StringUtil.repeat("abc", 10000));
+    ImmutableText modified = original.insert(15000, "xyz").delete(0, 3);
+
+    assertEquals(StringUtil.repeat("abc", 10000), original.toString());
+    assertEquals(30000, modified.length());
+    assertEquals("abcabcxyzabc", modified.subSequence(14991, 15003).toString());
+  }
+
+  public void testTypingKeepsTreeBalanced() {
+    ImmutableText text = ImmutableText.valueOf(StringUtil.repeat("a", 1000000));
+    for (int i = 0; i < 100000; i++) {
+      text = text.insert(500000 + i, "b");
+    }
+    assertEquals(1100000, text.length());
+    assertTrue("Tree is too deep: " + text.getDepth(), text.getDepth() < 40);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.testFramework.LightPlatformLangTestCase;
+import gnu.trove.TIntArrayList;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress test for concurrent record reads. Run with -Didea.vfs.exclusive.lock=true to compare with fully serialized accessors.
+ */
+public class FSRecordsConcurrentReadsTest extends LightPlatformLangTestCase {
+  private static final int DIRS = 20;
+  private static final int FILES_PER_DIR = 50;
+  private static final int ITERATIONS = 200;
+
+  public void testConcurrentReadsWithWriter() throws Exception {
+    final File root = FileUtil.createTempDirectory("FSRecords", "");
+    disposeOnTearDown(new Disposable() {
+      @Override
+      public void dispose() {
+        FileUtil.delete(root);
+      }
+    });
+    for (int i = 0; i < DIRS; i++) {
+      File dir = new File(root, "dir" + i);
+      assertTrue(dir.mkdir());
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        assertTrue(new File(dir, "file" + j + ".txt").createNewFile());
+      }
+    }
+
+    VirtualFile vRoot = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(root);
+    assertNotNull(vRoot);
+    final TIntArrayList dirIds = new TIntArrayList();
+    final TIntArrayList fileIds = new TIntArrayList();
+    for (VirtualFile dir : vRoot.getChildren()) {
+      dirIds.add(((VirtualFileWithId)dir).getId());
+      for (VirtualFile file : dir.getChildren()) {
+        fileIds.add(((VirtualFileWithId)file).getId());
+      }
+    }
+    assertEquals(DIRS * FILES_PER_DIR, fileIds.size());
+
+    final int[] parents = new int[fileIds.size()];
+    final String[] names = new String[fileIds.size()];
+    final long[] timestamps = new long[fileIds.size()];
+    for (int i = 0; i < fileIds.size(); i++) {
+      parents[i] = FSRecords.getParent(fileIds.get(i));
+      names[i] = FSRecords.getName(fileIds.get(i));
+      timestamps[i] = FSRecords.getTimestamp(fileIds.get(i));
+    }
+
+    final Runnable reader = new Runnable() {
+      @Override
+      public void run() {
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+          for (int i = 0; i < fileIds.size(); i++) {
+            int id = fileIds.get(i);
+            assertEquals(parents[i], FSRecords.getParent(id));
+            assertEquals(names[i], FSRecords.getName(id));
+            assertEquals(timestamps[i], FSRecords.getTimestamp(id));
+            FSRecords.getFlags(id);
+            FSRecords.getLength(id);
+          }
+          for (int i = 0; i < dirIds.size(); i++) {
+            assertEquals(FILES_PER_DIR, FSRecords.list(dirIds.get(i)).length);
+          }
+        }
+      }
+    };
+    final Runnable writer = new Runnable() {
+      @Override
+      public void run() {
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+          for (int i = 0; i < fileIds.size(); i += 10) {
+            FSRecords.setTimestamp(fileIds.get(i), timestamps[i]);
+          }
+        }
+      }
+    };
+
+    long single = runConcurrently(reader, 1, null);
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    long multi = runConcurrently(reader, threads, writer);
+    System.out.println("FSRecords reads: 1 thread took " + single + " ms; " + threads + " threads (and a writer) took " + multi +
+                       " ms for " + threads + "x work");
+  }
+
+  private static long runConcurrently(Runnable task, int count, Runnable writer) throws InterruptedException {
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[writer == null ? count : count + 1];
+    for (int i = 0; i < threads.length; i++) {
+      final Runnable runnable = i < count ? task : writer;
+      threads[i] = new Thread("FSRecords reader " + i) {
+        @Override
+        public void run() {
+          try {
+            runnable.run();
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+    }
+
+    long started = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.currentTimeMillis() - started;
+
+    Throwable throwable = failure.get();
+    if (throwable != null) {
+      throw new RuntimeException(throwable);
+    }
+    return elapsed;
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.Factory;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.*;
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that the sharded storage keeps the same data as the plain one and is updated and queried concurrently,
+ * and compares the times of the same concurrent load on both.
+ */
+public class ShardedIndexStorageTest extends TestCase {
+  private static final int KEYS = 1000;
+  private static final int KEYS_PER_INPUT = 20;
+  private static final int INPUTS = 2000;
+
+  private File myDir;
+  private volatile Runnable myKeysReadBarrier;
+  private final List<MapReduceIndex<String, Integer, Integer>> myIndices = new ArrayList<MapReduceIndex<String, Integer, Integer>>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("sharded", "index");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (MapReduceIndex<String, Integer, Integer> index : myIndices) {
+        index.dispose();
+      }
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testSameDataAsPlainStorage() throws Exception {
+    MapReduceIndex<String, Integer, Integer> plain = createIndex("plain", 1);
+    MapReduceIndex<String, Integer, Integer> sharded = createIndex("sharded", 4);
+    for (int input = 1; input <= INPUTS; input++) {
+      plain.update(input, input);
+      sharded.update(input, input);
+    }
+    // re-index some inputs with different content
+    for (int input = 1; input <= INPUTS; input += 3) {
+      plain.update(input, input * 7);
+      sharded.update(input, input * 7);
+    }
+    plain.flush();
+    sharded.flush();
+
+    assertEquals(new HashSet<String>(plain.getAllKeys()), new HashSet<String>(sharded.getAllKeys()));
+    for (int k = 0; k < KEYS; k++) {
+      assertEquals(collectInputs(plain.getData(key(k))), collectInputs(sharded.getData(key(k))));
+    }
+  }
+
+  public void testConcurrentUpdatesAndQueries() throws Exception {
+    MapReduceIndex<String, Integer, Integer> sharded = createIndex("sharded", 4);
+    int[] contents = new int[INPUTS + 1];
+    runConcurrentLoad(sharded, contents, 5000);
+
+    MapReduceIndex<String, Integer, Integer> plain = createIndex("plain", 1);
+    for (int input = 1; input <= INPUTS; input++) {
+      plain.update(input, contents[input] != 0 ? contents[input] : input);
+    }
+    for (int k = 0; k < KEYS; k++) {
+      assertEquals(collectInputs(plain.getData(key(k))), collectInputs(sharded.getData(key(k))));
+    }
+  }
+
+  public void testConcurrentPerformance() throws Exception {
+    MapReduceIndex<String, Integer, Integer> plain = createIndex("plain", 1);
+    int[] plainContents = new int[INPUTS + 1];
+    long plainTime = runConcurrentLoad(plain, plainContents, 5000);
+
+    MapReduceIndex<String, Integer, Integer> sharded = createIndex("sharded", 4);
+    int[] shardedContents = new int[INPUTS + 1];
+    long shardedTime = runConcurrentLoad(sharded, shardedContents, 5000);
+
+    // every writer gets the same inputs and contents in both runs
+    assertTrue(Arrays.equals(plainContents, shardedContents));
+    for (int k = 0; k < KEYS; k++) {
+      assertEquals(collectInputs(plain.getData(key(k))), collectInputs(sharded.getData(key(k))));
+    }
+    System.out.println("4 writers and 4 readers, 8x5000 operations: plain " + plainTime + " ms, sharded " + shardedTime + " ms");
+  }
+
+  /**
+   * Fills the index and runs writer and reader threads over it, every writer updating its own inputs.
+   * @param contents receives the last content of every input updated by the writers
+   * @return the time the threads took, in milliseconds
+   */
+  private static long runConcurrentLoad(final MapReduceIndex<String, Integer, Integer> index, final int[] contents, final int operations)
+    throws Exception {
+    for (int input = 1; input <= INPUTS; input++) {
+      index.update(input, input);
+    }
+
+    final int threadsCount = 8;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; i++) {
+      final int writer = i % 2 == 0 ? i / 2 : -1;
+      final Random random = new Random(i);
+      threads[i] = new Thread("Index load " + i) {
+        @Override
+        public void run() {
+          try {
+            for (int op = 0; op < operations; op++) {
+              if (writer >= 0) {
+                int input = 1 + writer + threadsCount / 2 * random.nextInt(INPUTS / (threadsCount / 2));
+                int content = random.nextInt();
+                index.update(input, content);
+                contents[input] = content;
+              }
+              else {
+                index.getReadLock().lock();
+                try {
+                  collectInputs(index.getData(key(random.nextInt(KEYS))));
+                }
+                finally {
+                  index.getReadLock().unlock();
+                }
+              }
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+    }
+    long started = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long time = System.currentTimeMillis() - started;
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+    return time;
+  }
+
+  public void testQueryDoesNotWaitForUpdate() throws Exception {
+    final MapReduceIndex<String, Integer, Integer> sharded = createIndex("sharded", 4);
+    sharded.update(1, 1);
+    sharded.update(2, 2);
+    int k = 0;
+    while (collectInputs(sharded.getData(key(k))).isEmpty()) k++;
+    final String key = key(k);
+    final TIntHashSet expected = collectInputs(sharded.getData(key));
+
+    // the update of input 1 stops while reading its old keys, having taken all the index locks it needs
+    final CountDownLatch updateStarted = new CountDownLatch(1);
+    final CountDownLatch updateReleased = new CountDownLatch(1);
+    myKeysReadBarrier = new Runnable() {
+      @Override
+      public void run() {
+        updateStarted.countDown();
+        try {
+          updateReleased.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    Thread updater = new Thread("Index update") {
+      @Override
+      public void run() {
+        try {
+          sharded.update(1, 3);
+        }
+        catch (StorageException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    updater.start();
+    try {
+      assertTrue(updateStarted.await(10, TimeUnit.SECONDS));
+      myKeysReadBarrier = null;
+
+      final AtomicReference<TIntHashSet> result = new AtomicReference<TIntHashSet>();
+      Thread reader = new Thread("Index query") {
+        @Override
+        public void run() {
+          try {
+            result.set(collectInputs(sharded.getData(key)));
+          }
+          catch (StorageException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      reader.start();
+      reader.join(10000);
+      assertEquals(expected, result.get());
+    }
+    finally {
+      updateReleased.countDown();
+      updater.join();
+    }
+  }
+
+  private static TIntHashSet collectInputs(ValueContainer<Integer> container) {
+    final TIntHashSet result = new TIntHashSet();
+    container.forEach(new ValueContainer.ContainerAction<Integer>() {
+      @Override
+      public boolean perform(int id, Integer value) {
+        result.add(id);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  private static String key(int k) {
+    return "key" + k;
+  }
+
+  private MapReduceIndex<String, Integer, Integer> createIndex(String name, int shards) throws IOException {
+    File storageFile = new File(myDir, name);
+    IndexStorage<String, Integer> storage = shards == 1
+                                            ? new MapIndexStorage<String, Integer>(storageFile, new EnumeratorStringDescriptor(), EnumeratorIntegerDescriptor.INSTANCE, 1024)
+                                            : new ShardedIndexStorage<String, Integer>(storageFile, new EnumeratorStringDescriptor(), EnumeratorIntegerDescriptor.INSTANCE, 1024, shards);
+    DataIndexer<String, Integer, Integer> indexer = new DataIndexer<String, Integer, Integer>() {
+      @Override
+      public Map<String, Integer> map(Integer seed) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        Random random = new Random(seed);
+        for (int i = 0; i < KEYS_PER_INPUT; i++) {
+          result.put(key(random.nextInt(KEYS)), i);
+        }
+        return result;
+      }
+    };
+    final MapReduceIndex<String, Integer, Integer> index = new MapReduceIndex<String, Integer, Integer>(null, indexer, storage);
+    final File inputsFile = new File(myDir, name + "_inputs");
+    index.setInputIdToDataKeysIndex(new Factory<PersistentHashMap<Integer, Collection<String>>>() {
+      @Override
+      public PersistentHashMap<Integer, Collection<String>> create() {
+        try {
+          return new PersistentHashMap<Integer, Collection<String>>(inputsFile, EnumeratorIntegerDescriptor.INSTANCE, new KeysExternalizer());
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    myIndices.add(index);
+    return index;
+  }
+
+  private class KeysExternalizer implements DataExternalizer<Collection<String>> {
+    @Override
+    public void save(DataOutput out, Collection<String> value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.size());
+      for (String key : value) {
+        out.writeUTF(key);
+      }
+    }
+
+    @Override
+    public Collection<String> read(DataInput in) throws IOException {
+      Runnable barrier = myKeysReadBarrier;
+      if (barrier != null) {
+        barrier.run();
+      }
+      int size = DataInputOutputUtil.readINT(in);
+      List<String> result = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+        result.add(in.readUTF());
+      }
+      return result;
+    }
+  }
+}
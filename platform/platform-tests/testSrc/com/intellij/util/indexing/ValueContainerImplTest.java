@@ -0,0 +1,66 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import gnu.trove.TIntArrayList;
+import junit.framework.TestCase;
+
+public class ValueContainerImplTest extends TestCase {
+  public void testSortedIdsAreCopiedOnWrite() {
+    ValueContainerImpl<String> container = new ValueContainerImpl<String>();
+    container.addValues("v", new int[]{2, 5, 9, 40});
+    ValueContainerImpl<String> copy = container.clone();
+
+    assertTrue(container.isAssociated("v", 9));
+    assertFalse(container.isAssociated("v", 10));
+    assertTrue(container.getValueAssociationPredicate("v").contains(40));
+    assertEquals(4, container.getInputIdsIterator("v").size());
+
+    container.addValue(10, "v");
+    assertTrue(container.removeValue(2, "v"));
+    assertFalse(container.removeValue(3, "v"));
+
+    assertEquals(ids(5, 9, 10, 40), sortedIds(container, "v"));
+    assertEquals(ids(2, 5, 9, 40), sortedIds(copy, "v"));
+  }
+
+  public void testSortedIdsAreMergedWithExisting() {
+    ValueContainerImpl<String> container = new ValueContainerImpl<String>();
+    container.addValue(7, "v");
+    container.addValues("v", new int[]{1, 3});
+    container.addValues(null, new int[]{4, 8});
+
+    assertEquals(ids(1, 3, 7), sortedIds(container, "v"));
+    assertEquals(ids(4, 8), sortedIds(container, null));
+    assertTrue(container.getValueAssociationPredicate(null).contains(8));
+
+    container.removeAssociatedValue(4);
+    assertEquals(ids(8), sortedIds(container, null));
+  }
+
+  private static TIntArrayList ids(int... ids) {
+    return new TIntArrayList(ids);
+  }
+
+  private static TIntArrayList sortedIds(ValueContainer<String> container, String value) {
+    TIntArrayList result = new TIntArrayList();
+    for (ValueContainer.IntIterator iterator = container.getInputIdsIterator(value); iterator.hasNext();) {
+      result.add(iterator.next());
+    }
+    result.sort();
+    return result;
+  }
+}
@@ -7,9 +7,7 @@ import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -248,6 +246,217 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testIncrementalCompactionWithConcurrentUpdates() throws Exception {
+    final List<String> keys = new ArrayList<String>(2000);
+    for (int i = 0; i < 2000; ++i) {
+      keys.add(createRandomString());
+    }
+    for (int pass = 0; pass < 5; pass++) {
+      for (String key : keys) {
+        myMap.put(key, key + "_" + pass);
+      }
+    }
+    myMap.force();
+    final long sizeBefore = myDataFile.length();
+
+    final Map<String, String> expected = new HashMap<String, String>();
+    for (String key : keys) {
+      expected.put(key, key + "_4");
+    }
+    final Throwable[] failure = new Throwable[1];
+    Thread compaction = new Thread("compaction") {
+      @Override
+      public void run() {
+        try {
+          myMap.compactIncrementally();
+        }
+        catch (Throwable e) {
+          failure[0] = e;
+        }
+      }
+    };
+    compaction.start();
+    Random random = new Random(1);
+    while (compaction.isAlive()) {
+      String key = keys.get(random.nextInt(keys.size()));
+      int action = random.nextInt(10);
+      if (action == 0) {
+        myMap.remove(key);
+        expected.remove(key);
+      }
+      else if (action == 1) {
+        // the keys are collected in slices too, the new ones must survive the compaction
+        key = createRandomString();
+        myMap.put(key, key + "_new");
+        expected.put(key, key + "_new");
+      }
+      else {
+        myMap.put(key, key + "_updated");
+        expected.put(key, key + "_updated");
+      }
+      assertEquals(expected.get(key), myMap.get(key));
+    }
+    compaction.join();
+    assertNull(failure[0]);
+
+    for (String key : keys) {
+      assertEquals(expected.get(key), myMap.get(key));
+    }
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+    myMap.close();
+    assertTrue(myDataFile.length() < sizeBefore);
+
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+  }
+
+  public void testBatch() throws IOException {
+    myMap.put("AAA", "AAA_VALUE");
+    myMap.put("BBB", "BBB_VALUE");
+
+    PersistentHashMap<String, String>.WriteBatch batch = myMap.startBatch();
+    batch.put("AAA", "ANOTHER_AAA_VALUE");
+    batch.remove("BBB");
+    batch.put("CCC", "CCC_VALUE");
+    batch.remove("CCC");
+    batch.put("DDD", "DDD_VALUE");
+    assertEquals("BBB_VALUE", myMap.get("BBB"));
+    assertNull(myMap.get("DDD"));
+
+    batch.flush();
+    assertTrue(batch.isEmpty());
+    assertEquals("ANOTHER_AAA_VALUE", myMap.get("AAA"));
+    assertNull(myMap.get("BBB"));
+    assertNull(myMap.get("CCC"));
+    assertEquals("DDD_VALUE", myMap.get("DDD"));
+    assertEquals(new HashSet<String>(Arrays.asList("AAA", "DDD")), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals("ANOTHER_AAA_VALUE", myMap.get("AAA"));
+    assertEquals("DDD_VALUE", myMap.get("DDD"));
+  }
+
+  public void testBatchAppendsAndAutoFlush() throws IOException {
+    File file = FileUtil.createTempFile("persistent", "map");
+    PersistentHashMap<String, List<Integer>> map = new PersistentHashMap<String, List<Integer>>(file, new EnumeratorStringDescriptor(), new IntListExternalizer());
+    try {
+      map.appendData("AAA", appender(1));
+      map.put("BBB", Arrays.asList(1, 2));
+
+      PersistentHashMap<String, List<Integer>>.WriteBatch batch = map.startBatch();
+      batch.appendData("AAA", appender(2));
+      batch.appendData("AAA", appender(3));
+      batch.remove("BBB");
+      batch.appendData("BBB", appender(4));
+      batch.appendData("CCC", appender(5));
+      batch.flush();
+
+      assertEquals(Arrays.asList(1, 2, 3), map.get("AAA"));
+      assertEquals(Arrays.asList(4), map.get("BBB"));
+      assertEquals(Arrays.asList(5), map.get("CCC"));
+
+      batch = map.startBatch(100);
+      for (int i = 0; i < 100; i++) {
+        batch.appendData("DDD", appender(i));
+      }
+      assertTrue(map.containsMapping("DDD"));
+      batch.flush();
+      assertEquals(100, map.get("DDD").size());
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
+  public void testBatchPerformance() throws IOException {
+    final List<String> strings = new ArrayList<String>(100000);
+    for (int i = 0; i < 100000; ++i) {
+      strings.add(createRandomString());
+    }
+
+    long started = System.currentTimeMillis();
+    for (int pass = 0; pass < 3; pass++) {
+      for (String string : strings) {
+        myMap.put(string, string + pass);
+      }
+    }
+    myMap.force();
+    long perKey = System.currentTimeMillis() - started;
+
+    File file = FileUtil.createTempFile("persistent", "map");
+    PersistentHashMap<String, String> map = new PersistentHashMap<String, String>(file, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    try {
+      started = System.currentTimeMillis();
+      for (int pass = 0; pass < 3; pass++) {
+        PersistentHashMap<String, String>.WriteBatch batch = map.startBatch(1024 * 1024);
+        for (String string : strings) {
+          batch.put(string, string + pass);
+        }
+        batch.flush();
+      }
+      map.force();
+      long batched = System.currentTimeMillis() - started;
+
+      for (String string : strings) {
+        assertEquals(string + 2, map.get(string));
+      }
+      System.out.println("3x" + strings.size() + " puts: per key " + perKey + " ms, batched " + batched + " ms");
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
+  public void testBatchAppendPerformance() throws IOException {
+    final List<String> strings = new ArrayList<String>(50000);
+    for (int i = 0; i < 50000; ++i) {
+      strings.add(createRandomString());
+    }
+
+    File perKeyFile = FileUtil.createTempFile("persistent", "map");
+    File batchedFile = FileUtil.createTempFile("persistent", "map");
+    PersistentHashMap<String, List<Integer>> perKeyMap =
+      new PersistentHashMap<String, List<Integer>>(perKeyFile, new EnumeratorStringDescriptor(), new IntListExternalizer());
+    PersistentHashMap<String, List<Integer>> batchedMap =
+      new PersistentHashMap<String, List<Integer>>(batchedFile, new EnumeratorStringDescriptor(), new IntListExternalizer());
+    try {
+      long started = System.currentTimeMillis();
+      for (int pass = 0; pass < 10; pass++) {
+        for (String string : strings) {
+          perKeyMap.appendData(string, appender(pass));
+        }
+      }
+      perKeyMap.force();
+      long perKey = System.currentTimeMillis() - started;
+
+      started = System.currentTimeMillis();
+      for (int pass = 0; pass < 10; pass++) {
+        PersistentHashMap<String, List<Integer>>.WriteBatch batch = batchedMap.startBatch(1024 * 1024);
+        for (String string : strings) {
+          batch.appendData(string, appender(pass));
+        }
+        batch.flush();
+      }
+      batchedMap.force();
+      long batched = System.currentTimeMillis() - started;
+
+      for (String string : strings) {
+        assertEquals(perKeyMap.get(string), batchedMap.get(string));
+      }
+      System.out.println("10x" + strings.size() + " appends: per key " + perKey + " ms, batched " + batched + " ms");
+    }
+    finally {
+      clearMap(perKeyFile, perKeyMap);
+      clearMap(batchedFile, batchedMap);
+    }
+  }
+
   public void testPerformance() throws IOException {
     final IntObjectCache<String> stringCache = new IntObjectCache<String>(2000);
     final IntObjectCache.DeletedPairsListener listener = new IntObjectCache.DeletedPairsListener() {
@@ -336,6 +545,33 @@ public class PersistentMapTest extends TestCase {
       .printf("Data file size = %d bytes\n", new File(myDataFile.getParentFile(), myDataFile.getName() + Storage.DATA_EXTENSION).length());
   }
   
+  private static PersistentHashMap.ValueDataAppender appender(final int value) {
+    return new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        out.writeInt(value);
+      }
+    };
+  }
+
+  private static class IntListExternalizer implements DataExternalizer<List<Integer>> {
+    @Override
+    public void save(DataOutput out, List<Integer> value) throws IOException {
+      for (Integer i : value) {
+        out.writeInt(i);
+      }
+    }
+
+    @Override
+    public List<Integer> read(DataInput in) throws IOException {
+      List<Integer> result = new ArrayList<Integer>();
+      while (((InputStream)in).available() > 0) {
+        result.add(in.readInt());
+      }
+      return result;
+    }
+  }
+
   private static String createRandomString() {
     return StringEnumeratorTest.createRandomString();
   }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counter of items, bytes and busy time spent in one stage of a processing pipeline.
+ * Busy time is summed over all threads working on the stage, so items per second is the per-worker throughput.
+ */
+public class ThroughputCounter {
+  private final String myName;
+  private final AtomicLong myItems = new AtomicLong();
+  private final AtomicLong myBytes = new AtomicLong();
+  private final AtomicLong myNanos = new AtomicLong();
+
+  public ThroughputCounter(@NotNull String name) {
+    myName = name;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  public void record(long bytes, long nanos) {
+    myItems.incrementAndGet();
+    myBytes.addAndGet(bytes);
+    myNanos.addAndGet(nanos);
+  }
+
+  public long getItems() {
+    return myItems.get();
+  }
+
+  public long getBytes() {
+    return myBytes.get();
+  }
+
+  public long getNanos() {
+    return myNanos.get();
+  }
+
+  public void reset() {
+    myItems.set(0);
+    myBytes.set(0);
+    myNanos.set(0);
+  }
+
+  @Override
+  public String toString() {
+    final long items = getItems();
+    final long bytes = getBytes();
+    final long ms = getNanos() / 1000000;
+    final StringBuilder builder = new StringBuilder();
+    builder.append(myName).append(": ").append(items).append(" items, ");
+    if (bytes > 0) {
+      builder.append(bytes / 1024).append(" KB, ");
+    }
+    builder.append(ms).append(" ms");
+    if (ms > 0) {
+      builder.append(" (").append(items * 1000 / ms).append(" items/s");
+      if (bytes > 0) {
+        builder.append(", ").append(bytes * 1000 / 1024 / ms).append(" KB/s");
+      }
+      builder.append(")");
+    }
+    return builder.toString();
+  }
+}
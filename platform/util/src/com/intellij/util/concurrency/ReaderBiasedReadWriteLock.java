@@ -0,0 +1,267 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A reentrant writer-preference read-write lock optimized for the case of many short read locks and rare write locks.
+ * <p/>
+ * Every reader thread gets its own hold counter, so acquiring an uncontended read lock is just a write and a read of volatile fields
+ * without any shared memory contention. The writer announces its intention first and then waits until all reader counters drop to zero;
+ * new readers which see the announcement back off and wait until the writer is done.
+ * <p/>
+ * The semantics is the same as of {@link ReentrantWriterPreferenceReadWriteLock}: both locks are reentrant, a reader holding the lock
+ * may reacquire it even if a writer is waiting, the writer may acquire the read lock and may acquire the write lock while
+ * it is the only reader.
+ */
+public class ReaderBiasedReadWriteLock implements ReadWriteLock {
+  private final Object myMonitor = new Object();
+
+  private final CopyOnWriteArrayList<ReaderCounter> myReaders = new CopyOnWriteArrayList<ReaderCounter>();
+  private final ThreadLocal<ReaderCounter> myReader = new ThreadLocal<ReaderCounter>() {
+    @Override
+    protected ReaderCounter initialValue() {
+      ReaderCounter counter = new ReaderCounter(Thread.currentThread());
+      myReaders.add(counter);
+      return counter;
+    }
+  };
+
+  private volatile boolean myWriteRequested; // guarded by myMonitor for writes
+  private volatile Thread myActiveWriter; // guarded by myMonitor for writes
+  private Thread myPendingWriter; // the writer waiting for readers to go; guarded by myMonitor
+  private int myWriteHolds; // guarded by myMonitor
+  private int myWaitingWriters; // guarded by myMonitor
+
+  private final Sync myReadLock = new Sync() {
+    @Override
+    public void acquire() throws InterruptedException {
+      startRead(-1);
+    }
+
+    @Override
+    public boolean attempt(long msecs) throws InterruptedException {
+      return startRead(msecs);
+    }
+
+    @Override
+    public void release() {
+      endRead();
+    }
+  };
+
+  private final Sync myWriteLock = new Sync() {
+    @Override
+    public void acquire() throws InterruptedException {
+      startWrite(-1);
+    }
+
+    @Override
+    public boolean attempt(long msecs) throws InterruptedException {
+      return startWrite(msecs);
+    }
+
+    @Override
+    public void release() {
+      endWrite();
+    }
+  };
+
+  @Override
+  public Sync readLock() {
+    return myReadLock;
+  }
+
+  @Override
+  public Sync writeLock() {
+    return myWriteLock;
+  }
+
+  public boolean isReadLockAcquired() {
+    return myReader.get().count > 0;
+  }
+
+  public boolean isWriteLockAcquired() {
+    return myActiveWriter == Thread.currentThread();
+  }
+
+  public boolean isWriteLockAcquired(Thread thread) {
+    return myActiveWriter == thread;
+  }
+
+  /**
+   * @param msecs time to wait, negative value means wait forever
+   */
+  private boolean startRead(long msecs) throws InterruptedException {
+    ReaderCounter reader = myReader.get();
+    if (reader.count > 0) {
+      // reentrant acquire, must not wait for the writer which in turn waits for us
+      reader.count++;
+      return true;
+    }
+
+    long deadline = msecs > 0 ? System.currentTimeMillis() + msecs : 0;
+    while (true) {
+      // publish the counter first and only then check the writer: the writer does it in the reverse order,
+      // so at least one of us sees the other
+      reader.count = 1;
+      if (!myWriteRequested || myActiveWriter == Thread.currentThread()) {
+        return true;
+      }
+      reader.count = 0;
+      wakeUpWriter();
+
+      synchronized (myMonitor) {
+        while (myWriteRequested && myActiveWriter != Thread.currentThread()) {
+          if (Thread.interrupted()) throw new InterruptedException();
+          if (msecs == 0) return false;
+          if (!waitUntil(deadline)) return false;
+        }
+      }
+    }
+  }
+
+  private void endRead() {
+    ReaderCounter reader = myReader.get();
+    int count = reader.count;
+    if (count <= 0) {
+      throw new IllegalStateException("Read lock is not held by " + Thread.currentThread());
+    }
+    reader.count = count - 1;
+    if (count == 1 && myWriteRequested) {
+      wakeUpWriter();
+    }
+  }
+
+  private boolean startWrite(long msecs) throws InterruptedException {
+    Thread currentThread = Thread.currentThread();
+    long deadline = msecs > 0 ? System.currentTimeMillis() + msecs : 0;
+    synchronized (myMonitor) {
+      if (myActiveWriter == currentThread) {
+        myWriteHolds++;
+        return true;
+      }
+
+      myWaitingWriters++;
+      try {
+        myWriteRequested = true;
+        while (myActiveWriter != null || myPendingWriter != null) {
+          if (Thread.interrupted()) {
+            cancelWriteRequest();
+            throw new InterruptedException();
+          }
+          if (msecs == 0 || !waitUntil(deadline)) {
+            cancelWriteRequest();
+            return false;
+          }
+        }
+
+        myPendingWriter = currentThread;
+        ReaderCounter self = myReader.get();
+        while (hasOtherReaders(self)) {
+          if (Thread.interrupted()) {
+            myPendingWriter = null;
+            cancelWriteRequest();
+            throw new InterruptedException();
+          }
+          if (msecs == 0 || !waitUntil(deadline)) {
+            myPendingWriter = null;
+            cancelWriteRequest();
+            return false;
+          }
+        }
+        myPendingWriter = null;
+        myActiveWriter = currentThread;
+        myWriteHolds = 1;
+        return true;
+      }
+      finally {
+        myWaitingWriters--;
+      }
+    }
+  }
+
+  private void endWrite() {
+    synchronized (myMonitor) {
+      if (myActiveWriter != Thread.currentThread()) {
+        throw new IllegalStateException("Write lock is not held by " + Thread.currentThread());
+      }
+      if (--myWriteHolds > 0) return;
+      myActiveWriter = null;
+      // the next waiting writer keeps readers off
+      myWriteRequested = myWaitingWriters > 0;
+      myMonitor.notifyAll();
+    }
+  }
+
+  // must be called under myMonitor by a writer which gives up waiting
+  private void cancelWriteRequest() {
+    // readers are still kept off if the lock is held or awaited by another writer
+    myWriteRequested = myActiveWriter != null || myPendingWriter != null || myWaitingWriters > 1;
+    myMonitor.notifyAll();
+  }
+
+  // must be called under myMonitor
+  private boolean hasOtherReaders(@NotNull ReaderCounter self) {
+    boolean found = false;
+    for (ReaderCounter reader : myReaders) {
+      if (reader == self) continue;
+      if (reader.count > 0) {
+        found = true;
+      }
+      else if (reader.isThreadDead()) {
+        myReaders.remove(reader);
+      }
+    }
+    return found;
+  }
+
+  private void wakeUpWriter() {
+    synchronized (myMonitor) {
+      myMonitor.notifyAll();
+    }
+  }
+
+  // must be called under myMonitor, returns false if the deadline has passed
+  private boolean waitUntil(long deadline) throws InterruptedException {
+    if (deadline == 0) {
+      myMonitor.wait();
+      return true;
+    }
+    long toWait = deadline - System.currentTimeMillis();
+    if (toWait <= 0) return false;
+    myMonitor.wait(toWait);
+    return true;
+  }
+
+  private static final class ReaderCounter {
+    private final WeakReference<Thread> myThread;
+    private volatile int count; // modified only by the owner thread
+
+    private ReaderCounter(@NotNull Thread thread) {
+      myThread = new WeakReference<Thread>(thread);
+    }
+
+    private boolean isThreadDead() {
+      Thread thread = myThread.get();
+      return thread == null || !thread.isAlive();
+    }
+  }
+}
@@ -86,6 +86,42 @@ public class SortedList<T> extends AbstractList<T>{
     return myDelegate;
   }
 
+  /**
+   * The elements in the sorted order. Unlike the list itself, which is linearized anew after every modification,
+   * it doesn't copy the elements, so it's cheap to take the first few of them. The list must not be modified meanwhile.
+   */
+  public Iterable<T> iterateSorted() {
+    if (myDelegate != null) return myDelegate;
+    return new Iterable<T>() {
+      @Override
+      public Iterator<T> iterator() {
+        final Iterator<List<T>> groups = myMap.values().iterator();
+        return new Iterator<T>() {
+          private Iterator<T> myGroup = Collections.<T>emptyList().iterator();
+
+          @Override
+          public boolean hasNext() {
+            while (!myGroup.hasNext() && groups.hasNext()) {
+              myGroup = groups.next().iterator();
+            }
+            return myGroup.hasNext();
+          }
+
+          @Override
+          public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return myGroup.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
   @Override
   public void clear() {
     myMap.clear();
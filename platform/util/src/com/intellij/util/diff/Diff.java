@@ -30,6 +30,7 @@ import java.util.ArrayList;
  */
 public class Diff {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.diff.Diff");
+  private static final long LINEAR_SPACE_TIME_BUDGET = 3000;
 
   @Nullable
   public static Change buildChanges(@NotNull CharSequence before, @NotNull CharSequence after) throws FilesTooBigForDiffException {
@@ -53,13 +54,39 @@ public class Diff {
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
     Reindexer reindexer = new Reindexer();
     int[][] discarded = reindexer.discardUnique(ints1, ints2);
-    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
     ChangeBuilder builder = new ChangeBuilder(startShift);
-    reindexer.reindex(intLCS.getPaths(), builder);
+    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
+    try {
+      intLCS.execute();
+      reindexer.reindex(intLCS.getPaths(), builder);
+    }
+    catch (FilesTooBigForDiffException e) {
+      reindexer.reindex(buildChangesInLinearSpace(discarded[0], discarded[1]), builder);
+    }
     return builder.getFirstChange();
   }
 
+  /**
+   * Used when there are too many changes to remember all the paths of {@link IntLCS}. The unique common lines split the diff
+   * into independent parts, so that running out of time makes only the remaining parts coarse.
+   */
+  private static boolean[][] buildChangesInLinearSpace(int[] ints1, int[] ints2) {
+    MyersLCS lcs = new MyersLCS(ints1, ints2, System.currentTimeMillis() + LINEAR_SPACE_TIME_BUDGET);
+    int[][] anchors = new UniqueLCS(ints1, ints2).execute();
+    int start1 = 0;
+    int start2 = 0;
+    for (int i = 0; i < anchors[0].length; i++) {
+      int anchor1 = anchors[0][i];
+      int anchor2 = anchors[1][i];
+      lcs.execute(start1, anchor1, start2, anchor2);
+      lcs.markEqual(anchor1, anchor2);
+      start1 = anchor1 + 1;
+      start2 = anchor2 + 1;
+    }
+    lcs.execute(start1, ints1.length, start2, ints2.length);
+    return lcs.getChanges();
+  }
+
   private static <T> int getStartShift(final T[] o1, final T[] o2) {
     final int size = Math.min(o1.length, o2.length);
     int idx = 0;
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import java.util.Arrays;
+
+/**
+ * Myers' O((N+M)D) algorithm in linear space: the middle snake of the shortest edit path is found by searching from both ends
+ * at once, and the parts before and after it are processed recursively. Unlike {@link IntLCS} no paths are remembered,
+ * so there is no limit on the size of the input or on the number of changes.
+ * <p/>
+ * When the deadline is reached the regions not processed yet are left changed as a whole: the result is still a correct
+ * edit script, just not the shortest one.
+ */
+class MyersLCS {
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final boolean[] myChanges1;
+  private final boolean[] myChanges2;
+  private final long myDeadline;
+
+  private final int[] myForward;
+  private final int[] myBackward;
+  private final int myOffset;
+
+  // the ends of the middle snake found by findMiddleSnake()
+  private int mySnakeStart1;
+  private int mySnakeStart2;
+  private int mySnakeEnd1;
+  private int mySnakeEnd2;
+
+  public MyersLCS(int[] first, int[] second, long deadline) {
+    myFirst = first;
+    mySecond = second;
+    myDeadline = deadline;
+
+    myChanges1 = new boolean[first.length];
+    myChanges2 = new boolean[second.length];
+    Arrays.fill(myChanges1, true);
+    Arrays.fill(myChanges2, true);
+
+    myOffset = (first.length + second.length + 1) / 2 + 1;
+    myForward = new int[2 * myOffset + 1];
+    myBackward = new int[2 * myOffset + 1];
+  }
+
+  public void execute() {
+    execute(0, myFirst.length, 0, mySecond.length);
+  }
+
+  public void execute(int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      markEqual(start1++, start2++);
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      markEqual(--end1, --end2);
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    if (!findMiddleSnake(start1, end1 - start1, start2, end2 - start2)) return;
+
+    // the fields are overwritten by the recursive calls
+    int snakeStart1 = mySnakeStart1;
+    int snakeStart2 = mySnakeStart2;
+    int snakeEnd1 = mySnakeEnd1;
+    int snakeEnd2 = mySnakeEnd2;
+    for (int i = 0; i < snakeEnd1 - snakeStart1; i++) {
+      markEqual(snakeStart1 + i, snakeStart2 + i);
+    }
+    execute(start1, snakeStart1, start2, snakeStart2);
+    execute(snakeEnd1, end1, snakeEnd2, end2);
+  }
+
+  public void markEqual(int index1, int index2) {
+    myChanges1[index1] = false;
+    myChanges2[index2] = false;
+  }
+
+  /**
+   * @return changed elements of the first and of the second sequence
+   */
+  public boolean[][] getChanges() {
+    return new boolean[][]{myChanges1, myChanges2};
+  }
+
+  /**
+   * Both sequences are not empty and differ in the first and in the last elements.
+   * @return false if the deadline was reached
+   */
+  private boolean findMiddleSnake(int start1, int length1, int start2, int length2) {
+    int delta = length1 - length2;
+    boolean odd = (delta & 1) != 0;
+    int maxD = (length1 + length2 + 1) / 2;
+
+    myForward[myOffset + 1] = 0;
+    myBackward[myOffset + 1] = 0;
+
+    for (int d = 0; d <= maxD; d++) {
+      if (System.currentTimeMillis() > myDeadline) return false;
+
+      // forward paths, x is the number of elements of the first sequence passed
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || k != d && myForward[myOffset + k - 1] < myForward[myOffset + k + 1]) {
+          x = myForward[myOffset + k + 1];
+        }
+        else {
+          x = myForward[myOffset + k - 1] + 1;
+        }
+        int y = x - k;
+        int snakeX = x;
+        while (x < length1 && y < length2 && myFirst[start1 + x] == mySecond[start2 + y]) {
+          x++;
+          y++;
+        }
+        myForward[myOffset + k] = x;
+
+        int backwardK = delta - k;
+        if (odd && backwardK >= -(d - 1) && backwardK <= d - 1 && x + myBackward[myOffset + backwardK] >= length1) {
+          setSnake(start1 + snakeX, start2 + snakeX - k, start1 + x, start2 + y);
+          return true;
+        }
+      }
+
+      // backward paths, x is the number of elements of the first sequence passed from its end
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || k != d && myBackward[myOffset + k - 1] < myBackward[myOffset + k + 1]) {
+          x = myBackward[myOffset + k + 1];
+        }
+        else {
+          x = myBackward[myOffset + k - 1] + 1;
+        }
+        int y = x - k;
+        int snakeX = x;
+        while (x < length1 && y < length2 && myFirst[start1 + length1 - x - 1] == mySecond[start2 + length2 - y - 1]) {
+          x++;
+          y++;
+        }
+        myBackward[myOffset + k] = x;
+
+        int forwardK = delta - k;
+        if (!odd && forwardK >= -d && forwardK <= d && x + myForward[myOffset + forwardK] >= length1) {
+          setSnake(start1 + length1 - x, start2 + length2 - y, start1 + length1 - snakeX, start2 + length2 - snakeX + k);
+          return true;
+        }
+      }
+    }
+    throw new IllegalStateException("no middle snake for " + length1 + "x" + length2);
+  }
+
+  private void setSnake(int start1, int start2, int end1, int end2) {
+    mySnakeStart1 = start1;
+    mySnakeStart2 = start2;
+    mySnakeEnd1 = end1;
+    mySnakeEnd2 = end2;
+  }
+}
@@ -100,6 +100,26 @@ class Reindexer {
         }
       }
     });
+    buildChanges(changes1, changes2, builder);
+  }
+
+  /**
+   * @param discardedChanges changed elements of the sequences returned by {@link #discardUnique}
+   */
+  public void reindex(boolean[][] discardedChanges, LCSBuilder builder) {
+    buildChanges(restoreChanges(discardedChanges[0], 0), restoreChanges(discardedChanges[1], 1), builder);
+  }
+
+  private boolean[] restoreChanges(boolean[] discardedChanges, int array) {
+    boolean[] changes = new boolean[myOriginalLengths[array]];
+    Arrays.fill(changes, true);
+    for (int i = 0; i < discardedChanges.length; i++) {
+      if (!discardedChanges[i]) changes[myOldIndecies[array][i]] = false;
+    }
+    return changes;
+  }
+
+  private static void buildChanges(boolean[] changes1, boolean[] changes2, LCSBuilder builder) {
     int x = 0;
     int y = 0;
     while (x < changes1.length && y < changes2.length) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+/**
+ * Patience diff heuristic: the longest common subsequence of the elements occurring exactly once in each sequence.
+ * It takes O(N log N) and its elements are good anchors to split a big diff into independent small ones.
+ */
+class UniqueLCS {
+  private final int[] myFirst;
+  private final int[] mySecond;
+
+  public UniqueLCS(int[] first, int[] second) {
+    myFirst = first;
+    mySecond = second;
+  }
+
+  /**
+   * @return indices of the matched elements in the first and in the second sequence, both ascending
+   */
+  public int[][] execute() {
+    int maxValue = 0;
+    for (int value : myFirst) maxValue = Math.max(maxValue, value);
+    for (int value : mySecond) maxValue = Math.max(maxValue, value);
+
+    int[] count1 = new int[maxValue + 1];
+    int[] index1 = new int[maxValue + 1];
+    for (int i = 0; i < myFirst.length; i++) {
+      count1[myFirst[i]]++;
+      index1[myFirst[i]] = i;
+    }
+    int[] count2 = new int[maxValue + 1];
+    for (int value : mySecond) count2[value]++;
+
+    // unique pairs in the order of the second sequence
+    int pairCount = 0;
+    int[] pairs1 = new int[Math.min(myFirst.length, mySecond.length)];
+    int[] pairs2 = new int[pairs1.length];
+    for (int j = 0; j < mySecond.length; j++) {
+      int value = mySecond[j];
+      if (count1[value] == 1 && count2[value] == 1) {
+        pairs1[pairCount] = index1[value];
+        pairs2[pairCount] = j;
+        pairCount++;
+      }
+    }
+
+    // the longest increasing subsequence of pairs1: tails[l] is the pair ending the best subsequence of length l + 1
+    int[] tails = new int[pairCount];
+    int[] previous = new int[pairCount];
+    int length = 0;
+    for (int p = 0; p < pairCount; p++) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (pairs1[tails[middle]] < pairs1[p]) low = middle + 1;
+        else high = middle;
+      }
+      previous[p] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = p;
+      if (low == length) length++;
+    }
+
+    int[][] result = new int[][]{new int[length], new int[length]};
+    int p = length > 0 ? tails[length - 1] : -1;
+    for (int i = length - 1; i >= 0; i--) {
+      result[0][i] = pairs1[p];
+      result[1][i] = pairs2[p];
+      p = previous[p];
+    }
+    return result;
+  }
+}
@@ -2,13 +2,39 @@ package com.intellij.util.io;
 
 import com.intellij.openapi.diagnostic.Logger;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 class IOStatistics {
   static final boolean DEBUG = System.getProperty("io.access.debug") != null;
   static final int MIN_IO_TIME_TO_REPORT = 100;
   static final Logger LOG = Logger.getInstance("#com.intellij.io.IOStatistics");
   static final int KEYS_FACTOR = 50000;
 
+  private static final AtomicLong ourCompactedBytes = new AtomicLong();
+  private static final AtomicLong ourReclaimedBytes = new AtomicLong();
+
   static void dump(String msg) {
     LOG.info(msg);
   }
+
+  static void compactionProgress(String path, int processedKeys, int totalKeys) {
+    if (DEBUG) {
+      dump("Compacting " + path + ": " + processedKeys + " of " + totalKeys + " keys copied");
+    }
+  }
+
+  static void compactionFinished(String path, long oldSize, long newSize, long time) {
+    ourCompactedBytes.addAndGet(oldSize);
+    ourReclaimedBytes.addAndGet(oldSize - newSize);
+    dump("Compacted " + path + " in " + time + "ms: " + oldSize + " -> " + newSize + " bytes; " +
+         ourReclaimedBytes.get() + " of " + ourCompactedBytes.get() + " compacted bytes reclaimed since start");
+  }
+
+  static long getCompactedBytes() {
+    return ourCompactedBytes.get();
+  }
+
+  static long getReclaimedBytes() {
+    return ourReclaimedBytes.get();
+  }
 }
@@ -18,7 +18,7 @@ package com.intellij.util.io;
 import com.intellij.openapi.Forceable;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.SystemInfo;
-import com.intellij.util.containers.hash.LinkedHashMap;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,11 +28,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
 
 /**
  * @author max
@@ -69,20 +67,18 @@ public class PagedFileStorage implements Forceable {
   }
 
   private final StorageLock myLock;
+  private final TIntObjectHashMap<MappedPage> myMappedPages = new TIntObjectHashMap<MappedPage>();
   private int myLastPage = UNKNOWN_PAGE;
   private int myLastPage2 = UNKNOWN_PAGE;
-  private ByteBufferWrapper myLastBuffer;
-  private ByteBufferWrapper myLastBuffer2;
-  private int myLastChangeCount;
-  private int myLastChangeCount2;
-  private int myStorageIndex;
+  private MappedPage myLastMappedPage;
+  private MappedPage myLastMappedPage2;
+  private long myPageHits;
+  private long myPageMisses;
+  private long myPageEvictions;
 
   private static final int MAX_PAGES_COUNT = 0xFFFF;
-  private static final int MAX_LIVE_STORAGES_COUNT = 0xFFFF;
 
   public static class StorageLock {
-    private static final int FILE_INDEX_MASK = 0xFFFF0000;
-    private static final int FILE_INDEX_SHIFT = 16;
     private final boolean checkThreadAccess;
 
     public StorageLock() {
@@ -94,60 +90,33 @@ public class PagedFileStorage implements Forceable {
     }
 
     private final BuffersCache myBuffersCache = new BuffersCache();
-    private final ConcurrentHashMap<Integer, PagedFileStorage> myIndex2Storage = new ConcurrentHashMap<Integer, PagedFileStorage>();
-    
-    private int registerPagedFileStorage(PagedFileStorage storage) {
-      int registered = myIndex2Storage.size();
-      assert registered <= MAX_LIVE_STORAGES_COUNT;
-      int value = registered << FILE_INDEX_SHIFT;
-      while(myIndex2Storage.putIfAbsent(value, storage) != null) {
-        ++registered;
-        assert registered <= MAX_LIVE_STORAGES_COUNT;
-        value = registered << FILE_INDEX_SHIFT;
-      }
-      return value;
-    }
-    
-    private PagedFileStorage getRegisteredPagedFileStorageByIndex(int index) {
-      return myIndex2Storage.get(index);
-    }
 
+    /**
+     * Pages mapped by all the storages guarded by the lock. Every storage keeps its own page table, so lookups, flushing and
+     * unmapping of a storage don't touch pages of the other ones. Pages are evicted with the clock (second chance) algorithm
+     * to keep the total size of mapped pages within the limit.
+     */
     private class BuffersCache {
-      private int changeCount;
-      private final LinkedHashMap<Integer, ByteBufferWrapper> myMap;
+      private final ArrayDeque<MappedPage> myClock = new ArrayDeque<MappedPage>();
+      private int myReleasedPagesInClock;
       private long mySizeLimit;
       private long mySize;
 
       private BuffersCache() {
         mySizeLimit = UPPER_LIMIT;
-        myMap = new LinkedHashMap<Integer, ByteBufferWrapper>(10) {
-          @Override
-          protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-            return mySize > mySizeLimit;
-          }
-
-          @Nullable
-          @Override
-          public ByteBufferWrapper remove(Object key) {
-            // this method can be called after removeEldestEntry
-            ByteBufferWrapper wrapper = super.remove(key);
-            if (wrapper != null) {
-              mySize -= wrapper.myLength;
-              wrapper.dispose();
-            }
-            return wrapper;
-          }
-        };
       }
 
-      private ByteBufferWrapper get(Integer key) {
-        ByteBufferWrapper wrapper = myMap.get(key);
-        if (wrapper != null) {
-          return wrapper;
+      @NotNull
+      private MappedPage get(@NotNull PagedFileStorage owner, int page) {
+        MappedPage mappedPage = owner.myMappedPages.get(page);
+        if (mappedPage != null) {
+          mappedPage.myReferenced = true;
+          owner.myPageHits++;
+          return mappedPage;
         }
 
         long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
-        wrapper = createValue(key);
+        ByteBufferWrapper wrapper = createValue(owner, page);
         mySize += wrapper.myLength;
 
         if (IOStatistics.DEBUG) {
@@ -157,30 +126,58 @@ public class PagedFileStorage implements Forceable {
               "Mapping " + wrapper.myLength + " from " + wrapper.myPosition + " file:" + wrapper.myFile + " for " + (finished - started));
           }
         }
-        myMap.put(key, wrapper);
+        mappedPage = new MappedPage(owner, page, wrapper);
+        owner.myMappedPages.put(page, mappedPage);
+        myClock.addLast(mappedPage);
 
-        ensureSize(mySizeLimit);
-        return wrapper;
+        ensureSize(mySizeLimit, mappedPage);
+        return mappedPage;
       }
 
-      private void ensureSize(long sizeLimit) {
+      private void ensureSize(long sizeLimit, @Nullable MappedPage pageToKeep) {
         while (mySize > sizeLimit) {
           // we still have to drop something
-          myMap.doRemoveEldestEntry();
+          if (!evictPage(pageToKeep)) break;
         }
       }
 
+      private boolean evictPage(@Nullable MappedPage pageToKeep) {
+        // every page is moved to the tail at most once before the first unreferenced one is met
+        int attempts = 2 * myClock.size();
+        while (attempts-- > 0) {
+          MappedPage page = myClock.pollFirst();
+          if (page == null) return false;
+          if (page.myReleased) {
+            myReleasedPagesInClock--;
+            continue;
+          }
+          if (page.myReferenced || page == pageToKeep) {
+            page.myReferenced = false;
+            myClock.addLast(page);
+            continue;
+          }
+          release(page);
+          page.myOwner.myPageEvictions++;
+          return true;
+        }
+        return false;
+      }
+
+      private void release(@NotNull MappedPage page) {
+        page.myReleased = true;
+        page.myOwner.myMappedPages.remove(page.myPage);
+        mySize -= page.myWrapper.myLength;
+        page.myWrapper.dispose();
+      }
+
       @NotNull
-      private ByteBufferWrapper createValue(Integer key) {
+      private ByteBufferWrapper createValue(@NotNull PagedFileStorage owner, int page) {
         checkThreadAccess();
-        final int storageIndex = key & FILE_INDEX_MASK;
-        PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(storageIndex);
-        assert owner != null: "No storage for index " + storageIndex;
-        int off = (key & MAX_PAGES_COUNT) * owner.myPageSize;
+        owner.myPageMisses++;
+        int off = page * owner.myPageSize;
         if (off > owner.length()) {
           throw new IndexOutOfBoundsException("off=" + off + " key.owner.length()=" + owner.length());
         }
-        ++changeCount;
         ByteBufferWrapper wrapper = ByteBufferWrapper.readWrite(owner.myFile, off, Math.min((int)(owner.length() - off), owner.myPageSize));
         IOException oome = null;
         while (true) {
@@ -202,7 +199,7 @@ public class PagedFileStorage implements Forceable {
               }
               long newSize = mySize - owner.myPageSize;
               if (newSize >= 0) {
-                ensureSize(newSize);
+                ensureSize(newSize, null);
                 continue; // next try
               }
               else {
@@ -223,47 +220,57 @@ public class PagedFileStorage implements Forceable {
         }
       }
 
-      private @Nullable Map<Integer, ByteBufferWrapper> getBuffersOrderedForOwner(int index) {
+      @NotNull
+      private MappedPage[] getPagesOrderedForOwner(@NotNull PagedFileStorage owner) {
         checkThreadAccess();
-        Map<Integer, ByteBufferWrapper> mineBuffers = null;
-        for (Map.Entry<Integer, ByteBufferWrapper> entry : myMap.entrySet()) {
-          if ((entry.getKey() & FILE_INDEX_MASK) == index) {
-            if (mineBuffers == null) {
-              mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
-                @Override
-                public int compare(Integer o1, Integer o2) {
-                  return o1 - o2;
-                }
-              });
-            }
-            mineBuffers.put(entry.getKey(), entry.getValue());
-          }
+        int[] pages = owner.myMappedPages.keys();
+        Arrays.sort(pages);
+        MappedPage[] result = new MappedPage[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+          result[i] = owner.myMappedPages.get(pages[i]);
         }
-        return mineBuffers;
+        return result;
       }
 
-      private void unmapBuffersForOwner(int index) {
-        final Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index);
+      private void unmapBuffersForOwner(@NotNull PagedFileStorage owner) {
+        for (MappedPage page : getPagesOrderedForOwner(owner)) {
+          release(page);
+          myReleasedPagesInClock++;
+        }
 
-        if (buffers != null) {
-          for (Integer key : buffers.keySet()) {
-            myMap.remove(key);
+        if (myReleasedPagesInClock > myClock.size() / 2) {
+          // don't let pages of closed storages pile up in the clock until they are reached
+          for (Iterator<MappedPage> iterator = myClock.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().myReleased) {
+              iterator.remove();
+            }
           }
+          myReleasedPagesInClock = 0;
         }
       }
 
-      private void flushBuffersForOwner(int index) {
-        Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index);
-
-        if (buffers != null) {
-          for(ByteBufferWrapper buffer:buffers.values()) {
-            buffer.flush();
-          }
+      private void flushBuffersForOwner(@NotNull PagedFileStorage owner) {
+        for (MappedPage page : getPagesOrderedForOwner(owner)) {
+          page.myWrapper.flush();
         }
       }
     }
   }
 
+  private static class MappedPage {
+    private final PagedFileStorage myOwner;
+    private final int myPage;
+    private final ByteBufferWrapper myWrapper;
+    private boolean myReferenced = true;
+    private boolean myReleased;
+
+    private MappedPage(@NotNull PagedFileStorage owner, int page, @NotNull ByteBufferWrapper wrapper) {
+      myOwner = owner;
+      myPage = page;
+      myWrapper = wrapper;
+    }
+  }
+
   private final byte[] myTypedIOBuffer;
   private boolean isDirty = false;
   private final File myFile;
@@ -277,7 +284,6 @@ public class PagedFileStorage implements Forceable {
     myLock = lock;
     myPageSize = Math.max(pageSize > 0 ? pageSize : BUFFER_SIZE, Page.PAGE_SIZE);
     myValuesAreBufferAligned = valuesAreBufferAligned;
-    myStorageIndex = lock.registerPagedFileStorage(this);
     myTypedIOBuffer = valuesAreBufferAligned ? null:new byte[8];
   }
 
@@ -451,18 +457,19 @@ public class PagedFileStorage implements Forceable {
     }
     finally {
       unmapAll();
-      myLock.myIndex2Storage.remove(myStorageIndex);
-      myStorageIndex = -1;
+      if (IOStatistics.DEBUG) {
+        IOStatistics.dump("Closed " + myFile + ": page hits " + myPageHits + ", misses " + myPageMisses + ", evictions " + myPageEvictions);
+      }
     }
   }
 
   private void unmapAll() {
-    myLock.myBuffersCache.unmapBuffersForOwner(myStorageIndex);
+    myLock.myBuffersCache.unmapBuffersForOwner(this);
 
     myLastPage = UNKNOWN_PAGE;
     myLastPage2 = UNKNOWN_PAGE;
-    myLastBuffer = null;
-    myLastBuffer2 = null;
+    myLastMappedPage = null;
+    myLastMappedPage2 = null;
   }
 
   public void resize(int newSize) throws IOException {
@@ -522,36 +529,38 @@ public class PagedFileStorage implements Forceable {
 
   private ByteBuffer getBuffer(int page) {
     if (myLastPage == page) {
-      ByteBuffer buf = myLastBuffer.getCachedBuffer();
-      if (buf != null && myLastChangeCount == myLock.myBuffersCache.changeCount) return buf;
+      ByteBuffer buf = myLastMappedPage.myWrapper.getCachedBuffer();
+      if (buf != null && !myLastMappedPage.myReleased) {
+        myLastMappedPage.myReferenced = true;
+        myPageHits++;
+        return buf;
+      }
     }
 
     if (myLastPage2 == page) {
-      ByteBuffer buf = myLastBuffer2.getCachedBuffer();
-      if (buf != null && myLastChangeCount2 == myLock.myBuffersCache.changeCount) return buf;
+      ByteBuffer buf = myLastMappedPage2.myWrapper.getCachedBuffer();
+      if (buf != null && !myLastMappedPage2.myReleased) {
+        myLastMappedPage2.myReferenced = true;
+        myPageHits++;
+        return buf;
+      }
     }
 
     try {
       assert page <= MAX_PAGES_COUNT;
 
-      if (myStorageIndex == -1) {
-        myStorageIndex = myLock.registerPagedFileStorage(this);
-      }
-      ByteBufferWrapper byteBufferWrapper = myLock.myBuffersCache.get(myStorageIndex | page);
-      ByteBuffer buf = byteBufferWrapper.getBuffer();
+      MappedPage mappedPage = myLock.myBuffersCache.get(this, page);
+      ByteBuffer buf = mappedPage.myWrapper.getBuffer();
 
       if (myLastPage != page) {
         myLastPage2 = myLastPage;
-        myLastBuffer2 = myLastBuffer;
-        myLastChangeCount2 = myLastChangeCount;
-        myLastBuffer = byteBufferWrapper;
+        myLastMappedPage2 = myLastMappedPage;
+        myLastMappedPage = mappedPage;
         myLastPage = page;
       } else {
-        myLastBuffer = byteBufferWrapper;
+        myLastMappedPage = mappedPage;
       }
 
-      myLastChangeCount = myLock.myBuffersCache.changeCount;
-
       return buf;
     }
     catch (IOException e) {
@@ -559,9 +568,21 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
+  public long getPageHits() {
+    return myPageHits;
+  }
+
+  public long getPageMisses() {
+    return myPageMisses;
+  }
+
+  public long getPageEvictions() {
+    return myPageEvictions;
+  }
+
   public void force() {
     long started = IOStatistics.DEBUG ? System.currentTimeMillis():0;
-    myLock.myBuffersCache.flushBuffersForOwner(myStorageIndex);
+    myLock.myBuffersCache.flushBuffersForOwner(this);
 
     isDirty = false;
     if (IOStatistics.DEBUG) {
@@ -177,37 +177,8 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
   public boolean traverseAllRecords(@NotNull RecordsProcessor p) throws IOException {
     try {
       synchronized (ourLock) {
-
-        List<IntToIntBtree.BtreeIndexNodeView> leafPages = new ArrayList<IntToIntBtree.BtreeIndexNodeView> ();
-        btree.doFlush();
-        btree.root.syncWithStore();
-        collectLeafPages(btree.root, leafPages);
-        Collections.sort(leafPages, new Comparator<IntToIntBtree.BtreeIndexNodeView>() {
-          @Override
-          public int compare(@NotNull IntToIntBtree.BtreeIndexNodeView o1, @NotNull IntToIntBtree.BtreeIndexNodeView o2) {
-            return o1.address - o2.address;
-          }
-        });
-
-        out:
-        for(IntToIntBtree.BtreeIndexNodeView page:leafPages) {
-          for(int key:page.exportKeys()) {
-            boolean hasMapping = btree.get(key, myResultBuf);
-            p.setCurrentKey(key);
-            assert hasMapping;
-            int record = myResultBuf[0];
-
-            if (record > 0) {
-              if (!p.process(record)) return false;
-            } else {
-              int rec = - record;
-              while(rec != 0) {
-                int id = myStorage.getInt(rec);
-                if (!p.process(id)) return false;
-                rec = myStorage.getInt(rec + COLLISION_OFFSET);
-              }
-            }
-          }
+        for(IntToIntBtree.BtreeIndexNodeView page:collectSortedLeafPages()) {
+          if (!traversePage(page, p)) return false;
         }
         return true;
       }
@@ -219,6 +190,62 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
     }
   }
 
+  // the position is the address of the leaf page to continue from: when a page is split, the new page is appended after the existing ones
+  @Override
+  public int traverseRecords(int position, long deadline, @NotNull RecordsProcessor p) throws IOException {
+    try {
+      synchronized (ourLock) {
+        for(IntToIntBtree.BtreeIndexNodeView page:collectSortedLeafPages()) {
+          if (page.address < position) continue;
+          if (!traversePage(page, p)) return -1;
+          if (System.currentTimeMillis() > deadline) return page.address + 1;
+        }
+        return -1;
+      }
+    }
+    catch (IllegalStateException e) {
+      CorruptedException corruptedException = new CorruptedException(myFile);
+      corruptedException.initCause(e);
+      throw corruptedException;
+    }
+  }
+
+  @NotNull
+  private List<IntToIntBtree.BtreeIndexNodeView> collectSortedLeafPages() {
+    List<IntToIntBtree.BtreeIndexNodeView> leafPages = new ArrayList<IntToIntBtree.BtreeIndexNodeView> ();
+    btree.doFlush();
+    btree.root.syncWithStore();
+    collectLeafPages(btree.root, leafPages);
+    Collections.sort(leafPages, new Comparator<IntToIntBtree.BtreeIndexNodeView>() {
+      @Override
+      public int compare(@NotNull IntToIntBtree.BtreeIndexNodeView o1, @NotNull IntToIntBtree.BtreeIndexNodeView o2) {
+        return o1.address - o2.address;
+      }
+    });
+    return leafPages;
+  }
+
+  private boolean traversePage(@NotNull IntToIntBtree.BtreeIndexNodeView page, @NotNull RecordsProcessor p) throws IOException {
+    for(int key:page.exportKeys()) {
+      boolean hasMapping = btree.get(key, myResultBuf);
+      p.setCurrentKey(key);
+      assert hasMapping;
+      int record = myResultBuf[0];
+
+      if (record > 0) {
+        if (!p.process(record)) return false;
+      } else {
+        int rec = - record;
+        while(rec != 0) {
+          int id = myStorage.getInt(rec);
+          if (!p.process(id)) return false;
+          rec = myStorage.getInt(rec + COLLISION_OFFSET);
+        }
+      }
+    }
+    return true;
+  }
+
   private void collectLeafPages(@NotNull IntToIntBtree.BtreeIndexNodeView node, @NotNull List<IntToIntBtree.BtreeIndexNodeView> leafPages) {
     if (node.isIndexLeaf()) {
       leafPages.add(node);
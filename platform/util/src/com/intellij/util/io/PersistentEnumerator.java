@@ -61,6 +61,18 @@ public class PersistentEnumerator<Data> extends PersistentEnumeratorBase<Data> {
     return traverseRecords(FIRST_VECTOR_OFFSET, SLOTS_PER_FIRST_VECTOR, p);
   }
 
+  // the position is the slot of the first vector to continue from: the records never move to other slots
+  @Override
+  public synchronized int traverseRecords(int position, long deadline, @NotNull RecordsProcessor p) throws IOException {
+    synchronized (ourLock) {
+      for (int slotIdx = position; slotIdx < SLOTS_PER_FIRST_VECTOR; slotIdx++) {
+        if (!traverseRecords(FIRST_VECTOR_OFFSET + slotIdx * 4, 1, p)) return -1;
+        if (System.currentTimeMillis() > deadline && slotIdx + 1 < SLOTS_PER_FIRST_VECTOR) return slotIdx + 1;
+      }
+      return -1;
+    }
+  }
+
   private boolean traverseRecords(int vectorStart, int slotsCount, @NotNull RecordsProcessor p) throws IOException {
     synchronized (ourLock) {
       for (int slotIdx = 0; slotIdx < slotsCount; slotIdx++) {
@@ -333,6 +333,13 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
 
   public abstract boolean traverseAllRecords(RecordsProcessor p) throws IOException;
 
+  /**
+   * Traverses the records in portions starting from the given position until the deadline passes, so a caller can release its locks
+   * between the calls. The records existing during the whole traversal are processed at least once, the ones added meanwhile may be skipped.
+   * @return the position to continue the traversal from, or -1 if all the records have been traversed or the processor stopped it
+   */
+  public abstract int traverseRecords(int position, long deadline, RecordsProcessor p) throws IOException;
+
   protected abstract int enumerateImpl(final Data value, final boolean onlyCheckForExisting, boolean saveNewValue) throws IOException;
 
   protected int writeData(final Data value, int hashCode) {
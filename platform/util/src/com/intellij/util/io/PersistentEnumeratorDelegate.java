@@ -72,6 +72,10 @@ public class PersistentEnumeratorDelegate<Data> implements Closeable, Forceable
     return myEnumerator.traverseAllRecords(recordsProcessor);
   }
 
+  public int traverseRecords(int position, long deadline, PersistentEnumeratorBase.RecordsProcessor recordsProcessor) throws IOException {
+    return myEnumerator.traverseRecords(position, deadline, recordsProcessor);
+  }
+
   public Collection<Data> getAllDataObjects(@Nullable final PersistentEnumeratorBase.DataFilter filter) throws IOException {
     return myEnumerator.getAllDataObjects(filter);
   }
@@ -22,17 +22,22 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * @author Eugene Zhuravlev
@@ -64,6 +69,13 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = false;
 
+  private static final boolean BACKGROUND_COMPACTION = !"false".equals(System.getProperty("idea.persistent.map.background.compaction"));
+  private static final int COMPACTION_SLICE_MS = 20;
+  private static final ThreadPoolExecutor ourCompactionExecutor =
+    ConcurrencyUtil.newSingleThreadExecutor("PersistentHashMap compaction", Thread.MIN_PRIORITY);
+  @Nullable private IncrementalCompaction myCompaction; // guarded by myEnumerator
+  private boolean myCompactionScheduled; // guarded by myEnumerator
+
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
       super(new BufferExposingByteArrayOutputStream());
@@ -186,7 +198,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (BACKGROUND_COMPACTION) {
+          scheduleCompaction();
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -308,6 +325,201 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     appender.append(stream);
   }
 
+  /**
+   * Starts a batch of updates which are buffered in memory until {@link WriteBatch#flush()} is called.
+   */
+  @NotNull
+  public final WriteBatch startBatch() {
+    return new WriteBatch(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Starts a batch of updates which is flushed automatically each time its buffered values take more than maxBufferedBytes.
+   */
+  @NotNull
+  public final WriteBatch startBatch(int maxBufferedBytes) {
+    return new WriteBatch(maxBufferedBytes);
+  }
+
+  /**
+   * Collects updates of the map in memory and writes them all under a single acquisition of the map lock, so other
+   * users of the map see either none or all of the flushed updates. Values are serialized when they are added to the batch,
+   * outside the lock, and all updates of a key are merged into one value record. The value records of the whole batch are appended
+   * to the value storage sequentially, see {@link #doFlushBatch}.
+   * Updates are not visible through the map until the batch is flushed. The batch itself is not thread-safe.
+   */
+  public final class WriteBatch {
+    private final Map<Key, BatchRecord<Key>> myRecords = new LinkedHashMap<Key, BatchRecord<Key>>();
+    private final int myMaxBufferedBytes;
+    private int myBufferedBytes;
+
+    private WriteBatch(int maxBufferedBytes) {
+      myMaxBufferedBytes = maxBufferedBytes;
+    }
+
+    public void put(Key key, Value value) throws IOException {
+      final BatchRecord<Key> record = startUpdate(key);
+      record.reset(BatchRecord.REPLACE);
+      myValueExternalizer.save(record.myStream, value);
+      finishUpdate(record);
+    }
+
+    public void appendData(Key key, @NotNull ValueDataAppender appender) throws IOException {
+      final BatchRecord<Key> record = startUpdate(key);
+      if (record.myKind == BatchRecord.REMOVE) {
+        record.myKind = BatchRecord.REPLACE;
+      }
+      appender.append(record.myStream);
+      finishUpdate(record);
+    }
+
+    public void remove(Key key) throws IOException {
+      final BatchRecord<Key> record = startUpdate(key);
+      record.reset(BatchRecord.REMOVE);
+      finishUpdate(record);
+    }
+
+    @NotNull
+    public Collection<Key> getKeys() {
+      return Collections.unmodifiableSet(myRecords.keySet());
+    }
+
+    public boolean isEmpty() {
+      return myRecords.isEmpty();
+    }
+
+    public void flush() throws IOException {
+      if (myRecords.isEmpty()) {
+        return;
+      }
+      synchronized (myEnumerator) {
+        doFlushBatch(this);
+      }
+      myRecords.clear();
+      myBufferedBytes = 0;
+    }
+
+    @NotNull
+    private BatchRecord<Key> startUpdate(Key key) {
+      BatchRecord<Key> record = myRecords.get(key);
+      if (record == null) {
+        record = new BatchRecord<Key>(key);
+        myRecords.put(key, record);
+      }
+      else {
+        myBufferedBytes -= record.size();
+      }
+      return record;
+    }
+
+    private void finishUpdate(@NotNull BatchRecord<Key> record) throws IOException {
+      myBufferedBytes += record.size();
+      if (myBufferedBytes > myMaxBufferedBytes) {
+        flush();
+      }
+    }
+  }
+
+  private static class BatchRecord<Key> {
+    private static final byte APPEND = 0;
+    private static final byte REPLACE = 1;
+    private static final byte REMOVE = 2;
+
+    private final Key myKey;
+    private final AppendStream myStream = new AppendStream();
+    private byte myKind = APPEND;
+    private int myKeyId;
+    private long myOldHeader;
+    private long myNewHeader;
+
+    private BatchRecord(Key key) {
+      myKey = key;
+    }
+
+    private void reset(byte kind) {
+      myStream.reset();
+      myKind = kind;
+    }
+
+    private int size() {
+      return myStream.getInternalBuffer().size();
+    }
+  }
+
+  private static final Comparator<BatchRecord> BATCH_RECORDS_ORDER = new Comparator<BatchRecord>() {
+    @Override
+    public int compare(BatchRecord r1, BatchRecord r2) {
+      return r1.myKeyId < r2.myKeyId ? -1 : r1.myKeyId == r2.myKeyId ? 0 : 1;
+    }
+  };
+
+  /**
+   * Writes the batch in three passes: the keys are enumerated and their current value records are looked up, then all the new
+   * value records are appended to the value storage in one sequential write, and finally the key index is updated in key id order.
+   */
+  protected void doFlushBatch(@NotNull WriteBatch batch) throws IOException {
+    synchronized (PersistentEnumerator.ourLock) {
+      myEnumerator.markDirty(true);
+
+      final List<BatchRecord<Key>> removed = new ArrayList<BatchRecord<Key>>();
+      final List<BatchRecord<Key>> written = new ArrayList<BatchRecord<Key>>();
+      long writtenBytes = 0;
+      for (BatchRecord<Key> record : batch.myRecords.values()) {
+        myAppendCache.remove(record.myKey); // pending appends of the key go to the storage before the batch ones
+        if (record.myKind == BatchRecord.REMOVE) {
+          removed.add(record);
+        }
+        else {
+          written.add(record);
+          writtenBytes += record.size() + 12;
+        }
+      }
+
+      // new keys get the short address record only if the values appended below still fit into it
+      final boolean intAddressForNewRecord = canUseIntAddressForNewRecord(myValueStorage.getSize() + writtenBytes);
+      for (BatchRecord<Key> record : removed) {
+        record.myKeyId = tryEnumerate(record.myKey);
+      }
+      final List<ByteSequence> chunks = new ArrayList<ByteSequence>(written.size());
+      final long[] prevChunks = new long[written.size()];
+      for (int i = 0; i < written.size(); i++) {
+        final BatchRecord<Key> record = written.get(i);
+        myIntAddressForNewRecord = intAddressForNewRecord;
+        record.myKeyId = super.enumerate(record.myKey);
+        record.myOldHeader = readValueId(record.myKeyId);
+        final BufferExposingByteArrayOutputStream bytes = record.myStream.getInternalBuffer();
+        chunks.add(new ByteSequence(bytes.getInternalBuffer(), 0, bytes.size()));
+        prevChunks[i] = record.myKind == BatchRecord.REPLACE ? NULL_ADDR : record.myOldHeader;
+      }
+
+      final long[] headers = myValueStorage.appendBytes(chunks, prevChunks);
+      for (int i = 0; i < written.size(); i++) {
+        written.get(i).myNewHeader = headers[i];
+      }
+
+      final List<BatchRecord<Key>> updated = new ArrayList<BatchRecord<Key>>(written);
+      for (BatchRecord<Key> record : removed) {
+        if (record.myKeyId != PersistentEnumerator.NULL_ID) {
+          record.myOldHeader = readValueId(record.myKeyId);
+          record.myNewHeader = NULL_ADDR;
+          updated.add(record);
+        }
+      }
+      Collections.sort(updated, BATCH_RECORDS_ORDER);
+      for (BatchRecord<Key> record : updated) {
+        if (record.myOldHeader == NULL_ADDR) {
+          if (record.myNewHeader != NULL_ADDR) {
+            myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+          }
+        }
+        else if (record.myKind != BatchRecord.APPEND) {
+          myLiveAndGarbageKeysCounter++;
+        }
+        updateValueId(record.myKeyId, record.myNewHeader, record.myOldHeader, record.myKey, 0);
+      }
+    }
+  }
+
   /**
    * Process all keys registered in the map. Note that keys which were removed after {@link #compact()} call will be processed as well. Use
    * {@link #processKeysWithExistingMapping(com.intellij.util.Processor)} to process only keys with existing mappings
@@ -441,6 +653,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         super.force();
       }
     }
+    if (BACKGROUND_COMPACTION && makesSenseToCompact()) {
+      scheduleCompaction();
+    }
   }
 
   private void clearAppenderCaches() {
@@ -459,6 +674,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     synchronized (PersistentEnumerator.ourLock) {
       try {
         myAppendCacheFlusher.stop();
+        cancelIncrementalCompaction();
         myAppendCache.clear();
         myValueStorage.dispose();
       }
@@ -471,8 +687,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   // made public for tests
   public void compact() throws IOException {
     synchronized (myEnumerator) {
+      cancelIncrementalCompaction();
       final long now = System.currentTimeMillis();
-      final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
+      final String newPath = getCompactedDataFilePath();
+      FileUtil.delete(new File(newPath));
       final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
       myValueStorage.switchToCompactionMode();
       myLiveAndGarbageKeysCounter = 0;
@@ -491,15 +709,220 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         }
       });
 
-      myValueStorage.dispose();
-      newStorage.dispose();
+      replaceValueStorage(newPath, newStorage, now);
+    }
+  }
 
-      FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+  /**
+   * Compacts the values file in slices of {@link #COMPACTION_SLICE_MS}, releasing the map lock between them, so the map stays
+   * readable and writable meanwhile. The keys with values are collected and their records are copied to a new file first; then, in one
+   * final slice, the records which were changed after they were copied (or appeared after the copying started) are copied again
+   * and the files are switched.
+   * The compaction is abandoned when the map is closed or compacted synchronously.
+   */
+  // made public for tests
+  public void compactIncrementally() throws IOException {
+    final IncrementalCompaction compaction;
+    synchronized (myEnumerator) {
+      if (myCompaction != null || myEnumerator.isClosed()) {
+        return;
+      }
+      compaction = myCompaction = new IncrementalCompaction();
+    }
 
-      myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + " in " + (System.currentTimeMillis() - now) + "ms.");
+    while (true) {
+      synchronized (myEnumerator) {
+        if (myCompaction != compaction) {
+          return;
+        }
+        try {
+          if (compaction.copySlice(System.currentTimeMillis() + COMPACTION_SLICE_MS)) {
+            compaction.finish();
+            return;
+          }
+        }
+        catch (IOException e) {
+          if (myCompaction == compaction) {
+            cancelIncrementalCompaction();
+          }
+          else {
+            myEnumerator.markDirty(true); // failed while switching the files, the map is not consistent anymore
+          }
+          throw e;
+        }
+      }
+      compaction.reportProgress();
+      Thread.yield();
+    }
+  }
 
-      myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  private void scheduleCompaction() {
+    synchronized (myEnumerator) {
+      if (myCompactionScheduled || myCompaction != null) {
+        return;
+      }
+      myCompactionScheduled = true;
+    }
+    ourCompactionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compactIncrementally();
+        }
+        catch (IOException e) {
+          LOG.info("Compaction of " + myEnumerator.myFile.getPath() + " failed", e);
+        }
+        finally {
+          synchronized (myEnumerator) {
+            myCompactionScheduled = false;
+          }
+        }
+      }
+    });
+  }
+
+  private void cancelIncrementalCompaction() {
+    final IncrementalCompaction compaction = myCompaction;
+    if (compaction != null) {
+      myCompaction = null;
+      compaction.cancel();
+    }
+  }
+
+  @NotNull
+  private String getCompactedDataFilePath() {
+    return getDataFile(myEnumerator.myFile).getPath() + ".new";
+  }
+
+  private void replaceValueStorage(@NotNull String newPath, @NotNull PersistentHashMapValueStorage newStorage, long started) throws IOException {
+    final long oldSize = myValueStorage.getSize();
+    final long newSize = newStorage.getSize();
+    myValueStorage.dispose();
+    newStorage.dispose();
+
+    FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+
+    myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
+    IOStatistics.compactionFinished(myEnumerator.myFile.getPath(), oldSize, newSize, System.currentTimeMillis() - started);
+
+    myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  }
+
+  private class IncrementalCompaction {
+    private final long myStarted = System.currentTimeMillis();
+    private final String myNewPath = getCompactedDataFilePath();
+    private final PersistentHashMapValueStorage myNewStorage;
+    // the key ids are collected in slices too, starting from this enumerator position; -1 when all of them are collected
+    private int myScanPosition;
+    private final TIntArrayList myKeyIds = new TIntArrayList();
+    private final TIntArrayList myProcessingKeys = new TIntArrayList();
+    private int myPosition;
+    // copied key id -> (index of its record + 1) in the lists below
+    private final TIntIntHashMap myCopiedKeys = new TIntIntHashMap();
+    private final TLongArrayList myCopiedRecords = new TLongArrayList();
+    private final TLongArrayList myNewRecords = new TLongArrayList();
+    // the keys whose values were written after the compaction had started, and the ids abandoned by their re-enumeration
+    private final TIntObjectHashMap<Key> myChangedKeys = new TIntObjectHashMap<Key>();
+    private final TIntHashSet myRemovedKeyIds = new TIntHashSet();
+
+    private IncrementalCompaction() throws IOException {
+      FileUtil.delete(new File(myNewPath));
+      myNewStorage = PersistentHashMapValueStorage.create(myNewPath);
+    }
+
+    /**
+     * @return true if all the records have been copied
+     */
+    private boolean copySlice(long deadline) throws IOException {
+      if (myScanPosition >= 0) {
+        myScanPosition = myEnumerator.traverseRecords(myScanPosition, deadline, new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            if (readValueId(keyId) != NULL_ADDR) {
+              myKeyIds.add(keyId);
+              myProcessingKeys.add(getCurrentKey());
+            }
+            return true;
+          }
+        });
+        if (myScanPosition >= 0) {
+          return false;
+        }
+      }
+      while (myPosition < myKeyIds.size()) {
+        final int keyId = myKeyIds.get(myPosition++);
+        final long record = readValueId(keyId);
+        if (record != NULL_ADDR) {
+          myCopiedRecords.add(record);
+          myNewRecords.add(copyRecord(record));
+          myCopiedKeys.put(keyId, myCopiedRecords.size());
+        }
+        if (System.currentTimeMillis() > deadline) {
+          break;
+        }
+      }
+      return myPosition >= myKeyIds.size();
+    }
+
+    private long copyRecord(long record) throws IOException {
+      final byte[] bytes = myValueStorage.readBytesWithoutMerging(record);
+      return myNewStorage.appendBytes(bytes, 0, bytes.length, 0);
+    }
+
+    private void valueChanged(int oldKeyId, int keyId, @Nullable Key key) {
+      if (oldKeyId != keyId) {
+        myChangedKeys.remove(oldKeyId);
+        myRemovedKeyIds.add(oldKeyId);
+      }
+      myChangedKeys.put(keyId, key);
+      myRemovedKeyIds.remove(keyId);
+    }
+
+    /**
+     * Switches the map to the new values file: the collected keys and the keys changed since the compaction had started are all the keys
+     * of the map, so the enumerator is not traversed again.
+     */
+    private void finish() throws IOException {
+      synchronized (PersistentEnumerator.ourLock) {
+        myAppendCache.clear(); // the values flushed from the cache are tracked as changed
+      }
+      myCompaction = null;
+      myLiveAndGarbageKeysCounter = 0;
+
+      final TIntHashSet processed = new TIntHashSet();
+      for (int i = 0; i < myKeyIds.size(); i++) {
+        final int keyId = myKeyIds.get(i);
+        if (!myChangedKeys.containsKey(keyId) && processed.add(keyId)) {
+          switchRecord(keyId, null, myProcessingKeys.get(i));
+        }
+      }
+      for (int keyId : myChangedKeys.keys()) {
+        switchRecord(keyId, myChangedKeys.get(keyId), 0);
+      }
+
+      replaceValueStorage(myNewPath, myNewStorage, myStarted);
+    }
+
+    private void switchRecord(int keyId, @Nullable Key key, int processingKey) throws IOException {
+      if (myRemovedKeyIds.contains(keyId)) {
+        return;
+      }
+      final long record = readValueId(keyId);
+      if (record != NULL_ADDR) {
+        final int index = myCopiedKeys.get(keyId) - 1;
+        final long value = index >= 0 && myCopiedRecords.get(index) == record ? myNewRecords.get(index) : copyRecord(record);
+        updateValueId(keyId, value, record, key, processingKey);
+        myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+      }
+    }
+
+    private void cancel() {
+      myNewStorage.dispose();
+      FileUtil.delete(new File(myNewPath));
+    }
+
+    private void reportProgress() {
+      IOStatistics.compactionProgress(myEnumerator.myFile.getPath(), myPosition, myKeyIds.size());
     }
   }
 
@@ -525,6 +948,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private int requests;
 
   private int updateValueId(int keyId, long value, long oldValue, @Nullable Key key, int processingKey) throws IOException {
+    final int oldKeyId = keyId;
     final boolean newKey = oldValue == NULL_ADDR;
     if (newKey) ++requests;
     boolean defaultSizeInfo = true;
@@ -560,6 +984,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         assert false:value;
       }
     }
+    if (myCompaction != null) {
+      myCompaction.valueChanged(oldKeyId, keyId, key);
+    }
     return keyId;
   }
 }
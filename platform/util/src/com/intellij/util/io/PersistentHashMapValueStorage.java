@@ -26,6 +26,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class PersistentHashMapValueStorage {
@@ -86,45 +87,90 @@ public class PersistentHashMapValueStorage {
     assert !myCompactionMode;
     long result = mySize;
     final CacheValue<DataOutputStream> appender = ourAppendersCache.get(myPath);
-    int serviceFieldsSizeIncrease;
 
     try {
-      DataOutputStream dataOutputStream = appender.get();
-      ++requests;
-      
-      if (dataLength + POSITIVE_VALUE_SHIFT < 0x80 && prevChunkAddress < Integer.MAX_VALUE) {
-        ++smallWritesCount;
-        smallWrites += dataLength;
-        dataOutputStream.write(-dataLength - POSITIVE_VALUE_SHIFT);
-        dataOutputStream.writeInt((int)prevChunkAddress);
-        serviceFieldsSizeIncrease = BYTE_LENGTH_INT_ADDRESS;
-      } else {
-        ++largeWritesCount;
-        largeWrites += dataLength;
-        dataOutputStream.writeInt(dataLength);
-        dataOutputStream.writeLong(prevChunkAddress);
-        serviceFieldsSizeIncrease = INT_LENGTH_LONG_ADDRESS;
-      }
-      dataOutputStream.write(data, offset, dataLength);
-      if (requests % IOStatistics.KEYS_FACTOR == 0 && IOStatistics.DEBUG) {
-        IOStatistics.dump("Small writes:"+smallWritesCount +", bytes:"+smallWrites + ", largeWrites:"+largeWritesCount
-                          + ", bytes:"+largeWrites+", total:"+requests + "@"+myFile.getPath());
+      mySize += writeChunk(appender.get(), data, offset, dataLength, prevChunkAddress);
+    }
+    finally {
+      appender.release();
+    }
+
+    return result;
+  }
+
+  /**
+   * Appends the chunks one after another through a single acquisition of the appender, so a batch of values is written to the file
+   * sequentially.
+   * @return the addresses of the appended chunks
+   */
+  @NotNull
+  public long[] appendBytes(@NotNull List<ByteSequence> chunks, @NotNull long[] prevChunkAddresses) throws IOException {
+    assert !myCompactionMode;
+    assert chunks.size() == prevChunkAddresses.length;
+    final long[] result = new long[chunks.size()];
+    final CacheValue<DataOutputStream> appender = ourAppendersCache.get(myPath);
+
+    try {
+      final DataOutputStream dataOutputStream = appender.get();
+      for (int i = 0; i < result.length; i++) {
+        final ByteSequence chunk = chunks.get(i);
+        result[i] = mySize;
+        mySize += writeChunk(dataOutputStream, chunk.getBytes(), chunk.getOffset(), chunk.getLength(), prevChunkAddresses[i]);
       }
     }
     finally {
       appender.release();
     }
-    mySize += dataLength + serviceFieldsSizeIncrease;
 
     return result;
   }
 
+  /**
+   * @return the number of bytes written
+   */
+  private int writeChunk(DataOutputStream dataOutputStream, byte[] data, int offset, int dataLength, long prevChunkAddress) throws IOException {
+    int serviceFieldsSizeIncrease;
+    ++requests;
+
+    if (dataLength + POSITIVE_VALUE_SHIFT < 0x80 && prevChunkAddress < Integer.MAX_VALUE) {
+      ++smallWritesCount;
+      smallWrites += dataLength;
+      dataOutputStream.write(-dataLength - POSITIVE_VALUE_SHIFT);
+      dataOutputStream.writeInt((int)prevChunkAddress);
+      serviceFieldsSizeIncrease = BYTE_LENGTH_INT_ADDRESS;
+    } else {
+      ++largeWritesCount;
+      largeWrites += dataLength;
+      dataOutputStream.writeInt(dataLength);
+      dataOutputStream.writeLong(prevChunkAddress);
+      serviceFieldsSizeIncrease = INT_LENGTH_LONG_ADDRESS;
+    }
+    dataOutputStream.write(data, offset, dataLength);
+    if (requests % IOStatistics.KEYS_FACTOR == 0 && IOStatistics.DEBUG) {
+      IOStatistics.dump("Small writes:"+smallWritesCount +", bytes:"+smallWrites + ", largeWrites:"+largeWritesCount
+                        + ", bytes:"+largeWrites+", total:"+requests + "@"+myFile.getPath());
+    }
+    return dataLength + serviceFieldsSizeIncrease;
+  }
+
   private final byte[] myBuffer = new byte[1024];
 
   /**
    * Reads bytes pointed by tailChunkAddress into result passed, returns new address if linked list compactification have been performed
    */
-  public Pair<Long, byte[]> readBytes(long tailChunkAddress) throws IOException {    
+  public Pair<Long, byte[]> readBytes(long tailChunkAddress) throws IOException {
+    return readBytes(tailChunkAddress, !myCompactionMode);
+  }
+
+  /**
+   * Reads bytes pointed by tailChunkAddress without writing them back as a single chunk, the storage isn't modified
+   */
+  @NotNull
+  public byte[] readBytesWithoutMerging(long tailChunkAddress) throws IOException {
+    return readBytes(tailChunkAddress, false).second;
+  }
+
+  private Pair<Long, byte[]> readBytes(long tailChunkAddress, boolean mergeChunks) throws IOException {
     force();
 
     long chunk = tailChunkAddress;
@@ -184,7 +230,7 @@ public class PersistentHashMapValueStorage {
       }
     }
 
-    if (chunkCount > 1 && !myCompactionMode) {
+    if (chunkCount > 1 && mergeChunks) {
       long l = appendBytes(new ByteSequence(result), 0);
       return new Pair<Long, byte[]>(l, result);
     }
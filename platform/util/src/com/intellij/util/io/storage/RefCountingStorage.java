@@ -143,6 +143,31 @@ public class RefCountingStorage extends AbstractStorage {
     }
   }
 
+  /**
+   * Acquires the record only if it is referenced at the moment, so that a deleted (and maybe reused) record is never resurrected.
+   * @return false if there is no such record or nobody references it
+   */
+  public boolean acquireRecordIfReferenced(int record) throws IOException {
+    waitForPendingWriteForRecord(record);
+    synchronized (myLock) {
+      if (record <= 0 || record > myRecordsTable.getRecordsCount()) return false;
+      RefCountingRecordsTable table = (RefCountingRecordsTable)myRecordsTable;
+      if (table.getRefCount(record) <= 0) return false;
+      table.incRefCount(record);
+      return true;
+    }
+  }
+
+  /**
+   * Unlike {@link #getRefCount(int)} accepts any record id and doesn't wait for the pending writes, as the count isn't written by them.
+   * @return false if there is no such record or nobody references it
+   */
+  public boolean isReferenced(int record) {
+    synchronized (myLock) {
+      return record > 0 && record <= myRecordsTable.getRecordsCount() && ((RefCountingRecordsTable)myRecordsTable).getRefCount(record) > 0;
+    }
+  }
+
   public void releaseRecord(int record) throws IOException {
     waitForPendingWriteForRecord(record);
     synchronized (myLock) {
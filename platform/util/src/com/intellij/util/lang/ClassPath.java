@@ -208,7 +208,7 @@ public class ClassPath {
       }
     }
     else {
-      JarLoader jarLoader = new JarLoader(url, myCanLockJars, index);
+      JarLoader jarLoader = new JarLoader(url, myCanLockJars, index, myCanUseCache);
       jarLoader.preLoadClasses();
       loader = jarLoader;
     }
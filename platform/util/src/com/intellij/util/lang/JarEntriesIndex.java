@@ -0,0 +1,184 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Entry names of a jar stored in the system directory, so that {@link ClasspathCache} can be filled on the next start
+ * without opening the jar. The stored index is used only while the path, the length and the modification time of the jar
+ * are the same as when it was written. Index files which were not used for a month, e.g. of removed or moved jars, are deleted.
+ * <p/>
+ * Can be turned off with <code>-Didea.classpath.index=false</code>.
+ */
+class JarEntriesIndex {
+  private static final int VERSION = 1;
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+  private static final long STALE_AGE = 30 * DAY;
+  private static final long STALE_TEMP_AGE = 60 * 60 * 1000L;
+  private static final boolean ourEnabled = !"false".equals(System.getProperty("idea.classpath.index"));
+  private static File ourIndexDir;
+  private static boolean ourIndexDirComputed;
+
+  private final boolean myHasPreloadedClasses;
+  private final String[] myNames;
+
+  JarEntriesIndex(@NotNull String[] names, boolean hasPreloadedClasses) {
+    myNames = names;
+    myHasPreloadedClasses = hasPreloadedClasses;
+  }
+
+  @NotNull
+  String[] getNames() {
+    return myNames;
+  }
+
+  /**
+   * @return whether the jar starts with the classes to be loaded into memory, see {@link JarMemoryLoader}
+   */
+  boolean hasPreloadedClasses() {
+    return myHasPreloadedClasses;
+  }
+
+  @Nullable
+  static JarEntriesIndex load(@NotNull File jar) {
+    File indexFile = getIndexFile(jar);
+    if (indexFile == null || !indexFile.isFile()) return null;
+    JarEntriesIndex index;
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        if (input.readInt() != VERSION ||
+            !input.readUTF().equals(jar.getPath()) ||
+            input.readLong() != jar.length() ||
+            input.readLong() != jar.lastModified()) {
+          return null;
+        }
+        boolean hasPreloadedClasses = input.readBoolean();
+        String[] names = new String[input.readInt()];
+        for (int i = 0; i < names.length; i++) {
+          names[i] = input.readUTF();
+        }
+        index = new JarEntriesIndex(names, hasPreloadedClasses);
+      }
+      finally {
+        input.close();
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+
+    // the modification time tells the used index files from the stale ones, see deleteStaleFiles()
+    long now = System.currentTimeMillis();
+    if (indexFile.lastModified() < now - DAY) {
+      //noinspection ResultOfMethodCallIgnored
+      indexFile.setLastModified(now);
+    }
+    return index;
+  }
+
+  static void save(@NotNull File jar, @NotNull List<String> names, boolean hasPreloadedClasses) {
+    File indexFile = getIndexFile(jar);
+    if (indexFile == null) return;
+    // several instances may be started at once, so the index is written aside and then renamed
+    File tempFile = new File(indexFile.getPath() + "." + System.nanoTime() + TEMP_SUFFIX);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeUTF(jar.getPath());
+        output.writeLong(jar.length());
+        output.writeLong(jar.lastModified());
+        output.writeBoolean(hasPreloadedClasses);
+        output.writeInt(names.size());
+        for (String name : names) {
+          output.writeUTF(name);
+        }
+      }
+      finally {
+        output.close();
+      }
+      if (!tempFile.renameTo(indexFile)) {
+        FileUtil.delete(indexFile);
+        tempFile.renameTo(indexFile);
+      }
+    }
+    catch (IOException ignored) {
+    }
+    finally {
+      if (tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  @Nullable
+  private static File getIndexFile(@NotNull File jar) {
+    File dir = getIndexDir();
+    if (dir == null) return null;
+    return new File(dir, jar.getName() + "." + Integer.toHexString(jar.getPath().hashCode()));
+  }
+
+  @Nullable
+  private static synchronized File getIndexDir() {
+    if (!ourIndexDirComputed) {
+      ourIndexDirComputed = true;
+      if (ourEnabled) {
+        try {
+          File dir = new File(PathManager.getSystemPath(), "classpath.index");
+          if (dir.isDirectory() || dir.mkdirs()) {
+            ourIndexDir = dir;
+            deleteStaleFiles(dir);
+          }
+        }
+        catch (Throwable ignored) {
+          // no system directory outside of the IDE
+        }
+      }
+    }
+    return ourIndexDir;
+  }
+
+  /**
+   * Deletes the index files which were not loaded for {@link #STALE_AGE} and the temporary files left by crashed instances
+   */
+  static void deleteStaleFiles(@NotNull File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    long now = System.currentTimeMillis();
+    for (File file : files) {
+      long maxAge = file.getName().endsWith(TEMP_SUFFIX) ? STALE_TEMP_AGE : STALE_AGE;
+      if (file.lastModified() < now - maxAge) {
+        FileUtil.delete(file);
+      }
+    }
+  }
+
+  @TestOnly
+  static synchronized void setIndexDir(@Nullable File dir) {
+    ourIndexDir = dir;
+    ourIndexDirComputed = true;
+  }
+}
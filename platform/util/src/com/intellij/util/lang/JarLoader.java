@@ -27,7 +27,9 @@ import sun.misc.Resource;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -35,6 +37,8 @@ class JarLoader extends Loader {
   private final URL myURL;
   private SoftReference<JarMemoryLoader> myMemoryLoader;
   private final boolean myCanLockJar;
+  private final boolean myUseIndex;
+  private JarEntriesIndex myEntriesIndex; // read in preLoadClasses() and dropped once the cache is built
   private static final boolean myDebugTime = false;
   private static int misses;
   private static int hits;
@@ -60,19 +64,34 @@ class JarLoader extends Loader {
   private static final long NS_THRESHOLD = 10000000;
 
   JarLoader(URL url, boolean canLockJar, int index) throws IOException {
+    this(url, canLockJar, index, false);
+  }
+
+  JarLoader(URL url, boolean canLockJar, int index, boolean useIndex) throws IOException {
     super(new URL(JAR_PROTOCOL, "", -1, url + "!/"), index);
     myURL = url;
     myCanLockJar = canLockJar;
+    myUseIndex = useIndex && FILE_PROTOCOL.equals(url.getProtocol());
   }
 
   void preLoadClasses() {
+    if (myUseIndex) {
+      myEntriesIndex = JarEntriesIndex.load(getJarFile());
+      if (myEntriesIndex != null && !myEntriesIndex.hasPreloadedClasses()) {
+        // nothing to preload, the jar will be opened on the first request
+        return;
+      }
+    }
     ZipFile zipFile = null;
     try {
       zipFile = acquireZipFile();
       if (zipFile == null) return;
       try {
         File file = new File(zipFile.getName());
-        myMemoryLoader = new SoftReference<JarMemoryLoader>(JarMemoryLoader.load(file, getBaseURL()));
+        JarMemoryLoader memoryLoader = JarMemoryLoader.load(file, getBaseURL());
+        if (memoryLoader != null) {
+          myMemoryLoader = new SoftReference<JarMemoryLoader>(memoryLoader);
+        }
       }
       catch (Exception e) {
         LOG.error(e);
@@ -123,7 +142,23 @@ class JarLoader extends Loader {
     return null;
   }
 
+  @NotNull
+  private File getJarFile() {
+    return new File(FileUtil.unquote(myURL.getFile()));
+  }
+
   void buildCache(final ClasspathCache cache) throws IOException {
+    JarEntriesIndex index = myEntriesIndex;
+    myEntriesIndex = null;
+    if (index != null) {
+      for (String name : index.getNames()) {
+        cache.addResourceEntry(name, this);
+        cache.addNameEntry(name, this);
+      }
+      return;
+    }
+
+    List<String> names = myUseIndex ? new ArrayList<String>() : null;
     ZipFile zipFile = null;
     try {
       zipFile = acquireZipFile();
@@ -135,11 +170,16 @@ class JarLoader extends Loader {
         String name = zipEntry.getName();
         cache.addResourceEntry(name, this);
         cache.addNameEntry(name, this);
+        if (names != null) names.add(name);
       }
     }
     finally {
       releaseZipFile(zipFile);
     }
+
+    if (names != null) {
+      JarEntriesIndex.save(getJarFile(), names, myMemoryLoader != null);
+    }
   }
 
   @Nullable
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds occurrences of several patterns in a single pass over the text (Aho-Corasick automaton).
+ * <p/>
+ * The patterns are given as forward {@link StringSearcher}s, each of them keeps its own case sensitivity.
+ * Instances are immutable and may be shared between threads.
+ */
+public class MultiStringSearcher {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.text.MultiStringSearcher");
+
+  private final StringSearcher[] mySearchers;
+  private final TIntIntHashMap[] myTransitions; // lower-cased char -> state
+  private final int[] myFailures;
+  private final int[][] myOutputs; // searchers whose pattern ends in the state
+
+  public interface OccurrenceProcessor {
+    /**
+     * @param searcherIndex index of the searcher which pattern has been found
+     * @param offset        start offset of the occurrence in the text
+     * @return false to stop the search
+     */
+    boolean process(int searcherIndex, int offset);
+  }
+
+  public MultiStringSearcher(@NotNull List<StringSearcher> searchers) {
+    mySearchers = searchers.toArray(new StringSearcher[searchers.size()]);
+
+    List<TIntIntHashMap> transitions = new ArrayList<TIntIntHashMap>();
+    List<TIntArrayList> outputs = new ArrayList<TIntArrayList>();
+    transitions.add(new TIntIntHashMap());
+    outputs.add(new TIntArrayList());
+    for (int i = 0; i < mySearchers.length; i++) {
+      StringSearcher searcher = mySearchers[i];
+      LOG.assertTrue(searcher.isForwardDirection(), searcher.getPattern());
+      String pattern = searcher.getPattern();
+      int state = 0;
+      for (int j = 0; j < pattern.length(); j++) {
+        char c = StringUtil.toLowerCase(pattern.charAt(j));
+        int next = transitions.get(state).get(c);
+        if (next == 0) {
+          next = transitions.size();
+          transitions.add(new TIntIntHashMap());
+          outputs.add(new TIntArrayList());
+          transitions.get(state).put(c, next);
+        }
+        state = next;
+      }
+      outputs.get(state).add(i);
+    }
+
+    int count = transitions.size();
+    myTransitions = transitions.toArray(new TIntIntHashMap[count]);
+    myFailures = new int[count];
+    myOutputs = new int[count][];
+
+    // breadth-first, so the failure state of a parent is always known before its children
+    int[] queue = new int[count];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = 0;
+    myOutputs[0] = ArrayUtil.EMPTY_INT_ARRAY;
+    while (head < tail) {
+      final int state = queue[head++];
+      for (int c : myTransitions[state].keys()) {
+        int child = myTransitions[state].get(c);
+        int failure = 0;
+        if (state != 0) {
+          int fallback = myFailures[state];
+          while (fallback != 0 && !myTransitions[fallback].containsKey(c)) {
+            fallback = myFailures[fallback];
+          }
+          failure = myTransitions[fallback].get(c);
+        }
+        myFailures[child] = failure;
+
+        TIntArrayList output = outputs.get(child);
+        output.add(myOutputs[failure]);
+        myOutputs[child] = output.toNativeArray();
+        queue[tail++] = child;
+      }
+    }
+  }
+
+  public int getSearcherCount() {
+    return mySearchers.length;
+  }
+
+  @NotNull
+  public StringSearcher getSearcher(int index) {
+    return mySearchers[index];
+  }
+
+  /**
+   * Reports occurrences of all patterns which lie within [start, end) in the order of their end offsets.
+   * @return false if the processor has stopped the search
+   */
+  public boolean processOccurrences(@NotNull CharSequence text, int start, int end, @NotNull OccurrenceProcessor processor) {
+    LOG.assertTrue(start <= end, start - end);
+    LOG.assertTrue(end <= text.length(), text.length() - end);
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      char c = StringUtil.toLowerCase(text.charAt(i));
+      int next = myTransitions[state].get(c);
+      while (next == 0 && state != 0) {
+        state = myFailures[state];
+        next = myTransitions[state].get(c);
+      }
+      state = next;
+
+      for (int index : myOutputs[state]) {
+        StringSearcher searcher = mySearchers[index];
+        int offset = i - searcher.getPattern().length() + 1;
+        if (searcher.isCaseSensitive() && !matchesExactly(text, offset, searcher.getPattern())) continue;
+        if (!processor.process(index, offset)) return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesExactly(@NotNull CharSequence text, int offset, @NotNull String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      if (text.charAt(offset + i) != pattern.charAt(i)) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures read lock acquire/release throughput of the application lock implementations at 1 to 32 threads.
+ * The number of read actions per thread may be changed with <code>-Dread.lock.benchmark.iterations=10000000</code>.
+ */
+public class ReadWriteLockPerformanceTest extends TestCase {
+  private static final int ITERATIONS = Integer.getInteger("read.lock.benchmark.iterations", 1000000);
+
+  public void testReadLockThroughput() throws Exception {
+    for (int threads = 1; threads <= 32; threads <<= 1) {
+      long old = measure(new ReentrantWriterPreferenceReadWriteLock(), threads);
+      long biased = measure(new ReaderBiasedReadWriteLock(), threads);
+      System.out.println(threads + " threads, read actions per ms: " +
+                         "writer-preference " + throughput(threads, old) + ", reader-biased " + throughput(threads, biased));
+    }
+  }
+
+  private static long throughput(int threads, long ms) {
+    return (long)threads * ITERATIONS / Math.max(1, ms);
+  }
+
+  private static long measure(final ReadWriteLock lock, int threadCount) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            Sync readLock = lock.readLock();
+            for (int i = 0; i < ITERATIONS; i++) {
+              readLock.acquire();
+              readLock.release();
+            }
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    long begin = System.currentTimeMillis();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.currentTimeMillis() - begin;
+  }
+}
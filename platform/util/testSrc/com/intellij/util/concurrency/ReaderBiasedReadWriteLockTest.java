@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReaderBiasedReadWriteLockTest extends TestCase {
+  private final ReaderBiasedReadWriteLock myLock = new ReaderBiasedReadWriteLock();
+
+  public void testReentrancy() throws InterruptedException {
+    myLock.readLock().acquire();
+    myLock.readLock().acquire();
+    assertTrue(myLock.isReadLockAcquired());
+    // the only reader may become a writer
+    assertTrue(myLock.writeLock().attempt(0));
+    assertTrue(myLock.writeLock().attempt(0));
+    assertTrue(myLock.isWriteLockAcquired());
+    myLock.writeLock().release();
+    myLock.writeLock().release();
+    assertFalse(myLock.isWriteLockAcquired());
+    myLock.readLock().release();
+    myLock.readLock().release();
+    assertFalse(myLock.isReadLockAcquired());
+  }
+
+  public void testWriterWaitsForReaders() throws Exception {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch finishRead = new CountDownLatch(1);
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          myLock.readLock().acquire();
+          readStarted.countDown();
+          finishRead.await();
+          myLock.readLock().release();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    reader.start();
+    readStarted.await();
+
+    assertFalse(myLock.writeLock().attempt(0));
+    assertFalse(myLock.writeLock().attempt(50));
+    // the failed attempts must not keep the readers off
+    assertTrue(runInOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          assertTrue(myLock.readLock().attempt(0));
+          myLock.readLock().release();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }));
+
+    finishRead.countDown();
+    myLock.writeLock().acquire();
+    assertTrue(myLock.isWriteLockAcquired());
+    myLock.writeLock().release();
+    reader.join();
+  }
+
+  public void testReadersWaitForWriter() throws Exception {
+    myLock.writeLock().acquire();
+    final AtomicBoolean acquired = new AtomicBoolean();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          assertFalse(myLock.readLock().attempt(0));
+          myLock.readLock().acquire();
+          acquired.set(true);
+          myLock.readLock().release();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    reader.start();
+    reader.join(100);
+    assertFalse(acquired.get());
+    // the writer may read
+    myLock.readLock().acquire();
+    myLock.readLock().release();
+
+    myLock.writeLock().release();
+    reader.join();
+    assertTrue(acquired.get());
+  }
+
+  public void testReadersAndWritersAreExclusive() throws Exception {
+    final AtomicInteger readers = new AtomicInteger();
+    final AtomicInteger writers = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final boolean writer = t < 2;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 20000; i++) {
+              Sync sync = writer ? myLock.writeLock() : myLock.readLock();
+              sync.acquire();
+              int w = writer ? writers.incrementAndGet() : writers.get();
+              int r = writer ? readers.get() : readers.incrementAndGet();
+              if (writer ? w != 1 || r != 0 : w != 0) failed.set(true);
+              if (writer) writers.decrementAndGet(); else readers.decrementAndGet();
+              sync.release();
+            }
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed.get());
+  }
+
+  private static boolean runInOtherThread(final Runnable runnable) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runnable.run();
+        done.countDown();
+      }
+    });
+    thread.start();
+    return done.await(10, TimeUnit.SECONDS);
+  }
+}
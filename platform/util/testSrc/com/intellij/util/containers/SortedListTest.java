@@ -17,7 +17,9 @@ package com.intellij.util.containers;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 
 /**
@@ -83,6 +85,24 @@ public class SortedListTest extends TestCase {
     assertEquals("d", list.get(3));
   }
 
+  public void testIterateSorted() {
+    final SortedList<String> list = createList();
+    list.add("c");
+    list.add("B");
+    list.add("b");
+    list.add("a");
+    final List<String> sorted = new ArrayList<String>();
+    for (String s : list.iterateSorted()) {
+      sorted.add(s);
+    }
+    assertEquals(list, sorted);
+    assertEquals("a", sorted.get(0));
+    assertEquals("c", sorted.get(3));
+
+    list.clear();
+    assertFalse(list.iterateSorted().iterator().hasNext());
+  }
+
   private static SortedList<String> createList() {
     return new SortedList<String>(String.CASE_INSENSITIVE_ORDER);
   }
@@ -15,10 +15,14 @@
  */
 package com.intellij.util.diff;
 
+import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.util.ArrayUtil;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 /**
  * @author dyoma
@@ -85,4 +89,78 @@ public class DiffTest extends TestCase {
     System.out.println("Duration: " +(System.currentTimeMillis() - start));
   }
 
+  public void testTooManyChangesForIntLCS() throws FilesTooBigForDiffException {
+    String before = generateText(new Random(239), 60 * 1024, 0);
+    String after = modify(new Random(42), before, 3, 0);
+    checkApplied(before, after, Diff.buildChanges(before, after));
+  }
+
+  /**
+   * Synthetic texts of 1 KB to 1 MB (to 50 MB with -Didea.diff.benchmark=true), half of the lines are unique like in source code.
+   */
+  public void testLinearSpacePerformance() throws FilesTooBigForDiffException {
+    int maxSize = Boolean.getBoolean("idea.diff.benchmark") ? 50 * 1024 * 1024 : 1024 * 1024;
+    for (int size : new int[]{1024, 10 * 1024, 100 * 1024, 1024 * 1024, 10 * 1024 * 1024, 50 * 1024 * 1024}) {
+      if (size > maxSize) break;
+      String before = generateText(new Random(size), size, size);
+      for (int period : new int[]{3, 100}) {
+        String after = modify(new Random(period), before, period, size);
+        long start = System.currentTimeMillis();
+        Diff.Change change = Diff.buildChanges(before, after);
+        System.out.println("Size: " + size / 1024 + " KB, every " + period + " line changed, duration: " + (System.currentTimeMillis() - start));
+        checkApplied(before, after, change);
+      }
+    }
+  }
+
+  private static String generateText(Random random, int size, int uniqueRange) {
+    StringBuilder result = new StringBuilder(size + 100);
+    while (result.length() < size) {
+      result.append(generateLine(random, uniqueRange)).append('\n');
+    }
+    return result.toString();
+  }
+
+  private static String generateLine(Random random, int uniqueRange) {
+    if (uniqueRange > 0 && random.nextBoolean()) {
+      return "line" + random.nextInt(uniqueRange);
+    }
+    return "}" + random.nextInt(10);
+  }
+
+  private static String modify(Random random, String text, int period, int uniqueRange) {
+    String[] lines = LineTokenizer.tokenize(text, false);
+    StringBuilder result = new StringBuilder(text.length());
+    for (int i = 0; i < lines.length; i++) {
+      if (i % period == 0) {
+        switch (random.nextInt(3)) {
+          case 0:
+            continue;
+          case 1:
+            result.append(generateLine(random, uniqueRange)).append('\n');
+            break;
+          default:
+            result.append(generateLine(random, uniqueRange)).append('\n');
+            continue;
+        }
+      }
+      result.append(lines[i]).append('\n');
+    }
+    return result.toString();
+  }
+
+  private static void checkApplied(String before, String after, Diff.Change change) {
+    String[] lines1 = LineTokenizer.tokenize(before, false);
+    String[] lines2 = LineTokenizer.tokenize(after, false);
+    List<String> result = new ArrayList<String>();
+    int line = 0;
+    for (Diff.Change current = change; current != null; current = current.link) {
+      assertTrue(current.line0 >= line);
+      result.addAll(Arrays.asList(lines1).subList(line, current.line0));
+      result.addAll(Arrays.asList(lines2).subList(current.line1, current.line1 + current.inserted));
+      line = current.line0 + current.deleted;
+    }
+    result.addAll(Arrays.asList(lines1).subList(line, lines1.length));
+    assertEquals(Arrays.asList(lines2), result);
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class MyersLCSTest extends TestCase {
+  public void testEqual() {
+    boolean[][] changes = execute(new int[]{1, 2, 3}, new int[]{1, 2, 3});
+    assertEquals(0, countChanged(changes));
+  }
+
+  public void testCompletelyDifferent() {
+    boolean[][] changes = execute(new int[]{1, 2}, new int[]{3, 4, 5});
+    assertEquals(5, countChanged(changes));
+  }
+
+  public void testEmpty() {
+    assertEquals(2, countChanged(execute(new int[]{1, 2}, new int[0])));
+    assertEquals(3, countChanged(execute(new int[0], new int[]{1, 2, 3})));
+  }
+
+  public void testSameAsIntLCS() throws FilesTooBigForDiffException {
+    Random random = new Random(239);
+    for (int i = 0; i < 1000; i++) {
+      int[] first = generate(random, random.nextInt(30), 5);
+      int[] second = generate(random, random.nextInt(30), 5);
+
+      boolean[][] changes = execute(first, second);
+      checkEqualParts(first, second, changes);
+      assertEquals(new IntLCS(first, second).execute(), countChanged(changes));
+    }
+  }
+
+  public void testDeadlineGivesCorrectResult() {
+    Random random = new Random(239);
+    int[] first = generate(random, 1000, 10);
+    int[] second = generate(random, 1000, 10);
+
+    MyersLCS lcs = new MyersLCS(first, second, 0);
+    lcs.execute();
+    checkEqualParts(first, second, lcs.getChanges());
+  }
+
+  private static boolean[][] execute(int[] first, int[] second) {
+    MyersLCS lcs = new MyersLCS(first, second, Long.MAX_VALUE);
+    lcs.execute();
+    return lcs.getChanges();
+  }
+
+  private static int[] generate(Random random, int length, int range) {
+    int[] result = new int[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = random.nextInt(range) + 1;
+    }
+    return result;
+  }
+
+  private static int countChanged(boolean[][] changes) {
+    int result = 0;
+    for (boolean[] array : changes) {
+      for (boolean changed : array) {
+        if (changed) result++;
+      }
+    }
+    return result;
+  }
+
+  private static void checkEqualParts(int[] first, int[] second, boolean[][] changes) {
+    int j = 0;
+    for (int i = 0; i < first.length; i++) {
+      if (changes[0][i]) continue;
+      while (changes[1][j]) j++;
+      assertEquals(first[i], second[j]);
+      j++;
+    }
+    while (j < second.length) assertTrue(changes[1][j++]);
+  }
+}
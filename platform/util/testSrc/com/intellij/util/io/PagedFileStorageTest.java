@@ -71,6 +71,39 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testPageStatistics() throws IOException {
+    synchronized (lock) {
+      File f2 = FileUtil.createTempFile("storage2", ".tmp");
+      PagedFileStorage s2 = new PagedFileStorage(f2, lock, Page.PAGE_SIZE, false);
+      try {
+        s.resize(Page.PAGE_SIZE * 4);
+        s2.resize(Page.PAGE_SIZE * 4);
+        long misses = s2.getPageMisses();
+
+        for (int i = 0; i < 4; i++) {
+          s2.putInt(i * Page.PAGE_SIZE, i);
+          s.putInt(i, i);
+        }
+        for (int i = 0; i < 4; i++) {
+          assertEquals(i, s2.getInt(i * Page.PAGE_SIZE));
+        }
+        assertEquals(misses, s2.getPageMisses());
+        assertTrue(s2.getPageHits() >= 8);
+        assertEquals(0, s2.getPageEvictions());
+
+        s2.close();
+        assertEquals(3, s.getInt(3));
+        s2 = new PagedFileStorage(f2, lock, Page.PAGE_SIZE, false);
+        assertEquals(2, s2.getInt(2 * Page.PAGE_SIZE));
+        assertEquals(1, s2.getPageMisses());
+      }
+      finally {
+        s2.close();
+        assertTrue(f2.delete());
+      }
+    }
+  }
+
   public void testResizeableMappedFile() throws Exception {
     synchronized (lock) {
       ResizeableMappedFile file = new ResizeableMappedFile(f, 2000000, lock);
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import sun.misc.Resource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class JarEntriesIndexTest extends TestCase {
+  private static final String[] NAMES = {"a/", "a/B.class", "a/res.txt"};
+  private File myDir;
+  private File myIndexDir;
+  private File myJar;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("jarIndex", null);
+    myIndexDir = new File(myDir, "classpath.index");
+    assertTrue(myIndexDir.mkdirs());
+    JarEntriesIndex.setIndexDir(myIndexDir);
+    myJar = new File(myDir, "test.jar");
+    writeJar(myJar, "content");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    JarEntriesIndex.setIndexDir(null);
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testSaveAndLoad() {
+    JarEntriesIndex.save(myJar, Arrays.asList(NAMES), true);
+
+    JarEntriesIndex index = JarEntriesIndex.load(myJar);
+    assertNotNull(index);
+    assertTrue(Arrays.equals(NAMES, index.getNames()));
+    assertTrue(index.hasPreloadedClasses());
+    assertNull(JarEntriesIndex.load(new File(myDir, "other.jar")));
+  }
+
+  public void testLengthChangeInvalidates() throws IOException {
+    JarEntriesIndex.save(myJar, Arrays.asList(NAMES), false);
+    long lastModified = myJar.lastModified();
+
+    writeJar(myJar, "longer content");
+    assertTrue(myJar.setLastModified(lastModified));
+    assertNull(JarEntriesIndex.load(myJar));
+  }
+
+  public void testModificationTimeChangeInvalidates() {
+    JarEntriesIndex.save(myJar, Arrays.asList(NAMES), false);
+
+    assertTrue(myJar.setLastModified(myJar.lastModified() - 10000));
+    assertNull(JarEntriesIndex.load(myJar));
+  }
+
+  public void testJarIsNotOpenedWhenIndexed() throws IOException {
+    JarLoader loader = createLoader();
+    loader.preLoadClasses();
+    loader.buildCache(new ClasspathCache());
+    assertEquals(1, myIndexDir.listFiles().length);
+
+    // the same length and time, but not a zip anymore: the cache can only be built from the index
+    long lastModified = myJar.lastModified();
+    RandomAccessFile file = new RandomAccessFile(myJar, "rw");
+    try {
+      file.write(new byte[(int)file.length()]);
+    }
+    finally {
+      file.close();
+    }
+    assertTrue(myJar.setLastModified(lastModified));
+
+    JarLoader indexed = createLoader();
+    indexed.preLoadClasses();
+    ClasspathCache cache = new ClasspathCache();
+    indexed.buildCache(cache);
+    for (String name : NAMES) {
+      assertTrue(name, cache.loaderHasName(name, indexed));
+    }
+  }
+
+  public void testJarIsOpenedOnFirstRequest() throws IOException {
+    createLoader().buildCache(new ClasspathCache());
+
+    JarLoader indexed = createLoader();
+    indexed.preLoadClasses();
+    indexed.buildCache(new ClasspathCache());
+    Resource resource = indexed.getResource("a/res.txt", false);
+    assertNotNull(resource);
+    assertEquals("content", new String(resource.getBytes()));
+  }
+
+  public void testStaleFilesDeleted() throws IOException {
+    JarEntriesIndex.save(myJar, Arrays.asList(NAMES), false);
+    File used = myIndexDir.listFiles()[0];
+    File stale = new File(myIndexDir, "removed.jar.1234");
+    File recentTemp = new File(myIndexDir, "test.jar.1234.5678.tmp");
+    File staleTemp = new File(myIndexDir, "test.jar.1234.1234.tmp");
+    for (File file : new File[]{stale, recentTemp, staleTemp}) {
+      assertTrue(file.createNewFile());
+    }
+    long now = System.currentTimeMillis();
+    assertTrue(stale.setLastModified(now - 31 * 24 * 60 * 60 * 1000L));
+    assertTrue(staleTemp.setLastModified(now - 2 * 60 * 60 * 1000L));
+    assertTrue(used.setLastModified(now - 31 * 24 * 60 * 60 * 1000L));
+
+    // loading marks the index file as used
+    assertNotNull(JarEntriesIndex.load(myJar));
+    JarEntriesIndex.deleteStaleFiles(myIndexDir);
+
+    assertTrue(used.exists());
+    assertTrue(recentTemp.exists());
+    assertFalse(stale.exists());
+    assertFalse(staleTemp.exists());
+  }
+
+  private JarLoader createLoader() throws IOException {
+    return new JarLoader(myJar.toURI().toURL(), false, 0, true);
+  }
+
+  private static void writeJar(File jar, String content) throws IOException {
+    ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      for (String name : NAMES) {
+        output.putNextEntry(new ZipEntry(name));
+        if (name.equals("a/res.txt")) {
+          output.write(content.getBytes());
+        }
+        output.closeEntry();
+      }
+    }
+    finally {
+      output.close();
+    }
+  }
+}
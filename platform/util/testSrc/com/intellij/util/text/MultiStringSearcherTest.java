@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MultiStringSearcherTest extends TestCase {
+  public void testOverlappingPatterns() {
+    MultiStringSearcher searcher = createSearcher(true, "he", "she", "his", "hers");
+    assertEquals("1:1 0:2 3:2 2:12", scan(searcher, "ushers and this", 0));
+  }
+
+  public void testCaseSensitivity() {
+    MultiStringSearcher searcher = new MultiStringSearcher(Arrays.asList(new StringSearcher("Foo", true, true),
+                                                                         new StringSearcher("foo", false, true)));
+    assertEquals("0:0 1:0 1:4 1:8", scan(searcher, "Foo foo FOO", 0));
+  }
+
+  public void testRange() {
+    MultiStringSearcher searcher = createSearcher(true, "ab");
+    assertEquals("0:3", scan(searcher, "ab ab ab", 2, 7));
+  }
+
+  public void testStop() {
+    MultiStringSearcher searcher = createSearcher(true, "a");
+    final List<Integer> found = new ArrayList<Integer>();
+    assertFalse(searcher.processOccurrences("aaa", 0, 3, new MultiStringSearcher.OccurrenceProcessor() {
+      @Override
+      public boolean process(int searcherIndex, int offset) {
+        found.add(offset);
+        return offset < 1;
+      }
+    }));
+    assertEquals(Arrays.asList(0, 1), found);
+  }
+
+  private static MultiStringSearcher createSearcher(boolean caseSensitive, String... patterns) {
+    List<StringSearcher> searchers = new ArrayList<StringSearcher>();
+    for (String pattern : patterns) {
+      searchers.add(new StringSearcher(pattern, caseSensitive, true));
+    }
+    return new MultiStringSearcher(searchers);
+  }
+
+  private static String scan(MultiStringSearcher searcher, String text, int start) {
+    return scan(searcher, text, start, text.length());
+  }
+
+  private static String scan(MultiStringSearcher searcher, String text, int start, int end) {
+    final StringBuilder result = new StringBuilder();
+    searcher.processOccurrences(text, start, end, new MultiStringSearcher.OccurrenceProcessor() {
+      @Override
+      public boolean process(int searcherIndex, int offset) {
+        if (result.length() > 0) result.append(' ');
+        result.append(searcherIndex).append(':').append(offset);
+        return true;
+      }
+    });
+    return result.toString();
+  }
+}